@@ -0,0 +1,58 @@
+package com.example.nvr.utils;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.nvr.metrics.TimeSeriesStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// 在设备的真实数据库上写入再读回时序数据；样本放在纪元附近，测试结束按时间清理，不碰正常数据
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperTimeSeriesTest {
+
+    private static final long BASE = 10 * TimeSeriesStore.RESOLUTION_MINUTE;
+    private static final long END = BASE + TimeSeriesStore.RESOLUTION_MINUTE;
+
+    private DatabaseHelper databaseHelper;
+    private String metric;
+
+    @Before
+    public void setUp() {
+        databaseHelper = DatabaseHelper.getInstance(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        metric = "test_metric_" + System.nanoTime();
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.pruneTimeSeries(END, END, END, END);
+    }
+
+    @Test
+    public void readsBackSamplesWithoutCamera() {
+        databaseHelper.writeTimeSeries(Collections.<TimeSeriesStore.Event>emptyList(),
+                Collections.singletonList(new TimeSeriesStore.Sample(null, metric, BASE + 1000, 42.5)),
+                Collections.singletonList(new TimeSeriesStore.Point(null, metric,
+                        TimeSeriesStore.RESOLUTION_MINUTE, BASE, 1, 42.5, 42.5, 42.5)));
+
+        List<TimeSeriesStore.Point> raw = databaseHelper.queryMetric(null, metric,
+                TimeSeriesStore.RESOLUTION_RAW, BASE, END);
+        assertEquals(1, raw.size());
+        assertEquals(BASE + 1000, raw.get(0).bucketStart);
+        assertEquals(42.5, raw.get(0).getAverage(), 0);
+
+        List<TimeSeriesStore.Point> minutes = databaseHelper.queryMetric(null, metric,
+                TimeSeriesStore.RESOLUTION_MINUTE, BASE, END);
+        assertEquals(1, minutes.size());
+        assertEquals(1, minutes.get(0).count);
+        assertEquals(42.5, minutes.get(0).getAverage(), 0);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.nvr.benchmark;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import com.example.nvr.R;
+import com.example.nvr.service.RecordingService;
+
+import java.io.File;
+import java.io.IOException;
+
+// 调试版专用：暂停正常录制，跑完录制管线扩展性测试后恢复，报告写入应用外部文件目录的 benchmarks 下。
+// 服务不导出，由设置页启动；命令行需要以 root 运行 adb（模拟器或 userdebug 设备，先执行 adb root）：
+//   adb shell am start-foreground-service -n com.example.nvr/.benchmark.BenchmarkService --es stages 1,4,8
+public class BenchmarkService extends Service {
+
+    private static final String TAG = "BenchmarkService";
+    private static final String CHANNEL_ID = "NVR_BENCHMARK_CHANNEL";
+    private static final int NOTIFICATION_ID = 2;
+
+    // 逗号分隔的摄像头路数，如 "1,4,8"；缺省时跑全部级别
+    public static final String EXTRA_STAGES = "stages";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 只在主线程访问
+    private PipelineBenchmark benchmark;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "NVR Benchmark",
+                    NotificationManager.IMPORTANCE_LOW);
+            getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("NVR应用")
+                .setContentText("正在进行录制性能测试...")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        if (benchmark != null) {
+            Log.w(TAG, "Benchmark already running");
+            return START_NOT_STICKY;
+        }
+        String stages = intent != null ? intent.getStringExtra(EXTRA_STAGES) : null;
+        RecordingService.pause(this);
+        final PipelineBenchmark current = new PipelineBenchmark(this).setStages(PipelineBenchmark.parseStages(stages));
+        benchmark = current;
+        Thread thread = new Thread(() -> {
+            String message;
+            try {
+                File report = current.run(progress -> Log.d(TAG, progress));
+                message = "性能测试完成：" + report.getAbsolutePath();
+            } catch (IOException e) {
+                Log.e(TAG, "Benchmark failed", e);
+                message = "性能测试失败：" + e.getMessage();
+            } catch (InterruptedException e) {
+                message = "性能测试已取消";
+            }
+            final String result = message;
+            mainHandler.post(() -> onBenchmarkFinished(current, result));
+        }, "pipeline-benchmark");
+        thread.start();
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (benchmark != null) {
+            benchmark.cancel();
+            benchmark = null;
+            RecordingService.resume(this);
+        }
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void onBenchmarkFinished(PipelineBenchmark finished, String message) {
+        if (benchmark != finished) {
+            // 服务已销毁，录制已在 onDestroy 中恢复
+            return;
+        }
+        benchmark = null;
+        RecordingService.resume(this);
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        stopSelf();
+    }
+}
@@ -0,0 +1,404 @@
+package com.example.nvr.benchmark;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.metrics.LatencyHistogram;
+import com.example.nvr.metrics.LatencyTracker;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.metrics.TimeSeriesStore;
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.recording.CameraRecorder;
+import com.example.nvr.recording.StreamRecorder;
+import com.example.nvr.relay.RelayHub;
+import com.example.nvr.simulator.CameraProfile;
+import com.example.nvr.simulator.SimulatorServer;
+import com.example.nvr.snapshot.SnapshotService;
+import com.example.nvr.timeline.CoverageTimeline;
+import com.example.nvr.utils.DatabaseHelper;
+import com.example.nvr.utils.StorageManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// 录制管线的并发扩展性测试：进程内模拟器提供 N 路摄像头，直接驱动真实的 CameraRecorder 写入存储，
+// 按 1/4/8/16/32/64 路逐级加压，每级预热后测量写入吞吐、丢帧、端到端延迟、CPU 和内存，
+// 结果写成 JSON 报告，便于不同版本、不同设备之间比较。调用方需要先停掉正常录制，结果才不受干扰
+public class PipelineBenchmark {
+
+    private static final String TAG = "PipelineBenchmark";
+
+    public static final int[] DEFAULT_STAGES = {1, 4, 8, 16, 32, 64};
+    private static final int DEFAULT_WARMUP_SECONDS = 10;
+    private static final int DEFAULT_MEASURE_SECONDS = 30;
+    // 丢帧超过这个比例即认为已饱和，更大的级别只会更差，不再继续
+    private static final double SATURATION_DROP_RATIO = 0.2;
+    private static final long SEGMENT_MILLIS = 60 * 1000;
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+    private static final long STOP_TIMEOUT_MS = 10000;
+    private static final String CAMERA_ID_PREFIX = "bench-";
+    private static final String REPORT_DIR = "benchmarks";
+
+    public interface Listener {
+        // 在测试线程上回调
+        void onProgress(String message);
+    }
+
+    // 单级测试的结果
+    private static final class StageResult {
+        int cameras;
+        double seconds;
+        long bytesWritten;
+        long framesExpected;
+        long framesRecorded;
+        long packetsReceived;
+        long packetsLost;
+        int recordersDown;
+        LatencyHistogram.Snapshot total;
+        LatencyHistogram.Snapshot write;
+        LatencyHistogram.Snapshot queue;
+        long cpuMillis;
+        long heapPeakBytes;
+        long nativePeakBytes;
+
+        double dropRatio() {
+            if (framesExpected <= 0) {
+                return 0;
+            }
+            return Math.max(0, framesExpected - framesRecorded) / (double) framesExpected;
+        }
+    }
+
+    private final Context context;
+    private final StorageManager storageManager;
+    private final DatabaseHelper databaseHelper;
+    private int[] stages = DEFAULT_STAGES;
+    private int warmupSeconds = DEFAULT_WARMUP_SECONDS;
+    private int measureSeconds = DEFAULT_MEASURE_SECONDS;
+    private CameraProfile profile = new CameraProfile()
+            .setResolution(1920, 1080)
+            .setFrameRate(25)
+            .setBitrateKbps(4000)
+            .setGopFrames(50);
+    private volatile boolean cancelled;
+
+    public PipelineBenchmark(Context context) {
+        this.context = context.getApplicationContext();
+        this.storageManager = new StorageManager(this.context);
+        this.databaseHelper = DatabaseHelper.getInstance(this.context);
+    }
+
+    public PipelineBenchmark setStages(int[] stages) {
+        this.stages = stages;
+        return this;
+    }
+
+    public PipelineBenchmark setDurations(int warmupSeconds, int measureSeconds) {
+        this.warmupSeconds = warmupSeconds;
+        this.measureSeconds = measureSeconds;
+        return this;
+    }
+
+    public PipelineBenchmark setProfile(CameraProfile profile) {
+        this.profile = profile.copy();
+        return this;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // 解析 "1,4,8" 形式的级别列表，格式不对时返回默认级别
+    public static int[] parseStages(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_STAGES;
+        }
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                result[i] = Integer.parseInt(parts[i].trim());
+                if (result[i] <= 0) {
+                    return DEFAULT_STAGES;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return DEFAULT_STAGES;
+        }
+        return result;
+    }
+
+    // 同步执行全部级别，返回报告文件；耗时为级别数 ×（预热 + 测量）再加收尾，不能在主线程调用
+    public File run(Listener listener) throws IOException, InterruptedException {
+        long startedMillis = System.currentTimeMillis();
+        List<StageResult> results = new ArrayList<>();
+        boolean saturated = false;
+        for (int cameras : stages) {
+            if (cancelled) {
+                break;
+            }
+            listener.onProgress("Benchmark: " + cameras + " cameras");
+            StageResult result = runStage(cameras);
+            results.add(result);
+            String summary = formatSummary(result);
+            Log.i(TAG, summary);
+            listener.onProgress(summary);
+            if (result.dropRatio() > SATURATION_DROP_RATIO) {
+                saturated = true;
+                Log.i(TAG, "Pipeline saturated at " + cameras + " cameras, skipping larger stages");
+                break;
+            }
+        }
+        File report = writeReport(startedMillis, results, saturated);
+        Log.i(TAG, "Benchmark report written to " + report.getAbsolutePath());
+        return report;
+    }
+
+    private StageResult runStage(int cameras) throws IOException, InterruptedException {
+        SimulatorServer server = new SimulatorServer(0);
+        for (int i = 0; i < cameras; i++) {
+            server.addCamera(profile.copy().setName("Benchmark " + (i + 1)).setSeed(i + 1));
+        }
+        server.start();
+        List<CameraRecorder> recorders = new ArrayList<>();
+        try {
+            for (int i = 0; i < cameras; i++) {
+                CameraDevice camera = new CameraDevice(CAMERA_ID_PREFIX + (i + 1), "Benchmark " + (i + 1),
+                        server.getUrl(i));
+                CameraRecorder recorder = new CameraRecorder(context, camera, camera.getRtspUrl(), SEGMENT_MILLIS);
+                recorders.add(recorder);
+                recorder.start();
+            }
+            Thread.sleep(warmupSeconds * 1000L);
+            return measure(recorders);
+        } finally {
+            for (CameraRecorder recorder : recorders) {
+                recorder.stop();
+            }
+            awaitStopped(recorders);
+            server.stop();
+            removeCameras(cameras);
+        }
+    }
+
+    // 预热结束时对各计数取基线，测量期间每秒采样一次内存峰值
+    private StageResult measure(List<CameraRecorder> recorders) throws InterruptedException {
+        LatencyTracker tracker = LatencyTracker.getInstance();
+        long[] bytesBase = new long[recorders.size()];
+        long[] framesBase = new long[recorders.size()];
+        long[] receivedBase = new long[recorders.size()];
+        long[] lostBase = new long[recorders.size()];
+        for (int i = 0; i < recorders.size(); i++) {
+            CameraRecorder recorder = recorders.get(i);
+            tracker.reset(recorder.getCameraId());
+            bytesBase[i] = recorder.getBytesWritten();
+            framesBase[i] = recorder.getFramesRecorded();
+            receivedBase[i] = recorder.getPacketsReceived();
+            lostBase[i] = recorder.getPacketsLost();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long cpuStart = Process.getElapsedCpuTime();
+        long start = SystemClock.elapsedRealtime();
+        long end = start + measureSeconds * 1000L;
+        long heapPeak = 0;
+        long nativePeak = 0;
+        long now;
+        while ((now = SystemClock.elapsedRealtime()) < end && !cancelled) {
+            heapPeak = Math.max(heapPeak, runtime.totalMemory() - runtime.freeMemory());
+            nativePeak = Math.max(nativePeak, Debug.getNativeHeapAllocatedSize());
+            Thread.sleep(Math.min(SAMPLE_INTERVAL_MS, end - now));
+        }
+
+        StageResult result = new StageResult();
+        result.cameras = recorders.size();
+        result.seconds = Math.max(1, SystemClock.elapsedRealtime() - start) / 1000.0;
+        result.cpuMillis = Process.getElapsedCpuTime() - cpuStart;
+        result.heapPeakBytes = heapPeak;
+        result.nativePeakBytes = nativePeak;
+        result.framesExpected = Math.round(recorders.size() * profile.getFrameRate() * result.seconds);
+        LatencyHistogram total = new LatencyHistogram();
+        LatencyHistogram write = new LatencyHistogram();
+        LatencyHistogram queue = new LatencyHistogram();
+        for (int i = 0; i < recorders.size(); i++) {
+            CameraRecorder recorder = recorders.get(i);
+            // 录制线程在测量期间重建会让计数归零，这一路按0计
+            result.bytesWritten += Math.max(0, recorder.getBytesWritten() - bytesBase[i]);
+            result.framesRecorded += Math.max(0, recorder.getFramesRecorded() - framesBase[i]);
+            result.packetsReceived += Math.max(0, recorder.getPacketsReceived() - receivedBase[i]);
+            result.packetsLost += Math.max(0, recorder.getPacketsLost() - lostBase[i]);
+            if (recorder.getState() != StreamRecorder.State.RECORDING) {
+                result.recordersDown++;
+            }
+            LatencyTracker.Pipeline pipeline = tracker.forCamera(recorder.getCameraId());
+            total.add(pipeline.get(LatencyTracker.STAGE_TOTAL));
+            write.add(pipeline.get(LatencyTracker.STAGE_WRITE));
+            queue.add(pipeline.get(LatencyTracker.STAGE_QUEUE));
+        }
+        result.total = total.snapshot();
+        result.write = write.snapshot();
+        result.queue = queue.snapshot();
+        return result;
+    }
+
+    // 录制线程自己关闭当前段，等它们结束后再删文件，否则会删掉正在写的段
+    private static void awaitStopped(List<CameraRecorder> recorders) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + STOP_TIMEOUT_MS;
+        for (CameraRecorder recorder : recorders) {
+            while (recorder.getState() != StreamRecorder.State.STOPPED) {
+                if (SystemClock.elapsedRealtime() >= deadline) {
+                    Log.w(TAG, "Recorder " + recorder.getCameraId() + " did not stop in time");
+                    return;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // 清掉测试摄像头留下的一切：录像和关键帧索引、索引库记录、覆盖位图、时序数据、
+    // 指标序列、转发点、快照缓存和延迟统计，避免 bench-N 混进正常的时间轴、指标和磁盘占用
+    private void removeCameras(int cameras) {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < cameras; i++) {
+            String cameraId = CAMERA_ID_PREFIX + (i + 1);
+            File cameraDir = null;
+            for (File file : storageManager.getRecordingFilesForCamera(cameraId)) {
+                paths.add(file.getAbsolutePath());
+                delete(file);
+                File index = KeyframeIndex.sidecarFor(file);
+                if (index.exists()) {
+                    delete(index);
+                }
+                // <卷>/recordings/<cameraId>/<日期>/文件，空目录一并删除
+                File dayDir = file.getParentFile();
+                if (dayDir != null) {
+                    dayDir.delete();
+                    cameraDir = dayDir.getParentFile();
+                }
+            }
+            if (cameraDir != null && cameraDir.getName().equals(cameraId)) {
+                cameraDir.delete();
+            }
+            CoverageTimeline.getInstance(context).removeCamera(cameraId);
+            TimeSeriesStore.getInstance(context).removeCamera(cameraId);
+            MetricsRegistry.getInstance().removeSeries("camera", cameraId);
+            if (!RelayHub.getInstance(context).remove(cameraId)) {
+                Log.w(TAG, "Relay for " + cameraId + " is still in use");
+            }
+            SnapshotService.getInstance(context).removeCamera(cameraId);
+            LatencyTracker.getInstance().remove(cameraId);
+        }
+        databaseHelper.deleteRecordings(paths);
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            Log.w(TAG, "Failed to delete " + file.getAbsolutePath());
+        }
+    }
+
+    private static String formatSummary(StageResult r) {
+        return String.format(Locale.ROOT,
+                "%d cameras: %.2f MB/s, frames %d/%d (drop %.2f%%), lost packets %d, latency p50 %.1f ms p99 %.1f ms, "
+                        + "write p99 %.1f ms, cpu %.2f cores, heap %d MB, native %d MB",
+                r.cameras, r.bytesWritten / r.seconds / 1e6, r.framesRecorded, r.framesExpected, r.dropRatio() * 100,
+                r.packetsLost, r.total.p50 / 1000.0, r.total.p99 / 1000.0, r.write.p99 / 1000.0,
+                r.cpuMillis / 1000.0 / r.seconds, r.heapPeakBytes >> 20, r.nativePeakBytes >> 20);
+    }
+
+    private File writeReport(long startedMillis, List<StageResult> results, boolean saturated) throws IOException {
+        JSONObject report = new JSONObject();
+        try {
+            JSONObject device = new JSONObject();
+            device.put("manufacturer", Build.MANUFACTURER);
+            device.put("model", Build.MODEL);
+            device.put("sdk", Build.VERSION.SDK_INT);
+            device.put("cores", Runtime.getRuntime().availableProcessors());
+            device.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+            device.put("storagePath", storageManager.getRecordingDirectoryPath());
+            report.put("device", device);
+
+            JSONObject config = new JSONObject();
+            config.put("width", profile.getWidth());
+            config.put("height", profile.getHeight());
+            config.put("frameRate", profile.getFrameRate());
+            config.put("bitrateKbps", profile.getBitrateKbps());
+            config.put("gopFrames", profile.getGopFrames());
+            config.put("warmupSeconds", warmupSeconds);
+            config.put("measureSeconds", measureSeconds);
+            config.put("segmentSeconds", SEGMENT_MILLIS / 1000);
+            report.put("config", config);
+
+            report.put("startedAt", startedMillis);
+            report.put("saturated", saturated);
+            JSONArray stageArray = new JSONArray();
+            for (StageResult r : results) {
+                JSONObject stage = new JSONObject();
+                stage.put("cameras", r.cameras);
+                stage.put("seconds", r.seconds);
+                stage.put("bytesWritten", r.bytesWritten);
+                stage.put("writeBytesPerSecond", r.bytesWritten / r.seconds);
+                stage.put("framesExpected", r.framesExpected);
+                stage.put("framesRecorded", r.framesRecorded);
+                stage.put("frameDropRatio", r.dropRatio());
+                stage.put("packetsReceived", r.packetsReceived);
+                stage.put("packetsLost", r.packetsLost);
+                stage.put("recordersDown", r.recordersDown);
+                stage.put("latencyTotalMs", toJson(r.total));
+                stage.put("latencyQueueMs", toJson(r.queue));
+                stage.put("latencyWriteMs", toJson(r.write));
+                stage.put("cpuMillis", r.cpuMillis);
+                stage.put("cpuCores", r.cpuMillis / 1000.0 / r.seconds);
+                stage.put("heapPeakBytes", r.heapPeakBytes);
+                stage.put("nativeHeapPeakBytes", r.nativePeakBytes);
+                stageArray.put(stage);
+            }
+            report.put("stages", stageArray);
+        } catch (JSONException e) {
+            throw new IOException("Failed to build benchmark report", e);
+        }
+
+        File dir = context.getExternalFilesDir(REPORT_DIR);
+        if (dir == null) {
+            dir = new File(context.getFilesDir(), REPORT_DIR);
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir.getAbsolutePath());
+        }
+        String name = "benchmark_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date(startedMillis))
+                + ".json";
+        File file = new File(dir, name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(report.toString(2));
+        } catch (JSONException e) {
+            throw new IOException("Failed to write benchmark report", e);
+        }
+        return file;
+    }
+
+    private static JSONObject toJson(LatencyHistogram.Snapshot s) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", s.count);
+        json.put("p50", s.p50 / 1000.0);
+        json.put("p99", s.p99 / 1000.0);
+        json.put("max", s.max / 1000.0);
+        return json;
+    }
+}
@@ -20,6 +20,8 @@ import com.example.nvr.fragment.LiveViewFragment;
 import com.example.nvr.fragment.RecordingFragment;
 import com.example.nvr.fragment.DeviceManagerFragment;
 import com.example.nvr.fragment.SettingsFragment;
+import com.example.nvr.service.RecordingService;
+import com.example.nvr.utils.IndexRebuilder;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,6 +40,12 @@ public class MainActivity extends AppCompatActivity {
         // 检查并申请必要的权限
         checkAndRequestPermissions();
 
+        // 后台核对录像索引与磁盘文件（重装应用或换卡后索引缺失/过期）
+        IndexRebuilder.getInstance(this).start();
+
+        // 启动后台录制服务，为启用录制的摄像头持续录像
+        startForegroundService(new Intent(this, RecordingService.class));
+
         viewPager = findViewById(R.id.viewpager);
         if (viewPager != null) {
             setupViewPager(viewPager);
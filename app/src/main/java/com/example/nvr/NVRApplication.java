@@ -12,6 +12,11 @@ public class NVRApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+
+        // nvr-core 中的日志转到 Logcat
+        com.example.nvr.logging.Log.setSink((priority, tag, message, throwable) ->
+                Log.println(priority, tag, throwable != null
+                        ? message + '\n' + Log.getStackTraceString(throwable) : message));
         
         // 设置全局异常处理器来捕获未处理的异常
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
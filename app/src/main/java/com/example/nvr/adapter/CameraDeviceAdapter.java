@@ -5,17 +5,24 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.example.nvr.R;
 import com.example.nvr.model.CameraDevice;
+import com.example.nvr.recording.CameraStatus;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class CameraDeviceAdapter extends BaseAdapter {
     private Context context;
     private List<CameraDevice> cameraDevices;
     private LayoutInflater inflater;
+    // 最近一次录制状态快照，按摄像头ID索引
+    private Map<String, CameraStatus> statuses = Collections.emptyMap();
+    private final StringBuilder statusText = new StringBuilder(64);
 
     public CameraDeviceAdapter(Context context, List<CameraDevice> cameraDevices) {
         this.context = context;
@@ -47,6 +54,7 @@ public class CameraDeviceAdapter extends BaseAdapter {
             holder = new ViewHolder();
             holder.deviceNameTextView = convertView.findViewById(R.id.device_name_text_view);
             holder.deviceIpTextView = convertView.findViewById(R.id.device_ip_text_view);
+            holder.deviceStatusTextView = convertView.findViewById(R.id.device_status_text_view);
             convertView.setTag(holder);
         } else {
             holder = (ViewHolder) convertView.getTag();
@@ -55,13 +63,73 @@ public class CameraDeviceAdapter extends BaseAdapter {
         CameraDevice cameraDevice = cameraDevices.get(position);
         holder.deviceNameTextView.setText(cameraDevice.getName());
         holder.deviceIpTextView.setText(cameraDevice.getRtspUrl());
+        bindStatus(holder, cameraDevice);
 
         return convertView;
     }
 
+    private void bindStatus(ViewHolder holder, CameraDevice cameraDevice) {
+        CameraStatus status = statuses.get(cameraDevice.getId());
+        statusText.setLength(0);
+        if (status == null) {
+            statusText.append(cameraDevice.isRecordingEnabled() ? "未录制" : "录制已停用");
+        } else {
+            switch (status.state) {
+                case RECORDING:
+                    statusText.append("录制中");
+                    break;
+                case CONNECTING:
+                    statusText.append("连接中");
+                    break;
+                case RETRYING:
+                    statusText.append("等待重连");
+                    break;
+                default:
+                    statusText.append("已停止");
+                    break;
+            }
+            statusText.append(" · ").append(Math.round(status.fps * 10) / 10f).append(" fps")
+                    .append(" · ").append(status.bitrateKbps).append(" kbps")
+                    .append(" · 队列 ").append(status.queueDepth)
+                    .append(" · ").append(status.bytesWritten / (1024 * 1024)).append(" MB");
+            if (status.stallCount > 0) {
+                statusText.append(" · 停滞 ").append(status.stallCount);
+            }
+        }
+        holder.deviceStatusTextView.setText(statusText);
+    }
+
+    // 应用新的状态快照：只重新绑定当前可见且显示内容有变化的行，不触发整表刷新
+    public void updateStatus(Map<String, CameraStatus> newStatuses, ListView listView) {
+        Map<String, CameraStatus> oldStatuses = statuses;
+        statuses = newStatuses != null ? newStatuses : Collections.<String, CameraStatus>emptyMap();
+        if (listView == null) {
+            return;
+        }
+        int first = listView.getFirstVisiblePosition();
+        int headers = listView.getHeaderViewsCount();
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            int position = first + i - headers;
+            if (position < 0 || position >= cameraDevices.size()) {
+                continue;
+            }
+            CameraDevice cameraDevice = cameraDevices.get(position);
+            CameraStatus oldStatus = oldStatuses.get(cameraDevice.getId());
+            CameraStatus newStatus = statuses.get(cameraDevice.getId());
+            if (oldStatus == newStatus || (newStatus != null && newStatus.sameDisplay(oldStatus))) {
+                continue;
+            }
+            Object tag = listView.getChildAt(i).getTag();
+            if (tag instanceof ViewHolder) {
+                bindStatus((ViewHolder) tag, cameraDevice);
+            }
+        }
+    }
+
     private static class ViewHolder {
         TextView deviceNameTextView;
         TextView deviceIpTextView;
+        TextView deviceStatusTextView;
     }
 
     // 更新数据列表
@@ -69,4 +137,4 @@ public class CameraDeviceAdapter extends BaseAdapter {
         this.cameraDevices = cameraDevices;
         notifyDataSetChanged();
     }
-}
\ No newline at end of file
+}
@@ -4,85 +4,118 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
 import com.example.nvr.R;
 import com.example.nvr.model.RecordingFile;
+import com.example.nvr.thumbnail.ThumbnailService;
+import com.example.nvr.utils.FormatUtils;
 
 import java.text.SimpleDateFormat;
-import java.util.List;
 import java.util.Locale;
 
-public class RecordingListAdapter extends BaseAdapter {
-    private Context context;
-    private List<RecordingFile> recordingFiles;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+// 录像列表适配器：以索引表行ID为稳定ID，提交新列表时由 DiffUtil 在后台计算差异，只刷新变化的行
+public class RecordingListAdapter extends ListAdapter<RecordingFile, RecordingListAdapter.ViewHolder> {
+
+    public interface OnRecordingClickListener {
+        void onRecordingClick(RecordingFile recording);
 
-    public RecordingListAdapter(Context context, List<RecordingFile> recordingFiles) {
-        this.context = context;
-        this.recordingFiles = recordingFiles;
+        void onRecordingLongClick(RecordingFile recording);
     }
 
-    @Override
-    public int getCount() {
-        return recordingFiles != null ? recordingFiles.size() : 0;
+    private static final DiffUtil.ItemCallback<RecordingFile> DIFF_CALLBACK = new DiffUtil.ItemCallback<RecordingFile>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull RecordingFile oldItem, @NonNull RecordingFile newItem) {
+            return oldItem.getRowId() == newItem.getRowId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull RecordingFile oldItem, @NonNull RecordingFile newItem) {
+            return oldItem.hasSameContent(newItem);
+        }
+    };
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+    private final ThumbnailService thumbnailService;
+    private OnRecordingClickListener listener;
+
+    public RecordingListAdapter(Context context) {
+        super(DIFF_CALLBACK);
+        this.thumbnailService = ThumbnailService.getInstance(context);
+        setHasStableIds(true);
     }
 
-    @Override
-    public Object getItem(int position) {
-        return recordingFiles != null ? recordingFiles.get(position) : null;
+    public void setOnRecordingClickListener(OnRecordingClickListener listener) {
+        this.listener = listener;
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return getItem(position).getRowId();
     }
 
+    @NonNull
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        ViewHolder holder;
-        if (convertView == null) {
-            convertView = LayoutInflater.from(context).inflate(R.layout.item_recording_file, parent, false);
-            holder = new ViewHolder();
-            holder.cameraNameTextView = convertView.findViewById(R.id.camera_name_text_view);
-            holder.startTimeTextView = convertView.findViewById(R.id.start_time_text_view);
-            holder.durationTextView = convertView.findViewById(R.id.duration_text_view);
-            convertView.setTag(holder);
-        } else {
-            holder = (ViewHolder) convertView.getTag();
-        }
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_recording_file, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (listener != null && position != RecyclerView.NO_POSITION) {
+                listener.onRecordingClick(getItem(position));
+            }
+        });
+        view.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (listener != null && position != RecyclerView.NO_POSITION) {
+                listener.onRecordingLongClick(getItem(position));
+                return true;
+            }
+            return false;
+        });
+        return holder;
+    }
 
-        RecordingFile recordingFile = recordingFiles.get(position);
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        RecordingFile recordingFile = getItem(position);
         holder.cameraNameTextView.setText(recordingFile.getCameraName());
-        holder.startTimeTextView.setText(dateFormat.format(recordingFile.getStartTime()));
-        holder.durationTextView.setText(formatDuration(recordingFile.getDurationSeconds() * 1000));
+        holder.startTimeTextView.setText(recordingFile.getStartTime() != null
+                ? dateFormat.format(recordingFile.getStartTime()) : "");
+        String description = recordingFile.getVideoDescription();
+        String duration = formatDuration(recordingFile.getDurationSeconds() * 1000);
+        holder.durationTextView.setText(description.isEmpty() ? duration : duration + "  " + description);
+        // 复用的行会先取消旧请求，缩略图解码在 Picasso 后台线程完成
+        thumbnailService.loadInto(recordingFile, holder.thumbnailImageView);
+    }
 
-        return convertView;
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        thumbnailService.getPicasso().cancelRequest(holder.thumbnailImageView);
     }
 
     private String formatDuration(long durationMs) {
-        long seconds = durationMs / 1000;
-        long minutes = seconds / 60;
-        long hours = minutes / 60;
-        seconds %= 60;
-        minutes %= 60;
-
-        if (hours > 0) {
-            return String.format(Locale.getDefault(), "%d:%02d:%02d", hours, minutes, seconds);
-        } else {
-            return String.format(Locale.getDefault(), "%d:%02d", minutes, seconds);
-        }
+        return FormatUtils.readableDuration(durationMs / 1000);
     }
 
-    public void updateData(List<RecordingFile> newRecordingFiles) {
-        this.recordingFiles = newRecordingFiles;
-        notifyDataSetChanged();
-    }
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView thumbnailImageView;
+        final TextView cameraNameTextView;
+        final TextView startTimeTextView;
+        final TextView durationTextView;
 
-    private static class ViewHolder {
-        TextView cameraNameTextView;
-        TextView startTimeTextView;
-        TextView durationTextView;
+        ViewHolder(View itemView) {
+            super(itemView);
+            thumbnailImageView = itemView.findViewById(R.id.thumbnail_image_view);
+            cameraNameTextView = itemView.findViewById(R.id.camera_name_text_view);
+            startTimeTextView = itemView.findViewById(R.id.start_time_text_view);
+            durationTextView = itemView.findViewById(R.id.duration_text_view);
+        }
     }
-}
\ No newline at end of file
+}
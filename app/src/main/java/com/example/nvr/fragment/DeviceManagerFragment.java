@@ -1,7 +1,13 @@
 package com.example.nvr.fragment;
 
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.graphics.Typeface;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,6 +15,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -18,7 +25,9 @@ import androidx.fragment.app.Fragment;
 
 import com.example.nvr.R;
 import com.example.nvr.adapter.CameraDeviceAdapter;
+import com.example.nvr.metrics.LatencyTracker;
 import com.example.nvr.model.CameraDevice;
+import com.example.nvr.service.RecordingService;
 import com.example.nvr.utils.DatabaseHelper;
 
 import java.util.ArrayList;
@@ -31,6 +40,28 @@ public class DeviceManagerFragment extends Fragment {
     private List<CameraDevice> cameraDevices;
     private DatabaseHelper dbHelper;
     private Button addDeviceButton;
+    private RecordingService recordingService;
+    private boolean serviceBound = false;
+
+    // 录制状态每秒推送一次，只刷新变化的行
+    private final RecordingService.StatusListener statusListener = statuses -> {
+        if (adapter != null && deviceListView != null) {
+            adapter.updateStatus(statuses, deviceListView);
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            recordingService = ((RecordingService.LocalBinder) service).getService();
+            recordingService.addStatusListener(statusListener);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            recordingService = null;
+        }
+    };
 
     @Nullable
     @Override
@@ -39,7 +70,7 @@ public class DeviceManagerFragment extends Fragment {
 
         deviceListView = view.findViewById(R.id.device_list);
         addDeviceButton = view.findViewById(R.id.add_device_button);
-        dbHelper = new DatabaseHelper(getContext());
+        dbHelper = DatabaseHelper.getInstance(requireContext());
         cameraDevices = new ArrayList<>();
         adapter = new CameraDeviceAdapter(getContext(), cameraDevices);
         deviceListView.setAdapter(adapter);
@@ -59,19 +90,45 @@ public class DeviceManagerFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        // 不自动创建服务：服务由 MainActivity 启动，没在运行时也就没有状态可显示
+        Context context = getContext();
+        if (context != null) {
+            serviceBound = context.bindService(new Intent(context, RecordingService.class), serviceConnection, 0);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (recordingService != null) {
+            recordingService.removeStatusListener(statusListener);
+            recordingService = null;
+        }
+        if (serviceBound && getContext() != null) {
+            getContext().unbindService(serviceConnection);
+            serviceBound = false;
+        }
+    }
+
     private void loadDevices() {
         if (getContext() == null || dbHelper == null) return;
 
-        List<CameraDevice> devices = dbHelper.getAllCameras();
-        if (cameraDevices != null) {
-            cameraDevices.clear();
-            if (devices != null) {
-                cameraDevices.addAll(devices);
+        // 查询在数据库线程执行，结果回到主线程时视图可能已销毁
+        dbHelper.getAllCamerasAsync(devices -> {
+            if (getView() == null) return;
+            if (cameraDevices != null) {
+                cameraDevices.clear();
+                if (devices != null) {
+                    cameraDevices.addAll(devices);
+                }
             }
-        }
-        if (adapter != null) {
-            adapter.notifyDataSetChanged();
-        }
+            if (adapter != null) {
+                adapter.notifyDataSetChanged();
+            }
+        });
     }
 
     private void showAddDeviceDialog() {
@@ -91,6 +148,7 @@ public class DeviceManagerFragment extends Fragment {
         
         EditText nameEditText = dialogView.findViewById(R.id.device_name);
         EditText rtspUrlEditText = dialogView.findViewById(R.id.device_rtsp_url);
+        EditText substreamUrlEditText = dialogView.findViewById(R.id.device_substream_url);
 
         // 设置确定按钮
         builder.setPositiveButton("添加", new DialogInterface.OnClickListener() {
@@ -116,18 +174,22 @@ public class DeviceManagerFragment extends Fragment {
                 
                 // 创建新设备
                 CameraDevice newDevice = new CameraDevice(id, name, rtspUrl);
-                boolean result = dbHelper.addCamera(newDevice);
-
-                if (result) {
-                    if (getContext() != null) {
-                        Toast.makeText(getContext(), "设备添加成功", Toast.LENGTH_SHORT).show();
-                    }
-                    loadDevices(); // 重新加载设备列表
-                } else {
-                    if (getContext() != null) {
-                        Toast.makeText(getContext(), "设备添加失败", Toast.LENGTH_SHORT).show();
-                    }
+                if (substreamUrlEditText != null && substreamUrlEditText.getText() != null) {
+                    newDevice.setSubstreamUrl(substreamUrlEditText.getText().toString().trim());
                 }
+                dbHelper.addCameraAsync(newDevice, result -> {
+                    if (Boolean.TRUE.equals(result)) {
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), "设备添加成功", Toast.LENGTH_SHORT).show();
+                            RecordingService.refresh(getContext());
+                        }
+                        loadDevices(); // 重新加载设备列表
+                    } else {
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), "设备添加失败", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
             }
         });
 
@@ -143,7 +205,8 @@ public class DeviceManagerFragment extends Fragment {
         
         AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
         builder.setTitle("设备操作");
-        builder.setItems(new CharSequence[]{"编辑设备", "删除设备"}, new DialogInterface.OnClickListener() {
+        String recordingOption = device.isRecordingEnabled() ? "停用录制" : "启用录制";
+        builder.setItems(new CharSequence[]{"编辑设备", "删除设备", recordingOption, "延迟统计"}, new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
                 switch (which) {
@@ -153,12 +216,67 @@ public class DeviceManagerFragment extends Fragment {
                     case 1: // 删除设备
                         showDeleteDeviceDialog(device.getId(), position);
                         break;
+                    case 2: // 启用/停用后台录制
+                        toggleRecording(device);
+                        break;
+                    case 3: // 各阶段延迟分布
+                        showLatencyDialog(device);
+                        break;
                 }
             }
         });
         builder.show();
     }
 
+    // 调试用：录制管线各阶段的 p50/p99/最大延迟，用来判断丢帧是网络、CPU还是存储造成的
+    private void showLatencyDialog(final CameraDevice device) {
+        if (getContext() == null) return;
+        LatencyTracker tracker = LatencyTracker.getInstance();
+        TextView textView = new TextView(getContext());
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextSize(12);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        textView.setPadding(padding, padding, padding, 0);
+        textView.setText(tracker.format(device.getId()));
+
+        AlertDialog dialog = new AlertDialog.Builder(getContext())
+                .setTitle(device.getName() + " 延迟统计")
+                .setView(textView)
+                .setPositiveButton("刷新", null)
+                .setNeutralButton("重置", null)
+                .setNegativeButton("写入日志", (d, which) -> tracker.dumpToLog())
+                .create();
+        dialog.setOnShowListener(d -> {
+            // 刷新和重置后保持对话框打开
+            dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(v ->
+                    textView.setText(tracker.format(device.getId())));
+            dialog.getButton(AlertDialog.BUTTON_NEUTRAL).setOnClickListener(v -> {
+                tracker.reset(device.getId());
+                textView.setText(tracker.format(device.getId()));
+            });
+        });
+        dialog.show();
+    }
+
+    private void toggleRecording(final CameraDevice device) {
+        CameraDevice updatedDevice = new CameraDevice(device.getId(), device.getName(), device.getRtspUrl());
+        updatedDevice.setRecordingEnabled(!device.isRecordingEnabled());
+        updatedDevice.setSubstreamUrl(device.getSubstreamUrl());
+        dbHelper.updateCameraAsync(updatedDevice, rowsUpdated -> {
+            if (getContext() == null) {
+                return;
+            }
+            if (rowsUpdated != null && rowsUpdated > 0) {
+                Toast.makeText(getContext(), updatedDevice.isRecordingEnabled() ? "已启用录制" : "已停用录制",
+                        Toast.LENGTH_SHORT).show();
+                RecordingService.refresh(getContext());
+                loadDevices();
+            } else {
+                Toast.makeText(getContext(), "设备更新失败", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     private void showEditDeviceDialog(final CameraDevice device) {
         if (getContext() == null || device == null) return;
         
@@ -176,10 +294,12 @@ public class DeviceManagerFragment extends Fragment {
 
         EditText nameEditText = dialogView.findViewById(R.id.device_name);
         EditText rtspUrlEditText = dialogView.findViewById(R.id.device_rtsp_url);
+        EditText substreamUrlEditText = dialogView.findViewById(R.id.device_substream_url);
 
         // 填充现有设备信息
         if (nameEditText != null) nameEditText.setText(device.getName());
         if (rtspUrlEditText != null) rtspUrlEditText.setText(device.getRtspUrl());
+        if (substreamUrlEditText != null) substreamUrlEditText.setText(device.getSubstreamUrl());
 
         builder.setPositiveButton("保存", new DialogInterface.OnClickListener() {
             @Override
@@ -201,18 +321,23 @@ public class DeviceManagerFragment extends Fragment {
 
                 // 创建CameraDevice对象
                 CameraDevice updatedDevice = new CameraDevice(device.getId(), name, rtspUrl);
-                int rowsUpdated = dbHelper.updateCamera(updatedDevice);
-
-                if (rowsUpdated > 0) {
-                    if (getContext() != null) {
-                        Toast.makeText(getContext(), "设备更新成功", Toast.LENGTH_SHORT).show();
-                    }
-                    loadDevices();
-                } else {
-                    if (getContext() != null) {
-                        Toast.makeText(getContext(), "设备更新失败", Toast.LENGTH_SHORT).show();
-                    }
+                updatedDevice.setRecordingEnabled(device.isRecordingEnabled());
+                if (substreamUrlEditText != null && substreamUrlEditText.getText() != null) {
+                    updatedDevice.setSubstreamUrl(substreamUrlEditText.getText().toString().trim());
                 }
+                dbHelper.updateCameraAsync(updatedDevice, rowsUpdated -> {
+                    if (rowsUpdated != null && rowsUpdated > 0) {
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), "设备更新成功", Toast.LENGTH_SHORT).show();
+                            RecordingService.refresh(getContext());
+                        }
+                        loadDevices();
+                    } else {
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), "设备更新失败", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
             }
         });
 
@@ -229,22 +354,30 @@ public class DeviceManagerFragment extends Fragment {
         builder.setPositiveButton("删除", new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                boolean deleted = dbHelper.deleteCamera(deviceId);
-                if (deleted) {
-                    if (cameraDevices != null && position >= 0 && position < cameraDevices.size()) {
-                        cameraDevices.remove(position);
+                dbHelper.deleteCameraAsync(deviceId, deleted -> {
+                    if (Boolean.TRUE.equals(deleted)) {
+                        // 回调前列表可能已重新加载，按ID而不是位置移除
+                        if (cameraDevices != null) {
+                            for (int i = 0; i < cameraDevices.size(); i++) {
+                                if (cameraDevices.get(i).getId().equals(deviceId)) {
+                                    cameraDevices.remove(i);
+                                    break;
+                                }
+                            }
+                        }
+                        if (adapter != null) {
+                            adapter.notifyDataSetChanged();
+                        }
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), "设备删除成功", Toast.LENGTH_SHORT).show();
+                            RecordingService.refresh(getContext());
+                        }
+                    } else {
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), "设备删除失败", Toast.LENGTH_SHORT).show();
+                        }
                     }
-                    if (adapter != null) {
-                        adapter.notifyDataSetChanged();
-                    }
-                    if (getContext() != null) {
-                        Toast.makeText(getContext(), "设备删除成功", Toast.LENGTH_SHORT).show();
-                    }
-                } else {
-                    if (getContext() != null) {
-                        Toast.makeText(getContext(), "设备删除失败", Toast.LENGTH_SHORT).show();
-                    }
-                }
+                });
             }
         });
         builder.setNegativeButton("取消", null);
@@ -42,7 +42,7 @@ public class LiveViewFragment extends Fragment {
         Button switchCameraBtn = view.findViewById(R.id.switch_camera_btn);
         Button recordBtn = view.findViewById(R.id.record_btn);
         
-        dbHelper = new DatabaseHelper(getContext());
+        dbHelper = DatabaseHelper.getInstance(requireContext());
         storageManager = new StorageManager(getContext());
         streamManager = VideoStreamManager.getInstance(getContext());
         
@@ -68,16 +68,21 @@ public class LiveViewFragment extends Fragment {
     private void loadFirstCamera() {
         if (dbHelper == null) return;
         
-        List<CameraDevice> cameras = dbHelper.getAllCameras();
-        if (cameras != null && !cameras.isEmpty()) {
-            currentCamera = cameras.get(0);
-            // Don't start the stream immediately in onCreateView
-            // Instead, wait for the view to be fully attached to the window
-        } else {
-            if (getContext() != null) {
-                Toast.makeText(getContext(), "请先添加摄像头设备", Toast.LENGTH_SHORT).show();
+        // 摄像头列表在数据库线程读取；回调时视图若已挂到窗口上就直接开始播放，
+        // 否则由 onViewCreated 中的布局监听器在挂载后启动
+        dbHelper.getAllCamerasAsync(cameras -> {
+            if (getView() == null) return;
+            if (cameras != null && !cameras.isEmpty()) {
+                currentCamera = cameras.get(0);
+                if (mediaPlayer == null && videoLayout != null && videoLayout.getWindowToken() != null) {
+                    startCameraStream(currentCamera);
+                }
+            } else {
+                if (getContext() != null) {
+                    Toast.makeText(getContext(), "请先添加摄像头设备", Toast.LENGTH_SHORT).show();
+                }
             }
-        }
+        });
     }
     
     @Override
@@ -119,9 +124,16 @@ public class LiveViewFragment extends Fragment {
         }
         
         // 获取下一个摄像头
+        // 摄像头列表通常已在内存缓存中（loadFirstCamera 已加载过），这里直接读取
         List<CameraDevice> cameras = dbHelper.getAllCameras();
         if (cameras != null && !cameras.isEmpty()) {
-            int currentIndex = cameras.indexOf(currentCamera);
+            int currentIndex = -1;
+            for (int i = 0; i < cameras.size(); i++) {
+                if (cameras.get(i).getId().equals(currentCamera.getId())) {
+                    currentIndex = i;
+                    break;
+                }
+            }
             int nextIndex = (currentIndex + 1) % cameras.size();
             currentCamera = cameras.get(nextIndex);
             
@@ -170,8 +182,9 @@ public class LiveViewFragment extends Fragment {
         } else {
             // 开始录制
             if (storageManager != null) {
-                String fileName = "REC_" + System.currentTimeMillis() + ".mp4";
-                String filePath = storageManager.getRecordingDirectoryPath() + File.separator + fileName;
+                // 由存储池选择卷和目录，文件名中包含摄像头ID便于之后索引
+                String filePath = storageManager.createNewRecordingFilePath(currentCamera.getId(), currentCamera.getName());
+                String fileName = new File(filePath).getName();
                 boolean started = streamManager.startRecording(currentCamera, filePath);
                 
                 if (started) {
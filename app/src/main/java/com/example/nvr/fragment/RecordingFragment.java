@@ -1,30 +1,74 @@
 package com.example.nvr.fragment;
 
+import android.app.DatePickerDialog;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.nvr.R;
 import com.example.nvr.adapter.RecordingListAdapter;
+import com.example.nvr.media.ClipExporter;
+import com.example.nvr.model.CameraDevice;
 import com.example.nvr.model.RecordingFile;
+import com.example.nvr.thumbnail.ThumbnailService;
+import com.example.nvr.timeline.CoverageTimeline;
+import com.example.nvr.utils.DatabaseHelper;
+import com.example.nvr.utils.IndexRebuilder;
 import com.example.nvr.utils.StorageManager;
+import com.example.nvr.view.TimelineView;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RecordingFragment extends Fragment {
 
-    private ListView recordingListView;
+    private static final int TIMELINE_PRELOAD_DAYS = 7;
+    private static final long EXPORT_MARGIN_MILLIS = 5 * 60 * 1000;
+    private static final int PAGE_SIZE = 50;
+    // 距离已加载末尾还剩多少行时预取下一页
+    private static final int PREFETCH_DISTANCE = 15;
+
+    private RecyclerView recordingListView;
+    private TextView emptyTextView;
+    private TextView indexProgressTextView;
+    private Spinner cameraFilterSpinner;
+    private Button dateFilterButton;
+    private TimelineView timelineView;
     private RecordingListAdapter adapter;
-    private List<RecordingFile> recordingFiles;
     private StorageManager storageManager;
+    private DatabaseHelper databaseHelper;
+    // 列表查询在这个单线程执行器上串行执行
+    private ExecutorService loader;
+    private IndexRebuilder indexRebuilder;
+    private IndexRebuilder.Listener rebuildListener;
+
+    // 以下状态只在主线程访问
+    private final List<RecordingFile> loadedRecordings = new ArrayList<>();
+    private final List<CameraDevice> cameras = new ArrayList<>();
+    private String cameraFilter;
+    private long dayFilterStart = -1;
+    private boolean loading;
+    private boolean endReached;
+    // 过滤条件变化时递增，丢弃旧查询的结果
+    private int queryGeneration;
 
     @Nullable
     @Override
@@ -32,40 +76,306 @@ public class RecordingFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_recording, container, false);
 
         recordingListView = view.findViewById(R.id.recording_list);
+        emptyTextView = view.findViewById(R.id.empty_text);
+        indexProgressTextView = view.findViewById(R.id.index_progress_text);
+        cameraFilterSpinner = view.findViewById(R.id.camera_filter_spinner);
+        dateFilterButton = view.findViewById(R.id.date_filter_button);
+        timelineView = view.findViewById(R.id.timeline_view);
         storageManager = new StorageManager(getContext());
-        recordingFiles = new ArrayList<>();
-        adapter = new RecordingListAdapter(getContext(), recordingFiles);
+        databaseHelper = DatabaseHelper.getInstance(requireContext());
+        loader = Executors.newSingleThreadExecutor();
+
+        adapter = new RecordingListAdapter(getContext());
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
+        recordingListView.setLayoutManager(layoutManager);
+        recordingListView.setHasFixedSize(true);
         recordingListView.setAdapter(adapter);
 
-        loadRecordings();
+        adapter.setOnRecordingClickListener(new RecordingListAdapter.OnRecordingClickListener() {
+            @Override
+            public void onRecordingClick(RecordingFile file) {
+                Toast.makeText(getContext(), "播放录制文件: " + file.getFileName(), Toast.LENGTH_SHORT).show();
+                // 实际播放逻辑将在这里实现
+            }
 
-        // 设置列表项点击事件
-        recordingListView.setOnItemClickListener((parent, view1, position, id) -> {
-            RecordingFile file = recordingFiles.get(position);
-            Toast.makeText(getContext(), "播放录制文件: " + file.getFileName(), Toast.LENGTH_SHORT).show();
-            // 实际播放逻辑将在这里实现
+            @Override
+            public void onRecordingLongClick(RecordingFile file) {
+                // 长按导出片段
+                showExportDialog(file);
+            }
         });
 
+        // 滚动接近末尾时加载下一页；快速滑动时暂停缩略图加载，停下后再加载可见行
+        final ThumbnailService thumbnailService = ThumbnailService.getInstance(getContext());
+        recordingListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+                    thumbnailService.getPicasso().pauseTag(ThumbnailService.LIST_TAG);
+                } else {
+                    thumbnailService.getPicasso().resumeTag(ThumbnailService.LIST_TAG);
+                }
+            }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= loadedRecordings.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        setupFilters();
+        loadTimeline();
+        observeIndexRebuild();
+        reloadRecordings(PAGE_SIZE);
+
         return view;
     }
 
-    private void loadRecordings() {
-        if (getContext() == null) return;
+    private void setupFilters() {
+        cameraFilterSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                String selected = position > 0 && position <= cameras.size() ? cameras.get(position - 1).getId() : null;
+                if (selected == null ? cameraFilter != null : !selected.equals(cameraFilter)) {
+                    cameraFilter = selected;
+                    reloadRecordings(PAGE_SIZE);
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        dateFilterButton.setOnClickListener(v -> {
+            Calendar calendar = Calendar.getInstance();
+            if (dayFilterStart > 0) {
+                calendar.setTimeInMillis(dayFilterStart);
+            }
+            new DatePickerDialog(requireContext(), (picker, year, month, dayOfMonth) -> {
+                Calendar day = Calendar.getInstance();
+                day.clear();
+                day.set(year, month, dayOfMonth);
+                setDayFilter(day.getTimeInMillis());
+            }, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH)).show();
+        });
+        // 长按清除日期过滤
+        dateFilterButton.setOnLongClickListener(v -> {
+            setDayFilter(-1);
+            return true;
+        });
+    }
+
+    private void setDayFilter(long dayStart) {
+        dayFilterStart = dayStart;
+        if (dayStart > 0) {
+            dateFilterButton.setText(String.format(Locale.getDefault(), "%tF", dayStart));
+            timelineView.setDay(CoverageTimeline.dayKey(dayStart));
+        } else {
+            dateFilterButton.setText("全部日期");
+            timelineView.setDay(CoverageTimeline.dayKey(System.currentTimeMillis()));
+        }
+        reloadRecordings(PAGE_SIZE);
+    }
+
+    // 索引重建期间显示进度，每提交一批就刷新已加载的行，列表可以先显示部分结果
+    private void observeIndexRebuild() {
+        indexRebuilder = IndexRebuilder.getInstance(requireContext());
+        rebuildListener = new IndexRebuilder.Listener() {
+            @Override
+            public void onProgress(int partitionsDone, int partitionsTotal, int filesIndexed, boolean batchCommitted) {
+                indexProgressTextView.setVisibility(View.VISIBLE);
+                indexProgressTextView.setText(String.format(Locale.getDefault(),
+                        "正在重建录像索引 %d/%d，已索引 %d 个文件", partitionsDone, partitionsTotal, filesIndexed));
+                if (batchCommitted && !loading) {
+                    reloadRecordings(Math.max(PAGE_SIZE, loadedRecordings.size()));
+                }
+            }
+
+            @Override
+            public void onFinished(int filesIndexed, int removed, long elapsedMillis) {
+                indexProgressTextView.setVisibility(View.GONE);
+                reloadRecordings(Math.max(PAGE_SIZE, loadedRecordings.size()));
+            }
+        };
+        indexRebuilder.addListener(rebuildListener);
+        if (indexRebuilder.isRunning()) {
+            indexProgressTextView.setVisibility(View.VISIBLE);
+            indexProgressTextView.setText("正在重建录像索引...");
+        }
+    }
 
+    // 重新查询前 limit 行并提交给适配器，DiffUtil 只刷新变化的行
+    private void reloadRecordings(int limit) {
+        final int generation = ++queryGeneration;
+        final String camera = cameraFilter;
+        final long from = dayFilterStart;
+        final long to = dayFilterStart > 0 ? CoverageTimeline.startOfDay(dayFilterStart + 36 * 3600 * 1000L) : -1;
+        loading = true;
+        loader.execute(() -> {
+            List<RecordingFile> page = queryPage(camera, from, to, null, limit);
+            postToUi(() -> {
+                if (generation != queryGeneration || page == null) return;
+                loading = false;
+                endReached = page.size() < limit;
+                loadedRecordings.clear();
+                loadedRecordings.addAll(page);
+                submit();
+            });
+        });
+    }
+
+    // 以已加载的最后一行为游标查询下一页
+    private void loadNextPage() {
+        if (loading || endReached || loadedRecordings.isEmpty()) return;
+
+        final int generation = queryGeneration;
+        final String camera = cameraFilter;
+        final long from = dayFilterStart;
+        final long to = dayFilterStart > 0 ? CoverageTimeline.startOfDay(dayFilterStart + 36 * 3600 * 1000L) : -1;
+        final RecordingFile last = loadedRecordings.get(loadedRecordings.size() - 1);
+        loading = true;
+        loader.execute(() -> {
+            List<RecordingFile> page = queryPage(camera, from, to, last, PAGE_SIZE);
+            postToUi(() -> {
+                if (generation != queryGeneration || page == null) return;
+                loading = false;
+                endReached = page.size() < PAGE_SIZE;
+                loadedRecordings.addAll(page);
+                submit();
+            });
+        });
+    }
+
+    private List<RecordingFile> queryPage(String camera, long from, long to, RecordingFile after, int limit) {
         try {
-            List<RecordingFile> files = storageManager.getAllRecordings();
-            recordingFiles.clear();
-            recordingFiles.addAll(files);
-            adapter.notifyDataSetChanged();
+            long afterStart = after != null && after.getStartTime() != null ? after.getStartTime().getTime() : 0;
+            long afterRowId = after != null ? after.getRowId() : -1;
+            return databaseHelper.queryRecordings(camera, from, to, afterStart, afterRowId, limit);
         } catch (Exception e) {
             e.printStackTrace();
-            Toast.makeText(getContext(), "加载录制文件失败", Toast.LENGTH_SHORT).show();
+            postToUi(() -> {
+                loading = false;
+                Toast.makeText(getContext(), "加载录制文件失败", Toast.LENGTH_SHORT).show();
+            });
+            return null;
         }
     }
 
+    private void submit() {
+        adapter.submitList(new ArrayList<>(loadedRecordings));
+        emptyTextView.setVisibility(loadedRecordings.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    private void postToUi(Runnable action) {
+        RecyclerView view = recordingListView;
+        if (view != null) {
+            view.post(() -> {
+                if (isAdded() && recordingListView != null) {
+                    action.run();
+                }
+            });
+        }
+    }
+
+    private void showExportDialog(RecordingFile file) {
+        if (getContext() == null || file.getStartTime() == null || file.getEndTime() == null) return;
+
+        final long start = file.getStartTime().getTime();
+        final long end = file.getEndTime().getTime();
+        new AlertDialog.Builder(getContext())
+                .setTitle("导出录像")
+                .setItems(new CharSequence[]{"导出本段", "导出前后各5分钟"}, (dialog, which) -> {
+                    if (which == 0) {
+                        exportClip(file.getCameraId(), start, end);
+                    } else {
+                        exportClip(file.getCameraId(), start - EXPORT_MARGIN_MILLIS, end + EXPORT_MARGIN_MILLIS);
+                    }
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    // 导出只做文件拷贝，在后台线程执行
+    private void exportClip(String cameraId, long startMillis, long endMillis) {
+        final ClipExporter exporter = new ClipExporter(storageManager);
+        Toast.makeText(getContext(), "正在导出...", Toast.LENGTH_SHORT).show();
+        new Thread(() -> {
+            String message;
+            try {
+                ClipExporter.Result result = exporter.export(cameraId, startMillis, endMillis);
+                message = "已导出到: " + result.file.getAbsolutePath();
+            } catch (Exception e) {
+                e.printStackTrace();
+                message = "导出失败: " + e.getMessage();
+            }
+            final String text = message;
+            postToUi(() -> Toast.makeText(getContext(), text, Toast.LENGTH_LONG).show());
+        }).start();
+    }
+
+    // 在后台读取摄像头列表并预加载最近几天的覆盖数据，加载完成后时间轴只在内存中绘制
+    private void loadTimeline() {
+        if (getContext() == null || timelineView == null) return;
+
+        final CoverageTimeline timeline = CoverageTimeline.getInstance(getContext());
+        loader.execute(() -> {
+            final List<CameraDevice> cameraList = databaseHelper.getAllCameras();
+            List<String> cameraIds = new ArrayList<>();
+            for (CameraDevice camera : cameraList) {
+                cameraIds.add(camera.getId());
+            }
+            timeline.preload(cameraIds, System.currentTimeMillis(), TIMELINE_PRELOAD_DAYS);
+            postToUi(() -> {
+                timelineView.setCameras(cameraList);
+                updateCameraFilter(cameraList);
+            });
+        });
+    }
+
+    private void updateCameraFilter(List<CameraDevice> cameraList) {
+        cameras.clear();
+        cameras.addAll(cameraList);
+        List<String> names = new ArrayList<>();
+        names.add("全部摄像头");
+        int selection = 0;
+        for (int i = 0; i < cameraList.size(); i++) {
+            names.add(cameraList.get(i).getName());
+            if (cameraList.get(i).getId().equals(cameraFilter)) {
+                selection = i + 1;
+            }
+        }
+        ArrayAdapter<String> spinnerAdapter = new ArrayAdapter<>(requireContext(),
+                android.R.layout.simple_spinner_item, names);
+        spinnerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        cameraFilterSpinner.setAdapter(spinnerAdapter);
+        cameraFilterSpinner.setSelection(selection);
+    }
+
     @Override
     public void onResume() {
         super.onResume();
-        loadRecordings(); // 重新加载录制文件，确保列表是最新的
+        // 只重新查询已加载的行数，未变化的行不会重新绑定
+        if (!loading) {
+            reloadRecordings(Math.max(PAGE_SIZE, loadedRecordings.size()));
+        }
+        if (timelineView != null) {
+            timelineView.invalidate();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (indexRebuilder != null) {
+            indexRebuilder.removeListener(rebuildListener);
+        }
+        if (loader != null) {
+            loader.shutdownNow();
+            loader = null;
+        }
+        recordingListView = null;
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,8 @@
 package com.example.nvr.fragment;
 
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,14 +14,22 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
+import androidx.preference.PreferenceManager;
 
+import com.example.nvr.BuildConfig;
 import com.example.nvr.R;
+import com.example.nvr.service.RecordingService;
 
 public class SettingsFragment extends Fragment {
 
+    // 录制性能测试只编进调试版（app/src/debug），正式版中没有这个类
+    private static final String BENCHMARK_SERVICE = "com.example.nvr.benchmark.BenchmarkService";
+
     private EditText storagePathEditText;
     private EditText recordingQualityEditText;
     private EditText recordingDurationEditText;
+    private EditText httpPortEditText;
+    private EditText rtspPortEditText;
     private Button saveButton;
     private SharedPreferences sharedPreferences;
 
@@ -33,6 +41,8 @@ public class SettingsFragment extends Fragment {
         storagePathEditText = view.findViewById(R.id.storage_path);
         recordingQualityEditText = view.findViewById(R.id.recording_quality);
         recordingDurationEditText = view.findViewById(R.id.recording_duration);
+        httpPortEditText = view.findViewById(R.id.http_port);
+        rtspPortEditText = view.findViewById(R.id.rtsp_port);
         saveButton = view.findViewById(R.id.save_button);
 
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
@@ -47,6 +57,13 @@ public class SettingsFragment extends Fragment {
         Button clearStorageButton = view.findViewById(R.id.clear_storage_button);
         clearStorageButton.setOnClickListener(v -> showClearStorageDialog());
 
+        // 录制性能测试按钮点击事件，只在调试版显示
+        Button benchmarkButton = view.findViewById(R.id.benchmark_button);
+        if (BuildConfig.DEBUG) {
+            benchmarkButton.setVisibility(View.VISIBLE);
+            benchmarkButton.setOnClickListener(v -> showBenchmarkDialog());
+        }
+
         // 关于应用按钮点击事件
         Button aboutButton = view.findViewById(R.id.about_button);
         aboutButton.setOnClickListener(v -> showAboutDialog());
@@ -62,6 +79,8 @@ public class SettingsFragment extends Fragment {
         storagePathEditText.setText(storagePath);
         recordingQualityEditText.setText(recordingQuality);
         recordingDurationEditText.setText(recordingDuration);
+        httpPortEditText.setText(sharedPreferences.getString("http_port", ""));
+        rtspPortEditText.setText(sharedPreferences.getString("rtsp_port", ""));
     }
 
     private void saveSettings() {
@@ -73,7 +92,11 @@ public class SettingsFragment extends Fragment {
         editor.putString("storage_path", storagePath);
         editor.putString("recording_quality", recordingQuality);
         editor.putString("recording_duration", recordingDuration);
+        editor.putString("http_port", httpPortEditText.getText().toString().trim());
+        editor.putString("rtsp_port", rtspPortEditText.getText().toString().trim());
         editor.apply();
+        // 分段时长或服务端口变化后让服务按新设置重建录制线程、HTTP 和 RTSP 服务
+        RecordingService.refresh(getContext());
 
         Toast.makeText(getContext(), "设置已保存", Toast.LENGTH_SHORT).show();
     }
@@ -90,6 +113,20 @@ public class SettingsFragment extends Fragment {
         builder.show();
     }
 
+    private void showBenchmarkDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
+        builder.setTitle("录制性能测试");
+        builder.setMessage("用本地模拟摄像头按 1/4/8/16/32/64 路逐级测试录制性能，每级约一分钟，"
+                + "期间暂停正常录制，完成后自动恢复。报告保存在应用数据目录的 benchmarks 下。");
+        builder.setPositiveButton("开始", (dialog, which) -> {
+            Intent intent = new Intent().setClassName(requireContext(), BENCHMARK_SERVICE);
+            requireContext().startForegroundService(intent);
+            Toast.makeText(getContext(), "性能测试已开始", Toast.LENGTH_SHORT).show();
+        });
+        builder.setNegativeButton("取消", null);
+        builder.show();
+    }
+
     private void showAboutDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
         builder.setTitle("关于应用");
@@ -0,0 +1,68 @@
+package com.example.nvr.hls;
+
+import android.content.Context;
+
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.relay.RelayHub;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 按需创建各摄像头的 HLS 打包线程，打包线程空闲退出后从这里移除
+public class LiveHlsManager {
+
+    private static volatile LiveHlsManager instance;
+
+    private final RelayHub relayHub;
+    private final Map<String, LiveHlsPackager> packagers = new HashMap<>();
+
+    private LiveHlsManager(Context context) {
+        this.relayHub = RelayHub.getInstance(context);
+    }
+
+    public static LiveHlsManager getInstance(Context context) {
+        if (instance == null) {
+            synchronized (LiveHlsManager.class) {
+                if (instance == null) {
+                    instance = new LiveHlsManager(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    // 获取摄像头的打包器，没有运行时启动一个，并刷新其空闲计时
+    public synchronized LiveHlsPackager obtain(CameraDevice camera) {
+        LiveHlsPackager packager = packagers.get(camera.getId());
+        if (packager == null || !packager.isRunning()) {
+            packager = new LiveHlsPackager(relayHub.obtain(camera), this);
+            packagers.put(camera.getId(), packager);
+            new Thread(packager, "hls-" + camera.getId()).start();
+        }
+        packager.touch();
+        return packager;
+    }
+
+    // 已在运行的打包器，不存在时返回null，不会因此启动新的
+    public synchronized LiveHlsPackager find(String cameraId) {
+        LiveHlsPackager packager = packagers.get(cameraId);
+        if (packager != null && packager.isRunning()) {
+            packager.touch();
+            return packager;
+        }
+        return null;
+    }
+
+    public synchronized void stopAll() {
+        for (LiveHlsPackager packager : packagers.values()) {
+            packager.stop();
+        }
+        packagers.clear();
+    }
+
+    synchronized void onStopped(LiveHlsPackager packager) {
+        if (packagers.get(packager.getCameraId()) == packager) {
+            packagers.remove(packager.getCameraId());
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package com.example.nvr.hls;
+
+import android.util.Log;
+
+import com.example.nvr.ingest.AccessUnit;
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.media.FragmentedMp4Writer;
+import com.example.nvr.media.NalUnits;
+import com.example.nvr.relay.CameraRelay;
+import com.example.nvr.relay.RtpRingBuffer;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+// 单个摄像头的低延迟 HLS 打包：作为 CameraRelay 的一个读者取 RTP 包，解包后不转码，
+// 直接切成 fMP4 部分分片（约0.5秒）和完整分片（从关键帧开始，约2秒），只在内存中保留最近几个分片。
+// 一段时间没有播放请求后自行停止并释放上游
+public class LiveHlsPackager implements Runnable {
+
+    private static final String TAG = "LiveHlsPackager";
+    private static final int TIMESCALE = FragmentedMp4Writer.TIMESCALE;
+    private static final long PART_TARGET_TICKS = TIMESCALE / 2;
+    private static final long SEGMENT_TARGET_TICKS = 2L * TIMESCALE;
+    private static final int DEFAULT_FRAME_TICKS = TIMESCALE / 25;
+    // 内存窗口：完整分片数和总字节数上限，先到为准
+    private static final int WINDOW_SEGMENTS = 6;
+    private static final long WINDOW_BYTES = 24L * 1024 * 1024;
+    // 只有最近这几个完整分片在播放列表中列出部分分片
+    private static final int PART_SEGMENTS = 2;
+    private static final long IDLE_TIMEOUT_MS = 30000;
+    private static final long SESSION_WAIT_MS = 10000;
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    static final class Part {
+        final byte[] data;
+        final long duration;
+        final boolean independent;
+
+        Part(byte[] data, long duration, boolean independent) {
+            this.data = data;
+            this.duration = duration;
+            this.independent = independent;
+        }
+    }
+
+    static final class Segment {
+        final long sequence;
+        final int initId;
+        final boolean discontinuity;
+        final long startWallMillis;
+        final List<Part> parts = new ArrayList<>();
+        long duration;
+        // 分片完成后才有，等于各部分分片拼接
+        byte[] data;
+
+        Segment(long sequence, int initId, boolean discontinuity, long startWallMillis) {
+            this.sequence = sequence;
+            this.initId = initId;
+            this.discontinuity = discontinuity;
+            this.startWallMillis = startWallMillis;
+        }
+
+        long size() {
+            if (data != null) {
+                return data.length;
+            }
+            long size = 0;
+            for (Part part : parts) {
+                size += part.data.length;
+            }
+            return size;
+        }
+    }
+
+    private final CameraRelay relay;
+    private final LiveHlsManager manager;
+    private volatile boolean running = true;
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+    private volatile boolean dropped;
+
+    // 以下字段由 this 锁保护，打包线程写入，HTTP 线程读取
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Map<Integer, byte[]> inits = new HashMap<>();
+    private Segment current;
+    private long nextSequence;
+    private int targetDurationSeconds = (int) (SEGMENT_TARGET_TICKS / TIMESCALE);
+    // 初始化段编号在重新订阅后继续递增，不与窗口中仍在引用的旧编号冲突
+    private int nextInitId;
+
+    // 以下字段只在打包线程中访问
+    private int clockRate = TIMESCALE;
+    private int initId = -1;
+    private boolean discontinuity;
+    private long baseTicks = -1;
+    private FragmentedMp4Writer.Sample pending;
+    private long pendingWallMillis;
+    private int lastDuration = DEFAULT_FRAME_TICKS;
+    private final List<FragmentedMp4Writer.Sample> partSamples = new ArrayList<>();
+    private long partTicks;
+    private int fragmentSequence;
+
+    LiveHlsPackager(CameraRelay relay, LiveHlsManager manager) {
+        this.relay = relay;
+        this.manager = manager;
+    }
+
+    public String getCameraId() {
+        return relay.getCameraId();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // 每次播放请求都刷新，超过空闲期限后打包线程退出
+    public void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        relay.acquire();
+        byte[] packet = new byte[65536];
+        try {
+            while (isActive()) {
+                CameraRelay.SessionInfo info = relay.awaitSession(SESSION_WAIT_MS);
+                if (info == null) {
+                    continue;
+                }
+                dropped = false;
+                CameraRelay.Subscriber subscriber = relay.subscribe(() -> dropped = true);
+                try {
+                    consume(info, subscriber, packet);
+                } catch (RtpRingBuffer.OverrunException e) {
+                    Log.w(TAG, "Camera " + getCameraId() + " packager fell behind: " + e.getMessage());
+                } finally {
+                    relay.unsubscribe(subscriber);
+                }
+                // 上游变化或掉队后重新订阅，之后的分片从新的初始化段开始
+                initId = -1;
+                pending = null;
+                partSamples.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "Camera " + getCameraId() + " packager failed: " + e.getMessage());
+        } finally {
+            running = false;
+            relay.release();
+            synchronized (this) {
+                segments.clear();
+                inits.clear();
+                current = null;
+                notifyAll();
+            }
+            manager.onStopped(this);
+            Log.d(TAG, "Camera " + getCameraId() + " packager stopped");
+        }
+    }
+
+    private boolean isActive() {
+        return running && System.currentTimeMillis() - lastAccessMillis < IDLE_TIMEOUT_MS;
+    }
+
+    private void consume(CameraRelay.SessionInfo info, CameraRelay.Subscriber subscriber, byte[] packet)
+            throws RtpRingBuffer.OverrunException, InterruptedException {
+        clockRate = info.clockRate > 0 ? info.clockRate : TIMESCALE;
+        RtpDepacketizer depacketizer = new RtpDepacketizer(info.codec);
+        for (byte[] parameterSet : info.parameterSets) {
+            depacketizer.setParameterSet(parameterSet);
+        }
+        while (isActive() && !dropped) {
+            int length = subscriber.next(packet, 0, POLL_INTERVAL_MS);
+            if (length < 0) {
+                continue;
+            }
+            depacketizer.push(packet, 0, length);
+            AccessUnit unit;
+            while ((unit = depacketizer.poll()) != null) {
+                onAccessUnit(depacketizer, unit);
+            }
+        }
+    }
+
+    private void onAccessUnit(RtpDepacketizer depacketizer, AccessUnit unit) {
+        long ticks = clockRate == TIMESCALE ? unit.timestamp : unit.timestamp * TIMESCALE / clockRate;
+        boolean parameterSetsChanged = depacketizer.takeParameterSetsChanged();
+        if (unit.keyframe && (initId < 0 || parameterSetsChanged)) {
+            // 参数集变化只能在关键帧处切换初始化段
+            flushPending(ticks);
+            if (!newInit(depacketizer)) {
+                return;
+            }
+            baseTicks = ticks;
+        }
+        if (initId < 0) {
+            return;
+        }
+        if (pending != null && ticks - baseTicks <= pending.decodeTime) {
+            // 时间戳回退，从下一个关键帧重新开始
+            Log.w(TAG, "Timestamp discontinuity on camera " + getCameraId());
+            pending = null;
+            closeSegment();
+            initId = -1;
+            return;
+        }
+        flushPending(ticks);
+        pending = new FragmentedMp4Writer.Sample(unit.data, 0, unit.length, ticks - baseTicks, unit.keyframe);
+        pendingWallMillis = System.currentTimeMillis();
+    }
+
+    // 下一帧到达后上一帧的时长才确定，这时才把它放进部分分片
+    private void flushPending(long nextTicks) {
+        FragmentedMp4Writer.Sample sample = pending;
+        if (sample == null) {
+            return;
+        }
+        pending = null;
+        long duration = nextTicks - baseTicks - sample.decodeTime;
+        if (duration > 0 && duration < 10L * TIMESCALE) {
+            lastDuration = (int) duration;
+        }
+        sample.duration = lastDuration;
+
+        Segment segment;
+        synchronized (this) {
+            segment = current;
+        }
+        if (sample.sync && segment != null
+                && (segment.initId != initId || segment.duration + partTicks >= SEGMENT_TARGET_TICKS)) {
+            closePart();
+            closeSegment();
+            segment = null;
+        }
+        if (segment == null) {
+            if (!sample.sync) {
+                return;
+            }
+            openSegment(pendingWallMillis);
+        } else if (!partSamples.isEmpty() && partTicks + sample.duration > PART_TARGET_TICKS) {
+            closePart();
+        }
+        partSamples.add(sample);
+        partTicks += sample.duration;
+    }
+
+    private boolean newInit(RtpDepacketizer depacketizer) {
+        byte[] sps = depacketizer.getSps();
+        byte[] pps = depacketizer.getPps();
+        byte[] vps = depacketizer.getVps();
+        boolean h265 = depacketizer.getCodec() == NalUnits.CODEC_H265;
+        if (sps == null || pps == null || (h265 && vps == null)) {
+            return false;
+        }
+        byte[] init;
+        try {
+            if (h265) {
+                NalUnits.SpsInfo info = NalUnits.parseH265Sps(sps);
+                init = FragmentedMp4Writer.buildInitSegment(NalUnits.buildHvc1Entry(vps, sps, pps, info),
+                        info.width, info.height, System.currentTimeMillis());
+            } else {
+                NalUnits.SpsInfo info = NalUnits.parseH264Sps(sps);
+                init = FragmentedMp4Writer.buildInitSegment(NalUnits.buildAvc1Entry(sps, pps, info),
+                        info.width, info.height, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Invalid SPS from camera " + getCameraId() + ": " + e.getMessage());
+            return false;
+        }
+        closePart();
+        closeSegment();
+        synchronized (this) {
+            initId = nextInitId++;
+            inits.put(initId, init);
+            // 第一个初始化段之前没有分片，不需要标记不连续
+            discontinuity = !segments.isEmpty();
+        }
+        return true;
+    }
+
+    private void openSegment(long wallMillis) {
+        synchronized (this) {
+            current = new Segment(nextSequence++, initId, discontinuity, wallMillis);
+            discontinuity = false;
+        }
+    }
+
+    private void closePart() {
+        if (partSamples.isEmpty()) {
+            return;
+        }
+        byte[] data = FragmentedMp4Writer.buildFragment(++fragmentSequence, partSamples);
+        Part part = new Part(data, partTicks, partSamples.get(0).sync);
+        partSamples.clear();
+        partTicks = 0;
+        synchronized (this) {
+            if (current != null) {
+                current.parts.add(part);
+                current.duration += part.duration;
+            }
+            notifyAll();
+        }
+    }
+
+    private void closeSegment() {
+        closePart();
+        synchronized (this) {
+            Segment segment = current;
+            current = null;
+            if (segment == null || segment.parts.isEmpty()) {
+                return;
+            }
+            byte[] data = new byte[(int) segment.size()];
+            int position = 0;
+            for (Part part : segment.parts) {
+                System.arraycopy(part.data, 0, data, position, part.data.length);
+                position += part.data.length;
+            }
+            segment.data = data;
+            segments.add(segment);
+            int seconds = (int) ((segment.duration + TIMESCALE - 1) / TIMESCALE);
+            if (seconds > targetDurationSeconds) {
+                // 目标时长只增不减，GOP 比预期长时以实际分片为准
+                targetDurationSeconds = seconds;
+            }
+            trimWindow();
+            notifyAll();
+        }
+    }
+
+    // 调用方持有 this 锁
+    private void trimWindow() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.size();
+        }
+        while (segments.size() > 1 && (segments.size() > WINDOW_SEGMENTS || total > WINDOW_BYTES)) {
+            total -= segments.removeFirst().size();
+        }
+        int index = 0;
+        for (Segment segment : segments) {
+            // 较早分片的部分分片不再列出，只保留完整数据
+            if (index++ < segments.size() - PART_SEGMENTS) {
+                segment.parts.clear();
+            }
+        }
+        int oldestInit = segments.isEmpty() ? initId : segments.peekFirst().initId;
+        Iterator<Integer> iterator = inits.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < oldestInit) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // 阻塞式播放列表刷新：等到指定分片（及其部分分片）出现；part 为-1表示等整个分片完成。
+    // 返回false表示超时或打包已停止
+    public synchronized boolean await(long sequence, int part, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (running) {
+            if (isAvailable(sequence, part)) {
+                return true;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return false;
+    }
+
+    // 分片已完成（或已移出窗口），或者当前分片已有该部分分片
+    private boolean isAvailable(long sequence, int part) {
+        if (current != null && current.sequence == sequence) {
+            return part >= 0 && current.parts.size() > part;
+        }
+        return sequence < (current != null ? current.sequence : nextSequence);
+    }
+
+    // 最新分片序号，还没有任何分片时为-1
+    public synchronized long getLatestSequence() {
+        return current != null ? current.sequence : nextSequence - 1;
+    }
+
+    public synchronized boolean hasMedia() {
+        return !segments.isEmpty() || (current != null && !current.parts.isEmpty());
+    }
+
+    // 打包刚启动时等待第一个部分分片
+    public synchronized boolean awaitMedia(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (running && !hasMedia()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return hasMedia();
+    }
+
+    public synchronized byte[] getInit(int id) {
+        return inits.get(id);
+    }
+
+    public synchronized byte[] getSegment(long sequence) {
+        for (Segment segment : segments) {
+            if (segment.sequence == sequence) {
+                return segment.data;
+            }
+        }
+        return null;
+    }
+
+    public synchronized byte[] getPart(long sequence, int index) {
+        if (current != null && current.sequence == sequence) {
+            return index < current.parts.size() ? current.parts.get(index).data : null;
+        }
+        for (Segment segment : segments) {
+            if (segment.sequence == sequence) {
+                return index < segment.parts.size() ? segment.parts.get(index).data : null;
+            }
+        }
+        return null;
+    }
+
+    public synchronized String buildPlaylist() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:9\n");
+        sb.append("#EXT-X-TARGETDURATION:").append(targetDurationSeconds).append('\n');
+        // 部分分片保持距离至少为三个部分分片时长
+        sb.append("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=")
+                .append(seconds(3 * PART_TARGET_TICKS)).append('\n');
+        sb.append("#EXT-X-PART-INF:PART-TARGET=").append(seconds(PART_TARGET_TICKS)).append('\n');
+        Segment first = segments.isEmpty() ? current : segments.peekFirst();
+        sb.append("#EXT-X-MEDIA-SEQUENCE:").append(first != null ? first.sequence : 0).append('\n');
+        int lastInit = -1;
+        for (Segment segment : segments) {
+            lastInit = appendSegmentHeader(sb, segment, lastInit);
+            appendParts(sb, segment);
+            sb.append("#EXTINF:").append(seconds(segment.duration)).append(",\n");
+            sb.append("seg-").append(segment.sequence).append(".m4s\n");
+        }
+        if (current != null) {
+            appendSegmentHeader(sb, current, lastInit);
+            appendParts(sb, current);
+            sb.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"part-").append(current.sequence).append('-')
+                    .append(current.parts.size()).append(".m4s\"\n");
+        }
+        return sb.toString();
+    }
+
+    private int appendSegmentHeader(StringBuilder sb, Segment segment, int lastInit) {
+        if (segment.discontinuity && lastInit >= 0) {
+            sb.append("#EXT-X-DISCONTINUITY\n");
+        }
+        if (segment.initId != lastInit) {
+            sb.append("#EXT-X-MAP:URI=\"init-").append(segment.initId).append(".mp4\"\n");
+        }
+        sb.append("#EXT-X-PROGRAM-DATE-TIME:").append(formatDateTime(segment.startWallMillis)).append('\n');
+        return segment.initId;
+    }
+
+    private void appendParts(StringBuilder sb, Segment segment) {
+        for (int i = 0; i < segment.parts.size(); i++) {
+            Part part = segment.parts.get(i);
+            sb.append("#EXT-X-PART:DURATION=").append(seconds(part.duration))
+                    .append(",URI=\"part-").append(segment.sequence).append('-').append(i).append(".m4s\"");
+            if (part.independent) {
+                sb.append(",INDEPENDENT=YES");
+            }
+            sb.append('\n');
+        }
+    }
+
+    private static String seconds(long ticks) {
+        return String.format(Locale.ROOT, "%.3f", (double) ticks / TIMESCALE);
+    }
+
+    private static String formatDateTime(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+}
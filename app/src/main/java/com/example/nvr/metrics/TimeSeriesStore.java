@@ -0,0 +1,257 @@
+package com.example.nvr.metrics;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.nvr.utils.DatabaseHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 事件与指标的时序存储：写入只进内存缓冲，后台线程每隔 FLUSH_INTERVAL_MS 把整批数据连同
+// 分钟/小时汇总在一个事务中写入 SQLite；原始数据和汇总按各自的保留期定期清理
+public class TimeSeriesStore {
+
+    private static final String TAG = "TimeSeriesStore";
+
+    public static final long RESOLUTION_RAW = 0;
+    public static final long RESOLUTION_MINUTE = 60 * 1000L;
+    public static final long RESOLUTION_HOUR = 60 * RESOLUTION_MINUTE;
+
+    public static final String EVENT_MOTION = "motion";
+    public static final String EVENT_CONNECTED = "connected";
+    public static final String EVENT_DISCONNECTED = "disconnected";
+    // 流停滞被看门狗重启，value 为停滞的毫秒数，detail 为管线类型
+    public static final String EVENT_STALL = "stall";
+    public static final String METRIC_BITRATE_KBPS = "bitrate_kbps";
+
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final long PRUNE_INTERVAL_MS = 10 * RESOLUTION_MINUTE;
+    // 数据库长时间不可写时缓冲区的上限，超过后丢弃新数据，避免内存无限增长
+    private static final int MAX_BUFFERED = 50000;
+
+    private static final long RAW_RETENTION_MS = 24 * RESOLUTION_HOUR;
+    private static final long MINUTE_RETENTION_MS = 7 * 24 * RESOLUTION_HOUR;
+    private static final long HOUR_RETENTION_MS = 365 * 24 * RESOLUTION_HOUR;
+    private static final long EVENT_RETENTION_MS = 30 * 24 * RESOLUTION_HOUR;
+
+    public static final class Event {
+        public final String cameraId;
+        public final String type;
+        public final long timeMillis;
+        public final long value;
+        public final String detail;
+
+        public Event(String cameraId, String type, long timeMillis, long value, String detail) {
+            this.cameraId = cameraId;
+            this.type = type;
+            this.timeMillis = timeMillis;
+            this.value = value;
+            this.detail = detail;
+        }
+    }
+
+    public static final class Sample {
+        public final String cameraId;
+        public final String metric;
+        public final long timeMillis;
+        public final double value;
+
+        public Sample(String cameraId, String metric, long timeMillis, double value) {
+            this.cameraId = cameraId;
+            this.metric = metric;
+            this.timeMillis = timeMillis;
+            this.value = value;
+        }
+    }
+
+    // 一个时间桶的汇总；原始数据查询时 count 为1，四个统计值相同
+    public static final class Point {
+        public final String cameraId;
+        public final String metric;
+        public final long resolution;
+        public final long bucketStart;
+        public long count;
+        public double sum;
+        public double min;
+        public double max;
+
+        public Point(String cameraId, String metric, long resolution, long bucketStart,
+                     long count, double sum, double min, double max) {
+            this.cameraId = cameraId;
+            this.metric = metric;
+            this.resolution = resolution;
+            this.bucketStart = bucketStart;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public double getAverage() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+
+    private static volatile TimeSeriesStore instance;
+
+    private final DatabaseHelper databaseHelper;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "timeseries");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object bufferLock = new Object();
+    private List<Event> pendingEvents = new ArrayList<>();
+    private List<Sample> pendingSamples = new ArrayList<>();
+    private long dropped;
+
+    private TimeSeriesStore(Context context) {
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::pruneQuietly, RESOLUTION_MINUTE, PRUNE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static TimeSeriesStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (TimeSeriesStore.class) {
+                if (instance == null) {
+                    instance = new TimeSeriesStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void recordEvent(String cameraId, String type, long timeMillis, long value, String detail) {
+        synchronized (bufferLock) {
+            if (pendingEvents.size() + pendingSamples.size() >= MAX_BUFFERED) {
+                dropped++;
+                return;
+            }
+            pendingEvents.add(new Event(cameraId, type, timeMillis, value, detail));
+        }
+    }
+
+    public void recordEvent(String cameraId, String type) {
+        recordEvent(cameraId, type, System.currentTimeMillis(), 0, null);
+    }
+
+    public void recordSample(String cameraId, String metric, long timeMillis, double value) {
+        synchronized (bufferLock) {
+            if (pendingEvents.size() + pendingSamples.size() >= MAX_BUFFERED) {
+                dropped++;
+                return;
+            }
+            pendingSamples.add(new Sample(cameraId, metric, timeMillis, value));
+        }
+    }
+
+    // 立即提交缓冲中的数据（例如退出前），在调用线程执行
+    public void flush() {
+        List<Event> events;
+        List<Sample> samples;
+        long droppedCount;
+        synchronized (bufferLock) {
+            if (pendingEvents.isEmpty() && pendingSamples.isEmpty()) {
+                return;
+            }
+            events = pendingEvents;
+            samples = pendingSamples;
+            droppedCount = dropped;
+            pendingEvents = new ArrayList<>();
+            pendingSamples = new ArrayList<>();
+            dropped = 0;
+        }
+        if (droppedCount > 0) {
+            Log.w(TAG, "Buffer full, dropped " + droppedCount + " records");
+        }
+        List<Point> rollups = new ArrayList<>();
+        rollup(samples, RESOLUTION_MINUTE, rollups);
+        rollup(samples, RESOLUTION_HOUR, rollups);
+        databaseHelper.writeTimeSeries(events, samples, rollups);
+    }
+
+    // 把本批样本先在内存里按桶聚合，写库时每个桶只需一次累加
+    private static void rollup(List<Sample> samples, long resolution, List<Point> out) {
+        Map<String, Point> buckets = new HashMap<>();
+        for (Sample sample : samples) {
+            long bucketStart = sample.timeMillis - Math.floorMod(sample.timeMillis, resolution);
+            String key = sample.cameraId + '\u0000' + sample.metric + '\u0000' + bucketStart;
+            Point point = buckets.get(key);
+            if (point == null) {
+                buckets.put(key, new Point(sample.cameraId, sample.metric, resolution, bucketStart,
+                        1, sample.value, sample.value, sample.value));
+            } else {
+                point.add(sample.value);
+            }
+        }
+        out.addAll(buckets.values());
+    }
+
+    // 删除摄像头的全部事件和指标。先把缓冲写库再删，尚未提交的记录不会在之后重新出现；
+    // 调用前应已停止该摄像头的录制，不再有新记录
+    public void removeCamera(String cameraId) {
+        flush();
+        databaseHelper.deleteTimeSeries(cameraId);
+    }
+
+    public void prune() {
+        long now = System.currentTimeMillis();
+        int deleted = databaseHelper.pruneTimeSeries(now - RAW_RETENTION_MS, now - MINUTE_RETENTION_MS,
+                now - HOUR_RETENTION_MS, now - EVENT_RETENTION_MS);
+        if (deleted > 0) {
+            Log.d(TAG, "Pruned " + deleted + " time-series rows");
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to flush time-series batch", e);
+        }
+    }
+
+    private void pruneQuietly() {
+        try {
+            prune();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to prune time-series data", e);
+        }
+    }
+
+    // 按时间跨度选择分辨率：两小时内用原始数据，三天内用分钟汇总，更长用小时汇总；
+    // 原始数据已被清理的时间段退到分钟汇总
+    public static long chooseResolution(long fromMillis, long toMillis) {
+        long span = toMillis - fromMillis;
+        if (span <= 2 * RESOLUTION_HOUR && fromMillis >= System.currentTimeMillis() - RAW_RETENTION_MS) {
+            return RESOLUTION_RAW;
+        }
+        return span <= 3 * 24 * RESOLUTION_HOUR ? RESOLUTION_MINUTE : RESOLUTION_HOUR;
+    }
+
+    public void queryMetricAsync(String cameraId, String metric, long fromMillis, long toMillis,
+                                 DatabaseHelper.Callback<List<Point>> callback) {
+        long resolution = chooseResolution(fromMillis, toMillis);
+        databaseHelper.runAsync(() -> databaseHelper.queryMetric(cameraId, metric, resolution, fromMillis, toMillis), callback);
+    }
+
+    public void queryEventsAsync(String cameraId, String type, long fromMillis, long toMillis, int limit,
+                                 DatabaseHelper.Callback<List<Event>> callback) {
+        databaseHelper.runAsync(() -> databaseHelper.queryEvents(cameraId, type, fromMillis, toMillis, limit), callback);
+    }
+}
@@ -9,6 +9,10 @@ public class CameraDevice implements Parcelable {
     private String rtspUrl;
     private boolean isRecording;
     private boolean isConnected;
+    // 是否由后台录制服务持续录制
+    private boolean recordingEnabled = true;
+    // 可选的子码流地址；配置了子码流的摄像头在高负载时可降级为录制子码流
+    private String substreamUrl = "";
 
     public CameraDevice(String id, String name, String rtspUrl) {
         this.id = id != null ? id : "";
@@ -18,6 +22,17 @@ public class CameraDevice implements Parcelable {
         this.isConnected = false;
     }
 
+    // 复制配置和状态，DatabaseHelper 用它把缓存中的实例交给调用方
+    public CameraDevice(CameraDevice other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.rtspUrl = other.rtspUrl;
+        this.isRecording = other.isRecording;
+        this.isConnected = other.isConnected;
+        this.recordingEnabled = other.recordingEnabled;
+        this.substreamUrl = other.substreamUrl;
+    }
+
     protected CameraDevice(Parcel in) {
         id = in.readString();
         if (id == null) id = "";
@@ -30,6 +45,9 @@ public class CameraDevice implements Parcelable {
         
         isRecording = in.readByte() != 0;
         isConnected = in.readByte() != 0;
+        recordingEnabled = in.readByte() != 0;
+        substreamUrl = in.readString();
+        if (substreamUrl == null) substreamUrl = "";
     }
 
     public static final Creator<CameraDevice> CREATOR = new Creator<CameraDevice>() {
@@ -63,6 +81,13 @@ public class CameraDevice implements Parcelable {
     public boolean isConnected() { return isConnected; }
     public void setConnected(boolean connected) { isConnected = connected; }
 
+    public boolean isRecordingEnabled() { return recordingEnabled; }
+    public void setRecordingEnabled(boolean recordingEnabled) { this.recordingEnabled = recordingEnabled; }
+
+    public String getSubstreamUrl() { return substreamUrl != null ? substreamUrl : ""; }
+    public void setSubstreamUrl(String substreamUrl) { this.substreamUrl = substreamUrl != null ? substreamUrl : ""; }
+    public boolean hasSubstream() { return substreamUrl != null && !substreamUrl.trim().isEmpty(); }
+
     @Override
     public int describeContents() {
         return 0;
@@ -76,6 +101,8 @@ public class CameraDevice implements Parcelable {
             dest.writeString(rtspUrl != null ? rtspUrl : "");
             dest.writeByte((byte) (isRecording ? 1 : 0));
             dest.writeByte((byte) (isConnected ? 1 : 0));
+            dest.writeByte((byte) (recordingEnabled ? 1 : 0));
+            dest.writeString(substreamUrl != null ? substreamUrl : "");
         }
     }
 }
@@ -3,6 +3,9 @@ package com.example.nvr.model;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.utils.FormatUtils;
+
 import java.io.File;
 import java.util.Date;
 
@@ -15,6 +18,12 @@ public class RecordingFile implements Parcelable {
     private Date endTime;
     private String cameraId;
     private String cameraName;
+    // 录像索引表中的行ID，列表用作稳定ID；未入库时为-1
+    private long rowId = -1;
+    // 从 MP4 头部解析出的视频信息，未知时为0或空串
+    private int width;
+    private int height;
+    private String codec = "";
 
     public RecordingFile(String id, String fileName, String filePath, long fileSize, 
                         Date startTime, Date endTime, String cameraId, String cameraName) {
@@ -50,6 +59,12 @@ public class RecordingFile implements Parcelable {
         
         cameraName = in.readString();
         if (cameraName == null) cameraName = "";
+
+        rowId = in.readLong();
+        width = in.readInt();
+        height = in.readInt();
+        codec = in.readString();
+        if (codec == null) codec = "";
     }
 
     public static final Creator<RecordingFile> CREATOR = new Creator<RecordingFile>() {
@@ -79,6 +94,10 @@ public class RecordingFile implements Parcelable {
         dest.writeLong(endTime != null ? endTime.getTime() : 0);
         dest.writeString(cameraId);
         dest.writeString(cameraName);
+        dest.writeLong(rowId);
+        dest.writeInt(width);
+        dest.writeInt(height);
+        dest.writeString(codec);
     }
 
     // Getters and Setters
@@ -146,12 +165,60 @@ public class RecordingFile implements Parcelable {
         this.cameraName = cameraName != null ? cameraName : "";
     }
 
+    public long getRowId() {
+        return rowId;
+    }
+
+    public void setRowId(long rowId) {
+        this.rowId = rowId;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setResolution(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec != null ? codec : "";
+    }
+
+    // 例如 "1920x1080 H.264"
+    public String getVideoDescription() {
+        return FormatUtils.videoDescription(codec, width, height);
+    }
+
+    // 列表差异比较用：同一行的内容是否变化
+    public boolean hasSameContent(RecordingFile other) {
+        return other != null
+                && fileSize == other.fileSize
+                && filePath.equals(other.filePath)
+                && cameraName.equals(other.cameraName)
+                && width == other.width
+                && height == other.height
+                && codec.equals(other.codec)
+                && sameTime(startTime, other.startTime)
+                && sameTime(endTime, other.endTime);
+    }
+
+    private static boolean sameTime(Date a, Date b) {
+        return a == null ? b == null : b != null && a.getTime() == b.getTime();
+    }
+
     // 获取文件的可读大小
     public String getReadableFileSize() {
-        if (fileSize <= 0) return "0 B";
-        final String[] units = new String[]{"B", "KB", "MB", "GB", "TB"};
-        int digitGroups = (int) (Math.log10(fileSize) / Math.log10(1024));
-        return String.format("%.2f %s", fileSize / Math.pow(1024, digitGroups), units[digitGroups]);
+        return FormatUtils.readableSize(fileSize);
     }
 
     // 获取录制时长（秒）
@@ -162,16 +229,7 @@ public class RecordingFile implements Parcelable {
 
     // 获取录制时长的可读字符串
     public String getReadableDuration() {
-        long durationSeconds = getDurationSeconds();
-        long hours = durationSeconds / 3600;
-        long minutes = (durationSeconds % 3600) / 60;
-        long seconds = durationSeconds % 60;
-
-        if (hours > 0) {
-            return String.format("%d:%02d:%02d", hours, minutes, seconds);
-        } else {
-            return String.format("%d:%02d", minutes, seconds);
-        }
+        return FormatUtils.readableDuration(getDurationSeconds());
     }
 
     // 删除文件
@@ -180,6 +238,14 @@ public class RecordingFile implements Parcelable {
             return false;
         }
         File file = new File(filePath);
-        return file.exists() && file.delete();
+        boolean deleted = file.exists() && file.delete();
+        if (deleted) {
+            // 同时删除旁路关键帧索引
+            File index = KeyframeIndex.sidecarFor(file);
+            if (index.exists()) {
+                index.delete();
+            }
+        }
+        return deleted;
     }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package com.example.nvr.recording;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.example.nvr.ingest.AccessUnit;
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.ingest.RtspClient;
+import com.example.nvr.metrics.TimeSeriesStore;
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.relay.CameraRelay;
+import com.example.nvr.relay.RelayHub;
+import com.example.nvr.snapshot.SnapshotService;
+import com.example.nvr.timeline.CoverageTimeline;
+import com.example.nvr.utils.DatabaseHelper;
+import com.example.nvr.utils.StorageManager;
+
+import java.io.File;
+
+// 单个摄像头的录制：录制循环在 nvr-core 的 StreamRecorder 中，这里接上应用的平台功能——
+// RTSP 转发、快照、数据库索引、覆盖时间轴、时间序列和看门狗
+public class CameraRecorder implements StreamWatchdog.Target, StreamRecorder.Listener {
+
+    // 单调时钟用 elapsedRealtime，设备休眠期间也计时，看门狗不会把休眠误判为停滞
+    private static final StreamRecorder.Clock ANDROID_CLOCK = new StreamRecorder.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    private final CameraDevice camera;
+    private final StreamRecorder recorder;
+    private final StorageManager storageManager;
+    private final DatabaseHelper databaseHelper;
+    private final CoverageTimeline coverageTimeline;
+    private final TimeSeriesStore timeSeriesStore;
+    private final StreamWatchdog watchdog;
+    // 录制会话同时作为 RTSP 转发的上游，摄像头只需要承担这一个连接
+    private final CameraRelay relay;
+    private final SnapshotService snapshotService;
+
+    public CameraRecorder(Context context, CameraDevice camera, String streamUrl, long segmentMillis) {
+        this.camera = camera;
+        this.storageManager = new StorageManager(context);
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+        this.coverageTimeline = CoverageTimeline.getInstance(context);
+        this.timeSeriesStore = TimeSeriesStore.getInstance(context);
+        this.watchdog = StreamWatchdog.getInstance(context);
+        this.relay = RelayHub.getInstance(context).obtain(camera);
+        this.snapshotService = SnapshotService.getInstance(context);
+        this.recorder = new StreamRecorder(camera.getId(), camera.getName(), streamUrl, segmentMillis,
+                storageManager, ANDROID_CLOCK, this);
+    }
+
+    public CameraDevice getCamera() {
+        return camera;
+    }
+
+    public String getStreamUrl() {
+        return recorder.getStreamUrl();
+    }
+
+    public double getWriteLoad() {
+        return recorder.getWriteLoad();
+    }
+
+    public long getPacketsReceived() {
+        return recorder.getPacketsReceived();
+    }
+
+    public long getPacketsLost() {
+        return recorder.getPacketsLost();
+    }
+
+    public long getSegmentMillis() {
+        return recorder.getSegmentMillis();
+    }
+
+    public StreamRecorder.State getState() {
+        return recorder.getState();
+    }
+
+    public long getLastFrameMillis() {
+        return recorder.getLastFrameMillis();
+    }
+
+    public long getBytesWritten() {
+        return recorder.getBytesWritten();
+    }
+
+    public long getFramesRecorded() {
+        return recorder.getFramesRecorded();
+    }
+
+    public long getBytesReceived() {
+        return recorder.getBytesReceived();
+    }
+
+    public int getQueueDepth() {
+        return recorder.getQueueDepth();
+    }
+
+    public String getCurrentFilePath() {
+        return recorder.getCurrentFilePath();
+    }
+
+    @Override
+    public String getCameraId() {
+        return camera.getId();
+    }
+
+    @Override
+    public String getKind() {
+        return "recorder";
+    }
+
+    @Override
+    public long getLastProgressMillis() {
+        return recorder.getLastProgressMillis();
+    }
+
+    @Override
+    public long getStallTimeoutMillis() {
+        return recorder.getStallTimeoutMillis();
+    }
+
+    @Override
+    public void restart() {
+        recorder.restart();
+    }
+
+    public void start() {
+        relay.attachRecorder();
+        recorder.start(runnable -> new Thread(runnable, "recorder-" + camera.getId()));
+        watchdog.register(this);
+    }
+
+    public void stop() {
+        watchdog.unregister(this);
+        recorder.stop();
+    }
+
+    // 以下回调都在录制线程上
+
+    @Override
+    public void onSessionStarted(RtspClient session) {
+        relay.onSourceStarted(session, session.getCodec(), session.getClockRate(), session.getParameterSets());
+        timeSeriesStore.recordEvent(camera.getId(), TimeSeriesStore.EVENT_CONNECTED);
+    }
+
+    @Override
+    public void onPacket(RtspClient session, byte[] packet, int offset, int length) {
+        if (relay.isWanted()) {
+            relay.publish(session, packet, offset, length);
+        }
+    }
+
+    @Override
+    public void onSessionEnded(RtspClient session) {
+        relay.onSourceStopped(session);
+    }
+
+    @Override
+    public void onDisconnected() {
+        timeSeriesStore.recordEvent(camera.getId(), TimeSeriesStore.EVENT_DISCONNECTED,
+                System.currentTimeMillis(), 0, "recorder");
+    }
+
+    @Override
+    public void onKeyframe(RtpDepacketizer depacketizer, AccessUnit unit) {
+        // 只交出引用，快照在被请求时才解码
+        snapshotService.onKeyframe(camera.getId(), depacketizer.getCodec(), unit,
+                depacketizer.getVps(), depacketizer.getSps(), depacketizer.getPps());
+    }
+
+    @Override
+    public void onSegmentOpened(File file) {
+        camera.setRecording(true);
+    }
+
+    @Override
+    public void onSegmentClosed(File file, long startMillis, long durationMillis) {
+        storageManager.indexRecording(databaseHelper, file);
+        coverageTimeline.onSegmentClosed(camera.getId(), startMillis, startMillis + durationMillis);
+    }
+
+    @Override
+    public void onBitrate(long timeMillis, double kbps) {
+        timeSeriesStore.recordSample(camera.getId(), TimeSeriesStore.METRIC_BITRATE_KBPS, timeMillis, kbps);
+    }
+
+    @Override
+    public void onStopped() {
+        camera.setRecording(false);
+        relay.detachRecorder();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.nvr.recording;
+
+// 一路录制的状态快照，不可变；由 RecordingService 每秒统一生成一次，所有摄像头一起下发
+public final class CameraStatus {
+
+    private static final long DISPLAY_BYTES_UNIT = 1024 * 1024;
+
+    public final String cameraId;
+    public final StreamRecorder.State state;
+    public final float fps;
+    public final int bitrateKbps;
+    // GOP 缓冲中尚未写入的帧数
+    public final int queueDepth;
+    public final long bytesWritten;
+    public final int stallCount;
+
+    public CameraStatus(String cameraId, StreamRecorder.State state, float fps, int bitrateKbps,
+                        int queueDepth, long bytesWritten, int stallCount) {
+        this.cameraId = cameraId;
+        this.state = state;
+        this.fps = fps;
+        this.bitrateKbps = bitrateKbps;
+        this.queueDepth = queueDepth;
+        this.bytesWritten = bytesWritten;
+        this.stallCount = stallCount;
+    }
+
+    // 按界面显示的精度比较，显示内容不变的行不需要重新绑定
+    public boolean sameDisplay(CameraStatus other) {
+        return other != null
+                && state == other.state
+                && Math.round(fps * 10) == Math.round(other.fps * 10)
+                && bitrateKbps == other.bitrateKbps
+                && queueDepth == other.queueDepth
+                && bytesWritten / DISPLAY_BYTES_UNIT == other.bytesWritten / DISPLAY_BYTES_UNIT
+                && stallCount == other.stallCount;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.nvr.recording;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.nvr.metrics.MetricsRegistry;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 负载调节：定期采样 CPU、温控状态、录制写入耗时和丢包率，持续过载时按固定顺序逐级降载，
+// 负载回落并保持一段时间后再逐级恢复。主摄像头（未配置子码流）的录制在任何级别都不受影响
+public class LoadGovernor {
+
+    private static final String TAG = "LoadGovernor";
+
+    public static final int LEVEL_NORMAL = 0;
+    // 实时预览只解码关键帧
+    public static final int LEVEL_LIVE_KEYFRAMES = 1;
+    // 配置了子码流的摄像头改为录制子码流
+    public static final int LEVEL_SUBSTREAM = 2;
+    // 暂停后台分析类任务（录像缩略图抽帧）
+    public static final int LEVEL_PAUSE_ANALYTICS = 3;
+    private static final int MAX_LEVEL = LEVEL_PAUSE_ANALYTICS;
+
+    private static final long SAMPLE_INTERVAL_MS = 5000;
+    // 连续过载3次（15秒）升一级，连续空闲12次（1分钟）降一级
+    private static final int ESCALATE_SAMPLES = 3;
+    private static final int RECOVER_SAMPLES = 12;
+
+    // 过载/恢复阈值之间留出间隔，避免在边界上来回切换
+    private static final double CPU_HIGH = 0.85;
+    private static final double CPU_LOW = 0.60;
+    private static final double WRITE_HIGH = 0.50;
+    private static final double WRITE_LOW = 0.25;
+    private static final double DROP_HIGH = 0.02;
+    private static final double DROP_LOW = 0.005;
+    private static final int THERMAL_HIGH = PowerManager.THERMAL_STATUS_SEVERE;
+    private static final int THERMAL_LOW = PowerManager.THERMAL_STATUS_LIGHT;
+
+    public interface Listener {
+        // 在主线程回调
+        void onLevelChanged(int level);
+    }
+
+    private static volatile LoadGovernor instance;
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "load-governor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile int level = LEVEL_NORMAL;
+    private volatile double cpuLoad;
+    private volatile int thermalStatus;
+    private volatile double writeLoad;
+    private volatile double dropRate;
+
+    // 以下字段只在采样线程中访问
+    private long lastCpuMillis = -1;
+    private long lastSampleElapsed;
+    private long lastPacketsReceived;
+    private long lastPacketsLost;
+    private int highSamples;
+    private int lowSamples;
+
+    private LoadGovernor(Context context) {
+        this.context = context;
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        scheduler.scheduleWithFixedDelay(this::sampleQuietly, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        MetricsRegistry.getInstance().addCollector(sink -> {
+            sink.gauge("nvr_load_level", "Current load shedding level", level);
+            sink.gauge("nvr_cpu_load", "Process CPU usage normalized to core count", cpuLoad);
+            sink.gauge("nvr_thermal_status", "PowerManager thermal status", thermalStatus);
+            sink.gauge("nvr_rtp_drop_rate", "RTP packet loss ratio over the last sample", dropRate);
+        });
+    }
+
+    public static LoadGovernor getInstance(Context context) {
+        if (instance == null) {
+            synchronized (LoadGovernor.class) {
+                if (instance == null) {
+                    instance = new LoadGovernor(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isAtLeast(int required) {
+        return level >= required;
+    }
+
+    // 进程 CPU 占用，按核心数归一化到 0~1
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    public int getThermalStatus() {
+        return thermalStatus;
+    }
+
+    // 分片写入耗时与分片时长之比的最大值，接近1说明存储跟不上
+    public double getWriteLoad() {
+        return writeLoad;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    private void sampleQuietly() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Load sampling failed", e);
+        }
+    }
+
+    private void sample() {
+        long now = SystemClock.elapsedRealtime();
+        long cpuMillis = Process.getElapsedCpuTime();
+        if (lastCpuMillis >= 0 && now > lastSampleElapsed) {
+            int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+            cpuLoad = (double) (cpuMillis - lastCpuMillis) / ((now - lastSampleElapsed) * cores);
+        }
+        lastCpuMillis = cpuMillis;
+        lastSampleElapsed = now;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+            thermalStatus = powerManager.getCurrentThermalStatus();
+        }
+
+        double maxWriteLoad = 0;
+        long packetsReceived = 0;
+        long packetsLost = 0;
+        for (CameraRecorder recorder : RecordingEngine.getInstance(context).getRecorders()) {
+            maxWriteLoad = Math.max(maxWriteLoad, recorder.getWriteLoad());
+            packetsReceived += recorder.getPacketsReceived();
+            packetsLost += recorder.getPacketsLost();
+        }
+        writeLoad = maxWriteLoad;
+        long receivedDelta = packetsReceived - lastPacketsReceived;
+        long lostDelta = packetsLost - lastPacketsLost;
+        // 录制线程重建后计数会归零，出现负数时本轮不计
+        dropRate = receivedDelta > 0 && lostDelta >= 0 ? (double) lostDelta / (receivedDelta + lostDelta) : 0;
+        lastPacketsReceived = packetsReceived;
+        lastPacketsLost = packetsLost;
+
+        evaluate();
+    }
+
+    private void evaluate() {
+        boolean overloaded = cpuLoad > CPU_HIGH || writeLoad > WRITE_HIGH || dropRate > DROP_HIGH
+                || thermalStatus >= THERMAL_HIGH;
+        boolean calm = cpuLoad < CPU_LOW && writeLoad < WRITE_LOW && dropRate < DROP_LOW
+                && thermalStatus <= THERMAL_LOW;
+        int current = level;
+        int next = current;
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_CRITICAL) {
+            // 即将被系统降频或关机，直接降到最低负载
+            next = MAX_LEVEL;
+            highSamples = 0;
+            lowSamples = 0;
+        } else if (overloaded) {
+            lowSamples = 0;
+            if (++highSamples >= ESCALATE_SAMPLES && current < MAX_LEVEL) {
+                next = current + 1;
+                highSamples = 0;
+            }
+        } else if (calm) {
+            highSamples = 0;
+            if (++lowSamples >= RECOVER_SAMPLES && current > LEVEL_NORMAL) {
+                next = current - 1;
+                lowSamples = 0;
+            }
+        } else {
+            highSamples = 0;
+            lowSamples = 0;
+        }
+        if (next != current) {
+            setLevel(next);
+        }
+    }
+
+    private void setLevel(final int next) {
+        Log.w(TAG, "Load level " + level + " -> " + next + " (cpu=" + String.format("%.2f", cpuLoad)
+                + ", thermal=" + thermalStatus + ", write=" + String.format("%.2f", writeLoad)
+                + ", drop=" + String.format("%.3f", dropRate) + ")");
+        level = next;
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onLevelChanged(next);
+            }
+        });
+    }
+}
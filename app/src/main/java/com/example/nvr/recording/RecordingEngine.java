@@ -0,0 +1,184 @@
+package com.example.nvr.recording;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.utils.DatabaseHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// 后台录制引擎：为每个启用录制的摄像头维护一个 CameraRecorder 线程，
+// 摄像头列表或设置变化后调用 refresh() 增量调整。只在有录制线程运行时持有唤醒锁。
+// 负载调节器进入子码流级别时，配置了子码流的摄像头改录子码流
+public class RecordingEngine implements LoadGovernor.Listener {
+
+    private static final String TAG = "RecordingEngine";
+    private static final long DEFAULT_SEGMENT_MINUTES = 30;
+
+    private static volatile RecordingEngine instance;
+
+    private final Context context;
+    private final DatabaseHelper databaseHelper;
+    private final PowerManager.WakeLock wakeLock;
+    private final Map<String, CameraRecorder> recorders = new HashMap<>();
+    private boolean running;
+    private boolean useSubstreams;
+
+    public static RecordingEngine getInstance(Context context) {
+        if (instance == null) {
+            synchronized (RecordingEngine.class) {
+                if (instance == null) {
+                    instance = new RecordingEngine(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private RecordingEngine(Context context) {
+        this.context = context;
+        this.databaseHelper = DatabaseHelper.getInstance(context);
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "nvr:recording");
+        wakeLock.setReferenceCounted(false);
+        LoadGovernor.getInstance(context).addListener(this);
+        MetricsRegistry.getInstance().addCollector(this::collectMetrics);
+    }
+
+    // 抓取时读取各录制线程的瞬时状态；摄像头断流、线程在重连时 nvr_camera_up 为0，可以据此告警
+    private void collectMetrics(MetricsRegistry.Sink sink) {
+        long now = System.currentTimeMillis();
+        for (CameraRecorder recorder : getRecorders()) {
+            String id = recorder.getCameraId();
+            sink.gauge("nvr_camera_up", "1 while the camera is being recorded",
+                    recorder.getState() == StreamRecorder.State.RECORDING ? 1 : 0,
+                    "camera", id, "name", recorder.getCamera().getName());
+            long lastFrame = recorder.getLastFrameMillis();
+            if (lastFrame > 0) {
+                sink.gauge("nvr_camera_last_frame_age_seconds", "Seconds since the last frame from the camera",
+                        (now - lastFrame) / 1000.0, "camera", id);
+            }
+            sink.gauge("nvr_recorder_queue_depth", "Frames buffered for the next fragment",
+                    recorder.getQueueDepth(), "camera", id);
+            sink.gauge("nvr_recorder_write_load", "Fragment write time relative to fragment duration",
+                    recorder.getWriteLoad(), "camera", id);
+        }
+    }
+
+    @Override
+    public void onLevelChanged(int level) {
+        boolean substreams = level >= LoadGovernor.LEVEL_SUBSTREAM;
+        synchronized (this) {
+            if (substreams == useSubstreams) {
+                return;
+            }
+            useSubstreams = substreams;
+        }
+        refresh();
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public void start() {
+        synchronized (this) {
+            running = true;
+        }
+        refresh();
+    }
+
+    // 重新读取摄像头列表，启动新增的、停止已删除或停用的录制线程
+    public void refresh() {
+        databaseHelper.getAllCamerasAsync(this::apply);
+    }
+
+    private synchronized void apply(List<CameraDevice> cameras) {
+        if (!running || cameras == null) {
+            return;
+        }
+        long segmentMillis = getSegmentMillis();
+        Map<String, CameraDevice> wanted = new HashMap<>();
+        for (CameraDevice camera : cameras) {
+            if (camera.isRecordingEnabled() && camera.getRtspUrl() != null && !camera.getRtspUrl().trim().isEmpty()) {
+                wanted.put(camera.getId(), camera);
+            }
+        }
+
+        Iterator<Map.Entry<String, CameraRecorder>> iterator = recorders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CameraRecorder> entry = iterator.next();
+            CameraRecorder recorder = entry.getValue();
+            CameraDevice camera = wanted.get(entry.getKey());
+            // 地址、名称或分段时长变化都需要重建录制线程
+            if (camera == null
+                    || !streamUrlFor(camera).equals(recorder.getStreamUrl())
+                    || !camera.getName().equals(recorder.getCamera().getName())
+                    || segmentMillis != recorder.getSegmentMillis()) {
+                recorder.stop();
+                iterator.remove();
+            }
+        }
+        for (CameraDevice camera : wanted.values()) {
+            if (!recorders.containsKey(camera.getId())) {
+                CameraRecorder recorder = new CameraRecorder(context, camera, streamUrlFor(camera), segmentMillis);
+                recorders.put(camera.getId(), recorder);
+                recorder.start();
+            }
+        }
+        updateWakeLock();
+        Log.d(TAG, "Recording " + recorders.size() + " cameras");
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (CameraRecorder recorder : recorders.values()) {
+            recorder.stop();
+        }
+        recorders.clear();
+        updateWakeLock();
+    }
+
+    public synchronized List<CameraRecorder> getRecorders() {
+        return new ArrayList<>(recorders.values());
+    }
+
+    public synchronized CameraRecorder getRecorder(String cameraId) {
+        return recorders.get(cameraId);
+    }
+
+    private String streamUrlFor(CameraDevice camera) {
+        return useSubstreams && camera.hasSubstream() ? camera.getSubstreamUrl().trim() : camera.getRtspUrl();
+    }
+
+    private long getSegmentMillis() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long minutes;
+        try {
+            minutes = Long.parseLong(prefs.getString("recording_duration", String.valueOf(DEFAULT_SEGMENT_MINUTES)));
+        } catch (NumberFormatException e) {
+            minutes = DEFAULT_SEGMENT_MINUTES;
+        }
+        return Math.max(1, minutes) * 60 * 1000;
+    }
+
+    private void updateWakeLock() {
+        if (!recorders.isEmpty()) {
+            if (!wakeLock.isHeld()) {
+                wakeLock.acquire();
+            }
+        } else if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+}
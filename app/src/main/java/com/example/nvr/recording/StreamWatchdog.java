@@ -0,0 +1,123 @@
+package com.example.nvr.recording;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.metrics.TimeSeriesStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 流停滞看门狗：录制线程和实时预览各自登记为一个监控对象，定期检查最近一次进展的时间，
+// 超过该路的期限就只重启这一路管线，并把停滞事件写入时序存储
+public class StreamWatchdog {
+
+    private static final String TAG = "StreamWatchdog";
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    public interface Target {
+        String getCameraId();
+
+        // 管线类型，写入事件的 detail，如 "recorder"、"live"
+        String getKind();
+
+        // 最近一次进展的时间（SystemClock.elapsedRealtime），返回0表示当前不需要监控
+        long getLastProgressMillis();
+
+        long getStallTimeoutMillis();
+
+        // 在看门狗线程上调用，实现方自行切换到需要的线程
+        void restart();
+    }
+
+    private static volatile StreamWatchdog instance;
+
+    private final TimeSeriesStore timeSeriesStore;
+    // 目标 -> 上次被重启的时间，重启后至少再等一个期限才会再次触发
+    private final Map<Target, Long> targets = new ConcurrentHashMap<>();
+    private final Map<String, Integer> stallCounts = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private StreamWatchdog(Context context) {
+        this.timeSeriesStore = TimeSeriesStore.getInstance(context);
+        scheduler.scheduleWithFixedDelay(this::checkQuietly, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static StreamWatchdog getInstance(Context context) {
+        if (instance == null) {
+            synchronized (StreamWatchdog.class) {
+                if (instance == null) {
+                    instance = new StreamWatchdog(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void register(Target target) {
+        targets.put(target, 0L);
+    }
+
+    public void unregister(Target target) {
+        targets.remove(target);
+    }
+
+    // 该摄像头累计被重启的次数
+    public int getStallCount(String cameraId) {
+        synchronized (stallCounts) {
+            Integer count = stallCounts.get(cameraId);
+            return count != null ? count : 0;
+        }
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            // 异常会让定时任务停止调度，这里必须吞掉
+            Log.e(TAG, "Watchdog check failed", e);
+        }
+    }
+
+    private void check() {
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<Target, Long> entry : targets.entrySet()) {
+            Target target = entry.getKey();
+            long progress = target.getLastProgressMillis();
+            if (progress <= 0) {
+                continue;
+            }
+            long since = Math.max(progress, entry.getValue());
+            long stalled = now - since;
+            if (stalled < target.getStallTimeoutMillis()) {
+                continue;
+            }
+            Log.w(TAG, "Camera " + target.getCameraId() + " " + target.getKind()
+                    + " stalled for " + (now - progress) + "ms, restarting");
+            timeSeriesStore.recordEvent(target.getCameraId(), TimeSeriesStore.EVENT_STALL,
+                    System.currentTimeMillis(), now - progress, target.getKind());
+            synchronized (stallCounts) {
+                stallCounts.put(target.getCameraId(), getStallCount(target.getCameraId()) + 1);
+            }
+            MetricsRegistry.getInstance().counter("nvr_stream_stalls_total",
+                    "Pipelines restarted by the stall watchdog",
+                    "camera", target.getCameraId(), "kind", target.getKind()).inc();
+            entry.setValue(now);
+            try {
+                target.restart();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to restart " + target.getKind() + " for camera " + target.getCameraId(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.nvr.relay;
+
+import android.util.Log;
+
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.ingest.RtspClient;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.model.CameraDevice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// 单个摄像头的转发点：上游只有一个 RTSP 会话，包写入环形缓冲，任意数量的下游客户端各自按游标读取。
+// 摄像头在录制时直接复用录制线程的会话；没有录制时，有客户端才自己拉流，最后一个客户端离开后断开
+public class CameraRelay {
+
+    private static final String TAG = "CameraRelay";
+    // 约几秒的 1080p 码流，足够从最近的关键帧开始转发
+    private static final int RING_CAPACITY = 2048;
+    // 落后超过这个比例就断开，不等到真正被覆盖
+    private static final int MAX_LAG = RING_CAPACITY * 3 / 4;
+    private static final int LAG_CHECK_INTERVAL = 128;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 10000;
+    // 下游统一使用的动态负载类型
+    public static final int PAYLOAD_TYPE = 96;
+    // 上游重连后时间戳续接时插入的间隔（90kHz 下 40ms）
+    private static final long RECONNECT_TIMESTAMP_GAP = 3600;
+
+    // 上游会话的描述，用于生成下游 SDP
+    public static final class SessionInfo {
+        public final int codec;
+        public final int clockRate;
+        public final List<byte[]> parameterSets;
+
+        SessionInfo(int codec, int clockRate, List<byte[]> parameterSets) {
+            this.codec = codec;
+            this.clockRate = clockRate;
+            this.parameterSets = new ArrayList<>(parameterSets);
+        }
+
+        boolean sameAs(SessionInfo other) {
+            if (other == null || codec != other.codec || clockRate != other.clockRate
+                    || parameterSets.size() != other.parameterSets.size()) {
+                return false;
+            }
+            for (int i = 0; i < parameterSets.size(); i++) {
+                if (!Arrays.equals(parameterSets.get(i), other.parameterSets.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // 一个下游客户端的读游标
+    public final class Subscriber {
+        private final RtpRingBuffer ring;
+        private final Closeable owner;
+        private volatile long cursor;
+
+        Subscriber(RtpRingBuffer ring, Closeable owner) {
+            this.ring = ring;
+            this.owner = owner;
+            this.cursor = ring.startPosition();
+        }
+
+        // 读取下一个包，没有新包时最多等待 timeoutMillis 并返回-1
+        public int next(byte[] buffer, int offset, long timeoutMillis)
+                throws RtpRingBuffer.OverrunException, InterruptedException {
+            int length = ring.read(cursor, buffer, offset, timeoutMillis);
+            if (length >= 0) {
+                cursor++;
+            }
+            return length;
+        }
+
+        // 不等待，用于把已到的包攒成一批再写
+        public int poll(byte[] buffer, int offset) throws RtpRingBuffer.OverrunException {
+            int length = ring.tryRead(cursor, buffer, offset);
+            if (length >= 0) {
+                cursor++;
+            }
+            return length;
+        }
+
+        long lag() {
+            return ring.lag(cursor);
+        }
+
+        void drop() {
+            try {
+                owner.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final String cameraId;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final int ssrc = new SecureRandom().nextInt();
+    private final MetricsRegistry.Counter slowClientDrops;
+
+    private volatile CameraDevice camera;
+    private volatile RtpRingBuffer ring;
+    private volatile SessionInfo session;
+    // 已经 DESCRIBE 过、尚未断开的下游连接数
+    private int users;
+    // 录制线程重建时新旧线程会短暂并存，用计数而不是布尔值
+    private int attachedRecorders;
+    private Thread puller;
+    private RtspClient pullerClient;
+
+    // 以下字段只在持有 this 锁的上游写入路径中访问
+    private Object activeSource;
+    private int outSequence;
+    private long timestampOffset;
+    private long lastOutTimestamp = -1;
+    private boolean rebaseTimestamp;
+    private long published;
+
+    CameraRelay(CameraDevice camera) {
+        this.cameraId = camera.getId();
+        this.camera = camera;
+        this.slowClientDrops = MetricsRegistry.getInstance().counter("nvr_relay_slow_client_drops_total",
+                "Re-stream clients disconnected for falling behind", "camera", cameraId);
+    }
+
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    void updateCamera(CameraDevice camera) {
+        this.camera = camera;
+    }
+
+    // 有下游连接时录制线程才需要把包写进来
+    public boolean isWanted() {
+        return ring != null;
+    }
+
+    // 既没有下游连接也没有录制线程，可以从 RelayHub 中移除
+    synchronized boolean isIdle() {
+        return users == 0 && attachedRecorders == 0;
+    }
+
+    // 下游连接开始使用该摄像头（DESCRIBE 时），必要时启动自有的拉流线程
+    public synchronized void acquire() {
+        if (users++ == 0) {
+            ring = new RtpRingBuffer(RING_CAPACITY);
+        }
+        ensurePuller();
+    }
+
+    public synchronized void release() {
+        if (users > 0 && --users == 0) {
+            // 没有客户端时释放缓冲，录制线程也就不再复制包
+            ring = null;
+            stopPuller();
+        }
+    }
+
+    // 等待上游会话的描述，超时返回null
+    public synchronized SessionInfo awaitSession(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (session == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        return session;
+    }
+
+    public synchronized Subscriber subscribe(Closeable owner) throws IOException {
+        RtpRingBuffer current = ring;
+        if (current == null) {
+            throw new IOException("Relay is not acquired");
+        }
+        Subscriber subscriber = new Subscriber(current, owner);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    // 录制线程接管上游，自有拉流线程随即退出
+    public synchronized void attachRecorder() {
+        attachedRecorders++;
+        stopPuller();
+    }
+
+    public synchronized void detachRecorder() {
+        if (attachedRecorders > 0) {
+            attachedRecorders--;
+        }
+        ensurePuller();
+    }
+
+    // 上游会话建立：source 标识写入方，描述变化时断开已有客户端让它们重新获取 SDP
+    public synchronized void onSourceStarted(Object source, int codec, int clockRate, List<byte[]> parameterSets) {
+        SessionInfo info = new SessionInfo(codec, clockRate, parameterSets);
+        if (session != null && !info.sameAs(session)) {
+            Log.d(TAG, "Camera " + cameraId + " stream changed, dropping " + subscribers.size() + " clients");
+            for (Subscriber subscriber : subscribers) {
+                subscriber.drop();
+            }
+        }
+        session = info;
+        activeSource = source;
+        rebaseTimestamp = true;
+        RtpRingBuffer current = ring;
+        if (current != null) {
+            current.clearKeyframe();
+        }
+        notifyAll();
+    }
+
+    public synchronized void onSourceStopped(Object source) {
+        if (activeSource == source) {
+            activeSource = null;
+        }
+    }
+
+    // 写入一个上游 RTP 包。改写序号、SSRC 和负载类型，时间戳在上游重连后续接，
+    // 下游看到的始终是一条连续的流
+    public synchronized void publish(Object source, byte[] packet, int offset, int length) {
+        RtpRingBuffer current = ring;
+        if (current == null || source != activeSource || length < 12) {
+            return;
+        }
+        long timestamp = ((packet[offset + 4] & 0xFFL) << 24) | ((packet[offset + 5] & 0xFF) << 16)
+                | ((packet[offset + 6] & 0xFF) << 8) | (packet[offset + 7] & 0xFF);
+        if (rebaseTimestamp) {
+            timestampOffset = lastOutTimestamp >= 0 ? lastOutTimestamp + RECONNECT_TIMESTAMP_GAP - timestamp : 0;
+            rebaseTimestamp = false;
+        }
+        long out = (timestamp + timestampOffset) & 0xFFFFFFFFL;
+        lastOutTimestamp = out;
+        packet[offset + 1] = (byte) ((packet[offset + 1] & 0x80) | PAYLOAD_TYPE);
+        packet[offset + 2] = (byte) (outSequence >>> 8);
+        packet[offset + 3] = (byte) outSequence;
+        outSequence = (outSequence + 1) & 0xFFFF;
+        packet[offset + 4] = (byte) (out >>> 24);
+        packet[offset + 5] = (byte) (out >>> 16);
+        packet[offset + 6] = (byte) (out >>> 8);
+        packet[offset + 7] = (byte) out;
+        packet[offset + 8] = (byte) (ssrc >>> 24);
+        packet[offset + 9] = (byte) (ssrc >>> 16);
+        packet[offset + 10] = (byte) (ssrc >>> 8);
+        packet[offset + 11] = (byte) ssrc;
+        current.write(packet, offset, length, RtpDepacketizer.startsKeyframe(session.codec, packet, offset, length));
+
+        if (++published % LAG_CHECK_INTERVAL == 0) {
+            // 慢客户端可能正阻塞在 socket 写入上，自己发现不了落后，由上游这边主动断开
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.lag() > MAX_LAG) {
+                    Log.w(TAG, "Dropping slow client of camera " + cameraId);
+                    subscribers.remove(subscriber);
+                    subscriber.drop();
+                    slowClientDrops.inc();
+                }
+            }
+        }
+    }
+
+    private void ensurePuller() {
+        if (users > 0 && attachedRecorders == 0 && puller == null) {
+            puller = new Thread(this::pull, "relay-" + cameraId);
+            puller.start();
+        }
+    }
+
+    private void stopPuller() {
+        if (pullerClient != null) {
+            pullerClient.close();
+        }
+        if (puller != null) {
+            notifyAll();
+        }
+    }
+
+    private synchronized boolean shouldPull() {
+        return users > 0 && attachedRecorders == 0;
+    }
+
+    // 自有拉流线程：只在有客户端且录制线程不在运行时连接摄像头主码流
+    private void pull() {
+        long retryDelay = MIN_RETRY_DELAY_MS;
+        byte[] packet = new byte[65536];
+        while (shouldPull()) {
+            RtspClient client = null;
+            try {
+                client = new RtspClient(camera.getRtspUrl(), CONNECT_TIMEOUT_MS);
+                synchronized (this) {
+                    if (!shouldPull()) {
+                        break;
+                    }
+                    pullerClient = client;
+                }
+                client.start();
+                onSourceStarted(client, client.getCodec(), client.getClockRate(), client.getParameterSets());
+                Log.d(TAG, "Relay for camera " + cameraId + " connected");
+                retryDelay = MIN_RETRY_DELAY_MS;
+                while (shouldPull()) {
+                    int length = client.readRtpPacket(packet);
+                    publish(client, packet, 0, length);
+                }
+            } catch (IOException e) {
+                if (shouldPull()) {
+                    Log.w(TAG, "Relay for camera " + cameraId + " disconnected: " + e.getMessage());
+                }
+            } finally {
+                if (client != null) {
+                    client.close();
+                    onSourceStopped(client);
+                }
+                synchronized (this) {
+                    pullerClient = null;
+                }
+            }
+            synchronized (this) {
+                if (!shouldPull()) {
+                    break;
+                }
+                try {
+                    wait(retryDelay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+        }
+        synchronized (this) {
+            puller = null;
+            // 退出过程中又有客户端进来
+            ensurePuller();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.nvr.relay;
+
+import android.content.Context;
+
+import com.example.nvr.model.CameraDevice;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 按摄像头管理转发点，录制线程和 RTSP 服务都从这里拿到同一个 CameraRelay
+public class RelayHub {
+
+    private static volatile RelayHub instance;
+
+    private final Map<String, CameraRelay> relays = new HashMap<>();
+
+    private RelayHub() {
+    }
+
+    public static RelayHub getInstance(Context context) {
+        if (instance == null) {
+            synchronized (RelayHub.class) {
+                if (instance == null) {
+                    instance = new RelayHub();
+                }
+            }
+        }
+        return instance;
+    }
+
+    // 获取摄像头的转发点，不存在时创建；摄像头信息（地址等）以最新传入的为准
+    public synchronized CameraRelay obtain(CameraDevice camera) {
+        CameraRelay relay = relays.get(camera.getId());
+        if (relay == null) {
+            relay = new CameraRelay(camera);
+            relays.put(camera.getId(), relay);
+        } else {
+            relay.updateCamera(camera);
+        }
+        return relay;
+    }
+
+    // 丢弃摄像头的转发点；仍有下游连接或录制线程在用时保留，返回是否已删除
+    public synchronized boolean remove(String cameraId) {
+        CameraRelay relay = relays.get(cameraId);
+        if (relay == null) {
+            return true;
+        }
+        if (!relay.isIdle()) {
+            return false;
+        }
+        relays.remove(cameraId);
+        return true;
+    }
+
+    public synchronized int getSubscriberCount() {
+        int count = 0;
+        for (CameraRelay relay : relays.values()) {
+            count += relay.getSubscriberCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.nvr.server;
+
+import android.text.TextUtils;
+
+import com.example.nvr.hls.LiveHlsManager;
+import com.example.nvr.hls.LiveHlsPackager;
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.utils.DatabaseHelper;
+
+import java.io.IOException;
+import java.util.List;
+
+// 低延迟 HLS 直播接口：
+//   GET /live/                         摄像头列表
+//   GET /live/{id}/                    播放页
+//   GET /live/{id}/index.m3u8          播放列表，支持 _HLS_msn/_HLS_part 阻塞刷新
+//   GET /live/{id}/init-{n}.mp4        初始化段
+//   GET /live/{id}/seg-{msn}.m4s       完整分片
+//   GET /live/{id}/part-{msn}-{i}.m4s  部分分片，尚未生成时阻塞等待（预加载提示）
+public class LiveHlsHandler implements HttpServer.Handler {
+
+    private static final String LIVE_PATH = "/live/";
+    private static final String PLAYLIST_TYPE = "application/vnd.apple.mpegurl";
+    // 阻塞请求最多等待的时间，约为三个部分分片时长加上网络抖动
+    private static final long BLOCK_TIMEOUT_MS = 3000;
+    // 打包刚启动时等待第一段媒体的时间（连接摄像头并等到关键帧）
+    private static final long STARTUP_TIMEOUT_MS = 15000;
+
+    private final DatabaseHelper databaseHelper;
+    private final LiveHlsManager manager;
+
+    public LiveHlsHandler(DatabaseHelper databaseHelper, LiveHlsManager manager) {
+        this.databaseHelper = databaseHelper;
+        this.manager = manager;
+    }
+
+    public void register(HttpServer server) {
+        server.addRoute(LIVE_PATH, this);
+    }
+
+    @Override
+    public HttpServer.Response handle(HttpServer.Request request) throws IOException {
+        String rest = request.path.substring(LIVE_PATH.length());
+        if (rest.isEmpty()) {
+            return cameraList();
+        }
+        int slash = rest.indexOf('/');
+        if (slash <= 0) {
+            return null;
+        }
+        String cameraId = rest.substring(0, slash);
+        String name = rest.substring(slash + 1);
+        try {
+            if (name.isEmpty()) {
+                CameraDevice camera = databaseHelper.getCamera(cameraId);
+                return camera != null ? playerPage(camera) : null;
+            }
+            if (name.equals("index.m3u8")) {
+                return playlist(cameraId, request);
+            }
+            LiveHlsPackager packager = manager.find(cameraId);
+            if (packager == null) {
+                return null;
+            }
+            if (name.startsWith("init-") && name.endsWith(".mp4")) {
+                byte[] init = packager.getInit(Integer.parseInt(name.substring(5, name.length() - 4)));
+                return media(init, "video/mp4");
+            }
+            if (name.startsWith("seg-") && name.endsWith(".m4s")) {
+                long sequence = Long.parseLong(name.substring(4, name.length() - 4));
+                packager.await(sequence, -1, BLOCK_TIMEOUT_MS);
+                return media(packager.getSegment(sequence), "video/iso.segment");
+            }
+            if (name.startsWith("part-") && name.endsWith(".m4s")) {
+                String[] parts = name.substring(5, name.length() - 4).split("-");
+                if (parts.length != 2) {
+                    return null;
+                }
+                long sequence = Long.parseLong(parts[0]);
+                int index = Integer.parseInt(parts[1]);
+                packager.await(sequence, index, BLOCK_TIMEOUT_MS);
+                return media(packager.getPart(sequence, index), "video/iso.segment");
+            }
+        } catch (NumberFormatException e) {
+            return HttpServer.Response.text(400, "text/plain; charset=utf-8", "Invalid media name\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        return null;
+    }
+
+    private HttpServer.Response playlist(String cameraId, HttpServer.Request request) throws InterruptedException {
+        CameraDevice camera = databaseHelper.getCamera(cameraId);
+        if (camera == null) {
+            return null;
+        }
+        LiveHlsPackager packager = manager.obtain(camera);
+        long msn = request.getQueryLong("_HLS_msn", -1);
+        int part = (int) request.getQueryLong("_HLS_part", -1);
+        if (msn >= 0) {
+            // 请求的分片比最新分片超前太多，说明客户端状态有误
+            if (msn > packager.getLatestSequence() + 2) {
+                return HttpServer.Response.text(400, "text/plain; charset=utf-8", "Media sequence too far ahead\n");
+            }
+            if (!packager.await(msn, part, BLOCK_TIMEOUT_MS)) {
+                return busy();
+            }
+        } else if (!packager.awaitMedia(STARTUP_TIMEOUT_MS)) {
+            return busy();
+        }
+        return HttpServer.Response.text(200, PLAYLIST_TYPE, packager.buildPlaylist())
+                .header("Cache-Control", "no-cache")
+                .header("Access-Control-Allow-Origin", "*");
+    }
+
+    private static HttpServer.Response media(byte[] data, String contentType) {
+        if (data == null) {
+            return null;
+        }
+        // 分片内容不会再变，可以缓存；打包器重启后序号不复用
+        return HttpServer.Response.bytes(200, contentType, data)
+                .header("Cache-Control", "max-age=60")
+                .header("Access-Control-Allow-Origin", "*");
+    }
+
+    private static HttpServer.Response busy() {
+        return HttpServer.Response.text(503, "text/plain; charset=utf-8", "Stream not ready\n")
+                .header("Retry-After", "1");
+    }
+
+    private HttpServer.Response cameraList() {
+        List<CameraDevice> cameras = databaseHelper.getAllCameras();
+        StringBuilder html = new StringBuilder(2048);
+        html.append("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>NVR</title></head><body>");
+        html.append("<h1>实时画面</h1><ul>");
+        for (CameraDevice camera : cameras) {
+            html.append("<li><a href=\"").append(LIVE_PATH).append(TextUtils.htmlEncode(camera.getId())).append("/\">")
+                    .append(TextUtils.htmlEncode(camera.getName())).append("</a></li>");
+        }
+        html.append("</ul></body></html>");
+        return HttpServer.Response.text(200, "text/html; charset=utf-8", html.toString());
+    }
+
+    private HttpServer.Response playerPage(CameraDevice camera) {
+        String html = "<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>"
+                + TextUtils.htmlEncode(camera.getName()) + "</title></head><body>"
+                + "<h1>" + TextUtils.htmlEncode(camera.getName()) + "</h1>"
+                + "<video src=\"index.m3u8\" controls autoplay muted playsinline style=\"max-width:100%\"></video>"
+                + "</body></html>";
+        return HttpServer.Response.text(200, "text/html; charset=utf-8", html);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.nvr.server;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.nvr.model.RecordingFile;
+import com.example.nvr.utils.DatabaseHelper;
+import com.example.nvr.utils.StorageManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+// 录像回放接口：
+//   GET /                 最近录像的 HTML 列表，浏览器直接点开播放
+//   GET /recordings       JSON 列表，参数 camera/from/to/limit，翻页用 after=开始时间:行ID
+//   GET /recordings/{id}  录像文件本身，支持 Range，VLC 和浏览器可以直接拖动进度
+public class RecordingHttpHandler implements HttpServer.Handler {
+
+    private static final String TAG = "RecordingHttpHandler";
+    private static final String RECORDINGS_PATH = "/recordings";
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 500;
+
+    private final DatabaseHelper databaseHelper;
+    private final StorageManager storageManager;
+
+    public RecordingHttpHandler(DatabaseHelper databaseHelper, StorageManager storageManager) {
+        this.databaseHelper = databaseHelper;
+        this.storageManager = storageManager;
+    }
+
+    public void register(HttpServer server) {
+        server.addRoute("/", this);
+        server.addRoute(RECORDINGS_PATH, this);
+    }
+
+    @Override
+    public HttpServer.Response handle(HttpServer.Request request) throws IOException {
+        String path = request.path;
+        if (path.equals("/") || path.equals("/index.html")) {
+            return index();
+        }
+        if (path.equals(RECORDINGS_PATH) || path.equals(RECORDINGS_PATH + "/")) {
+            return list(request);
+        }
+        if (path.startsWith(RECORDINGS_PATH + "/")) {
+            String id = path.substring(RECORDINGS_PATH.length() + 1);
+            if (id.endsWith(".mp4")) {
+                id = id.substring(0, id.length() - 4);
+            }
+            return segment(id);
+        }
+        return null;
+    }
+
+    private HttpServer.Response segment(String segmentId) throws IOException {
+        if (segmentId.isEmpty() || segmentId.indexOf('/') >= 0) {
+            return null;
+        }
+        String filePath = databaseHelper.getRecordingPath(segmentId);
+        if (filePath == null) {
+            return null;
+        }
+        File file = new File(filePath);
+        // 只提供存储卷内的文件，防止索引被篡改后读到任意路径
+        String canonical = file.getCanonicalPath();
+        if (storageManager.getVolumeForPath(canonical) == null || !file.isFile()) {
+            Log.w(TAG, "Refusing to serve " + filePath);
+            return null;
+        }
+        return HttpServer.Response.file(file, "video/mp4")
+                .header("Content-Disposition", "inline; filename=\"" + file.getName() + "\"");
+    }
+
+    private HttpServer.Response list(HttpServer.Request request) {
+        String cameraId = request.getQuery("camera", null);
+        long from = request.getQueryLong("from", 0);
+        long to = request.getQueryLong("to", 0);
+        int limit = (int) Math.max(1, Math.min(MAX_LIMIT, request.getQueryLong("limit", DEFAULT_LIMIT)));
+        long afterStart = 0;
+        long afterRowId = -1;
+        String after = request.getQuery("after", null);
+        if (after != null) {
+            String[] parts = after.split(":");
+            try {
+                if (parts.length == 2) {
+                    afterStart = Long.parseLong(parts[0]);
+                    afterRowId = Long.parseLong(parts[1]);
+                }
+            } catch (NumberFormatException e) {
+                return HttpServer.Response.text(400, "text/plain; charset=utf-8", "Invalid cursor\n");
+            }
+        }
+        List<RecordingFile> recordings = databaseHelper.queryRecordings(cameraId, from, to, afterStart, afterRowId, limit);
+        try {
+            JSONArray items = new JSONArray();
+            for (RecordingFile recording : recordings) {
+                items.put(new JSONObject()
+                        .put("id", recording.getId())
+                        .put("camera_id", recording.getCameraId())
+                        .put("camera_name", recording.getCameraName())
+                        .put("start", recording.getStartTime().getTime())
+                        .put("end", recording.getEndTime().getTime())
+                        .put("size", recording.getFileSize())
+                        .put("width", recording.getWidth())
+                        .put("height", recording.getHeight())
+                        .put("codec", recording.getCodec() != null ? recording.getCodec() : "")
+                        .put("url", RECORDINGS_PATH + "/" + recording.getId() + ".mp4"));
+            }
+            JSONObject result = new JSONObject().put("recordings", items);
+            if (recordings.size() == limit) {
+                RecordingFile last = recordings.get(recordings.size() - 1);
+                result.put("next", last.getStartTime().getTime() + ":" + last.getRowId());
+            }
+            return HttpServer.Response.text(200, "application/json; charset=utf-8", result.toString());
+        } catch (JSONException e) {
+            return HttpServer.Response.text(500, "text/plain; charset=utf-8", "JSON error\n");
+        }
+    }
+
+    private HttpServer.Response index() {
+        List<RecordingFile> recordings = databaseHelper.queryRecordings(null, 0, 0, 0, -1, DEFAULT_LIMIT);
+        StringBuilder html = new StringBuilder(4096);
+        html.append("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>NVR</title></head><body>");
+        html.append("<p><a href=\"/live/\">实时画面</a></p>");
+        html.append("<h1>录像</h1><ul>");
+        for (RecordingFile recording : recordings) {
+            html.append("<li><a href=\"").append(RECORDINGS_PATH).append('/')
+                    .append(TextUtils.htmlEncode(recording.getId())).append(".mp4\">")
+                    .append(TextUtils.htmlEncode(recording.getCameraName())).append(" ")
+                    .append(TextUtils.htmlEncode(recording.getFileName())).append("</a> ")
+                    .append(recording.getReadableDuration()).append(" / ")
+                    .append(recording.getReadableFileSize()).append("</li>");
+        }
+        html.append("</ul></body></html>");
+        return HttpServer.Response.text(200, "text/html; charset=utf-8", html.toString());
+    }
+}
@@ -0,0 +1,506 @@
+package com.example.nvr.server;
+
+import android.util.Log;
+
+import com.example.nvr.media.NalUnits;
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.relay.CameraRelay;
+import com.example.nvr.relay.RelayHub;
+import com.example.nvr.relay.RtpRingBuffer;
+import com.example.nvr.utils.DatabaseHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 局域网 RTSP 转发服务：rtsp://设备地址:端口/camera/{摄像头ID}
+// 每个摄像头只保持一个上游会话（见 CameraRelay），下游客户端数量不受摄像头会话数限制。
+// 只支持 RTP over TCP（interleaved），慢客户端被断开而不会拖慢其他客户端
+public class RtspServer {
+
+    private static final String TAG = "RtspServer";
+    private static final String PATH_PREFIX = "/camera/";
+    private static final String TRACK_CONTROL = "trackID=0";
+    private static final int MAX_CLIENTS = 32;
+    private static final int SESSION_TIMEOUT_SECONDS = 60;
+    private static final long DESCRIBE_WAIT_MS = 10000;
+    // 一次 flush 最多攒的包数，减少小包写入的系统调用
+    private static final int MAX_BATCH_PACKETS = 64;
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final int port;
+    private final DatabaseHelper databaseHelper;
+    private final RelayHub relayHub;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    public RtspServer(int port, DatabaseHelper databaseHelper, RelayHub relayHub) {
+        this.port = port;
+        this.databaseHelper = databaseHelper;
+        this.relayHub = relayHub;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getClientCount() {
+        return connections.size();
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        serverSocket = socket;
+        acceptThread = new Thread(this::acceptLoop, "rtsp-accept");
+        acceptThread.start();
+        Log.d(TAG, "RTSP server listening on port " + port);
+    }
+
+    public synchronized void stop() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        acceptThread = null;
+    }
+
+    private void acceptLoop() {
+        ServerSocket socket;
+        while ((socket = serverSocket) != null) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                if (serverSocket != null) {
+                    Log.e(TAG, "Accept failed: " + e.getMessage());
+                }
+                continue;
+            }
+            if (connections.size() >= MAX_CLIENTS) {
+                Log.w(TAG, "Too many RTSP clients, rejecting " + client.getRemoteSocketAddress());
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                }
+                continue;
+            }
+            Connection connection = new Connection(client);
+            connections.add(connection);
+            new Thread(connection, "rtsp-client-" + client.getPort()).start();
+        }
+    }
+
+    private static final class Request {
+        String method;
+        String url;
+        final Map<String, String> headers = new HashMap<>();
+    }
+
+    // 一个下游连接：本线程处理 RTSP 请求，PLAY 之后另起写线程从转发缓冲取包发送
+    private final class Connection implements Runnable, Closeable {
+
+        private final Socket socket;
+        private final String sessionId = Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+        private DataInputStream input;
+        private OutputStream output;
+        private CameraRelay relay;
+        private int channel = -1;
+        private CameraRelay.Subscriber subscriber;
+        private Thread writer;
+        private volatile boolean closed;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(SESSION_TIMEOUT_SECONDS * 1000);
+                input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+                output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                while (!closed) {
+                    Request request = readRequest();
+                    if (request == null) {
+                        break;
+                    }
+                    if (!handle(request)) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.d(TAG, "RTSP client " + socket.getRemoteSocketAddress() + " closed: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+                cleanup();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void cleanup() {
+            if (writer != null) {
+                writer.interrupt();
+            }
+            if (relay != null) {
+                if (subscriber != null) {
+                    relay.unsubscribe(subscriber);
+                }
+                relay.release();
+            }
+            connections.remove(this);
+        }
+
+        // 读取下一个请求，客户端发来的交织数据（RTCP 接收报告）直接跳过；连接关闭时返回null
+        private Request readRequest() throws IOException {
+            String line;
+            while (true) {
+                int first = input.read();
+                if (first < 0) {
+                    return null;
+                }
+                if (first == '$') {
+                    input.readUnsignedByte();
+                    int length = input.readUnsignedShort();
+                    input.skipBytes(length);
+                    continue;
+                }
+                line = (char) first + readLine();
+                if (!line.isEmpty()) {
+                    break;
+                }
+            }
+            String[] parts = line.split(" ");
+            if (parts.length < 3) {
+                throw new IOException("Invalid RTSP request line: " + line);
+            }
+            Request request = new Request();
+            request.method = parts[0].toUpperCase(Locale.ROOT);
+            request.url = parts[1];
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    request.headers.put(header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            header.substring(colon + 1).trim());
+                }
+            }
+            String contentLength = request.headers.get("content-length");
+            if (contentLength != null) {
+                try {
+                    input.skipBytes(Integer.parseInt(contentLength.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length");
+                }
+            }
+            return request;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = input.read()) >= 0) {
+                if (c == '\n') {
+                    int length = sb.length();
+                    if (length > 0 && sb.charAt(length - 1) == '\r') {
+                        sb.setLength(length - 1);
+                    }
+                    return sb.toString();
+                }
+                if (sb.length() > 8192) {
+                    throw new IOException("RTSP header line too long");
+                }
+                sb.append((char) c);
+            }
+            throw new IOException("Connection closed by client");
+        }
+
+        // 返回false表示处理完后关闭连接
+        private boolean handle(Request request) throws IOException, InterruptedException {
+            switch (request.method) {
+                case "OPTIONS":
+                    respond(request, 200, "OK",
+                            "Public: OPTIONS, DESCRIBE, SETUP, PLAY, GET_PARAMETER, SET_PARAMETER, TEARDOWN\r\n", null);
+                    return true;
+                case "DESCRIBE":
+                    describe(request);
+                    return true;
+                case "SETUP":
+                    setup(request);
+                    return true;
+                case "PLAY":
+                    play(request);
+                    return true;
+                case "GET_PARAMETER":
+                case "SET_PARAMETER":
+                    // 客户端保活
+                    respond(request, 200, "OK", sessionHeader(), null);
+                    return true;
+                case "TEARDOWN":
+                    respond(request, 200, "OK", sessionHeader(), null);
+                    return false;
+                default:
+                    respond(request, 501, "Not Implemented", null, null);
+                    return true;
+            }
+        }
+
+        private void describe(Request request) throws IOException, InterruptedException {
+            String cameraId = cameraIdFromUrl(request.url);
+            CameraDevice camera = cameraId != null ? databaseHelper.getCamera(cameraId) : null;
+            if (camera == null) {
+                respond(request, 404, "Not Found", null, null);
+                return;
+            }
+            CameraRelay target = relayHub.obtain(camera);
+            if (relay != target) {
+                if (subscriber != null) {
+                    respond(request, 455, "Method Not Valid in This State", null, null);
+                    return;
+                }
+                if (relay != null) {
+                    relay.release();
+                }
+                relay = target;
+                relay.acquire();
+            }
+            CameraRelay.SessionInfo info = relay.awaitSession(DESCRIBE_WAIT_MS);
+            if (info == null) {
+                respond(request, 503, "Service Unavailable", null, null);
+                return;
+            }
+            String base = baseUrl(request.url);
+            String sdp = buildSdp(camera, info);
+            respond(request, 200, "OK", "Content-Base: " + base + "\r\nContent-Type: application/sdp\r\n", sdp);
+        }
+
+        private void setup(Request request) throws IOException {
+            if (relay == null) {
+                respond(request, 455, "Method Not Valid in This State", null, null);
+                return;
+            }
+            String transport = request.headers.get("transport");
+            if (transport == null || !transport.toUpperCase(Locale.ROOT).contains("RTP/AVP/TCP")) {
+                // 只做 TCP 交织，UDP 在多客户端转发时需要逐个处理端口和丢包，这里不支持
+                respond(request, 461, "Unsupported Transport", null, null);
+                return;
+            }
+            int rtpChannel = 0;
+            for (String part : transport.split(";")) {
+                String value = part.trim();
+                if (value.startsWith("interleaved=")) {
+                    try {
+                        rtpChannel = Integer.parseInt(value.substring(12).split("-")[0].trim());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            channel = rtpChannel & 0xFF;
+            respond(request, 200, "OK", "Transport: RTP/AVP/TCP;unicast;interleaved=" + channel + "-" + (channel + 1) + "\r\n"
+                    + sessionHeader(), null);
+        }
+
+        private void play(Request request) throws IOException {
+            if (relay == null || channel < 0) {
+                respond(request, 455, "Method Not Valid in This State", null, null);
+                return;
+            }
+            if (subscriber == null) {
+                subscriber = relay.subscribe(this);
+                // 播放期间客户端可能不再发请求，连接是否存活由写入判断
+                socket.setSoTimeout(0);
+                respond(request, 200, "OK", sessionHeader() + "Range: npt=now-\r\n", null);
+                writer = new Thread(this::forward, "rtsp-out-" + socket.getPort());
+                writer.start();
+            } else {
+                respond(request, 200, "OK", sessionHeader() + "Range: npt=now-\r\n", null);
+            }
+        }
+
+        // 写线程：阻塞在慢客户端上只影响它自己，落后太多会被上游断开
+        private void forward() {
+            byte[] frame = new byte[4 + 65536];
+            frame[0] = '$';
+            frame[1] = (byte) channel;
+            try {
+                while (!closed) {
+                    int length = subscriber.next(frame, 4, POLL_INTERVAL_MS);
+                    if (length < 0) {
+                        continue;
+                    }
+                    synchronized (output) {
+                        writeFrame(frame, length);
+                        for (int i = 1; i < MAX_BATCH_PACKETS; i++) {
+                            length = subscriber.poll(frame, 4);
+                            if (length < 0) {
+                                break;
+                            }
+                            writeFrame(frame, length);
+                        }
+                        output.flush();
+                    }
+                }
+            } catch (RtpRingBuffer.OverrunException e) {
+                Log.w(TAG, "RTSP client " + socket.getRemoteSocketAddress() + " too slow: " + e.getMessage());
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.d(TAG, "RTSP client " + socket.getRemoteSocketAddress() + " write failed: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // 连接关闭
+            } finally {
+                close();
+            }
+        }
+
+        private void writeFrame(byte[] frame, int length) throws IOException {
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            output.write(frame, 0, 4 + length);
+        }
+
+        private String sessionHeader() {
+            return "Session: " + sessionId + ";timeout=" + SESSION_TIMEOUT_SECONDS + "\r\n";
+        }
+
+        private void respond(Request request, int status, String reason, String headers, String body) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("RTSP/1.0 ").append(status).append(' ').append(reason).append("\r\n");
+            String cseq = request.headers.get("cseq");
+            if (cseq != null) {
+                sb.append("CSeq: ").append(cseq).append("\r\n");
+            }
+            sb.append("Server: NVR\r\n");
+            if (headers != null) {
+                sb.append(headers);
+            }
+            byte[] content = body != null ? body.getBytes(StandardCharsets.UTF_8) : null;
+            if (content != null) {
+                sb.append("Content-Length: ").append(content.length).append("\r\n");
+            }
+            sb.append("\r\n");
+            synchronized (output) {
+                output.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                if (content != null) {
+                    output.write(content);
+                }
+                output.flush();
+            }
+        }
+
+        private String buildSdp(CameraDevice camera, CameraRelay.SessionInfo info) {
+            String address = socket.getLocalAddress().getHostAddress();
+            int pt = CameraRelay.PAYLOAD_TYPE;
+            StringBuilder sdp = new StringBuilder();
+            sdp.append("v=0\r\n");
+            sdp.append("o=- ").append(sessionId.hashCode() & Integer.MAX_VALUE).append(" 1 IN IP4 ").append(address).append("\r\n");
+            sdp.append("s=").append(camera.getName().replace('\r', ' ').replace('\n', ' ')).append("\r\n");
+            sdp.append("c=IN IP4 0.0.0.0\r\n");
+            sdp.append("t=0 0\r\n");
+            sdp.append("a=control:*\r\n");
+            sdp.append("m=video 0 RTP/AVP ").append(pt).append("\r\n");
+            boolean h265 = info.codec == NalUnits.CODEC_H265;
+            sdp.append("a=rtpmap:").append(pt).append(h265 ? " H265/" : " H264/").append(info.clockRate).append("\r\n");
+            String fmtp = h265 ? h265Fmtp(info) : h264Fmtp(info);
+            if (!fmtp.isEmpty()) {
+                sdp.append("a=fmtp:").append(pt).append(' ').append(fmtp).append("\r\n");
+            }
+            sdp.append("a=control:").append(TRACK_CONTROL).append("\r\n");
+            return sdp.toString();
+        }
+
+        private String h264Fmtp(CameraRelay.SessionInfo info) {
+            StringBuilder sets = new StringBuilder();
+            for (byte[] nal : info.parameterSets) {
+                if (sets.length() > 0) {
+                    sets.append(',');
+                }
+                sets.append(Base64.getEncoder().encodeToString(nal));
+            }
+            return "packetization-mode=1" + (sets.length() > 0 ? ";sprop-parameter-sets=" + sets : "");
+        }
+
+        private String h265Fmtp(CameraRelay.SessionInfo info) {
+            StringBuilder fmtp = new StringBuilder();
+            for (byte[] nal : info.parameterSets) {
+                int type = NalUnits.type(NalUnits.CODEC_H265, nal[0]);
+                String key = type == NalUnits.H265_VPS ? "sprop-vps"
+                        : type == NalUnits.H265_SPS ? "sprop-sps"
+                        : type == NalUnits.H265_PPS ? "sprop-pps" : null;
+                if (key != null) {
+                    if (fmtp.length() > 0) {
+                        fmtp.append(';');
+                    }
+                    fmtp.append(key).append('=').append(Base64.getEncoder().encodeToString(nal));
+                }
+            }
+            return fmtp.toString();
+        }
+    }
+
+    // rtsp://host:port/camera/{id}[/trackID=0] -> id
+    private static String cameraIdFromUrl(String url) {
+        String path;
+        try {
+            path = new URI(url).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (path == null || !path.startsWith(PATH_PREFIX)) {
+            return null;
+        }
+        String rest = path.substring(PATH_PREFIX.length());
+        int slash = rest.indexOf('/');
+        String id = slash >= 0 ? rest.substring(0, slash) : rest;
+        return id.isEmpty() ? null : id;
+    }
+
+    private static String baseUrl(String url) {
+        int query = url.indexOf('?');
+        String base = query >= 0 ? url.substring(0, query) : url;
+        return base.endsWith("/") ? base : base + "/";
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.nvr.server;
+
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.snapshot.SnapshotService;
+import com.example.nvr.utils.DatabaseHelper;
+
+import java.io.IOException;
+
+// 实时快照接口：GET /snapshot/{摄像头ID}.jpg，返回最新关键帧的 JPEG，适合家居自动化系统轮询
+public class SnapshotHandler implements HttpServer.Handler {
+
+    private static final String SNAPSHOT_PATH = "/snapshot/";
+    // 上游刚连接时等待第一个关键帧的时间
+    private static final long KEYFRAME_TIMEOUT_MS = 10000;
+
+    private final DatabaseHelper databaseHelper;
+    private final SnapshotService snapshotService;
+
+    public SnapshotHandler(DatabaseHelper databaseHelper, SnapshotService snapshotService) {
+        this.databaseHelper = databaseHelper;
+        this.snapshotService = snapshotService;
+    }
+
+    public void register(HttpServer server) {
+        server.addRoute(SNAPSHOT_PATH, this);
+    }
+
+    @Override
+    public HttpServer.Response handle(HttpServer.Request request) throws IOException {
+        String name = request.path.substring(SNAPSHOT_PATH.length());
+        if (name.endsWith(".jpg")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        if (name.isEmpty() || name.indexOf('/') >= 0) {
+            return null;
+        }
+        CameraDevice camera = databaseHelper.getCamera(name);
+        if (camera == null) {
+            return null;
+        }
+        SnapshotService.Snapshot snapshot;
+        try {
+            snapshot = snapshotService.getSnapshot(camera, KEYFRAME_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        if (snapshot == null) {
+            return HttpServer.Response.text(503, "text/plain; charset=utf-8", "No keyframe received yet\n")
+                    .header("Retry-After", "2");
+        }
+        return HttpServer.Response.bytes(200, "image/jpeg", snapshot.jpeg)
+                .header("Cache-Control", "no-cache")
+                .header("X-Snapshot-Age", String.valueOf(Math.max(0, System.currentTimeMillis() - snapshot.timeMillis)))
+                .header("Access-Control-Allow-Origin", "*");
+    }
+}
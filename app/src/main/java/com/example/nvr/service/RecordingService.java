@@ -5,51 +5,326 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
+import androidx.preference.PreferenceManager;
 
 import com.example.nvr.MainActivity;
 import com.example.nvr.R;
+import com.example.nvr.recording.CameraRecorder;
+import com.example.nvr.recording.CameraStatus;
+import com.example.nvr.recording.RecordingEngine;
+import com.example.nvr.recording.StreamWatchdog;
+import com.example.nvr.relay.RelayHub;
+import com.example.nvr.hls.LiveHlsManager;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.server.HttpServer;
+import com.example.nvr.server.LiveHlsHandler;
+import com.example.nvr.server.MetricsHandler;
+import com.example.nvr.server.RecordingHttpHandler;
+import com.example.nvr.server.RtspServer;
+import com.example.nvr.server.SnapshotHandler;
+import com.example.nvr.snapshot.SnapshotService;
+import com.example.nvr.utils.DatabaseHelper;
 import com.example.nvr.utils.StorageManager;
 
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class RecordingService extends Service {
 
     private static final String TAG = "RecordingService";
     private static final String CHANNEL_ID = "NVR_RECORDING_CHANNEL";
     private static final int NOTIFICATION_ID = 1;
 
-    private StorageManager storageManager;
+    public static final String ACTION_START = "com.example.nvr.action.START_RECORDING";
+    public static final String ACTION_REFRESH = "com.example.nvr.action.REFRESH_RECORDING";
+    public static final String ACTION_PAUSE = "com.example.nvr.action.PAUSE_RECORDING";
+    public static final String ACTION_RESUME = "com.example.nvr.action.RESUME_RECORDING";
+
+    private static final long STATUS_INTERVAL_MS = 1000;
+    // HTTP 服务和 RTSP 转发都没有鉴权，默认关闭，由用户在设置中填写端口后打开
+    private static final String DEFAULT_HTTP_PORT = "";
+    private static final String DEFAULT_RTSP_PORT = "";
+
+    // 同进程绑定，直接返回服务实例，状态以整张快照交给界面，不逐字段跨进程
+    public class LocalBinder extends Binder {
+        public RecordingService getService() {
+            return RecordingService.this;
+        }
+    }
+
+    public interface StatusListener {
+        // 在主线程回调，每个周期一次，包含所有录制中的摄像头
+        void onStatus(Map<String, CameraStatus> statuses);
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<StatusListener> statusListeners = new CopyOnWriteArrayList<>();
+    // 上一次快照时每路的累计计数 [帧数, 字节数]，用于计算区间帧率和码率
+    private final Map<String, long[]> lastCounters = new HashMap<>();
+    private long lastStatusElapsed;
+    private Map<String, CameraStatus> latestStatus = Collections.emptyMap();
+    private final Runnable statusTick = new Runnable() {
+        @Override
+        public void run() {
+            publishStatus();
+            if (!statusListeners.isEmpty()) {
+                mainHandler.postDelayed(this, STATUS_INTERVAL_MS);
+            }
+        }
+    };
+
+    private RecordingEngine recordingEngine;
     private boolean isRecording = false;
+    private HttpServer httpServer;
+    private RtspServer rtspServer;
+    // 以下两个字段只在主线程访问
+    private boolean paused;
+    private boolean resumeAfterPause;
+
+    // 明确要求开始录制；暂停期间收到时记下，恢复后开始
+    public static void start(Context context) {
+        Intent intent = new Intent(context, RecordingService.class);
+        intent.setAction(ACTION_START);
+        context.startForegroundService(intent);
+    }
+
+    // 摄像头列表或录制设置变化后调用，让录制引擎重新对齐
+    public static void refresh(Context context) {
+        Intent intent = new Intent(context, RecordingService.class);
+        intent.setAction(ACTION_REFRESH);
+        context.startForegroundService(intent);
+    }
+
+    // 暂停正常录制，让出录制管线和存储（调试版的录制性能测试使用），之后用 resume 恢复
+    public static void pause(Context context) {
+        Intent intent = new Intent(context, RecordingService.class);
+        intent.setAction(ACTION_PAUSE);
+        context.startForegroundService(intent);
+    }
+
+    public static void resume(Context context) {
+        Intent intent = new Intent(context, RecordingService.class);
+        intent.setAction(ACTION_RESUME);
+        context.startForegroundService(intent);
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        storageManager = new StorageManager(this);
+        recordingEngine = RecordingEngine.getInstance(this);
         createNotificationChannel();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        startForeground(NOTIFICATION_ID, createNotification());
-        startRecording();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, createNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+        } else {
+            startForeground(NOTIFICATION_ID, createNotification());
+        }
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_PAUSE.equals(action)) {
+            pauseRecording();
+        } else if (ACTION_RESUME.equals(action)) {
+            resumeRecording();
+        } else if (paused) {
+            // 暂停期间录制保持停止，恢复时按当时的设置重新开始。只有明确的开始请求改变恢复后的状态，
+            // 打开界面时的普通启动和设置刷新都不应让暂停前没有在录的服务在恢复后开始录制
+            if (ACTION_START.equals(action)) {
+                resumeAfterPause = true;
+            }
+        } else if (isRecording && ACTION_REFRESH.equals(action)) {
+            recordingEngine.refresh();
+        } else {
+            startRecording();
+        }
+        updateHttpServer();
+        updateRtspServer();
         return START_STICKY;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mainHandler.removeCallbacks(statusTick);
+        statusListeners.clear();
         stopRecording();
+        stopHttpServer();
+        stopRtspServer();
+    }
+
+    private void pauseRecording() {
+        if (paused) {
+            return;
+        }
+        paused = true;
+        resumeAfterPause = isRecording;
+        stopRecording();
+    }
+
+    private void resumeRecording() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        if (resumeAfterPause) {
+            startRecording();
+        }
+    }
+
+    // 端口设置，留空、0 或无效值都表示关闭对应服务
+    private int getPortSetting(String key, String defaultValue) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String value = prefs.getString(key, defaultValue).trim();
+        if (value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid " + key + " setting: " + value);
+            return 0;
+        }
+    }
+
+    // 局域网回放服务，端口变化时重启
+    private void updateHttpServer() {
+        int port = getPortSetting("http_port", DEFAULT_HTTP_PORT);
+        if (httpServer != null && httpServer.getPort() == port) {
+            return;
+        }
+        stopHttpServer();
+        if (port <= 0 || port > 65535) {
+            return;
+        }
+        HttpServer server = new HttpServer(port);
+        new RecordingHttpHandler(DatabaseHelper.getInstance(this), new StorageManager(this)).register(server);
+        new LiveHlsHandler(DatabaseHelper.getInstance(this), LiveHlsManager.getInstance(this)).register(server);
+        new SnapshotHandler(DatabaseHelper.getInstance(this), SnapshotService.getInstance(this)).register(server);
+        new MetricsHandler(MetricsRegistry.getInstance()).register(server);
+        try {
+            server.start();
+            httpServer = server;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start HTTP server on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void stopHttpServer() {
+        if (httpServer != null) {
+            httpServer.stop();
+            httpServer = null;
+            LiveHlsManager.getInstance(this).stopAll();
+        }
+    }
+
+    // 局域网 RTSP 转发，多个客户端共享每个摄像头的一个上游会话
+    private void updateRtspServer() {
+        int port = getPortSetting("rtsp_port", DEFAULT_RTSP_PORT);
+        if (rtspServer != null && rtspServer.getPort() == port) {
+            return;
+        }
+        stopRtspServer();
+        if (port <= 0 || port > 65535) {
+            return;
+        }
+        RtspServer server = new RtspServer(port, DatabaseHelper.getInstance(this), RelayHub.getInstance(this));
+        try {
+            server.start();
+            rtspServer = server;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start RTSP server on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void stopRtspServer() {
+        if (rtspServer != null) {
+            rtspServer.stop();
+            rtspServer = null;
+        }
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+
+    // 只在主线程调用；第一个监听者加入时开始定时生成快照，最后一个移除后停止
+    public void addStatusListener(StatusListener listener) {
+        boolean first = statusListeners.isEmpty();
+        statusListeners.add(listener);
+        if (first) {
+            // 暂停期间的计数差不代表当前速率，从头计算
+            lastStatusElapsed = 0;
+            lastCounters.clear();
+            mainHandler.removeCallbacks(statusTick);
+            mainHandler.post(statusTick);
+        } else {
+            listener.onStatus(latestStatus);
+        }
+    }
+
+    public void removeStatusListener(StatusListener listener) {
+        statusListeners.remove(listener);
+        if (statusListeners.isEmpty()) {
+            mainHandler.removeCallbacks(statusTick);
+        }
+    }
+
+    public Map<String, CameraStatus> getLatestStatus() {
+        return latestStatus;
+    }
+
+    private void publishStatus() {
+        long now = SystemClock.elapsedRealtime();
+        float seconds = lastStatusElapsed > 0 ? (now - lastStatusElapsed) / 1000f : 0;
+        lastStatusElapsed = now;
+        StreamWatchdog watchdog = StreamWatchdog.getInstance(this);
+        Map<String, CameraStatus> statuses = new HashMap<>();
+        Map<String, long[]> counters = new HashMap<>();
+        for (CameraRecorder recorder : recordingEngine.getRecorders()) {
+            String cameraId = recorder.getCameraId();
+            long frames = recorder.getFramesRecorded();
+            long bytes = recorder.getBytesReceived();
+            long[] previous = lastCounters.get(cameraId);
+            float fps = 0;
+            int bitrateKbps = 0;
+            // 录制线程重建后计数归零，这一轮不计算速率
+            if (previous != null && seconds > 0 && frames >= previous[0] && bytes >= previous[1]) {
+                fps = (frames - previous[0]) / seconds;
+                bitrateKbps = Math.round((bytes - previous[1]) * 8 / 1000f / seconds);
+            }
+            counters.put(cameraId, new long[]{frames, bytes});
+            statuses.put(cameraId, new CameraStatus(cameraId, recorder.getState(), fps, bitrateKbps,
+                    recorder.getQueueDepth(), recorder.getBytesWritten(), watchdog.getStallCount(cameraId)));
+        }
+        lastCounters.clear();
+        lastCounters.putAll(counters);
+        latestStatus = Collections.unmodifiableMap(statuses);
+        for (StatusListener listener : statusListeners) {
+            listener.onStatus(latestStatus);
+        }
     }
 
     private void createNotificationChannel() {
@@ -86,8 +361,7 @@ public class RecordingService extends Service {
         if (!isRecording) {
             isRecording = true;
             Log.d(TAG, "开始录制视频");
-            // 在这里实现实际的视频录制逻辑
-            // 这部分代码将与Camera API或第三方库集成
+            recordingEngine.start();
         }
     }
 
@@ -95,7 +369,7 @@ public class RecordingService extends Service {
         if (isRecording) {
             isRecording = false;
             Log.d(TAG, "停止录制视频");
-            // 在这里实现停止视频录制的逻辑
+            recordingEngine.stop();
         }
     }
 }
\ No newline at end of file
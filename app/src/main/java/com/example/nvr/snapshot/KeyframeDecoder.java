@@ -0,0 +1,171 @@
+package com.example.nvr.snapshot;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import com.example.nvr.media.NalUnits;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// 用 MediaCodec 把单个关键帧解码并压成 JPEG：送入一帧后立即结束输入，迫使解码器马上输出
+final class KeyframeDecoder {
+
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    private static final long DECODE_TIMEOUT_MS = 3000;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private KeyframeDecoder() {
+    }
+
+    static byte[] decodeToJpeg(SnapshotService.Keyframe keyframe, int quality) throws IOException {
+        boolean h265 = keyframe.codec == NalUnits.CODEC_H265;
+        NalUnits.SpsInfo info = h265 ? NalUnits.parseH265Sps(keyframe.sps) : NalUnits.parseH264Sps(keyframe.sps);
+        String mime = h265 ? MediaFormat.MIMETYPE_VIDEO_HEVC : MediaFormat.MIMETYPE_VIDEO_AVC;
+        MediaFormat format = MediaFormat.createVideoFormat(mime, info.width, info.height);
+        if (h265) {
+            format.setByteBuffer("csd-0", ByteBuffer.wrap(annexB(keyframe.vps, keyframe.sps, keyframe.pps)));
+        } else {
+            format.setByteBuffer("csd-0", ByteBuffer.wrap(annexB(keyframe.sps)));
+            format.setByteBuffer("csd-1", ByteBuffer.wrap(annexB(keyframe.pps)));
+        }
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+
+        MediaCodec codec;
+        try {
+            codec = MediaCodec.createDecoderByType(mime);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IOException("No decoder for " + mime);
+        }
+        try {
+            codec.configure(format, null, null, 0);
+            codec.start();
+            byte[] frame = lengthPrefixedToAnnexB(keyframe.data, keyframe.length);
+            boolean frameQueued = false;
+            boolean eosQueued = false;
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            long deadline = System.currentTimeMillis() + DECODE_TIMEOUT_MS;
+            while (System.currentTimeMillis() < deadline) {
+                if (!eosQueued) {
+                    int inputIndex = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        if (!frameQueued) {
+                            if (input == null || input.capacity() < frame.length) {
+                                throw new IOException("Decoder input buffer too small for " + frame.length + " bytes");
+                            }
+                            input.clear();
+                            input.put(frame);
+                            codec.queueInputBuffer(inputIndex, 0, frame.length, 0, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+                            frameQueued = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            eosQueued = true;
+                        }
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(bufferInfo, DEQUEUE_TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    try {
+                        if (bufferInfo.size > 0) {
+                            Image image = codec.getOutputImage(outputIndex);
+                            if (image != null) {
+                                try {
+                                    return compress(image, quality);
+                                } finally {
+                                    image.close();
+                                }
+                            }
+                        }
+                    } finally {
+                        codec.releaseOutputBuffer(outputIndex, false);
+                    }
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+            throw new IOException("Decoder produced no frame");
+        } catch (IllegalStateException e) {
+            throw new IOException("Decoder failed: " + e.getMessage());
+        } finally {
+            try {
+                codec.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            codec.release();
+        }
+    }
+
+    // YUV_420_888 按行列步长拷贝成 NV21，再交给 YuvImage 压缩
+    private static byte[] compress(Image image, int quality) {
+        Rect crop = image.getCropRect();
+        int width = crop.width() & ~1;
+        int height = crop.height() & ~1;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        Image.Plane[] planes = image.getPlanes();
+        copyPlane(planes[0], crop.left, crop.top, width, height, nv21, 0, 1);
+        // NV21 的色度平面为 VU 交错
+        copyPlane(planes[2], crop.left / 2, crop.top / 2, width / 2, height / 2, nv21, width * height, 2);
+        copyPlane(planes[1], crop.left / 2, crop.top / 2, width / 2, height / 2, nv21, width * height + 1, 2);
+        YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(width * height / 8);
+        yuv.compressToJpeg(new Rect(0, 0, width, height), quality, out);
+        return out.toByteArray();
+    }
+
+    private static void copyPlane(Image.Plane plane, int left, int top, int width, int height,
+                                  byte[] out, int offset, int outPixelStride) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        int position = offset;
+        byte[] row = new byte[rowStride];
+        for (int y = 0; y < height; y++) {
+            int rowStart = (top + y) * rowStride + left * pixelStride;
+            int rowLength = Math.min((width - 1) * pixelStride + 1, buffer.capacity() - rowStart);
+            buffer.position(rowStart);
+            buffer.get(row, 0, rowLength);
+            if (pixelStride == 1 && outPixelStride == 1) {
+                System.arraycopy(row, 0, out, position, width);
+                position += width;
+            } else {
+                for (int x = 0; x < width; x++) {
+                    out[position] = row[x * pixelStride];
+                    position += outPixelStride;
+                }
+            }
+        }
+    }
+
+    private static byte[] annexB(byte[]... nals) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] nal : nals) {
+            out.write(START_CODE, 0, START_CODE.length);
+            out.write(nal, 0, nal.length);
+        }
+        return out.toByteArray();
+    }
+
+    // 帧数据为4字节长度前缀格式，解码器需要起始码格式；长度和起始码同为4字节，可原样替换
+    private static byte[] lengthPrefixedToAnnexB(byte[] data, int length) {
+        byte[] out = new byte[length];
+        System.arraycopy(data, 0, out, 0, length);
+        int p = 0;
+        while (p + 4 <= length) {
+            int size = ((out[p] & 0xFF) << 24) | ((out[p + 1] & 0xFF) << 16) | ((out[p + 2] & 0xFF) << 8) | (out[p + 3] & 0xFF);
+            System.arraycopy(START_CODE, 0, out, p, 4);
+            if (size <= 0 || p + 4 + size > length) {
+                break;
+            }
+            p += 4 + size;
+        }
+        return out;
+    }
+}
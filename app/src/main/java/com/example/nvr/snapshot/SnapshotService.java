@@ -0,0 +1,233 @@
+package com.example.nvr.snapshot;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.nvr.ingest.AccessUnit;
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.recording.LoadGovernor;
+import com.example.nvr.relay.CameraRelay;
+import com.example.nvr.relay.RelayHub;
+import com.example.nvr.relay.RtpRingBuffer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 实时快照：每个摄像头只保留共享接入流中最新的关键帧（只是引用，不解码），
+// 有请求时才解码成 JPEG，并缓存到下一个关键帧到来为止。频繁轮询的代价约为每个 GOP 一次解码。
+// 正在录制的摄像头由录制线程送入关键帧；未录制的摄像头在被请求时临时订阅转发缓冲，空闲后退出
+public class SnapshotService {
+
+    private static final String TAG = "SnapshotService";
+    private static final int JPEG_QUALITY = 80;
+    // 超过这个时间没有新关键帧就认为上游已断，需要自己订阅
+    private static final long STALE_KEYFRAME_MS = 30000;
+    private static final long FEEDER_IDLE_MS = 30000;
+    private static final long SESSION_WAIT_MS = 10000;
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    static final class Keyframe {
+        final int codec;
+        final byte[] data;
+        final int length;
+        final byte[] vps;
+        final byte[] sps;
+        final byte[] pps;
+        final long wallMillis;
+        final long sequence;
+
+        Keyframe(int codec, AccessUnit unit, byte[] vps, byte[] sps, byte[] pps, long sequence) {
+            this.codec = codec;
+            this.data = unit.data;
+            this.length = unit.length;
+            this.vps = vps;
+            this.sps = sps;
+            this.pps = pps;
+            this.wallMillis = System.currentTimeMillis();
+            this.sequence = sequence;
+        }
+    }
+
+    // 解码结果，附带对应关键帧的到达时间
+    public static final class Snapshot {
+        public final byte[] jpeg;
+        public final long timeMillis;
+
+        Snapshot(byte[] jpeg, long timeMillis) {
+            this.jpeg = jpeg;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private static final class Entry {
+        volatile Keyframe latest;
+        volatile long lastRequestMillis;
+        // entry 锁只用于等待新关键帧和 feeding 标志，持有时间极短，接入线程不会被解码拖住
+        boolean feeding;
+        // 以下字段由 decodeLock 保护；同一摄像头的并发请求共用一次解码
+        final Object decodeLock = new Object();
+        Snapshot snapshot;
+        long snapshotSequence = -1;
+    }
+
+    private static volatile SnapshotService instance;
+
+    private final RelayHub relayHub;
+    private final LoadGovernor loadGovernor;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long nextSequence;
+
+    private SnapshotService(Context context) {
+        this.relayHub = RelayHub.getInstance(context);
+        this.loadGovernor = LoadGovernor.getInstance(context);
+    }
+
+    public static SnapshotService getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SnapshotService.class) {
+                if (instance == null) {
+                    instance = new SnapshotService(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private synchronized Entry entry(String cameraId) {
+        Entry entry = entries.get(cameraId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(cameraId, entry);
+        }
+        return entry;
+    }
+
+    // 丢弃摄像头缓存的关键帧和快照；仍在运行的临时订阅线程空闲后自行退出
+    public synchronized void removeCamera(String cameraId) {
+        entries.remove(cameraId);
+    }
+
+    // 在接入线程上调用，只替换引用；AccessUnit 的数据是独立拷贝，之后不会被改写
+    public void onKeyframe(String cameraId, int codec, AccessUnit unit, byte[] vps, byte[] sps, byte[] pps) {
+        if (sps == null || pps == null) {
+            return;
+        }
+        Entry entry = entry(cameraId);
+        long sequence;
+        synchronized (this) {
+            sequence = nextSequence++;
+        }
+        entry.latest = new Keyframe(codec, unit, vps, sps, pps, sequence);
+        synchronized (entry) {
+            entry.notifyAll();
+        }
+    }
+
+    // 返回最新关键帧的 JPEG；必要时等待上游送来关键帧，超时仍没有时返回null
+    public Snapshot getSnapshot(CameraDevice camera, long timeoutMillis) throws IOException, InterruptedException {
+        Entry entry = entry(camera.getId());
+        entry.lastRequestMillis = System.currentTimeMillis();
+        Keyframe keyframe = entry.latest;
+        if (keyframe == null || System.currentTimeMillis() - keyframe.wallMillis > STALE_KEYFRAME_MS) {
+            startFeeder(camera, entry);
+            keyframe = awaitKeyframe(entry, keyframe, timeoutMillis);
+        }
+        synchronized (entry.decodeLock) {
+            if (keyframe == null) {
+                return entry.snapshot;
+            }
+            if (entry.snapshotSequence == keyframe.sequence
+                    || (entry.snapshot != null && loadGovernor.isAtLeast(LoadGovernor.LEVEL_PAUSE_ANALYTICS))) {
+                // 同一关键帧已解码过；高负载时也不再解码新帧，返回上一张
+                return entry.snapshot;
+            }
+            long start = System.currentTimeMillis();
+            byte[] jpeg = KeyframeDecoder.decodeToJpeg(keyframe, JPEG_QUALITY);
+            Log.d(TAG, "Decoded snapshot for camera " + camera.getName() + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            entry.snapshot = new Snapshot(jpeg, keyframe.wallMillis);
+            entry.snapshotSequence = keyframe.sequence;
+            return entry.snapshot;
+        }
+    }
+
+    private Keyframe awaitKeyframe(Entry entry, Keyframe previous, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (entry) {
+            while (entry.latest == previous) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                entry.wait(remaining);
+            }
+        }
+        return entry.latest;
+    }
+
+    private void startFeeder(CameraDevice camera, Entry entry) {
+        synchronized (entry) {
+            if (entry.feeding) {
+                return;
+            }
+            entry.feeding = true;
+        }
+        CameraRelay relay = relayHub.obtain(camera);
+        Thread thread = new Thread(() -> feed(relay, entry), "snapshot-" + camera.getId());
+        thread.start();
+    }
+
+    // 临时订阅转发缓冲，只解包、不解码，取到的关键帧交给 onKeyframe；一段时间没有请求后退出
+    private void feed(CameraRelay relay, Entry entry) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        relay.acquire();
+        byte[] packet = new byte[65536];
+        try {
+            while (System.currentTimeMillis() - entry.lastRequestMillis < FEEDER_IDLE_MS) {
+                CameraRelay.SessionInfo info = relay.awaitSession(SESSION_WAIT_MS);
+                if (info == null) {
+                    continue;
+                }
+                AtomicBoolean dropped = new AtomicBoolean();
+                CameraRelay.Subscriber subscriber = relay.subscribe(() -> dropped.set(true));
+                try {
+                    RtpDepacketizer depacketizer = new RtpDepacketizer(info.codec);
+                    for (byte[] parameterSet : info.parameterSets) {
+                        depacketizer.setParameterSet(parameterSet);
+                    }
+                    while (!dropped.get() && System.currentTimeMillis() - entry.lastRequestMillis < FEEDER_IDLE_MS) {
+                        int length = subscriber.next(packet, 0, POLL_INTERVAL_MS);
+                        if (length < 0) {
+                            continue;
+                        }
+                        depacketizer.push(packet, 0, length);
+                        AccessUnit unit;
+                        while ((unit = depacketizer.poll()) != null) {
+                            if (unit.keyframe) {
+                                onKeyframe(relay.getCameraId(), depacketizer.getCodec(), unit,
+                                        depacketizer.getVps(), depacketizer.getSps(), depacketizer.getPps());
+                            }
+                        }
+                    }
+                } catch (RtpRingBuffer.OverrunException e) {
+                    Log.w(TAG, "Snapshot feeder for camera " + relay.getCameraId() + " fell behind");
+                } finally {
+                    relay.unsubscribe(subscriber);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "Snapshot feeder for camera " + relay.getCameraId() + " failed: " + e.getMessage());
+        } finally {
+            relay.release();
+            synchronized (entry) {
+                entry.feeding = false;
+            }
+        }
+    }
+}
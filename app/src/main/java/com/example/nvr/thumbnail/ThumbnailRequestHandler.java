@@ -0,0 +1,44 @@
+package com.example.nvr.thumbnail;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.File;
+import java.io.IOException;
+
+// 让 Picasso 识别 nvrthumb:// 地址，在 Picasso 的后台线程上从磁盘缓存读取或解码关键帧
+class ThumbnailRequestHandler extends RequestHandler {
+
+    private final ThumbnailService service;
+
+    ThumbnailRequestHandler(ThumbnailService service) {
+        this.service = service;
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        return ThumbnailService.isThumbnailUri(data.uri);
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException {
+        Uri uri = request.uri;
+        String segmentId = uri.getQueryParameter("id");
+        String path = uri.getQueryParameter("path");
+        if (segmentId == null || path == null) {
+            throw new IOException("Invalid thumbnail uri " + uri);
+        }
+        long offsetMillis;
+        try {
+            offsetMillis = Long.parseLong(uri.getQueryParameter("t"));
+        } catch (NumberFormatException e) {
+            offsetMillis = 0;
+        }
+        Bitmap bitmap = service.getThumbnail(segmentId, new File(path), offsetMillis);
+        return new Result(bitmap, Picasso.LoadedFrom.DISK);
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.nvr.thumbnail;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+
+import androidx.annotation.WorkerThread;
+
+import com.example.nvr.R;
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.model.RecordingFile;
+import com.example.nvr.recording.LoadGovernor;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 录像缩略图：每个录制段每 N 秒只解码一个关键帧并缩小保存，磁盘缓存 + Picasso 内存 LRU，解码全部在后台线程
+public class ThumbnailService {
+
+    private static final String TAG = "ThumbnailService";
+    private static final String CACHE_DIR = "thumbnails";
+    private static final String SCHEME = "nvrthumb";
+    public static final String LIST_TAG = "recording_list";
+
+    // 同一段内同一时间桶共用一张缩略图
+    private static final int INTERVAL_SECONDS = 10;
+    private static final int THUMBNAIL_WIDTH = 192;
+    private static final int JPEG_QUALITY = 75;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_MEMORY_BYTES = 16 * 1024 * 1024;
+    private static final int DECODE_THREADS = 2;
+
+    private static volatile ThumbnailService instance;
+
+    private final File cacheDir;
+    private final Picasso picasso;
+    private final LoadGovernor loadGovernor;
+    // 磁盘缓存当前大小，-1 表示尚未统计
+    private final AtomicLong diskBytes = new AtomicLong(-1);
+
+    private ThumbnailService(Context context) {
+        this.cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        this.loadGovernor = LoadGovernor.getInstance(context);
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            Log.e(TAG, "Failed to create thumbnail cache " + cacheDir);
+        }
+        int memoryBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 16);
+        ExecutorService decoder = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> {
+            Thread thread = new Thread(() -> {
+                // 低优先级，避免与录制线程争抢CPU
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "thumbnail-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.picasso = new Picasso.Builder(context)
+                .memoryCache(new LruCache(memoryBytes))
+                .addRequestHandler(new ThumbnailRequestHandler(this))
+                .executor(decoder)
+                .defaultBitmapConfig(Bitmap.Config.RGB_565)
+                .build();
+    }
+
+    public static ThumbnailService getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ThumbnailService.class) {
+                if (instance == null) {
+                    instance = new ThumbnailService(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Picasso getPicasso() {
+        return picasso;
+    }
+
+    // 录制段开头附近的缩略图，用于录像列表
+    public void loadInto(RecordingFile recording, ImageView target) {
+        loadInto(recording, 0, target);
+    }
+
+    public void loadInto(RecordingFile recording, long offsetMillis, ImageView target) {
+        picasso.load(uriFor(recording, offsetMillis))
+                .placeholder(R.drawable.ic_camera)
+                .tag(LIST_TAG)
+                .noFade()
+                .into(target);
+    }
+
+    public static Uri uriFor(RecordingFile recording, long offsetMillis) {
+        long bucket = Math.max(0, offsetMillis) / (INTERVAL_SECONDS * 1000L) * INTERVAL_SECONDS * 1000L;
+        return new Uri.Builder()
+                .scheme(SCHEME)
+                .authority("segment")
+                .appendQueryParameter("id", recording.getId())
+                .appendQueryParameter("path", recording.getFilePath())
+                .appendQueryParameter("t", String.valueOf(bucket))
+                .build();
+    }
+
+    static boolean isThumbnailUri(Uri uri) {
+        return uri != null && SCHEME.equals(uri.getScheme());
+    }
+
+    // 先查磁盘缓存，未命中时解码一个关键帧；只在 Picasso 的后台线程调用
+    @WorkerThread
+    Bitmap getThumbnail(String segmentId, File segment, long offsetMillis) throws IOException {
+        File cached = cacheFile(segmentId, offsetMillis);
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getAbsolutePath());
+            if (bitmap != null) {
+                // 更新修改时间，磁盘缓存按最近使用淘汰
+                cached.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+        if (!segment.exists()) {
+            throw new IOException("Segment not found: " + segment);
+        }
+        if (loadGovernor.isAtLeast(LoadGovernor.LEVEL_PAUSE_ANALYTICS)) {
+            // 高负载时只返回已缓存的缩略图，解码让给录制
+            throw new IOException("Thumbnail extraction paused under load");
+        }
+
+        Bitmap bitmap = extractKeyframe(segment, offsetMillis);
+        if (bitmap == null) {
+            throw new IOException("No frame decoded from " + segment.getName());
+        }
+        store(cached, bitmap);
+        return bitmap;
+    }
+
+    private Bitmap extractKeyframe(File segment, long offsetMillis) {
+        long timeUs = keyframeTimeUs(segment, offsetMillis * 1000);
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(segment.getAbsolutePath());
+            Bitmap frame;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                // 解码器直接输出小图，省去全分辨率位图的内存
+                frame = retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                        THUMBNAIL_WIDTH, THUMBNAIL_WIDTH);
+            } else {
+                frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            }
+            return frame != null ? scale(frame) : null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to extract frame from " + segment.getName(), e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // 有关键帧索引时直接取时间点之前最近的关键帧，让解码器只解一帧
+    private static long keyframeTimeUs(File segment, long offsetUs) {
+        File sidecar = KeyframeIndex.sidecarFor(segment);
+        if (!sidecar.exists()) {
+            return offsetUs;
+        }
+        try (KeyframeIndex index = KeyframeIndex.open(sidecar)) {
+            if (index.isEmpty()) {
+                return offsetUs;
+            }
+            long firstPts = index.getPtsUs(0);
+            int keyframe = index.floorIndex(firstPts + offsetUs);
+            return index.getPtsUs(keyframe) - firstPts;
+        } catch (IOException e) {
+            return offsetUs;
+        }
+    }
+
+    private static Bitmap scale(Bitmap frame) {
+        if (frame.getWidth() <= THUMBNAIL_WIDTH) {
+            return frame;
+        }
+        int height = Math.max(1, frame.getHeight() * THUMBNAIL_WIDTH / frame.getWidth());
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, THUMBNAIL_WIDTH, height, true);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    private void store(File file, Bitmap bitmap) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail " + file.getName(), e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        if (diskBytes.get() < 0) {
+            diskBytes.compareAndSet(-1, directorySize());
+        } else {
+            diskBytes.addAndGet(file.length());
+        }
+        if (diskBytes.get() > MAX_DISK_BYTES) {
+            trimDiskCache();
+        }
+    }
+
+    // 按最近使用时间淘汰到上限的 3/4，避免每写一张就淘汰一次
+    private synchronized void trimDiskCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        long target = MAX_DISK_BYTES * 3 / 4;
+        for (int i = 0; i < order.length && total > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    // 删除录制段时清理它的缩略图
+    public void removeSegment(String segmentId) {
+        File[] files = cacheDir.listFiles((dir, name) -> name.startsWith(segmentId + "_"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            long length = file.length();
+            if (file.delete() && diskBytes.get() >= 0) {
+                diskBytes.addAndGet(-length);
+            }
+        }
+    }
+
+    private long directorySize() {
+        File[] files = cacheDir.listFiles();
+        long total = 0;
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private File cacheFile(String segmentId, long offsetMillis) {
+        return new File(cacheDir, segmentId + "_" + offsetMillis + ".jpg");
+    }
+}
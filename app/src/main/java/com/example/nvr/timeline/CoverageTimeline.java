@@ -0,0 +1,188 @@
+package com.example.nvr.timeline;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 按 摄像头/天 维护录像与移动侦测的覆盖位图，段关闭时增量更新，绘制时间轴时不做任何文件读写
+public class CoverageTimeline {
+
+    private static final String TAG = "CoverageTimeline";
+    private static final String TIMELINE_DIR = "timeline";
+    private static final String FILE_EXTENSION = ".cov";
+    private static final int FILE_MAGIC = 0x4E564356; // "NVCV"
+
+    private static volatile CoverageTimeline instance;
+
+    private final File baseDir;
+    // cameraId -> (dayKey -> CoverageDay)
+    private final ConcurrentHashMap<String, Map<Integer, CoverageDay>> days = new ConcurrentHashMap<>();
+
+    CoverageTimeline(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    public static CoverageTimeline getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CoverageTimeline.class) {
+                if (instance == null) {
+                    instance = new CoverageTimeline(new File(context.getApplicationContext().getFilesDir(), TIMELINE_DIR));
+                }
+            }
+        }
+        return instance;
+    }
+
+    // 录制段关闭时调用，跨天的段会拆分到两天
+    public void onSegmentClosed(String cameraId, long startMillis, long endMillis) {
+        mark(cameraId, CoverageDay.KIND_RECORDED, startMillis, endMillis);
+    }
+
+    public void onMotion(String cameraId, long startMillis, long endMillis) {
+        mark(cameraId, CoverageDay.KIND_MOTION, startMillis, endMillis);
+    }
+
+    private void mark(String cameraId, int kind, long startMillis, long endMillis) {
+        if (cameraId == null || endMillis <= startMillis) {
+            return;
+        }
+        long dayStart = startOfDay(startMillis);
+        while (dayStart < endMillis) {
+            long nextDay = startOfDay(dayStart + 36 * 3600 * 1000L);
+            CoverageDay day = getDay(cameraId, dayKey(dayStart));
+            int from = (int) ((Math.max(startMillis, dayStart) - dayStart) / 1000);
+            int to = (int) ((Math.min(endMillis, nextDay) - dayStart + 999) / 1000);
+            if (day.mark(kind, from, to) > 0) {
+                save(cameraId, day);
+            }
+            dayStart = nextDay;
+        }
+    }
+
+    // 获取某天的覆盖数据；首次访问时从磁盘加载，之后常驻内存
+    public CoverageDay getDay(String cameraId, int dayKey) {
+        Map<Integer, CoverageDay> cameraDays = days.get(cameraId);
+        if (cameraDays == null) {
+            cameraDays = new ConcurrentHashMap<>();
+            Map<Integer, CoverageDay> existing = days.putIfAbsent(cameraId, cameraDays);
+            if (existing != null) {
+                cameraDays = existing;
+            }
+        }
+        CoverageDay day = cameraDays.get(dayKey);
+        if (day == null) {
+            synchronized (cameraDays) {
+                day = cameraDays.get(dayKey);
+                if (day == null) {
+                    day = load(cameraId, dayKey);
+                    cameraDays.put(dayKey, day);
+                }
+            }
+        }
+        return day;
+    }
+
+    // 在后台预加载最近几天的数据，使后续绘制完全在内存中完成
+    public void preload(Iterable<String> cameraIds, long nowMillis, int dayCount) {
+        long dayStart = startOfDay(nowMillis);
+        for (int i = 0; i < dayCount; i++) {
+            int key = dayKey(dayStart);
+            for (String cameraId : cameraIds) {
+                getDay(cameraId, key);
+            }
+            dayStart = startOfDay(dayStart - 12 * 3600 * 1000L);
+        }
+    }
+
+    public void removeCamera(String cameraId) {
+        days.remove(cameraId);
+        File[] files = cameraDir(cameraId).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cameraDir(cameraId).delete();
+    }
+
+    public static int dayKey(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    public static long startOfDay(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private File cameraDir(String cameraId) {
+        return new File(baseDir, cameraId);
+    }
+
+    private CoverageDay load(String cameraId, int dayKey) {
+        CoverageDay day = new CoverageDay(dayKey);
+        File file = new File(cameraDir(cameraId), dayKey + FILE_EXTENSION);
+        if (!file.exists()) {
+            return day;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(4 + CoverageDay.serializedSize());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 读满为止
+            }
+            buffer.flip();
+            if (buffer.remaining() == buffer.capacity() && buffer.getInt() == FILE_MAGIC) {
+                day.readFrom(buffer);
+            } else {
+                Log.w(TAG, "Ignoring corrupt coverage file " + file.getName());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load coverage " + file.getName() + ": " + e.getMessage());
+        }
+        return day;
+    }
+
+    private void save(String cameraId, CoverageDay day) {
+        File dir = cameraDir(cameraId);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Failed to create timeline directory for camera " + cameraId);
+            return;
+        }
+        File file = new File(dir, day.getDayKey() + FILE_EXTENSION);
+        File temp = new File(dir, day.getDayKey() + FILE_EXTENSION + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(4 + CoverageDay.serializedSize());
+        buffer.putInt(FILE_MAGIC);
+        day.writeTo(buffer);
+        buffer.flip();
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save coverage " + file.getName() + ": " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace coverage file " + file.getName());
+        }
+    }
+}
@@ -5,40 +5,255 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import com.example.nvr.metrics.TimeSeriesStore;
 import com.example.nvr.model.CameraDevice;
+import com.example.nvr.model.RecordingFile;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+// 进程内唯一的数据库实例：WAL 模式允许读写并发，常用写语句预编译复用，
+// 摄像头列表缓存在内存中并在写入时失效，异步接口在后台线程执行并把结果回调到主线程
 public class DatabaseHelper extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 2; // 增加版本号以触发更新
+    private static final String TAG = "DatabaseHelper";
+    private static final int DATABASE_VERSION = 8; // 增加版本号以触发更新
     private static final String DATABASE_NAME = "NVRDatabase";
     private static final String TABLE_CAMERAS = "cameras";
+    private static final String TABLE_RECORDINGS = "recordings";
+    private static final String TABLE_EVENTS = "events";
+    private static final String TABLE_METRIC_SAMPLES = "metric_samples";
+    private static final String TABLE_METRIC_ROLLUPS = "metric_rollups";
 
     // 摄像头表字段
     private static final String KEY_ID = "id";
     private static final String KEY_NAME = "name";
     private static final String KEY_RTSP_URL = "rtsp_url";
+    private static final String KEY_RECORDING_ENABLED = "recording_enabled";
+    private static final String KEY_SUBSTREAM_URL = "substream_url";
 
-    public DatabaseHelper(Context context) {
+    // 录像索引表字段
+    private static final String KEY_ROW_ID = "_id";
+    private static final String KEY_SEGMENT_ID = "segment_id";
+    private static final String KEY_CAMERA_ID = "camera_id";
+    private static final String KEY_FILE_PATH = "file_path";
+    private static final String KEY_FILE_SIZE = "file_size";
+    private static final String KEY_START_TIME = "start_time";
+    private static final String KEY_END_TIME = "end_time";
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_CODEC = "codec";
+
+    // 时序表字段
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_METRIC = "metric";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_VALUE = "value";
+    private static final String KEY_DETAIL = "detail";
+    private static final String KEY_RESOLUTION = "resolution";
+    private static final String KEY_BUCKET = "bucket";
+    private static final String KEY_COUNT = "count";
+    private static final String KEY_SUM = "sum";
+    private static final String KEY_MIN = "min";
+    private static final String KEY_MAX = "max";
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static volatile DatabaseHelper instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "database");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 摄像头列表缓存，写入摄像头表时置空，下次读取时重新加载。
+    // 每次置空都递增代号，加载期间代号变化说明读到的可能是旧数据，不写回缓存
+    private final Object cameraCacheLock = new Object();
+    private List<CameraDevice> cameraCache;
+    private long cameraCacheGeneration;
+
+    // 预编译的录像索引写语句；SQLiteStatement 不是线程安全的，使用时锁住 statementLock。
+    // 事务内使用时必须先拿锁再开事务，否则另一线程持锁等待写连接时会互相等待
+    private final Object statementLock = new Object();
+    private SQLiteStatement updateRecordingStatement;
+    private SQLiteStatement insertRecordingStatement;
+    private SQLiteStatement deleteRecordingStatement;
+
+    // 预编译的时序写语句，只在 writeTimeSeries 中持 timeSeriesLock 使用
+    private final Object timeSeriesLock = new Object();
+    private SQLiteStatement insertEventStatement;
+    private SQLiteStatement insertSampleStatement;
+    private SQLiteStatement updateRollupStatement;
+    private SQLiteStatement insertRollupStatement;
+
+    private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            synchronized (DatabaseHelper.class) {
+                if (instance == null) {
+                    instance = new DatabaseHelper(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    // 在数据库线程执行 task，结果回调到主线程；task 抛出异常时回调 null
+    public <T> void runAsync(final Callable<T> task, final Callback<T> callback) {
+        executor.execute(() -> {
+            T result = null;
+            try {
+                result = task.call();
+            } catch (Exception e) {
+                Log.e(TAG, "Database task failed", e);
+            }
+            if (callback != null) {
+                final T value = result;
+                mainHandler.post(() -> callback.onResult(value));
+            }
+        });
+    }
+
+    public void getAllCamerasAsync(Callback<List<CameraDevice>> callback) {
+        runAsync(this::getAllCameras, callback);
+    }
+
+    public void addCameraAsync(CameraDevice camera, Callback<Boolean> callback) {
+        runAsync(() -> addCamera(camera), callback);
+    }
+
+    public void updateCameraAsync(CameraDevice camera, Callback<Integer> callback) {
+        runAsync(() -> updateCamera(camera), callback);
+    }
+
+    public void deleteCameraAsync(String id, Callback<Boolean> callback) {
+        runAsync(() -> deleteCamera(id), callback);
     }
 
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         String CREATE_CAMERAS_TABLE = "CREATE TABLE " + TABLE_CAMERAS + "("
                 + KEY_ID + " TEXT PRIMARY KEY,"
                 + KEY_NAME + " TEXT,"
-                + KEY_RTSP_URL + " TEXT" + ")";
+                + KEY_RTSP_URL + " TEXT,"
+                + KEY_RECORDING_ENABLED + " INTEGER DEFAULT 1,"
+                + KEY_SUBSTREAM_URL + " TEXT" + ")";
         db.execSQL(CREATE_CAMERAS_TABLE);
+        createRecordingsTable(db);
+        createTimeSeriesTables(db);
     }
 
+    // 按版本逐级升级，不再删除已有的摄像头配置
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_CAMERAS);
-        onCreate(db);
+        if (oldVersion < 2) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_CAMERAS);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 3) {
+            // 新建的录像表已是最新结构，不需要再执行 v4 的加列
+            createRecordingsTable(db);
+        } else if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE_RECORDINGS + " ADD COLUMN " + KEY_WIDTH + " INTEGER DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_RECORDINGS + " ADD COLUMN " + KEY_HEIGHT + " INTEGER DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_RECORDINGS + " ADD COLUMN " + KEY_CODEC + " TEXT");
+            // 旧记录的时长全部为0，清空索引让下次同步时重新解析文件头
+            db.execSQL("DELETE FROM " + TABLE_RECORDINGS);
+        }
+        if (oldVersion < 5) {
+            createTimeSeriesTables(db);
+        }
+        if (oldVersion < 6) {
+            db.execSQL("ALTER TABLE " + TABLE_CAMERAS + " ADD COLUMN " + KEY_RECORDING_ENABLED + " INTEGER DEFAULT 1");
+        }
+        if (oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + TABLE_CAMERAS + " ADD COLUMN " + KEY_SUBSTREAM_URL + " TEXT");
+        }
+        if (oldVersion < 8) {
+            createSegmentIndex(db);
+        }
+    }
+
+    // 录像索引：列表按 (start_time, _id) 键集分页，按摄像头和日期过滤走索引
+    private void createRecordingsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_RECORDINGS + "("
+                + KEY_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + KEY_SEGMENT_ID + " TEXT NOT NULL,"
+                + KEY_CAMERA_ID + " TEXT,"
+                + KEY_FILE_PATH + " TEXT NOT NULL UNIQUE,"
+                + KEY_FILE_SIZE + " INTEGER,"
+                + KEY_START_TIME + " INTEGER,"
+                + KEY_END_TIME + " INTEGER,"
+                + KEY_WIDTH + " INTEGER DEFAULT 0,"
+                + KEY_HEIGHT + " INTEGER DEFAULT 0,"
+                + KEY_CODEC + " TEXT" + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_recordings_start ON " + TABLE_RECORDINGS
+                + "(" + KEY_START_TIME + ", " + KEY_ROW_ID + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_recordings_camera_start ON " + TABLE_RECORDINGS
+                + "(" + KEY_CAMERA_ID + ", " + KEY_START_TIME + ", " + KEY_ROW_ID + ")");
+        createSegmentIndex(db);
+    }
+
+    // HTTP 回放按段ID查找文件
+    private void createSegmentIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_recordings_segment ON " + TABLE_RECORDINGS
+                + "(" + KEY_SEGMENT_ID + ")");
+    }
+
+    // 时序数据：事件和原始样本按时间清理，汇总表以 (摄像头, 指标, 分辨率, 桶) 为主键累加
+    private void createTimeSeriesTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_EVENTS + "("
+                + KEY_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + KEY_CAMERA_ID + " TEXT,"
+                + KEY_TYPE + " TEXT NOT NULL,"
+                + KEY_TIME + " INTEGER NOT NULL,"
+                + KEY_VALUE + " INTEGER DEFAULT 0,"
+                + KEY_DETAIL + " TEXT" + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_events_time ON " + TABLE_EVENTS + "(" + KEY_TIME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_events_camera_time ON " + TABLE_EVENTS
+                + "(" + KEY_CAMERA_ID + ", " + KEY_TIME + ")");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_METRIC_SAMPLES + "("
+                + KEY_CAMERA_ID + " TEXT,"
+                + KEY_METRIC + " TEXT NOT NULL,"
+                + KEY_TIME + " INTEGER NOT NULL,"
+                + KEY_VALUE + " REAL" + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_metric_samples_time ON " + TABLE_METRIC_SAMPLES + "(" + KEY_TIME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_metric_samples_series ON " + TABLE_METRIC_SAMPLES
+                + "(" + KEY_CAMERA_ID + ", " + KEY_METRIC + ", " + KEY_TIME + ")");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_METRIC_ROLLUPS + "("
+                + KEY_CAMERA_ID + " TEXT NOT NULL,"
+                + KEY_METRIC + " TEXT NOT NULL,"
+                + KEY_RESOLUTION + " INTEGER NOT NULL,"
+                + KEY_BUCKET + " INTEGER NOT NULL,"
+                + KEY_COUNT + " INTEGER NOT NULL,"
+                + KEY_SUM + " REAL NOT NULL,"
+                + KEY_MIN + " REAL NOT NULL,"
+                + KEY_MAX + " REAL NOT NULL,"
+                + "PRIMARY KEY (" + KEY_CAMERA_ID + ", " + KEY_METRIC + ", " + KEY_RESOLUTION + ", " + KEY_BUCKET + ")"
+                + ") WITHOUT ROWID");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_metric_rollups_bucket ON " + TABLE_METRIC_ROLLUPS
+                + "(" + KEY_RESOLUTION + ", " + KEY_BUCKET + ")");
     }
 
     // 添加摄像头
@@ -49,38 +264,65 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         values.put(KEY_ID, camera.getId());
         values.put(KEY_NAME, camera.getName());
         values.put(KEY_RTSP_URL, camera.getRtspUrl());
+        values.put(KEY_RECORDING_ENABLED, camera.isRecordingEnabled() ? 1 : 0);
+        values.put(KEY_SUBSTREAM_URL, camera.getSubstreamUrl());
 
         long result = db.insert(TABLE_CAMERAS, null, values);
-        db.close();
+        invalidateCameraCache();
         return result != -1; // 如果插入成功，返回true
     }
 
-    // 获取单个摄像头
+    // 获取单个摄像头，不存在时返回null
     public CameraDevice getCamera(String id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-
-        Cursor cursor = db.query(TABLE_CAMERAS, new String[] { KEY_ID,
-                        KEY_NAME, KEY_RTSP_URL }, KEY_ID + "=?",
-                new String[] { id }, null, null, null, null);
-        if (cursor != null)
-            cursor.moveToFirst();
-
-        CameraDevice camera = new CameraDevice(
-                cursor.getString(0) != null ? cursor.getString(0) : "",
-                cursor.getString(1) != null ? cursor.getString(1) : "",
-                cursor.getString(2) != null ? cursor.getString(2) : ""
-        );
-        
-        cursor.close();
-        return camera;
+        for (CameraDevice camera : getCachedCameras()) {
+            if (camera.getId().equals(id)) {
+                return new CameraDevice(camera);
+            }
+        }
+        return null;
     }
 
-    // 获取所有摄像头
+    // 获取所有摄像头，优先返回缓存。返回的是副本，调用方可以随意修改
     public List<CameraDevice> getAllCameras() {
+        List<CameraDevice> cameras = getCachedCameras();
+        List<CameraDevice> copies = new ArrayList<>(cameras.size());
+        for (CameraDevice camera : cameras) {
+            copies.add(new CameraDevice(camera));
+        }
+        return copies;
+    }
+
+    // 缓存中的摄像头实例由所有调用方共享，只能在本类中读取
+    private List<CameraDevice> getCachedCameras() {
+        long generation;
+        synchronized (cameraCacheLock) {
+            if (cameraCache != null) {
+                return cameraCache;
+            }
+            generation = cameraCacheGeneration;
+        }
+        List<CameraDevice> cameraList = Collections.unmodifiableList(loadCameras());
+        synchronized (cameraCacheLock) {
+            if (generation == cameraCacheGeneration) {
+                cameraCache = cameraList;
+            }
+        }
+        return cameraList;
+    }
+
+    private void invalidateCameraCache() {
+        synchronized (cameraCacheLock) {
+            cameraCacheGeneration++;
+            cameraCache = null;
+        }
+    }
+
+    private List<CameraDevice> loadCameras() {
         List<CameraDevice> cameraList = new ArrayList<>();
-        String selectQuery = "SELECT  * FROM " + TABLE_CAMERAS;
+        String selectQuery = "SELECT " + KEY_ID + ", " + KEY_NAME + ", " + KEY_RTSP_URL + ", "
+                + KEY_RECORDING_ENABLED + ", " + KEY_SUBSTREAM_URL + " FROM " + TABLE_CAMERAS;
 
-        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.rawQuery(selectQuery, null);
 
         if (cursor.moveToFirst()) {
@@ -90,6 +332,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                         cursor.getString(1) != null ? cursor.getString(1) : "",
                         cursor.getString(2) != null ? cursor.getString(2) : ""
                 );
+                camera.setRecordingEnabled(cursor.isNull(3) || cursor.getInt(3) != 0);
+                camera.setSubstreamUrl(cursor.getString(4));
                 cameraList.add(camera);
             } while (cursor.moveToNext());
         }
@@ -105,9 +349,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         ContentValues values = new ContentValues();
         values.put(KEY_NAME, camera.getName());
         values.put(KEY_RTSP_URL, camera.getRtspUrl());
+        values.put(KEY_RECORDING_ENABLED, camera.isRecordingEnabled() ? 1 : 0);
+        values.put(KEY_SUBSTREAM_URL, camera.getSubstreamUrl());
 
-        return db.update(TABLE_CAMERAS, values, KEY_ID + " = ?",
+        int rows = db.update(TABLE_CAMERAS, values, KEY_ID + " = ?",
                 new String[] { camera.getId() });
+        invalidateCameraCache();
+        return rows;
     }
 
     // 删除摄像头
@@ -115,7 +363,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getWritableDatabase();
         db.delete(TABLE_CAMERAS, KEY_ID + " = ?",
                 new String[] { camera.getId() });
-        db.close();
+        invalidateCameraCache();
     }
 
     // 通过ID删除摄像头
@@ -123,17 +371,370 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getWritableDatabase();
         int rowsAffected = db.delete(TABLE_CAMERAS, KEY_ID + " = ?",
                 new String[] { id });
-        db.close();
+        invalidateCameraCache();
         return rowsAffected > 0;
     }
 
     // 获取摄像头数量
     public int getCamerasCount() {
-        String countQuery = "SELECT  * FROM " + TABLE_CAMERAS;
+        return getAllCameras().size();
+    }
+
+    // 录像写入索引：已存在时只更新内容，保持行ID不变；返回新插入的行ID，更新已有行时返回-1
+    public long upsertRecording(RecordingFile recording) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (statementLock) {
+            if (updateRecordingStatement == null) {
+                updateRecordingStatement = db.compileStatement("UPDATE " + TABLE_RECORDINGS + " SET "
+                        + KEY_SEGMENT_ID + " = ?, " + KEY_CAMERA_ID + " = ?, " + KEY_FILE_SIZE + " = ?, "
+                        + KEY_START_TIME + " = ?, " + KEY_END_TIME + " = ?, " + KEY_WIDTH + " = ?, "
+                        + KEY_HEIGHT + " = ?, " + KEY_CODEC + " = ? WHERE " + KEY_FILE_PATH + " = ?");
+                insertRecordingStatement = db.compileStatement("INSERT INTO " + TABLE_RECORDINGS + " ("
+                        + KEY_SEGMENT_ID + ", " + KEY_CAMERA_ID + ", " + KEY_FILE_SIZE + ", "
+                        + KEY_START_TIME + ", " + KEY_END_TIME + ", " + KEY_WIDTH + ", "
+                        + KEY_HEIGHT + ", " + KEY_CODEC + ", " + KEY_FILE_PATH + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            bindRecording(updateRecordingStatement, recording);
+            if (updateRecordingStatement.executeUpdateDelete() > 0) {
+                return -1;
+            }
+            bindRecording(insertRecordingStatement, recording);
+            return insertRecordingStatement.executeInsert();
+        }
+    }
+
+    // 两条语句的参数顺序相同，file_path 在最后
+    private static void bindRecording(SQLiteStatement statement, RecordingFile recording) {
+        statement.clearBindings();
+        statement.bindString(1, recording.getId());
+        statement.bindString(2, recording.getCameraId());
+        statement.bindLong(3, recording.getFileSize());
+        statement.bindLong(4, recording.getStartTime() != null ? recording.getStartTime().getTime() : 0);
+        statement.bindLong(5, recording.getEndTime() != null ? recording.getEndTime().getTime() : 0);
+        statement.bindLong(6, recording.getWidth());
+        statement.bindLong(7, recording.getHeight());
+        statement.bindString(8, recording.getCodec());
+        statement.bindString(9, recording.getFilePath());
+    }
+
+    // 批量写入索引，整批在一个事务中提交
+    public void upsertRecordings(List<RecordingFile> recordings) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (statementLock) {
+            db.beginTransaction();
+            try {
+                for (RecordingFile recording : recordings) {
+                    upsertRecording(recording);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    public int deleteRecordings(List<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase db = this.getWritableDatabase();
+        int deleted = 0;
+        synchronized (statementLock) {
+            db.beginTransaction();
+            try {
+                for (String filePath : filePaths) {
+                    if (deleteRecording(filePath)) {
+                        deleted++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return deleted;
+    }
+
+    public boolean deleteRecording(String filePath) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (statementLock) {
+            if (deleteRecordingStatement == null) {
+                deleteRecordingStatement = db.compileStatement("DELETE FROM " + TABLE_RECORDINGS
+                        + " WHERE " + KEY_FILE_PATH + " = ?");
+            }
+            deleteRecordingStatement.bindString(1, filePath);
+            return deleteRecordingStatement.executeUpdateDelete() > 0;
+        }
+    }
+
+    // 索引中的全部录像：文件路径 -> 文件大小，用于与磁盘同步
+    public Map<String, Long> getIndexedRecordingSizes() {
+        Map<String, Long> result = new HashMap<>();
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(countQuery, null);
-        int count = cursor.getCount();
-        cursor.close();
-        return count;
+        Cursor cursor = db.query(TABLE_RECORDINGS, new String[] { KEY_FILE_PATH, KEY_FILE_SIZE },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                result.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    // 按段ID查找录像文件路径，不存在时返回null
+    public String getRecordingPath(String segmentId) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_RECORDINGS, new String[] { KEY_FILE_PATH },
+                KEY_SEGMENT_ID + " = ?", new String[] { segmentId }, null, null, null, "1");
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // 按开始时间倒序分页查询录像
+    // cameraId 为 null 表示全部摄像头；fromMillis/toMillis <= 0 表示不限；
+    // 上一页最后一行的 (startTime, rowId) 作为游标，首页传 afterRowId < 0
+    public List<RecordingFile> queryRecordings(String cameraId, long fromMillis, long toMillis,
+                                               long afterStartTime, long afterRowId, int limit) {
+        StringBuilder where = new StringBuilder("1=1");
+        List<String> args = new ArrayList<>();
+        if (cameraId != null) {
+            where.append(" AND r.").append(KEY_CAMERA_ID).append(" = ?");
+            args.add(cameraId);
+        }
+        if (fromMillis > 0) {
+            where.append(" AND r.").append(KEY_START_TIME).append(" >= ?");
+            args.add(String.valueOf(fromMillis));
+        }
+        if (toMillis > 0) {
+            where.append(" AND r.").append(KEY_START_TIME).append(" < ?");
+            args.add(String.valueOf(toMillis));
+        }
+        if (afterRowId >= 0) {
+            where.append(" AND (r.").append(KEY_START_TIME).append(" < ? OR (r.")
+                    .append(KEY_START_TIME).append(" = ? AND r.").append(KEY_ROW_ID).append(" < ?))");
+            args.add(String.valueOf(afterStartTime));
+            args.add(String.valueOf(afterStartTime));
+            args.add(String.valueOf(afterRowId));
+        }
+        String sql = "SELECT r." + KEY_ROW_ID + ", r." + KEY_SEGMENT_ID + ", r." + KEY_FILE_PATH
+                + ", r." + KEY_FILE_SIZE + ", r." + KEY_START_TIME + ", r." + KEY_END_TIME
+                + ", r." + KEY_CAMERA_ID + ", c." + KEY_NAME
+                + ", r." + KEY_WIDTH + ", r." + KEY_HEIGHT + ", r." + KEY_CODEC
+                + " FROM " + TABLE_RECORDINGS + " r LEFT JOIN " + TABLE_CAMERAS + " c ON c." + KEY_ID
+                + " = r." + KEY_CAMERA_ID
+                + " WHERE " + where
+                + " ORDER BY r." + KEY_START_TIME + " DESC, r." + KEY_ROW_ID + " DESC"
+                + " LIMIT " + limit;
+
+        List<RecordingFile> recordings = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
+        try {
+            while (cursor.moveToNext()) {
+                String filePath = cursor.getString(2);
+                int slash = filePath.lastIndexOf('/');
+                RecordingFile recording = new RecordingFile(
+                        cursor.getString(1),
+                        slash >= 0 ? filePath.substring(slash + 1) : filePath,
+                        filePath,
+                        cursor.getLong(3),
+                        new Date(cursor.getLong(4)),
+                        new Date(cursor.getLong(5)),
+                        cursor.getString(6),
+                        cursor.isNull(7) ? "未知摄像头" : cursor.getString(7)
+                );
+                recording.setRowId(cursor.getLong(0));
+                recording.setResolution(cursor.getInt(8), cursor.getInt(9));
+                recording.setCodec(cursor.getString(10));
+                recordings.add(recording);
+            }
+        } finally {
+            cursor.close();
+        }
+        return recordings;
+    }
+
+    // 一批事件、原始样本和汇总增量在同一个事务中提交；汇总桶已存在时累加，否则插入
+    public void writeTimeSeries(List<TimeSeriesStore.Event> events, List<TimeSeriesStore.Sample> samples,
+                                List<TimeSeriesStore.Point> rollups) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (timeSeriesLock) {
+            if (insertEventStatement == null) {
+                insertEventStatement = db.compileStatement("INSERT INTO " + TABLE_EVENTS + " ("
+                        + KEY_CAMERA_ID + ", " + KEY_TYPE + ", " + KEY_TIME + ", " + KEY_VALUE + ", " + KEY_DETAIL
+                        + ") VALUES (?, ?, ?, ?, ?)");
+                insertSampleStatement = db.compileStatement("INSERT INTO " + TABLE_METRIC_SAMPLES + " ("
+                        + KEY_CAMERA_ID + ", " + KEY_METRIC + ", " + KEY_TIME + ", " + KEY_VALUE + ") VALUES (?, ?, ?, ?)");
+                updateRollupStatement = db.compileStatement("UPDATE " + TABLE_METRIC_ROLLUPS + " SET "
+                        + KEY_COUNT + " = " + KEY_COUNT + " + ?, " + KEY_SUM + " = " + KEY_SUM + " + ?, "
+                        + KEY_MIN + " = MIN(" + KEY_MIN + ", ?), " + KEY_MAX + " = MAX(" + KEY_MAX + ", ?)"
+                        + " WHERE " + KEY_CAMERA_ID + " = ? AND " + KEY_METRIC + " = ? AND "
+                        + KEY_RESOLUTION + " = ? AND " + KEY_BUCKET + " = ?");
+                insertRollupStatement = db.compileStatement("INSERT INTO " + TABLE_METRIC_ROLLUPS + " ("
+                        + KEY_COUNT + ", " + KEY_SUM + ", " + KEY_MIN + ", " + KEY_MAX + ", "
+                        + KEY_CAMERA_ID + ", " + KEY_METRIC + ", " + KEY_RESOLUTION + ", " + KEY_BUCKET
+                        + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            db.beginTransaction();
+            try {
+                for (TimeSeriesStore.Event event : events) {
+                    insertEventStatement.clearBindings();
+                    bindNullableString(insertEventStatement, 1, event.cameraId);
+                    insertEventStatement.bindString(2, event.type);
+                    insertEventStatement.bindLong(3, event.timeMillis);
+                    insertEventStatement.bindLong(4, event.value);
+                    bindNullableString(insertEventStatement, 5, event.detail);
+                    insertEventStatement.executeInsert();
+                }
+                for (TimeSeriesStore.Sample sample : samples) {
+                    insertSampleStatement.clearBindings();
+                    insertSampleStatement.bindString(1, seriesCamera(sample.cameraId));
+                    insertSampleStatement.bindString(2, sample.metric);
+                    insertSampleStatement.bindLong(3, sample.timeMillis);
+                    insertSampleStatement.bindDouble(4, sample.value);
+                    insertSampleStatement.executeInsert();
+                }
+                for (TimeSeriesStore.Point point : rollups) {
+                    bindRollup(updateRollupStatement, point);
+                    if (updateRollupStatement.executeUpdateDelete() == 0) {
+                        bindRollup(insertRollupStatement, point);
+                        insertRollupStatement.executeInsert();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    // 两条汇总语句的参数顺序相同，统计值在前，主键在后
+    private static void bindRollup(SQLiteStatement statement, TimeSeriesStore.Point point) {
+        statement.clearBindings();
+        statement.bindLong(1, point.count);
+        statement.bindDouble(2, point.sum);
+        statement.bindDouble(3, point.min);
+        statement.bindDouble(4, point.max);
+        statement.bindString(5, seriesCamera(point.cameraId));
+        statement.bindString(6, point.metric);
+        statement.bindLong(7, point.resolution);
+        statement.bindLong(8, point.bucketStart);
+    }
+
+    // 指标序列的摄像头键：不属于某个摄像头的全局指标存为空串。汇总表的主键列不能为 NULL，
+    // 原始样本也用同一个值，写入和 queryMetric 才能按 = ? 匹配到同一序列
+    private static String seriesCamera(String cameraId) {
+        return cameraId != null ? cameraId : "";
+    }
+
+    private static void bindNullableString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // 删除超过保留期的原始样本、分钟汇总、小时汇总和事件，返回删除的总行数
+    public int pruneTimeSeries(long rawBefore, long minuteBefore, long hourBefore, long eventsBefore) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            deleted += db.delete(TABLE_METRIC_SAMPLES, KEY_TIME + " < ?", new String[] { String.valueOf(rawBefore) });
+            deleted += db.delete(TABLE_METRIC_ROLLUPS, KEY_RESOLUTION + " = ? AND " + KEY_BUCKET + " < ?",
+                    new String[] { String.valueOf(TimeSeriesStore.RESOLUTION_MINUTE), String.valueOf(minuteBefore) });
+            deleted += db.delete(TABLE_METRIC_ROLLUPS, KEY_RESOLUTION + " = ? AND " + KEY_BUCKET + " < ?",
+                    new String[] { String.valueOf(TimeSeriesStore.RESOLUTION_HOUR), String.valueOf(hourBefore) });
+            deleted += db.delete(TABLE_EVENTS, KEY_TIME + " < ?", new String[] { String.valueOf(eventsBefore) });
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    // 删除一个摄像头的原始样本、汇总和事件，返回删除的总行数
+    public int deleteTimeSeries(String cameraId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = new String[] { cameraId };
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            deleted += db.delete(TABLE_METRIC_SAMPLES, KEY_CAMERA_ID + " = ?", args);
+            deleted += db.delete(TABLE_METRIC_ROLLUPS, KEY_CAMERA_ID + " = ?", args);
+            deleted += db.delete(TABLE_EVENTS, KEY_CAMERA_ID + " = ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    // 按时间升序返回一个指标序列；resolution 为 RESOLUTION_RAW 时读取原始样本
+    public List<TimeSeriesStore.Point> queryMetric(String cameraId, String metric, long resolution,
+                                                   long fromMillis, long toMillis) {
+        String camera = seriesCamera(cameraId);
+        String from = String.valueOf(fromMillis);
+        String to = String.valueOf(toMillis);
+        Cursor cursor;
+        SQLiteDatabase db = this.getReadableDatabase();
+        if (resolution == TimeSeriesStore.RESOLUTION_RAW) {
+            cursor = db.rawQuery("SELECT " + KEY_TIME + ", 1, " + KEY_VALUE + ", " + KEY_VALUE + ", " + KEY_VALUE
+                    + " FROM " + TABLE_METRIC_SAMPLES
+                    + " WHERE " + KEY_CAMERA_ID + " = ? AND " + KEY_METRIC + " = ? AND "
+                    + KEY_TIME + " >= ? AND " + KEY_TIME + " < ? ORDER BY " + KEY_TIME,
+                    new String[] { camera, metric, from, to });
+        } else {
+            cursor = db.rawQuery("SELECT " + KEY_BUCKET + ", " + KEY_COUNT + ", " + KEY_SUM + ", " + KEY_MIN + ", " + KEY_MAX
+                    + " FROM " + TABLE_METRIC_ROLLUPS
+                    + " WHERE " + KEY_CAMERA_ID + " = ? AND " + KEY_METRIC + " = ? AND " + KEY_RESOLUTION + " = ? AND "
+                    + KEY_BUCKET + " >= ? AND " + KEY_BUCKET + " < ? ORDER BY " + KEY_BUCKET,
+                    new String[] { camera, metric, String.valueOf(resolution), from, to });
+        }
+        List<TimeSeriesStore.Point> points = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                points.add(new TimeSeriesStore.Point(cameraId, metric, resolution, cursor.getLong(0),
+                        cursor.getLong(1), cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return points;
+    }
+
+    // 按时间倒序返回事件；cameraId 或 type 为null时不过滤
+    public List<TimeSeriesStore.Event> queryEvents(String cameraId, String type, long fromMillis, long toMillis, int limit) {
+        StringBuilder where = new StringBuilder(KEY_TIME + " >= ? AND " + KEY_TIME + " < ?");
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(fromMillis));
+        args.add(String.valueOf(toMillis));
+        if (cameraId != null) {
+            where.append(" AND ").append(KEY_CAMERA_ID).append(" = ?");
+            args.add(cameraId);
+        }
+        if (type != null) {
+            where.append(" AND ").append(KEY_TYPE).append(" = ?");
+            args.add(type);
+        }
+        List<TimeSeriesStore.Event> events = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_EVENTS, new String[] { KEY_CAMERA_ID, KEY_TYPE, KEY_TIME, KEY_VALUE, KEY_DETAIL },
+                where.toString(), args.toArray(new String[0]), null, null, KEY_TIME + " DESC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                events.add(new TimeSeriesStore.Event(cursor.getString(0), cursor.getString(1),
+                        cursor.getLong(2), cursor.getLong(3), cursor.getString(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return events;
     }
 }
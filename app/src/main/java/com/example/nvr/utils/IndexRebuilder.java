@@ -0,0 +1,305 @@
+package com.example.nvr.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.nvr.model.RecordingFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 录像索引重建：把 卷/摄像头/天 目录拆成分区，用有界的 ForkJoin 线程池并行解析文件头，
+// 结果按大批次在单个事务中写入 SQLite；每提交一批就通知界面，重建过程中列表可以显示部分结果
+public class IndexRebuilder {
+
+    private static final String TAG = "IndexRebuilder";
+    private static final int MAX_PARALLELISM = 4;
+    private static final int BATCH_SIZE = 500;
+
+    public interface Listener {
+        // 在主线程回调；partitionsDone/partitionsTotal 用于显示进度，batchCommitted 表示有新数据写入
+        void onProgress(int partitionsDone, int partitionsTotal, int filesIndexed, boolean batchCommitted);
+
+        void onFinished(int filesIndexed, int removed, long elapsedMillis);
+    }
+
+    private static volatile IndexRebuilder instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // 以下状态只在一次重建期间使用
+    private final AtomicInteger partitionsTotal = new AtomicInteger();
+    private final AtomicInteger partitionsDone = new AtomicInteger();
+    private final AtomicInteger filesIndexed = new AtomicInteger();
+    private final List<RecordingFile> pending = new ArrayList<>();
+
+    private IndexRebuilder(Context context) {
+        this.context = context;
+    }
+
+    public static IndexRebuilder getInstance(Context context) {
+        if (instance == null) {
+            synchronized (IndexRebuilder.class) {
+                if (instance == null) {
+                    instance = new IndexRebuilder(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public int getPartitionsDone() {
+        return partitionsDone.get();
+    }
+
+    public int getPartitionsTotal() {
+        return partitionsTotal.get();
+    }
+
+    // 启动后台重建；已在运行时直接返回 false
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(this::rebuild, "index-rebuilder");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    private void rebuild() {
+        long begin = System.currentTimeMillis();
+        partitionsTotal.set(0);
+        partitionsDone.set(0);
+        filesIndexed.set(0);
+        int removed = 0;
+        ForkJoinPool pool = new ForkJoinPool(Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+        try {
+            StorageManager storageManager = new StorageManager(context);
+            DatabaseHelper databaseHelper = DatabaseHelper.getInstance(context);
+            // 已索引且大小未变的文件不再解析；索引中有但扫描时未见到的就是磁盘上已不存在的记录
+            Map<String, Long> indexed = new ConcurrentHashMap<>(databaseHelper.getIndexedRecordingSizes());
+            Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+            List<StorageVolume> volumes = storageManager.getStoragePool().getOnlineVolumes();
+            List<VolumeTask> tasks = new ArrayList<>();
+            for (StorageVolume volume : volumes) {
+                tasks.add(new VolumeTask(storageManager, databaseHelper,
+                        storageManager.getRecordingsRoot(volume), indexed, seen));
+            }
+            for (VolumeTask task : tasks) {
+                pool.invoke(task);
+            }
+            flush(databaseHelper, true);
+
+            // 只删除在线卷上已消失的文件，离线卷上的记录保留到卷重新挂载
+            List<String> missing = new ArrayList<>();
+            for (String path : indexed.keySet()) {
+                if (seen.contains(path)) continue;
+                for (StorageVolume volume : volumes) {
+                    if (path.startsWith(volume.getPath() + File.separator)) {
+                        missing.add(path);
+                        break;
+                    }
+                }
+            }
+            removed = databaseHelper.deleteRecordings(missing);
+        } catch (Exception e) {
+            Log.e(TAG, "Index rebuild failed", e);
+        } finally {
+            pool.shutdown();
+            running.set(false);
+        }
+
+        final int indexedCount = filesIndexed.get();
+        final int removedCount = removed;
+        final long elapsed = System.currentTimeMillis() - begin;
+        Log.d(TAG, "Index rebuild: " + indexedCount + " files indexed, " + removedCount + " removed in " + elapsed + " ms");
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onFinished(indexedCount, removedCount, elapsed);
+            }
+        });
+    }
+
+    // 解析结果先放入待写列表，凑满一批后在一个事务中写入
+    private void addResults(DatabaseHelper databaseHelper, List<RecordingFile> results) {
+        boolean full;
+        synchronized (pending) {
+            pending.addAll(results);
+            full = pending.size() >= BATCH_SIZE;
+        }
+        if (full) {
+            flush(databaseHelper, false);
+        }
+    }
+
+    private void flush(DatabaseHelper databaseHelper, boolean force) {
+        List<RecordingFile> batch;
+        synchronized (pending) {
+            if (pending.isEmpty() || (!force && pending.size() < BATCH_SIZE)) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        // SQLite 同一时间只允许一个写者，串行提交
+        synchronized (this) {
+            databaseHelper.upsertRecordings(batch);
+        }
+        filesIndexed.addAndGet(batch.size());
+        notifyProgress(true);
+    }
+
+    private void notifyProgress(boolean batchCommitted) {
+        final int done = partitionsDone.get();
+        final int total = partitionsTotal.get();
+        final int files = filesIndexed.get();
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onProgress(done, total, files, batchCommitted);
+            }
+        });
+    }
+
+    // 一个卷：recordings 下每个摄像头目录拆成一个子任务，旧版本直接放在根目录的文件作为单独分区
+    private class VolumeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final StorageManager storageManager;
+        private final DatabaseHelper databaseHelper;
+        private final File root;
+        private final Map<String, Long> indexed;
+        private final Set<String> seen;
+
+        VolumeTask(StorageManager storageManager, DatabaseHelper databaseHelper, File root,
+                   Map<String, Long> indexed, Set<String> seen) {
+            this.storageManager = storageManager;
+            this.databaseHelper = databaseHelper;
+            this.root = root;
+            this.indexed = indexed;
+            this.seen = seen;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = root.listFiles();
+            if (children == null) {
+                return;
+            }
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<File> looseFiles = new ArrayList<>();
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    subtasks.add(new CameraTask(child));
+                } else if (child.getName().endsWith(".mp4")) {
+                    looseFiles.add(child);
+                }
+            }
+            if (!looseFiles.isEmpty()) {
+                partitionsTotal.incrementAndGet();
+                subtasks.add(new PartitionTask(looseFiles.toArray(new File[0])));
+            }
+            invokeAll(subtasks);
+        }
+
+        // 一个摄像头：每天一个分区
+        private class CameraTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final File cameraDir;
+
+            CameraTask(File cameraDir) {
+                this.cameraDir = cameraDir;
+            }
+
+            @Override
+            protected void compute() {
+                File[] days = cameraDir.listFiles();
+                if (days == null) {
+                    return;
+                }
+                List<PartitionTask> subtasks = new ArrayList<>();
+                List<File> looseFiles = new ArrayList<>();
+                for (File day : days) {
+                    if (day.isDirectory()) {
+                        File[] files = day.listFiles((dir, name) -> name.endsWith(".mp4"));
+                        if (files != null && files.length > 0) {
+                            subtasks.add(new PartitionTask(files));
+                        }
+                    } else if (day.getName().endsWith(".mp4")) {
+                        looseFiles.add(day);
+                    }
+                }
+                if (!looseFiles.isEmpty()) {
+                    subtasks.add(new PartitionTask(looseFiles.toArray(new File[0])));
+                }
+                partitionsTotal.addAndGet(subtasks.size());
+                notifyProgress(false);
+                invokeAll(subtasks);
+            }
+        }
+
+        // 一个 摄像头/天 分区：解析其中新增或变化的文件
+        private class PartitionTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final File[] files;
+
+            PartitionTask(File[] files) {
+                this.files = files;
+            }
+
+            @Override
+            protected void compute() {
+                List<RecordingFile> results = new ArrayList<>();
+                for (File file : files) {
+                    String path = file.getAbsolutePath();
+                    seen.add(path);
+                    Long size = indexed.get(path);
+                    if (size != null && size == file.length()) {
+                        continue;
+                    }
+                    try {
+                        results.add(storageManager.readRecordingFile(file));
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to index " + file.getName(), e);
+                    }
+                }
+                int done = partitionsDone.incrementAndGet();
+                if (!results.isEmpty()) {
+                    addResults(databaseHelper, results);
+                } else if (done % 50 == 0) {
+                    notifyProgress(false);
+                }
+            }
+        }
+    }
+}
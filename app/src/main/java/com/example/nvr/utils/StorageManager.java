@@ -3,38 +3,44 @@ package com.example.nvr.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Environment;
-import android.preference.PreferenceManager;
 import android.util.Log;
 
+import androidx.preference.PreferenceManager;
+
+import com.example.nvr.media.Mp4Probe;
+import com.example.nvr.metrics.MetricsRegistry;
 import com.example.nvr.model.RecordingFile;
+import com.example.nvr.thumbnail.ThumbnailService;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.UUID;
 
-public class StorageManager {
+public class StorageManager implements RecordingStore {
 
     private static final String TAG = "StorageManager";
     private static final String DEFAULT_STORAGE_PATH = Environment.getExternalStorageDirectory() + File.separator + "NVR";
-    private static final String RECORDINGS_DIR = "recordings";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+    private static final String RECORDINGS_DIR = RecordingNames.RECORDINGS_DIR;
 
     private final Context context;
     private final SharedPreferences sharedPreferences;
+    private final StoragePool storagePool;
     private String baseStoragePath;
 
     public StorageManager(Context context) {
         this.context = context;
         this.sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         this.baseStoragePath = getStoragePathFromPreferences();
+        this.storagePool = StoragePool.getInstance(context, baseStoragePath);
+        // 设置页可能已修改存储路径，保持存储池的主卷与之一致
+        StorageVolume primary = storagePool.getPrimaryVolume();
+        if (primary == null || !primary.getPath().equals(new File(baseStoragePath).getAbsolutePath())) {
+            storagePool.setPrimaryPath(context, baseStoragePath);
+        }
         ensureDirectoriesExists();
     }
 
@@ -56,54 +62,166 @@ public class StorageManager {
         }
     }
 
+    public StoragePool getStoragePool() {
+        return storagePool;
+    }
+
     public String getRecordingDirectoryPath() {
         return new File(baseStoragePath, RECORDINGS_DIR).getAbsolutePath();
     }
 
+    // 由存储池按策略选择卷，目录结构见 RecordingNames
+    @Override
     public String createNewRecordingFilePath(String cameraId, String cameraName) {
-        ensureDirectoriesExists();
-        String timestamp = DATE_FORMAT.format(new Date());
-        String filename = String.format("recording_%s_%s.mp4", cameraId, timestamp);
-        return new File(baseStoragePath, RECORDINGS_DIR + File.separator + filename).getAbsolutePath();
+        StorageVolume volume = storagePool.selectVolume(cameraId);
+        File root = volume != null ? volume.getRoot() : new File(baseStoragePath);
+        File file = RecordingNames.recordingFile(root, cameraId, new Date());
+        File dayDir = file.getParentFile();
+        if (!dayDir.exists() && !dayDir.mkdirs()) {
+            Log.e(TAG, "Failed to create recording directory " + dayDir);
+            storagePool.reportFailure(volume);
+        }
+        return file.getAbsolutePath();
     }
 
-    public List<RecordingFile> getAllRecordings() {
-        List<RecordingFile> recordings = new ArrayList<>();
-        File recordingsDir = new File(baseStoragePath, RECORDINGS_DIR);
+    // 导出文件放在主卷的 exports 目录下
+    @Override
+    public String createExportFilePath(String cameraId, long startMillis) {
+        StorageVolume primary = storagePool.getPrimaryVolume();
+        File file = RecordingNames.exportFile(primary != null ? primary.getRoot() : new File(baseStoragePath),
+                cameraId, startMillis);
+        File exportsDir = file.getParentFile();
+        if (!exportsDir.exists() && !exportsDir.mkdirs()) {
+            Log.e(TAG, "Failed to create export directory " + exportsDir);
+        }
+        return file.getAbsolutePath();
+    }
 
-        if (!recordingsDir.exists() || !recordingsDir.isDirectory()) {
-            Log.w(TAG, "Recordings directory does not exist");
-            return recordings;
+    // 返回摄像头在所有在线卷上的录制文件，按开始时间升序
+    @Override
+    public List<File> getRecordingFilesForCamera(String cameraId) {
+        List<File> files = new ArrayList<>();
+        for (StorageVolume volume : storagePool.getOnlineVolumes()) {
+            collectRecordingFiles(new File(volume.getRoot(), RECORDINGS_DIR + File.separator + cameraId), files);
+            // 兼容旧版本直接放在 recordings 目录下的文件
+            File[] legacy = new File(volume.getRoot(), RECORDINGS_DIR).listFiles();
+            if (legacy != null) {
+                String prefix = "recording_" + cameraId + "_";
+                for (File file : legacy) {
+                    if (file.isFile() && file.getName().startsWith(prefix) && file.getName().endsWith(".mp4")) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+        List<File> result = new ArrayList<>();
+        for (File file : files) {
+            if (RecordingNames.parseStartTimeMillis(file.getName()) >= 0) {
+                result.add(file);
+            }
         }
+        Collections.sort(result, (f1, f2) -> Long.compare(
+                RecordingNames.parseStartTimeMillis(f1.getName()), RecordingNames.parseStartTimeMillis(f2.getName())));
+        return result;
+    }
+
+    @Override
+    public void reportFailure(StorageVolume volume) {
+        storagePool.reportFailure(volume);
+    }
 
-        File[] files = recordingsDir.listFiles();
-        if (files == null || files.length == 0) {
+    // 查找路径所在的卷，用于上报写入吞吐量和故障
+    @Override
+    public StorageVolume getVolumeForPath(String path) {
+        StorageVolume match = null;
+        for (StorageVolume volume : storagePool.getVolumes()) {
+            String root = volume.getPath() + File.separator;
+            if (path != null && path.startsWith(root)
+                    && (match == null || root.length() > match.getPath().length() + 1)) {
+                match = volume;
+            }
+        }
+        return match;
+    }
+
+    public List<RecordingFile> getAllRecordings() {
+        List<RecordingFile> recordings = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (StorageVolume volume : storagePool.getOnlineVolumes()) {
+            collectRecordingFiles(new File(volume.getRoot(), RECORDINGS_DIR), files);
+        }
+        if (files.isEmpty()) {
             return recordings;
         }
 
         // 按文件创建时间排序（最新的在前）
-        Arrays.sort(files, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
+        Collections.sort(files, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
 
         for (File file : files) {
-            if (file.isFile() && file.getName().endsWith(".mp4")) {
-                try {
-                    RecordingFile recordingFile = createRecordingFileFromFile(file);
-                    recordings.add(recordingFile);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to create RecordingFile from " + file.getName(), e);
-                }
+            try {
+                RecordingFile recordingFile = readRecordingFile(file);
+                recordings.add(recordingFile);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to create RecordingFile from " + file.getName(), e);
             }
         }
 
         return recordings;
     }
 
-    private RecordingFile createRecordingFileFromFile(File file) {
-        String id = UUID.randomUUID().toString();
+    File getRecordingsRoot(StorageVolume volume) {
+        return new File(volume.getRoot(), RECORDINGS_DIR);
+    }
+
+    // 录制段关闭后立即写入索引
+    public void indexRecording(DatabaseHelper databaseHelper, File file) {
+        if (file.exists()) {
+            databaseHelper.upsertRecording(readRecordingFile(file));
+        }
+    }
+
+    // 递归收集录制文件，兼容旧版本直接放在 recordings 目录下的文件
+    private void collectRecordingFiles(File directory, List<File> out) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectRecordingFiles(file, out);
+            } else if (file.getName().endsWith(".mp4")) {
+                out.add(file);
+            }
+        }
+    }
+
+    // 根据文件名和 MP4 文件头构造录像信息，可在任意线程调用
+    RecordingFile readRecordingFile(File file) {
         String fileName = file.getName();
+        // 以不含扩展名的文件名作为稳定ID，缩略图缓存等按它索引
+        String id = fileName.endsWith(".mp4") ? fileName.substring(0, fileName.length() - 4) : fileName;
         String filePath = file.getAbsolutePath();
         long fileSize = file.length();
-        Date lastModified = new Date(file.lastModified());
+        long lastModified = file.lastModified();
+
+        // 只读取文件头得到真实时长和视频参数；正在录制或损坏的文件解析失败时退回到文件时间
+        Mp4Probe.Info info = null;
+        try {
+            info = Mp4Probe.probe(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to probe " + fileName + ": " + e.getMessage());
+        }
+        long durationMillis = info != null ? info.durationMillis : 0;
+
+        // 开始时间优先取文件名中的时间戳，其次是 mvhd 创建时间，最后用修改时间倒推
+        long startMillis = RecordingNames.parseStartTimeMillis(fileName);
+        if (startMillis < 0 && info != null && info.creationTimeMillis > 0) {
+            startMillis = info.creationTimeMillis;
+        }
+        if (startMillis < 0) {
+            startMillis = lastModified - durationMillis;
+        }
+        long endMillis = durationMillis > 0 ? startMillis + durationMillis : Math.max(startMillis, lastModified);
         
         // 从文件名解析摄像头ID（这只是一个示例实现）
         String cameraId = "unknown";
@@ -118,20 +236,32 @@ public class StorageManager {
             }
         }
 
-        return new RecordingFile(
+        RecordingFile recordingFile = new RecordingFile(
                 id,
                 fileName,
                 filePath,
                 fileSize,
-                lastModified,
-                lastModified,
+                new Date(startMillis),
+                new Date(endMillis),
                 cameraId,
                 cameraName
         );
+        if (info != null) {
+            recordingFile.setResolution(info.width, info.height);
+            recordingFile.setCodec(info.codec);
+        }
+        return recordingFile;
     }
 
     public boolean deleteRecording(RecordingFile recordingFile) {
-        return recordingFile.deleteFile();
+        boolean deleted = recordingFile.deleteFile();
+        if (deleted) {
+            ThumbnailService.getInstance(context).removeSegment(recordingFile.getId());
+            DatabaseHelper.getInstance(context).deleteRecording(recordingFile.getFilePath());
+            MetricsRegistry.getInstance().counter("nvr_recordings_deleted_total", "Recording segments deleted",
+                    "camera", recordingFile.getCameraId()).inc();
+        }
+        return deleted;
     }
 
     public boolean deleteAllRecordings() {
@@ -148,8 +278,11 @@ public class StorageManager {
     }
 
     public long getTotalStorageUsed() {
-        File recordingsDir = new File(baseStoragePath, RECORDINGS_DIR);
-        return getDirectorySize(recordingsDir);
+        long total = 0;
+        for (StorageVolume volume : storagePool.getOnlineVolumes()) {
+            total += getDirectorySize(new File(volume.getRoot(), RECORDINGS_DIR));
+        }
+        return total;
     }
 
     public long getDirectorySize(File directory) {
@@ -173,38 +306,26 @@ public class StorageManager {
     }
 
     public String getReadableStorageUsed() {
-        long size = getTotalStorageUsed();
-        if (size <= 0) return "0 B";
-        final String[] units = new String[]{"B", "KB", "MB", "GB", "TB"};
-        int digitGroups = (int) (Math.log10(size) / Math.log10(1024));
-        return String.format(Locale.getDefault(), "%.2f %s", size / Math.pow(1024, digitGroups), units[digitGroups]);
+        return FormatUtils.readableSize(getTotalStorageUsed());
     }
 
     public boolean isStorageAvailable() {
-        String state = Environment.getExternalStorageState();
-        return Environment.MEDIA_MOUNTED.equals(state) || Environment.MEDIA_MOUNTED_READ_ONLY.equals(state);
+        return !storagePool.getOnlineVolumes().isEmpty();
     }
 
+    // 存储池中所有在线卷的可用空间之和
     public long getAvailableStorageSpace() {
-        if (!isStorageAvailable()) {
-            return 0;
-        }
-
-        File storageDir = Environment.getExternalStorageDirectory();
-        return storageDir.getFreeSpace();
+        return storagePool.getTotalFreeSpace();
     }
 
     public String getReadableAvailableStorageSpace() {
-        long space = getAvailableStorageSpace();
-        if (space <= 0) return "0 B";
-        final String[] units = new String[]{"B", "KB", "MB", "GB", "TB"};
-        int digitGroups = (int) (Math.log10(space) / Math.log10(1024));
-        return String.format(Locale.getDefault(), "%.2f %s", space / Math.pow(1024, digitGroups), units[digitGroups]);
+        return FormatUtils.readableSize(getAvailableStorageSpace());
     }
 
     public void setBaseStoragePath(String path) {
         this.baseStoragePath = path;
         ensureDirectoriesExists();
+        storagePool.setPrimaryPath(context, path);
         SharedPreferences.Editor editor = sharedPreferences.edit();
         editor.putString("storage_path", path);
         editor.apply();
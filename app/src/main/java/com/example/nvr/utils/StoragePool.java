@@ -0,0 +1,213 @@
+package com.example.nvr.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import com.example.nvr.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 多卷存储池：按策略为新录制段选择卷，卷写满时溢出到其他卷，卷被拔出时自动跳过
+public class StoragePool {
+
+    private static final String TAG = "StoragePool";
+    private static final String PREF_EXTRA_PATHS = "storage_extra_paths";
+    private static final String PREF_POLICY = "storage_policy";
+    private static final String PREF_MIN_FREE_MB = "storage_min_free_mb";
+    private static final long DEFAULT_MIN_FREE_MB = 500;
+    private static final String VOLUME_DIR = "NVR";
+
+    private static volatile StoragePool instance;
+
+    private final SharedPreferences sharedPreferences;
+    private final List<StorageVolume> volumes = new ArrayList<>();
+    private final VolumeSelector selector = new VolumeSelector();
+    private StorageVolume primaryVolume;
+
+    private StoragePool(Context context, String primaryPath) {
+        this.sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        reload(context, primaryPath);
+        MetricsRegistry.getInstance().addCollector(this::collectMetrics);
+    }
+
+    public static StoragePool getInstance(Context context, String primaryPath) {
+        if (instance == null) {
+            synchronized (StoragePool.class) {
+                if (instance == null) {
+                    instance = new StoragePool(context.getApplicationContext(), primaryPath);
+                }
+            }
+        }
+        return instance;
+    }
+
+    // 重新发现卷：主存储路径 + 可移除存储（SD卡/USB）上的应用目录 + 用户额外配置的路径
+    public synchronized void reload(Context context, String primaryPath) {
+        List<StorageVolume> discovered = new ArrayList<>();
+        primaryVolume = findOrCreate(new File(primaryPath), false);
+        discovered.add(primaryVolume);
+
+        File[] externalDirs = context.getExternalFilesDirs(null);
+        if (externalDirs != null) {
+            for (File dir : externalDirs) {
+                if (dir == null) continue;
+                boolean removable;
+                try {
+                    removable = Environment.isExternalStorageRemovable(dir);
+                } catch (IllegalArgumentException e) {
+                    removable = false;
+                }
+                if (removable) {
+                    addIfAbsent(discovered, findOrCreate(new File(dir, VOLUME_DIR), true));
+                }
+            }
+        }
+
+        String extraPaths = sharedPreferences.getString(PREF_EXTRA_PATHS, "");
+        for (String path : extraPaths.split(";")) {
+            if (!path.trim().isEmpty()) {
+                addIfAbsent(discovered, findOrCreate(new File(path.trim()), true));
+            }
+        }
+
+        volumes.clear();
+        volumes.addAll(discovered);
+        VolumeSelector.Policy policy = parsePolicy(sharedPreferences.getString(PREF_POLICY,
+                VolumeSelector.Policy.ROUND_ROBIN_BY_CAMERA.name()));
+        if (policy != selector.getPolicy()) {
+            selector.setPolicy(policy);
+        }
+        selector.setMinFreeBytes(parseLong(sharedPreferences.getString(PREF_MIN_FREE_MB, null),
+                DEFAULT_MIN_FREE_MB) * 1024 * 1024);
+        selector.retainVolumes(volumes);
+        refreshAll(true);
+        Log.d(TAG, "Storage pool: " + volumes + ", policy " + policy);
+    }
+
+    public synchronized void setPrimaryPath(Context context, String primaryPath) {
+        reload(context, primaryPath);
+    }
+
+    public synchronized StorageVolume getPrimaryVolume() {
+        return primaryVolume;
+    }
+
+    public synchronized List<StorageVolume> getVolumes() {
+        return Collections.unmodifiableList(new ArrayList<>(volumes));
+    }
+
+    public synchronized List<StorageVolume> getOnlineVolumes() {
+        refreshAll(false);
+        List<StorageVolume> online = new ArrayList<>();
+        for (StorageVolume volume : volumes) {
+            if (volume.isOnline()) {
+                online.add(volume);
+            }
+        }
+        return online;
+    }
+
+    public synchronized VolumeSelector.Policy getPolicy() {
+        return selector.getPolicy();
+    }
+
+    public synchronized void setPolicy(VolumeSelector.Policy policy) {
+        selector.setPolicy(policy);
+        sharedPreferences.edit().putString(PREF_POLICY, policy.name()).apply();
+    }
+
+    // 为摄像头的新录制段选择卷；所有卷都不可用时返回null
+    public synchronized StorageVolume selectVolume(String cameraId) {
+        refreshAll(false);
+        return selector.select(cameraId, volumes);
+    }
+
+    // 卷上的写操作失败时调用，立即将其标记为离线，后续段会放到其他卷
+    public synchronized void reportFailure(StorageVolume volume) {
+        if (volume == null) return;
+        Log.w(TAG, "Storage volume failed: " + volume.getPath());
+        volume.markOffline();
+        selector.release(volume);
+    }
+
+    private void collectMetrics(MetricsRegistry.Sink sink) {
+        for (StorageVolume volume : getVolumes()) {
+            String path = volume.getPath();
+            sink.gauge("nvr_storage_online", "1 while the volume is usable", volume.isOnline() ? 1 : 0, "volume", path);
+            sink.gauge("nvr_storage_free_bytes", "Free space on the volume", volume.getFreeSpace(), "volume", path);
+            sink.gauge("nvr_storage_total_bytes", "Capacity of the volume", volume.getTotalSpace(), "volume", path);
+        }
+    }
+
+    public synchronized long getTotalFreeSpace() {
+        long total = 0;
+        for (StorageVolume volume : getOnlineVolumes()) {
+            total += volume.getFreeSpace();
+        }
+        return total;
+    }
+
+    private void refreshAll(boolean force) {
+        for (StorageVolume volume : volumes) {
+            boolean wasOnline = volume.isOnline();
+            volume.refresh(force);
+            if (wasOnline && !volume.isOnline()) {
+                Log.w(TAG, "Storage volume went offline: " + volume.getPath());
+                selector.release(volume);
+            }
+        }
+    }
+
+    private StorageVolume findOrCreate(File root, boolean removable) {
+        String path = root.getAbsolutePath();
+        for (StorageVolume volume : volumes) {
+            if (volume.getPath().equals(path)) {
+                return volume;
+            }
+        }
+        return new StorageVolume(root, removable, StoragePool::isMounted);
+    }
+
+    private static boolean isMounted(File root) {
+        try {
+            String state = Environment.getExternalStorageState(root);
+            // 非外部存储路径返回 unknown，此时以目录是否可写为准
+            return Environment.MEDIA_MOUNTED.equals(state) || Environment.MEDIA_UNKNOWN.equals(state);
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static void addIfAbsent(List<StorageVolume> list, StorageVolume volume) {
+        for (StorageVolume existing : list) {
+            if (existing.getPath().equals(volume.getPath())) {
+                return;
+            }
+        }
+        list.add(volume);
+    }
+
+    private static VolumeSelector.Policy parsePolicy(String value) {
+        try {
+            return VolumeSelector.Policy.valueOf(value);
+        } catch (Exception e) {
+            return VolumeSelector.Policy.ROUND_ROBIN_BY_CAMERA;
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -8,11 +8,16 @@ import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.ViewGroup;
 
+import com.example.nvr.metrics.TimeSeriesStore;
 import com.example.nvr.model.CameraDevice;
+import com.example.nvr.recording.LoadGovernor;
+import com.example.nvr.recording.StreamWatchdog;
+import com.example.nvr.timeline.CoverageTimeline;
 
 import org.videolan.libvlc.LibVLC;
 import org.videolan.libvlc.Media;
@@ -23,6 +28,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -32,9 +39,21 @@ public class VideoStreamManager {
     private final Context context;
     private volatile LibVLC libVLC;
     private final ArrayList<MediaPlayer> mediaPlayers = new ArrayList<>();
+    // 每个播放器对应的看门狗监控对象，和 mediaPlayers 用同一把锁
+    private final Map<MediaPlayer, LiveWatch> liveWatches = new HashMap<>();
+    private static final long LIVE_STALL_TIMEOUT_MS = 15000;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 负载过高时实时预览只解码关键帧
+    private volatile boolean keyframesOnly = false;
     private MediaMuxer mediaMuxer;
     private int videoTrackIndex = -1;
     private boolean isMuxerStarted = false;
+    private File recordingFile;
+    private String recordingCameraId;
+    private long recordingStartMillis;
+    // 码率统计窗口，每满一秒向时序存储写一个样本
+    private long bitrateWindowStart = 0;
+    private long bitrateWindowBytes = 0;
     private final AtomicBoolean isInitialized = new AtomicBoolean(false);
     private final AtomicBoolean isShuttingDown = new AtomicBoolean(false);
     private final AtomicReference<Thread> initializationThread = new AtomicReference<>(null);
@@ -42,6 +61,24 @@ public class VideoStreamManager {
     private VideoStreamManager(Context context) {
         this.context = context.getApplicationContext();
         initializeLibVLC();
+        LoadGovernor.getInstance(this.context).addListener(this::onLoadLevelChanged);
+    }
+
+    // 解码选项只在打开媒体时生效，切换后需要重新打开正在播放的流
+    private void onLoadLevelChanged(int level) {
+        boolean skip = level >= LoadGovernor.LEVEL_LIVE_KEYFRAMES;
+        if (skip == keyframesOnly) {
+            return;
+        }
+        keyframesOnly = skip;
+        Log.d(TAG, skip ? "Live view switched to keyframes only" : "Live view decoding all frames");
+        ArrayList<LiveWatch> watches;
+        synchronized (mediaPlayers) {
+            watches = new ArrayList<>(liveWatches.values());
+        }
+        for (LiveWatch watch : watches) {
+            watch.reopen();
+        }
     }
 
     private void initializeLibVLC() {
@@ -199,33 +236,13 @@ public class VideoStreamManager {
             }
 
             // 设置RTSP URL和选项
-            Media media = new Media(libVLC, Uri.parse(camera.getRtspUrl()));
+            Media media = buildMedia(camera.getRtspUrl());
             Log.d(TAG, "RTSP URL: " + camera.getRtspUrl());
-            media.setHWDecoderEnabled(true, false);
-            media.addOption(":network-caching=500");
-            media.addOption(":rtsp-tcp");
-            media.addOption(":verbose=3");
-            media.addOption(":live-caching=500");
-            // 添加更多参数以提高兼容性
-            media.addOption(":rtsp-frame-buffer-size=1000");
-            media.addOption(":udp-timeout=15000");
-            media.addOption(":tcp-timeout=15000");
-            media.addOption(":timeout=15000");
-            // 添加自动重试参数
-            media.addOption(":http-reconnect=1");
-            media.addOption(":reconnect=1");
-            media.addOption(":reconnect-delay=2000");
-            
-            // 添加稳定性选项
-            media.addOption(":no-avcodec-dr");
-            media.addOption(":no-avcodec-hw");
-            media.addOption(":avcodec-threads=2");
-            media.addOption(":avcodec-sync=audio");
-            
             mediaPlayer.setMedia(media);
             
             // 创建最终引用以在监听器中使用
             final MediaPlayer finalMediaPlayer = mediaPlayer;
+            final LiveWatch watch = new LiveWatch(camera, mediaPlayer);
             
             mediaPlayer.setEventListener(new MediaPlayer.EventListener() {
                 private int retryCount = 0;
@@ -244,6 +261,8 @@ public class VideoStreamManager {
                                 }
                                 // 标记为未连接
                                 camera.setConnected(false);
+                                TimeSeriesStore.getInstance(context).recordEvent(camera.getId(),
+                                        TimeSeriesStore.EVENT_DISCONNECTED, System.currentTimeMillis(), retryCount, "error");
                                 
                                 // 添加自动重试机制
                                 if (retryCount < MAX_RETRIES && !isShuttingDown.get()) {
@@ -255,22 +274,7 @@ public class VideoStreamManager {
                                             try {
                                                 // 确保LibVLC实例仍然有效
                                                 if (libVLC != null && !isShuttingDown.get()) {
-                                                    Media newMedia = new Media(libVLC, camera.getRtspUrl());
-                                                    // 复制原始媒体的所有选项
-                                                    newMedia.setHWDecoderEnabled(true, false);
-                                                    newMedia.addOption(":network-caching=500");
-                                                    newMedia.addOption(":rtsp-tcp");
-                                                    newMedia.addOption(":verbose=3");
-                                                    newMedia.addOption(":live-caching=500");
-                                                    newMedia.addOption(":rtsp-frame-buffer-size=1000");
-                                                    newMedia.addOption(":udp-timeout=15000");
-                                                    newMedia.addOption(":tcp-timeout=15000");
-                                                    newMedia.addOption(":timeout=15000");
-                                                    newMedia.addOption(":http-reconnect=1");
-                                                    newMedia.addOption(":reconnect=1");
-                                                    newMedia.addOption(":reconnect-delay=2000");
-                                                    newMedia.addOption(":no-avcodec-hw");
-                                                    
+                                                    Media newMedia = buildMedia(camera.getRtspUrl());
                                                     finalMediaPlayer.setMedia(newMedia);
                                                     newMedia.release();
                                                     finalMediaPlayer.play();
@@ -290,13 +294,16 @@ public class VideoStreamManager {
                                 break;
                             case MediaPlayer.Event.EndReached:
                                 Log.d(TAG, "End of stream reached");
-                                // 当流结束时，检查是否需要重试
-                                if (camera.isConnected() && retryCount < MAX_RETRIES && !isShuttingDown.get()) {
+                                TimeSeriesStore.getInstance(context).recordEvent(camera.getId(),
+                                        TimeSeriesStore.EVENT_DISCONNECTED, System.currentTimeMillis(), retryCount, "end");
+                                // 实时流不会正常结束，不论连接标志如何都需要重连；用户停止播放时收到的是 Stopped
+                                camera.setConnected(false);
+                                if (retryCount < MAX_RETRIES && !isShuttingDown.get()) {
                                     retryCount++;
                                     Log.d(TAG, "流意外结束，尝试重新连接 (" + retryCount + "/" + MAX_RETRIES + ")...");
                                     try {
                                         if (libVLC != null) {
-                                            Media newMedia = new Media(libVLC, camera.getRtspUrl());
+                                            Media newMedia = buildMedia(camera.getRtspUrl());
                                             finalMediaPlayer.setMedia(newMedia);
                                             newMedia.release();
                                             finalMediaPlayer.play();
@@ -311,16 +318,25 @@ public class VideoStreamManager {
                                 break;
                             case MediaPlayer.Event.Playing:
                                 Log.d(TAG, "Stream is now playing");
+                                TimeSeriesStore.getInstance(context).recordEvent(camera.getId(), TimeSeriesStore.EVENT_CONNECTED);
                                 camera.setConnected(true);
+                                watch.onProgress();
+                                break;
+                            case MediaPlayer.Event.TimeChanged:
+                                // 播放时间前进说明仍有画面在解码
+                                watch.onProgress();
                                 break;
                             case MediaPlayer.Event.Opening:
                                 Log.d(TAG, "Stream is opening");
+                                watch.onProgress();
                                 break;
                             case MediaPlayer.Event.Paused:
                                 Log.d(TAG, "Stream is paused");
+                                watch.setActive(false);
                                 break;
                             case MediaPlayer.Event.Stopped:
                                 Log.d(TAG, "Stream is stopped");
+                                watch.setActive(false);
                                 break;
                         }
                     } catch (Exception e) {
@@ -333,7 +349,10 @@ public class VideoStreamManager {
             mediaPlayer.play();
             synchronized (mediaPlayers) {
                 mediaPlayers.add(mediaPlayer);
+                liveWatches.put(mediaPlayer, watch);
             }
+            watch.onProgress();
+            StreamWatchdog.getInstance(context).register(watch);
             camera.setConnected(true);
             Log.d(TAG, "Stream started successfully for camera: " + camera.getName());
         } catch (Exception e) {
@@ -354,6 +373,118 @@ public class VideoStreamManager {
         return mediaPlayer;
     }
 
+    private Media buildMedia(String rtspUrl) {
+        Media media = new Media(libVLC, Uri.parse(rtspUrl));
+        media.setHWDecoderEnabled(true, false);
+        media.addOption(":network-caching=500");
+        media.addOption(":rtsp-tcp");
+        media.addOption(":verbose=3");
+        media.addOption(":live-caching=500");
+        // 添加更多参数以提高兼容性
+        media.addOption(":rtsp-frame-buffer-size=1000");
+        media.addOption(":udp-timeout=15000");
+        media.addOption(":tcp-timeout=15000");
+        media.addOption(":timeout=15000");
+        // 添加自动重试参数
+        media.addOption(":http-reconnect=1");
+        media.addOption(":reconnect=1");
+        media.addOption(":reconnect-delay=2000");
+
+        // 添加稳定性选项
+        media.addOption(":no-avcodec-dr");
+        media.addOption(":no-avcodec-hw");
+        media.addOption(":avcodec-threads=2");
+        media.addOption(":avcodec-sync=audio");
+        if (keyframesOnly) {
+            // 4 = 跳过所有非关键帧
+            media.addOption(":avcodec-skip-frame=4");
+            media.addOption(":avcodec-skip-idct=4");
+        }
+        return media;
+    }
+
+    private void unregisterWatch(MediaPlayer mediaPlayer) {
+        LiveWatch watch;
+        synchronized (mediaPlayers) {
+            watch = liveWatches.remove(mediaPlayer);
+        }
+        if (watch != null) {
+            watch.setActive(false);
+            StreamWatchdog.getInstance(context).unregister(watch);
+        }
+    }
+
+    // 实时预览的停滞监控：连接没有报错但画面不再前进时，由看门狗重新打开这一路流
+    private final class LiveWatch implements StreamWatchdog.Target {
+        private final CameraDevice camera;
+        private final MediaPlayer mediaPlayer;
+        private volatile long lastProgress;
+        private volatile boolean active;
+
+        LiveWatch(CameraDevice camera, MediaPlayer mediaPlayer) {
+            this.camera = camera;
+            this.mediaPlayer = mediaPlayer;
+        }
+
+        void onProgress() {
+            lastProgress = SystemClock.elapsedRealtime();
+            active = true;
+        }
+
+        void setActive(boolean active) {
+            this.active = active;
+        }
+
+        @Override
+        public String getCameraId() {
+            return camera.getId();
+        }
+
+        @Override
+        public String getKind() {
+            return "live";
+        }
+
+        @Override
+        public long getLastProgressMillis() {
+            return active ? lastProgress : 0;
+        }
+
+        @Override
+        public long getStallTimeoutMillis() {
+            return LIVE_STALL_TIMEOUT_MS;
+        }
+
+        @Override
+        public void restart() {
+            mainHandler.post(this::reopen);
+        }
+
+        // 用当前的解码选项重新打开这一路流，只在主线程调用
+        void reopen() {
+            synchronized (mediaPlayers) {
+                if (liveWatches.get(mediaPlayer) != this) {
+                    // 播放器已被停止
+                    return;
+                }
+            }
+            if (libVLC == null || isShuttingDown.get()) {
+                return;
+            }
+            try {
+                camera.setConnected(false);
+                mediaPlayer.stop();
+                Media media = buildMedia(camera.getRtspUrl());
+                mediaPlayer.setMedia(media);
+                media.release();
+                mediaPlayer.play();
+                onProgress();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to reopen stream: " + e.getMessage());
+            }
+        }
+    }
+
     // 获取媒体播放器状态的文本描述
     private String getMediaPlayerState(MediaPlayer mediaPlayer) {
         if (mediaPlayer == null) return "null";
@@ -399,6 +530,7 @@ public class VideoStreamManager {
                 }
                 
                 // 从列表中移除并释放资源
+                unregisterWatch(mediaPlayer);
                 synchronized (mediaPlayers) {
                     mediaPlayers.remove(mediaPlayer);
                 }
@@ -414,6 +546,7 @@ public class VideoStreamManager {
                 Log.e(TAG, "Error stopping stream: " + e.getMessage());
                 // 即使出现异常，仍然尝试从列表中移除
                 try {
+                    unregisterWatch(mediaPlayer);
                     synchronized (mediaPlayers) {
                         mediaPlayers.remove(mediaPlayer);
                     }
@@ -465,6 +598,11 @@ public class VideoStreamManager {
             mediaMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
             isMuxerStarted = false;
             videoTrackIndex = -1;
+            recordingFile = outputFile;
+            recordingCameraId = camera.getId();
+            recordingStartMillis = System.currentTimeMillis();
+            bitrateWindowStart = SystemClock.elapsedRealtime();
+            bitrateWindowBytes = 0;
             camera.setRecording(true);
             Log.d(TAG, "Started recording to file: " + outputPath);
             return true;
@@ -503,10 +641,12 @@ public class VideoStreamManager {
 
     // 清理录制相关资源
     private void cleanupRecordingResources() {
+        boolean muxerFinished = false;
         if (mediaMuxer != null) {
             try {
                 if (isMuxerStarted) {
                     mediaMuxer.stop();
+                    muxerFinished = true;
                 }
                 mediaMuxer.release();
             } catch (Exception e) {
@@ -516,6 +656,16 @@ public class VideoStreamManager {
             videoTrackIndex = -1;
             isMuxerStarted = false;
         }
+        if (muxerFinished && recordingCameraId != null) {
+            // 段已完整写入，更新时间轴覆盖数据
+            CoverageTimeline.getInstance(context).onSegmentClosed(recordingCameraId,
+                    recordingStartMillis, System.currentTimeMillis());
+            if (recordingFile != null) {
+                new StorageManager(context).indexRecording(DatabaseHelper.getInstance(context), recordingFile);
+            }
+        }
+        recordingFile = null;
+        recordingCameraId = null;
     }
 
     // 处理视频数据并写入文件
@@ -533,6 +683,9 @@ public class VideoStreamManager {
 
             if (byteBuffer != null && bufferInfo.size > 0) {
                 mediaMuxer.writeSampleData(videoTrackIndex, byteBuffer, bufferInfo);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    recordBitrate(bufferInfo.size);
+                }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error handling video data: " + e.getMessage());
@@ -541,6 +694,19 @@ public class VideoStreamManager {
         }
     }
 
+    private void recordBitrate(int bytes) {
+        bitrateWindowBytes += bytes;
+        long now = SystemClock.elapsedRealtime();
+        long elapsed = now - bitrateWindowStart;
+        if (elapsed >= 1000 && recordingCameraId != null) {
+            // 字节数 * 8 / 毫秒 = kbit/s
+            TimeSeriesStore.getInstance(context).recordSample(recordingCameraId,
+                    TimeSeriesStore.METRIC_BITRATE_KBPS, System.currentTimeMillis(), bitrateWindowBytes * 8.0 / elapsed);
+            bitrateWindowStart = now;
+            bitrateWindowBytes = 0;
+        }
+    }
+
     // 释放所有资源
     public void release() {
         // 标记为正在关闭，防止新的操作
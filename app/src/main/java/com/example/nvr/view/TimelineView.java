@@ -0,0 +1,126 @@
+package com.example.nvr.view;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.example.nvr.model.CameraDevice;
+import com.example.nvr.timeline.CoverageDay;
+import com.example.nvr.timeline.CoverageTimeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 24小时时间轴：每个摄像头一行，蓝色为有录像，红色为移动侦测，空白为缺口
+public class TimelineView extends View {
+
+    private static final int ROW_HEIGHT_DP = 12;
+    private static final int ROW_GAP_DP = 4;
+
+    private final Paint backgroundPaint = new Paint();
+    private final Paint recordedPaint = new Paint();
+    private final Paint motionPaint = new Paint();
+    private final Paint hourPaint = new Paint();
+    private final List<CameraDevice> cameras = new ArrayList<>();
+    private float[] recordedBuffer = new float[0];
+    private float[] motionBuffer = new float[0];
+    private final CoverageTimeline timeline;
+    private int dayKey;
+    private final float density;
+
+    public TimelineView(Context context) {
+        this(context, null);
+    }
+
+    public TimelineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        density = context.getResources().getDisplayMetrics().density;
+        backgroundPaint.setColor(Color.parseColor("#EEEEEE"));
+        recordedPaint.setColor(Color.parseColor("#1E88E5"));
+        motionPaint.setColor(Color.parseColor("#E53935"));
+        hourPaint.setColor(Color.parseColor("#BDBDBD"));
+        timeline = CoverageTimeline.getInstance(context);
+        dayKey = CoverageTimeline.dayKey(System.currentTimeMillis());
+    }
+
+    public void setCameras(List<CameraDevice> cameraDevices) {
+        cameras.clear();
+        if (cameraDevices != null) {
+            cameras.addAll(cameraDevices);
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    public void setDay(int dayKey) {
+        this.dayKey = dayKey;
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int rows = Math.max(1, cameras.size());
+        int height = (int) (rows * (ROW_HEIGHT_DP + ROW_GAP_DP) * density) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int left = getPaddingLeft();
+        int width = getWidth() - left - getPaddingRight();
+        if (width <= 0) {
+            return;
+        }
+        if (recordedBuffer.length != width) {
+            recordedBuffer = new float[width];
+            motionBuffer = new float[width];
+        }
+
+        float rowHeight = ROW_HEIGHT_DP * density;
+        float top = getPaddingTop();
+        for (CameraDevice camera : cameras) {
+            canvas.drawRect(left, top, left + width, top + rowHeight, backgroundPaint);
+            CoverageDay day = timeline.getDay(camera.getId(), dayKey);
+            day.fill(CoverageDay.KIND_RECORDED, 0, CoverageDay.SECONDS_PER_DAY, recordedBuffer);
+            day.fill(CoverageDay.KIND_MOTION, 0, CoverageDay.SECONDS_PER_DAY, motionBuffer);
+            drawCoverage(canvas, recordedBuffer, recordedPaint, left, top, top + rowHeight);
+            drawCoverage(canvas, motionBuffer, motionPaint, left, top + rowHeight / 2, top + rowHeight);
+            top += (ROW_HEIGHT_DP + ROW_GAP_DP) * density;
+        }
+
+        // 每3小时一条刻度线
+        for (int hour = 3; hour < 24; hour += 3) {
+            float x = left + width * hour / 24f;
+            canvas.drawLine(x, getPaddingTop(), x, top, hourPaint);
+        }
+    }
+
+    // 连续覆盖的像素合并成一个矩形绘制，部分覆盖的像素用透明度表示
+    private void drawCoverage(Canvas canvas, float[] coverage, Paint paint, int left, float top, float bottom) {
+        int runStart = -1;
+        for (int x = 0; x <= coverage.length; x++) {
+            boolean full = x < coverage.length && coverage[x] >= 0.99f;
+            if (full) {
+                if (runStart < 0) {
+                    runStart = x;
+                }
+                continue;
+            }
+            if (runStart >= 0) {
+                paint.setAlpha(255);
+                canvas.drawRect(left + runStart, top, left + x, bottom, paint);
+                runStart = -1;
+            }
+            if (x < coverage.length && coverage[x] > 0f) {
+                paint.setAlpha(Math.max(60, (int) (coverage[x] * 255)));
+                canvas.drawRect(left + x, top, left + x + 1, bottom, paint);
+            }
+        }
+        paint.setAlpha(255);
+    }
+}
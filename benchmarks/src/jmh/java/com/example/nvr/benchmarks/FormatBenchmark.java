@@ -0,0 +1,40 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.utils.FormatUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// 录像列表每行绑定、网页列表每个条目都会调用的格式化
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    private long fileSize = 734003200L;
+    private long durationSeconds = 3725;
+    private String codec = "avc1";
+    private int width = 1920;
+    private int height = 1080;
+
+    @Benchmark
+    public String readableSize() {
+        return FormatUtils.readableSize(fileSize);
+    }
+
+    @Benchmark
+    public String readableDuration() {
+        return FormatUtils.readableDuration(durationSeconds);
+    }
+
+    @Benchmark
+    public String videoDescription() {
+        return FormatUtils.videoDescription(codec, width, height);
+    }
+}
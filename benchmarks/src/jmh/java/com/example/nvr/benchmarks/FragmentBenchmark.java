@@ -0,0 +1,34 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.media.FragmentedMp4Writer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 封装：把一个 GOP 打成内存中的 moof+mdat（直播 HLS 分片走这条路径），结果按 GOP 计
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class FragmentBenchmark {
+
+    private List<FragmentedMp4Writer.Sample> samples;
+    private int sequenceNumber;
+
+    @Setup
+    public void setup() {
+        samples = MediaFixtures.gopSamples(MediaFixtures.gopNals(1));
+    }
+
+    @Benchmark
+    public byte[] buildFragment() {
+        return FragmentedMp4Writer.buildFragment(++sequenceNumber, samples);
+    }
+}
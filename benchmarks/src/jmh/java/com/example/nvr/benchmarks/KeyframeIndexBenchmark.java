@@ -0,0 +1,65 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.media.KeyframeIndexWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 回放和导出定位关键帧：在一小时录像（2秒一个关键帧）的旁路索引里做二分查找
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class KeyframeIndexBenchmark {
+
+    private static final int KEYFRAMES = 1800;
+    private static final long INTERVAL_US = 2000000;
+    private static final int QUERIES = 1024;
+
+    private File file;
+    private KeyframeIndex index;
+    private long[] queries;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("bench", KeyframeIndex.EXTENSION);
+        try (KeyframeIndexWriter writer = new KeyframeIndexWriter(file, 0, 0)) {
+            long offset = 0;
+            for (int i = 0; i < KEYFRAMES; i++) {
+                writer.append(i * INTERVAL_US, offset, MediaFixtures.KEYFRAME_BYTES);
+                offset += MediaFixtures.KEYFRAME_BYTES + (MediaFixtures.GOP_FRAMES - 1) * MediaFixtures.FRAME_BYTES;
+            }
+        }
+        index = KeyframeIndex.open(file);
+        Random random = new Random(1);
+        queries = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = (long) (random.nextDouble() * KEYFRAMES * INTERVAL_US);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int floorIndex() {
+        long ptsUs = queries[next];
+        next = (next + 1) & (QUERIES - 1);
+        return index.floorIndex(ptsUs);
+    }
+}
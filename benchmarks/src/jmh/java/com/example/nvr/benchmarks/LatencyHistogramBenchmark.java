@@ -0,0 +1,49 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.metrics.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 延迟统计：每个包记录一次解包耗时，每帧再记录几次
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LatencyHistogramBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private LatencyHistogram histogram;
+    private long[] values;
+    private int next;
+
+    @Setup
+    public void setup() {
+        histogram = new LatencyHistogram();
+        Random random = new Random(1);
+        values = new long[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            // 对数分布在 1µs 到约 1s 之间
+            values[i] = (long) Math.pow(10, random.nextDouble() * 6);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(values[next]);
+        next = (next + 1) & (VALUES - 1);
+    }
+
+    @Benchmark
+    public LatencyHistogram.Snapshot snapshot() {
+        return histogram.snapshot();
+    }
+}
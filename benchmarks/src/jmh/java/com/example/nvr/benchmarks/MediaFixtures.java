@@ -0,0 +1,119 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.media.FragmentedMp4Writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 基准测试用的固定输入：一个 GOP 的 H.264 码流及其 RTP 包，大小与 1080p 4Mbps 的摄像头相当。
+// 用固定种子生成，每次运行的输入完全一样，结果才可以和基线比较
+final class MediaFixtures {
+
+    static final int GOP_FRAMES = 50;
+    static final int FRAME_TICKS = 3600;
+    // 4Mbps、25fps，关键帧约为普通帧的4倍
+    static final int KEYFRAME_BYTES = 60000;
+    static final int FRAME_BYTES = 15000;
+    // 按下面的 MTU 打包后一个 GOP 的包数：参数集2个，关键帧43个，其余49帧各11个
+    static final int GOP_PACKETS = 584;
+    private static final int MTU = 1400;
+    private static final int PAYLOAD_TYPE = 96;
+
+    // x264 输出的 1920x1080 High Profile SPS/PPS
+    static final byte[] SPS = {
+            0x67, 0x64, 0x00, 0x28, (byte) 0xAC, (byte) 0xD9, 0x40, 0x78, 0x02, 0x27, (byte) 0xE5, (byte) 0xC0,
+            0x44, 0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00, 0x03, 0x00, (byte) 0xC8, 0x3C, 0x60, (byte) 0xC6, 0x58};
+    static final byte[] PPS = {0x68, (byte) 0xEB, (byte) 0xE3, (byte) 0xCB, 0x22, (byte) 0xC0};
+
+    private MediaFixtures() {
+    }
+
+    // 一个 GOP 的 NAL（不含起始码），第一帧为 IDR
+    static List<byte[]> gopNals(long seed) {
+        Random random = new Random(seed);
+        List<byte[]> nals = new ArrayList<>(GOP_FRAMES);
+        for (int i = 0; i < GOP_FRAMES; i++) {
+            boolean keyframe = i == 0;
+            byte[] nal = new byte[keyframe ? KEYFRAME_BYTES : FRAME_BYTES];
+            random.nextBytes(nal);
+            // 随机数据里也会出现 00 00 03，逃逸字节扫描走到的分支和真实码流相近
+            nal[0] = (byte) (keyframe ? 0x65 : 0x41);
+            nals.add(nal);
+        }
+        return nals;
+    }
+
+    // 按 RFC 6184 打包：参数集各一个单 NAL 包，帧数据超过 MTU 时用 FU-A 分片，帧的最后一个包带 marker
+    static List<byte[]> gopPackets(List<byte[]> nals) {
+        List<byte[]> packets = new ArrayList<>();
+        int sequence = 0;
+        for (int i = 0; i < nals.size(); i++) {
+            long timestamp = (long) i * FRAME_TICKS;
+            byte[] nal = nals.get(i);
+            if (i == 0) {
+                packets.add(packet(sequence++, timestamp, false, SPS, 0, SPS.length, null));
+                packets.add(packet(sequence++, timestamp, false, PPS, 0, PPS.length, null));
+            }
+            if (nal.length <= MTU) {
+                packets.add(packet(sequence++, timestamp, true, nal, 0, nal.length, null));
+                continue;
+            }
+            byte indicator = (byte) ((nal[0] & 0xE0) | 28);
+            int type = nal[0] & 0x1F;
+            int position = 1;
+            while (position < nal.length) {
+                int chunk = Math.min(MTU - 2, nal.length - position);
+                boolean first = position == 1;
+                boolean last = position + chunk == nal.length;
+                byte fuHeader = (byte) ((first ? 0x80 : 0) | (last ? 0x40 : 0) | type);
+                packets.add(packet(sequence++, timestamp, last, nal, position, chunk,
+                        new byte[]{indicator, fuHeader}));
+                position += chunk;
+            }
+        }
+        return packets;
+    }
+
+    // 与录制线程交给分片写入器的一样：4字节长度前缀的样本
+    static List<FragmentedMp4Writer.Sample> gopSamples(List<byte[]> nals) {
+        List<FragmentedMp4Writer.Sample> samples = new ArrayList<>(nals.size());
+        for (int i = 0; i < nals.size(); i++) {
+            byte[] nal = nals.get(i);
+            byte[] data = new byte[4 + nal.length];
+            data[0] = (byte) (nal.length >>> 24);
+            data[1] = (byte) (nal.length >>> 16);
+            data[2] = (byte) (nal.length >>> 8);
+            data[3] = (byte) nal.length;
+            System.arraycopy(nal, 0, data, 4, nal.length);
+            FragmentedMp4Writer.Sample sample = new FragmentedMp4Writer.Sample(data, 0, data.length,
+                    (long) i * FRAME_TICKS, i == 0);
+            sample.duration = FRAME_TICKS;
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    private static byte[] packet(int sequence, long timestamp, boolean marker, byte[] data, int offset, int length,
+                                 byte[] prefix) {
+        int prefixLength = prefix != null ? prefix.length : 0;
+        byte[] packet = new byte[12 + prefixLength + length];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) ((marker ? 0x80 : 0) | PAYLOAD_TYPE);
+        packet[2] = (byte) (sequence >>> 8);
+        packet[3] = (byte) sequence;
+        packet[4] = (byte) (timestamp >>> 24);
+        packet[5] = (byte) (timestamp >>> 16);
+        packet[6] = (byte) (timestamp >>> 8);
+        packet[7] = (byte) timestamp;
+        packet[8] = 0x12;
+        packet[9] = 0x34;
+        packet[10] = 0x56;
+        packet[11] = 0x78;
+        if (prefix != null) {
+            System.arraycopy(prefix, 0, packet, 12, prefixLength);
+        }
+        System.arraycopy(data, offset, packet, 12 + prefixLength, length);
+        return packet;
+    }
+}
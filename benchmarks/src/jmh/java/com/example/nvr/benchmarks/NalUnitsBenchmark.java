@@ -0,0 +1,40 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.media.NalUnits;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// NAL 扫描：整帧去除防竞争字节（快照解码、参数集解析前都要做）和 SPS 解析（每次连接和参数集变化时）
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class NalUnitsBenchmark {
+
+    private byte[] keyframe;
+    private byte[] sps;
+
+    @Setup
+    public void setup() {
+        keyframe = MediaFixtures.gopNals(1).get(0);
+        sps = MediaFixtures.SPS.clone();
+    }
+
+    @Benchmark
+    public byte[] unescapeKeyframe() {
+        return NalUnits.unescape(keyframe, 0, keyframe.length);
+    }
+
+    @Benchmark
+    public NalUnits.SpsInfo parseSps() throws IOException {
+        return NalUnits.parseH264Sps(sps);
+    }
+}
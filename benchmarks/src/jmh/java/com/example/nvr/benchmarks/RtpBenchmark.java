@@ -0,0 +1,65 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.ingest.AccessUnit;
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.media.NalUnits;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 每个 RTP 包都要经过的两条路径：录制线程解包组帧，转发时判断关键帧起点。结果按单个包计
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RtpBenchmark {
+
+    private byte[][] packets;
+
+    @Setup
+    public void setup() {
+        List<byte[]> list = MediaFixtures.gopPackets(MediaFixtures.gopNals(1));
+        if (list.size() != MediaFixtures.GOP_PACKETS) {
+            throw new IllegalStateException("Expected " + MediaFixtures.GOP_PACKETS + " packets, got " + list.size());
+        }
+        packets = list.toArray(new byte[0][]);
+    }
+
+    // 每次调用拼完整个 GOP；解包器每次新建，序号和时间戳才不会在两次调用之间回退
+    @Benchmark
+    @OperationsPerInvocation(MediaFixtures.GOP_PACKETS)
+    public int depacketize(Blackhole blackhole) {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        int frames = 0;
+        for (byte[] packet : packets) {
+            depacketizer.push(packet, 0, packet.length);
+            AccessUnit unit;
+            while ((unit = depacketizer.poll()) != null) {
+                blackhole.consume(unit);
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MediaFixtures.GOP_PACKETS)
+    public int startsKeyframe() {
+        int keyframes = 0;
+        for (byte[] packet : packets) {
+            if (RtpDepacketizer.startsKeyframe(NalUnits.CODEC_H264, packet, 0, packet.length)) {
+                keyframes++;
+            }
+        }
+        return keyframes;
+    }
+}
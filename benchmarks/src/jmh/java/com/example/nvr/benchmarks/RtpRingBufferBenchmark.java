@@ -0,0 +1,44 @@
+package com.example.nvr.benchmarks;
+
+import com.example.nvr.relay.RtpRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// 转发缓冲：上游写入一个包、一个下游读出一个包，同一线程上测单包开销，不含线程间唤醒
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RtpRingBufferBenchmark {
+
+    private RtpRingBuffer ring;
+    private byte[][] packets;
+    private byte[] buffer;
+    private long cursor;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ring = new RtpRingBuffer(1024);
+        packets = MediaFixtures.gopPackets(MediaFixtures.gopNals(1)).toArray(new byte[0][]);
+        buffer = new byte[65536];
+        cursor = ring.startPosition();
+    }
+
+    @Benchmark
+    public int writeAndRead() throws RtpRingBuffer.OverrunException {
+        byte[] packet = packets[next];
+        next = next + 1 == packets.length ? 0 : next + 1;
+        ring.write(packet, 0, packet.length, false);
+        int length = ring.tryRead(cursor, buffer, 0);
+        cursor++;
+        return length;
+    }
+}
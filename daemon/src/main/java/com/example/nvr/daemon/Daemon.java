@@ -0,0 +1,112 @@
+package com.example.nvr.daemon;
+
+import com.example.nvr.logging.Log;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.server.HttpServer;
+import com.example.nvr.server.MetricsHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+// 命令行入口：按配置文件录制所有摄像头并提供 HTTP 接口，收到 SIGTERM/Ctrl+C 时收尾当前段后退出。
+// 例：--config /etc/nvr/nvr.properties，配置格式见 DaemonConfig 和 daemon/nvr.properties.example
+public final class Daemon {
+
+    private static final String TAG = "Daemon";
+    private static final String[] LEVELS = {"V", "V", "V", "D", "I", "W", "E"};
+
+    private Daemon() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        File configFile = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                usage();
+                return;
+            }
+            if (arg.equals("--config") && i + 1 < args.length) {
+                configFile = new File(args[++i]);
+            } else {
+                System.err.println("Unknown option " + arg);
+                usage();
+                System.exit(2);
+                return;
+            }
+        }
+        if (configFile == null) {
+            usage();
+            System.exit(2);
+            return;
+        }
+
+        DaemonConfig config;
+        try {
+            config = DaemonConfig.load(configFile);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid config " + configFile + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        installLogSink();
+        DaemonEngine engine = new DaemonEngine(config, new VolumeStore(config));
+        HttpServer server = null;
+        if (config.getHttpPort() > 0) {
+            server = new HttpServer(config.getHttpPort());
+            new DaemonHttpHandler(engine).register(server);
+            new MetricsHandler(MetricsRegistry.getInstance()).register(server);
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Failed to start HTTP server on port " + config.getHttpPort() + ": " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+        } else {
+            Log.i(TAG, "HTTP interface is off; set http_port to enable it");
+        }
+        engine.start();
+
+        // 虚拟线程都是守护线程，主线程一直等到关闭钩子执行完
+        CountDownLatch stopped = new CountDownLatch(1);
+        HttpServer httpServer = server;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Log.i(TAG, "Shutting down");
+            if (httpServer != null) {
+                httpServer.stop();
+            }
+            engine.stop();
+            stopped.countDown();
+        }, "shutdown"));
+        stopped.await();
+    }
+
+    // 每条日志一行输出到 stderr，交给 systemd/journald 收集。
+    // 不用 java.util.logging 的默认输出：它在关闭钩子里会被重置，收尾阶段的日志会丢失
+    private static void installLogSink() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT);
+        PrintStream out = System.err;
+        Log.setSink((priority, tag, message, throwable) -> {
+            String level = LEVELS[Math.max(0, Math.min(LEVELS.length - 1, priority))];
+            synchronized (out) {
+                out.println(format.format(new Date()) + " " + level + " " + tag + ": " + message);
+                if (throwable != null) {
+                    throwable.printStackTrace(out);
+                }
+            }
+        });
+    }
+
+    private static void usage() {
+        System.err.println("Usage: daemon --config nvr.properties\n"
+                + "  Records every camera.<id>.* entry with recording_enabled=true and serves\n"
+                + "  /status, /recordings, /export and /metrics on http_port (off unless set).");
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.nvr.daemon;
+
+import com.example.nvr.logging.Log;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.recording.StreamRecorder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 守护进程的录制引擎：每个启用录制的摄像头一个 StreamRecorder（与应用共用的录制循环），
+// 各自在线程上跑阻塞的收流和写入循环。
+// JDK 21 及以上使用虚拟线程，几百路摄像头也只占用与 CPU 核数相当的载体线程；更早的 JDK 退回平台线程
+public class DaemonEngine {
+
+    private static final String TAG = "DaemonEngine";
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private final DaemonConfig config;
+    private final VolumeStore store;
+    private final RetentionSweeper sweeper;
+    private final List<StreamRecorder> recorders = new ArrayList<>();
+    private final ThreadFactory recorderThreads;
+    private final boolean virtualThreads;
+    private ScheduledExecutorService scheduler;
+
+    public DaemonEngine(DaemonConfig config, VolumeStore store) {
+        this.config = config;
+        this.store = store;
+        this.sweeper = new RetentionSweeper(store, config.getRetentionMillis(), config.getMinFreeBytes());
+        ThreadFactory virtual = config.useVirtualThreads() ? virtualThreadFactory("recorder-") : null;
+        this.virtualThreads = virtual != null;
+        this.recorderThreads = virtual != null ? virtual : platformThreadFactory("recorder-");
+        MetricsRegistry.getInstance().addCollector(this::collectMetrics);
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public VolumeStore getStore() {
+        return store;
+    }
+
+    public synchronized List<StreamRecorder> getRecorders() {
+        return Collections.unmodifiableList(new ArrayList<>(recorders));
+    }
+
+    public synchronized void start() {
+        for (DaemonConfig.Camera camera : config.getCameras()) {
+            if (!camera.recordingEnabled) {
+                continue;
+            }
+            StreamRecorder recorder = new StreamRecorder(camera.id, camera.name, camera.streamUrl(config.useSubstreams()),
+                    config.getSegmentMillis(), store);
+            recorders.add(recorder);
+            recorder.start(recorderThreads);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(platformThreadFactory("retention-"));
+        scheduler.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        Log.i(TAG, "Recording " + recorders.size() + " cameras on "
+                + (virtualThreads ? "virtual" : "platform") + " threads");
+    }
+
+    // 先停止所有录制线程再等待，各路的收尾（写出最后一个分片和 mfra）并行进行
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        for (StreamRecorder recorder : recorders) {
+            recorder.stop();
+        }
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        for (StreamRecorder recorder : recorders) {
+            try {
+                recorder.awaitStop(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        recorders.clear();
+    }
+
+    private void sweep() {
+        Set<String> active = new HashSet<>();
+        for (StreamRecorder recorder : getRecorders()) {
+            String path = recorder.getCurrentFilePath();
+            if (path != null) {
+                active.add(path);
+            }
+        }
+        try {
+            sweeper.sweep(active);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Retention sweep failed", e);
+        }
+    }
+
+    private void collectMetrics(MetricsRegistry.Sink sink) {
+        long now = System.currentTimeMillis();
+        for (StreamRecorder recorder : getRecorders()) {
+            String id = recorder.getCameraId();
+            sink.gauge("nvr_camera_up", "1 while the camera is being recorded",
+                    recorder.getState() == StreamRecorder.State.RECORDING ? 1 : 0,
+                    "camera", id, "name", recorder.getCameraName());
+            long lastFrame = recorder.getLastFrameMillis();
+            if (lastFrame > 0) {
+                sink.gauge("nvr_camera_last_frame_age_seconds", "Seconds since the last frame from the camera",
+                        (now - lastFrame) / 1000.0, "camera", id);
+            }
+            sink.gauge("nvr_recorder_queue_depth", "Frames buffered for the next fragment",
+                    recorder.getQueueDepth(), "camera", id);
+            sink.gauge("nvr_recorder_write_load", "Fragment write time relative to fragment duration",
+                    recorder.getWriteLoad(), "camera", id);
+        }
+    }
+
+    // 模块按 Java 8 编译，Thread.ofVirtual() 只能通过反射调用；不可用时返回 null
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.i(TAG, "Virtual threads are not available on Java " + System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.nvr.daemon;
+
+import com.example.nvr.logging.Log;
+import com.example.nvr.media.ClipExporter;
+import com.example.nvr.media.Mp4Probe;
+import com.example.nvr.recording.StreamRecorder;
+import com.example.nvr.server.HttpServer;
+import com.example.nvr.utils.RecordingNames;
+import com.example.nvr.utils.StorageVolume;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 守护进程的 HTTP 接口，路径与应用的回放接口一致，列表直接扫描目录：
+//   GET /status                     各路录制状态
+//   GET /recordings                 JSON 列表（新的在前），参数 camera/from/to/limit
+//   GET /recordings/{camera}/{file} 录像文件本身，支持 Range
+//   GET /export                     按时间范围导出并下载，参数 camera/from/to（毫秒），范围最长 2 小时
+public class DaemonHttpHandler implements HttpServer.Handler {
+
+    private static final String TAG = "DaemonHttpHandler";
+    private static final String STATUS_PATH = "/status";
+    private static final String RECORDINGS_PATH = "/recordings";
+    private static final String EXPORT_PATH = "/export";
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 500;
+    private static final int PROBE_CACHE_SIZE = 4 * MAX_LIMIT;
+    // 单次导出的最长时间范围；导出文件写在录制所用的主卷上，范围不设上限时一次请求就能占满磁盘
+    private static final long MAX_EXPORT_MILLIS = 2L * 60 * 60 * 1000;
+
+    private final DaemonEngine engine;
+    private final VolumeStore store;
+    private final ClipExporter exporter;
+    // 探测结果的 LRU 缓存，已收尾的段不会再变，翻页和重复刷新列表时不必重读文件头
+    private final Map<String, CachedProbe> probeCache =
+            new LinkedHashMap<String, CachedProbe>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedProbe> eldest) {
+                    return size() > PROBE_CACHE_SIZE;
+                }
+            };
+
+    public DaemonHttpHandler(DaemonEngine engine) {
+        this.engine = engine;
+        this.store = engine.getStore();
+        this.exporter = new ClipExporter(store);
+        exporter.setMinFreeBytes(store.getMinFreeBytes());
+    }
+
+    public void register(HttpServer server) {
+        server.addRoute(STATUS_PATH, this);
+        server.addRoute(RECORDINGS_PATH, this);
+        server.addRoute(EXPORT_PATH, this);
+    }
+
+    @Override
+    public HttpServer.Response handle(HttpServer.Request request) throws IOException {
+        String path = request.path;
+        if (path.equals(STATUS_PATH)) {
+            return status();
+        }
+        if (path.equals(RECORDINGS_PATH) || path.equals(RECORDINGS_PATH + "/")) {
+            return list(request);
+        }
+        if (path.startsWith(RECORDINGS_PATH + "/")) {
+            return segment(path.substring(RECORDINGS_PATH.length() + 1));
+        }
+        if (path.equals(EXPORT_PATH)) {
+            return export(request);
+        }
+        return null;
+    }
+
+    private HttpServer.Response status() {
+        StringBuilder json = new StringBuilder("{\"cameras\":[");
+        List<StreamRecorder> recorders = engine.getRecorders();
+        for (int i = 0; i < recorders.size(); i++) {
+            StreamRecorder recorder = recorders.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(quote(recorder.getCameraId()))
+                    .append(",\"name\":").append(quote(recorder.getCameraName()))
+                    .append(",\"state\":").append(quote(recorder.getState().name()))
+                    .append(",\"last_frame\":").append(recorder.getLastFrameMillis())
+                    .append(",\"bytes_written\":").append(recorder.getBytesWritten())
+                    .append(",\"queue_depth\":").append(recorder.getQueueDepth())
+                    .append('}');
+        }
+        json.append("],\"virtual_threads\":").append(engine.usesVirtualThreads()).append('}');
+        return HttpServer.Response.text(200, JSON, json.toString()).header("Cache-Control", "no-cache");
+    }
+
+    private HttpServer.Response list(HttpServer.Request request) {
+        String cameraId = request.getQuery("camera", null);
+        long from = request.getQueryLong("from", 0);
+        long to = request.getQueryLong("to", 0);
+        int limit = (int) Math.max(1, Math.min(MAX_LIMIT, request.getQueryLong("limit", DEFAULT_LIMIT)));
+        List<File> files = cameraId != null ? store.getRecordingFilesForCamera(cameraId) : store.getAllRecordingFiles();
+        // 先按文件名中的开始时间筛出这一页，只探测要返回的文件
+        List<File> page = new ArrayList<>(Math.min(limit, files.size()));
+        for (int i = files.size() - 1; i >= 0 && page.size() < limit; i--) {
+            File file = files.get(i);
+            long start = RecordingNames.parseStartTimeMillis(file.getName());
+            if ((to > 0 && start >= to) || start < from) {
+                continue;
+            }
+            page.add(file);
+        }
+        StringBuilder json = new StringBuilder("{\"recordings\":[");
+        for (int i = 0; i < page.size(); i++) {
+            File file = page.get(i);
+            long start = RecordingNames.parseStartTimeMillis(file.getName());
+            long modified = file.lastModified();
+            long size = file.length();
+            // 正在写入的段解析失败时以修改时间作为结束
+            long end = modified;
+            Mp4Probe.Info info = probe(file, modified, size);
+            if (info != null && info.durationMillis > 0) {
+                end = start + info.durationMillis;
+            }
+            String camera = store.getCameraId(file);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(quote(stripExtension(file.getName())))
+                    .append(",\"camera_id\":").append(quote(camera))
+                    .append(",\"start\":").append(start)
+                    .append(",\"end\":").append(end)
+                    .append(",\"size\":").append(size)
+                    .append(",\"width\":").append(info != null ? info.width : 0)
+                    .append(",\"height\":").append(info != null ? info.height : 0)
+                    .append(",\"codec\":").append(quote(info != null ? info.codec : ""))
+                    .append(",\"url\":").append(quote(RECORDINGS_PATH + "/" + camera + "/" + file.getName()))
+                    .append('}');
+        }
+        json.append("]}");
+        return HttpServer.Response.text(200, JSON, json.toString());
+    }
+
+    // 只读文件头，结果按路径缓存；修改时间或大小变化（段仍在写入）时重新探测，失败返回 null
+    private Mp4Probe.Info probe(File file, long modified, long size) {
+        String key = file.getPath();
+        synchronized (probeCache) {
+            CachedProbe cached = probeCache.get(key);
+            if (cached != null && cached.modified == modified && cached.size == size) {
+                return cached.info;
+            }
+        }
+        Mp4Probe.Info info;
+        try {
+            info = Mp4Probe.probe(file);
+        } catch (IOException e) {
+            return null;
+        }
+        synchronized (probeCache) {
+            probeCache.put(key, new CachedProbe(modified, size, info));
+        }
+        return info;
+    }
+
+    private HttpServer.Response segment(String relative) throws IOException {
+        int slash = relative.indexOf('/');
+        if (slash <= 0 || relative.indexOf('/', slash + 1) >= 0) {
+            return null;
+        }
+        String cameraId = relative.substring(0, slash);
+        String name = relative.substring(slash + 1);
+        // 路径已经过 URL 解码，名字里可能带 .. 或反斜杠；文件名必须是该摄像头的录像名
+        long start = RecordingNames.parseStartTimeMillis(name);
+        if (!isPlainName(cameraId) || !isPlainName(name) || start < 0
+                || !name.startsWith("recording_" + cameraId + "_")) {
+            return null;
+        }
+        // 日期目录由文件名中的开始时间决定，直接在各卷上定位，不扫描目录
+        for (StorageVolume volume : store.getOnlineVolumes()) {
+            File file = new File(RecordingNames.recordingDir(volume.getRoot(), cameraId, start), name);
+            if (!file.isFile()) {
+                continue;
+            }
+            // 只提供存储卷内的文件，防止符号链接指向任意路径
+            if (store.getVolumeForPath(file.getCanonicalPath()) == null) {
+                Log.w(TAG, "Refusing to serve " + file);
+                return null;
+            }
+            return HttpServer.Response.file(file, "video/mp4")
+                    .header("Content-Disposition", "inline; filename=\"" + name + "\"");
+        }
+        return null;
+    }
+
+    private HttpServer.Response export(HttpServer.Request request) throws IOException {
+        String cameraId = request.getQuery("camera", null);
+        long from = request.getQueryLong("from", 0);
+        long to = request.getQueryLong("to", 0);
+        if (cameraId == null || !isPlainName(cameraId) || from <= 0 || to <= from) {
+            return HttpServer.Response.text(400, "text/plain; charset=utf-8", "camera, from and to are required\n");
+        }
+        if (to - from > MAX_EXPORT_MILLIS) {
+            return HttpServer.Response.text(400, "text/plain; charset=utf-8",
+                    "Export range is limited to " + MAX_EXPORT_MILLIS / 60000 + " minutes\n");
+        }
+        // 每次请求导出到独立的临时文件，发送完即删除，不在 exports 目录里越积越多
+        File output = store.createExportTempFile();
+        try {
+            exporter.export(cameraId, from, to, output);
+        } catch (ClipExporter.InsufficientSpaceException e) {
+            Log.w(TAG, "Export refused for " + cameraId + ": " + e.getMessage());
+            deleteExport(output);
+            return HttpServer.Response.text(507, "text/plain; charset=utf-8", "Not enough free space to export\n");
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Export failed for " + cameraId + ": " + e.getMessage());
+            deleteExport(output);
+            return HttpServer.Response.text(404, "text/plain; charset=utf-8", "Nothing to export\n");
+        }
+        String name = RecordingNames.exportFileName(cameraId, from);
+        return HttpServer.Response.file(output, "video/mp4").deleteAfterSend()
+                .header("Content-Disposition", "attachment; filename=\"" + name + "\"");
+    }
+
+    private static void deleteExport(File output) {
+        if (!output.delete() && output.exists()) {
+            Log.w(TAG, "Failed to delete " + output);
+        }
+    }
+
+    // 单级路径名：非空，不是 . 或 ..，不含路径分隔符、引号和控制字符（名字还会写进响应头）
+    private static boolean isPlainName(String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '/' || c == '\\' || c == '"' || c < 0x20 || c == 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripExtension(String name) {
+        return name.endsWith(".mp4") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static final class CachedProbe {
+        final long modified;
+        final long size;
+        final Mp4Probe.Info info;
+
+        CachedProbe(long modified, long size, Mp4Probe.Info info) {
+            this.modified = modified;
+            this.size = size;
+            this.info = info;
+        }
+    }
+}
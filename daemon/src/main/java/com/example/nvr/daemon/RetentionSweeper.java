@@ -0,0 +1,88 @@
+package com.example.nvr.daemon;
+
+import com.example.nvr.logging.Log;
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.utils.RecordingNames;
+import com.example.nvr.utils.StorageVolume;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// 录像清理：删除超过保留天数的段，并在所有卷都低于剩余空间水位线时从最旧的段开始删除，
+// 直到有一个卷回到水位线之上。正在写入的段不删除
+public class RetentionSweeper {
+
+    private static final String TAG = "RetentionSweeper";
+
+    private final VolumeStore store;
+    private final long retentionMillis;
+    private final long minFreeBytes;
+
+    public RetentionSweeper(VolumeStore store, long retentionMillis, long minFreeBytes) {
+        this.store = store;
+        this.retentionMillis = retentionMillis;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    // activePaths 为各录制线程当前写入的文件
+    public void sweep(Set<String> activePaths) {
+        List<File> files = store.getAllRecordingFiles();
+        long cutoff = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+        int deleted = 0;
+        Set<File> emptied = new HashSet<>();
+        for (File file : files) {
+            if (activePaths.contains(file.getAbsolutePath())) {
+                continue;
+            }
+            boolean expired = RecordingNames.parseStartTimeMillis(file.getName()) < cutoff;
+            if (!expired && hasFreeVolume()) {
+                // 文件按开始时间升序，后面的只会更新
+                break;
+            }
+            if (delete(file)) {
+                deleted++;
+                emptied.add(file.getParentFile());
+            }
+        }
+        for (File dayDir : emptied) {
+            String[] remaining = dayDir.list();
+            if (remaining != null && remaining.length == 0 && !dayDir.delete()) {
+                Log.w(TAG, "Failed to remove empty directory " + dayDir);
+            }
+        }
+        if (deleted > 0) {
+            Log.i(TAG, "Deleted " + deleted + " recordings");
+        }
+    }
+
+    private boolean hasFreeVolume() {
+        for (StorageVolume volume : store.getOnlineVolumes()) {
+            if (volume.getFreeSpace() > minFreeBytes) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean delete(File file) {
+        StorageVolume volume = store.getVolumeForPath(file.getAbsolutePath());
+        if (!file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+            return false;
+        }
+        File index = KeyframeIndex.sidecarFor(file);
+        if (index.exists() && !index.delete()) {
+            Log.w(TAG, "Failed to delete keyframe index " + index);
+        }
+        if (volume != null) {
+            // 删除后立即重新统计，下一轮判断才能看到释放的空间
+            volume.refresh(true);
+        }
+        MetricsRegistry.getInstance().counter("nvr_recordings_deleted_total", "Recording segments deleted",
+                "camera", store.getCameraId(file)).inc();
+        return true;
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.nvr.daemon;
+
+import com.example.nvr.logging.Log;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.utils.RecordingNames;
+import com.example.nvr.utils.RecordingStore;
+import com.example.nvr.utils.StorageVolume;
+import com.example.nvr.utils.VolumeSelector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+// 守护进程的录像存储：卷列表来自配置文件，目录结构与应用相同（见 RecordingNames），
+// 存储盘可以直接挂到安卓设备上由应用重建索引，反之亦然。没有数据库，录像列表直接扫描目录
+public class VolumeStore implements RecordingStore {
+
+    private static final String TAG = "VolumeStore";
+    // 下载用的临时导出文件，响应发完即删；进程异常退出时留下的在启动时清掉
+    private static final String EXPORT_TEMP_PREFIX = ".download-";
+
+    private final List<StorageVolume> volumes = new ArrayList<>();
+    private final VolumeSelector selector = new VolumeSelector();
+    private final long minFreeBytes;
+
+    public VolumeStore(DaemonConfig config) {
+        // 卷根目录取规范路径：getVolumeForPath 比较的是文件的规范路径，
+        // 配置里的相对路径、符号链接或 .. 不规范化时会让卷内的文件也匹配不上；同一目录的不同写法也只算一个卷
+        volumes.add(new StorageVolume(canonicalRoot(config.getStoragePath()), false));
+        for (File path : config.getExtraStoragePaths()) {
+            File root = canonicalRoot(path);
+            boolean duplicate = false;
+            for (StorageVolume volume : volumes) {
+                duplicate |= volume.getRoot().equals(root);
+            }
+            if (!duplicate) {
+                volumes.add(new StorageVolume(root, true));
+            }
+        }
+        selector.setPolicy(config.getStoragePolicy());
+        minFreeBytes = config.getMinFreeBytes();
+        selector.setMinFreeBytes(minFreeBytes);
+        refreshAll(true);
+        purgeExportTempFiles();
+        MetricsRegistry.getInstance().addCollector(this::collectMetrics);
+        Log.i(TAG, "Storage volumes: " + volumes + ", policy " + config.getStoragePolicy());
+    }
+
+    // 每个卷上为录制保留的剩余空间
+    public long getMinFreeBytes() {
+        return minFreeBytes;
+    }
+
+    public synchronized List<StorageVolume> getVolumes() {
+        return Collections.unmodifiableList(new ArrayList<>(volumes));
+    }
+
+    public synchronized List<StorageVolume> getOnlineVolumes() {
+        refreshAll(false);
+        List<StorageVolume> online = new ArrayList<>();
+        for (StorageVolume volume : volumes) {
+            if (volume.isOnline()) {
+                online.add(volume);
+            }
+        }
+        return online;
+    }
+
+    public synchronized StorageVolume selectVolume(String cameraId) {
+        refreshAll(false);
+        return selector.select(cameraId, volumes);
+    }
+
+    @Override
+    public synchronized void reportFailure(StorageVolume volume) {
+        if (volume == null) return;
+        Log.w(TAG, "Storage volume failed: " + volume.getPath());
+        volume.markOffline();
+        selector.release(volume);
+    }
+
+    // path 应为规范路径或由卷根目录拼出的路径
+    @Override
+    public StorageVolume getVolumeForPath(String path) {
+        StorageVolume match = null;
+        for (StorageVolume volume : getVolumes()) {
+            String root = volume.getPath() + File.separator;
+            if (path != null && path.startsWith(root)
+                    && (match == null || root.length() > match.getPath().length() + 1)) {
+                match = volume;
+            }
+        }
+        return match;
+    }
+
+    @Override
+    public String createNewRecordingFilePath(String cameraId, String cameraName) {
+        StorageVolume volume = selectVolume(cameraId);
+        File root = volume != null ? volume.getRoot() : volumes.get(0).getRoot();
+        File file = RecordingNames.recordingFile(root, cameraId, new Date());
+        File dayDir = file.getParentFile();
+        if (!dayDir.exists() && !dayDir.mkdirs()) {
+            Log.e(TAG, "Failed to create recording directory " + dayDir);
+            reportFailure(volume);
+        }
+        return file.getAbsolutePath();
+    }
+
+    // 导出文件放在主卷的 exports 目录下
+    @Override
+    public String createExportFilePath(String cameraId, long startMillis) {
+        File file = RecordingNames.exportFile(volumes.get(0).getRoot(), cameraId, startMillis);
+        File exportsDir = file.getParentFile();
+        if (!exportsDir.exists() && !exportsDir.mkdirs()) {
+            Log.e(TAG, "Failed to create export directory " + exportsDir);
+        }
+        return file.getAbsolutePath();
+    }
+
+    // HTTP 下载用的导出文件：主卷 exports 目录下的唯一临时文件，由调用方在发送后删除
+    public File createExportTempFile() throws IOException {
+        File exportsDir = new File(volumes.get(0).getRoot(), RecordingNames.EXPORTS_DIR);
+        if (!exportsDir.exists() && !exportsDir.mkdirs()) {
+            throw new IOException("Cannot create export directory " + exportsDir);
+        }
+        return File.createTempFile(EXPORT_TEMP_PREFIX, ".mp4", exportsDir);
+    }
+
+    private void purgeExportTempFiles() {
+        File[] files = new File(volumes.get(0).getRoot(), RecordingNames.EXPORTS_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // 包括导出器自己的 .tmp 中间文件
+            if (file.getName().startsWith(EXPORT_TEMP_PREFIX) && !file.delete()) {
+                Log.w(TAG, "Failed to delete stale export " + file);
+            }
+        }
+    }
+
+    // 摄像头在所有在线卷上的录制文件，按开始时间升序
+    @Override
+    public List<File> getRecordingFilesForCamera(String cameraId) {
+        List<File> files = new ArrayList<>();
+        for (StorageVolume volume : getOnlineVolumes()) {
+            collectRecordingFiles(new File(volume.getRoot(),
+                    RecordingNames.RECORDINGS_DIR + File.separator + cameraId), files);
+        }
+        sortByStartTime(files);
+        return files;
+    }
+
+    // 所有卷上的全部录制文件，按开始时间升序，供清理和录像列表使用
+    public List<File> getAllRecordingFiles() {
+        List<File> files = new ArrayList<>();
+        for (StorageVolume volume : getOnlineVolumes()) {
+            collectRecordingFiles(new File(volume.getRoot(), RecordingNames.RECORDINGS_DIR), files);
+        }
+        sortByStartTime(files);
+        return files;
+    }
+
+    // 录像所属的摄像头即 recordings 下的第一级目录名
+    public String getCameraId(File recording) {
+        File dayDir = recording.getParentFile();
+        File cameraDir = dayDir != null ? dayDir.getParentFile() : null;
+        return cameraDir != null ? cameraDir.getName() : "";
+    }
+
+    private static void collectRecordingFiles(File directory, List<File> out) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectRecordingFiles(file, out);
+            } else if (RecordingNames.parseStartTimeMillis(file.getName()) >= 0) {
+                out.add(file);
+            }
+        }
+    }
+
+    private static void sortByStartTime(List<File> files) {
+        Collections.sort(files, (f1, f2) -> Long.compare(
+                RecordingNames.parseStartTimeMillis(f1.getName()), RecordingNames.parseStartTimeMillis(f2.getName())));
+    }
+
+    private static File canonicalRoot(File path) {
+        try {
+            return path.getCanonicalFile();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot resolve storage path " + path + ": " + e.getMessage());
+            return path.getAbsoluteFile();
+        }
+    }
+
+    private void refreshAll(boolean force) {
+        for (StorageVolume volume : volumes) {
+            boolean wasOnline = volume.isOnline();
+            volume.refresh(force);
+            if (wasOnline && !volume.isOnline()) {
+                Log.w(TAG, "Storage volume went offline: " + volume.getPath());
+                selector.release(volume);
+            }
+        }
+    }
+
+    private void collectMetrics(MetricsRegistry.Sink sink) {
+        for (StorageVolume volume : getVolumes()) {
+            String path = volume.getPath();
+            sink.gauge("nvr_storage_online", "1 while the volume is usable", volume.isOnline() ? 1 : 0, "volume", path);
+            sink.gauge("nvr_storage_free_bytes", "Free space on the volume", volume.getFreeSpace(), "volume", path);
+            sink.gauge("nvr_storage_total_bytes", "Capacity of the volume", volume.getTotalSpace(), "volume", path);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.nvr.ingest;
+
+// 一帧完整的视频数据：NAL 单元以4字节长度前缀拼接，可直接作为 MP4 样本写入
+public class AccessUnit {
+
+    public final byte[] data;
+    public final int length;
+    // 展开后的 RTP 时间戳（90kHz），不会回绕
+    public final long timestamp;
+    public final boolean keyframe;
+
+    public AccessUnit(byte[] data, int length, long timestamp, boolean keyframe) {
+        this.data = data;
+        this.length = length;
+        this.timestamp = timestamp;
+        this.keyframe = keyframe;
+    }
+}
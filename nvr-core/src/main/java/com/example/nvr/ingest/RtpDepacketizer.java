@@ -0,0 +1,315 @@
+package com.example.nvr.ingest;
+
+import com.example.nvr.media.NalUnits;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// RTP 解包：支持 H.264（RFC 6184 单包/STAP-A/FU-A）和 H.265（RFC 7798 单包/AP/FU），
+// 按时间戳和 marker 位组帧。带内的参数集单独保存，不写入帧数据。
+// 丢包导致帧不完整时丢弃该帧，并且在下一个关键帧之前不再输出依赖它的帧
+public class RtpDepacketizer {
+
+    private static final int H264_STAP_A = 24;
+    private static final int H264_FU_A = 28;
+    private static final int H265_AP = 48;
+    private static final int H265_FU = 49;
+    // 序号跳变的容忍范围，取 RFC 3550 附录 A.1 的建议值
+    private static final int MAX_DROPOUT = 3000;
+    private static final int MAX_MISORDER = 100;
+
+    private final int codec;
+
+    // 当前帧
+    private byte[] frame = new byte[256 * 1024];
+    private int frameLength;
+    private boolean frameKeyframe;
+    private boolean frameBroken;
+    private long frameTimestamp = Long.MIN_VALUE;
+    private boolean waitingForKeyframe = true;
+    private final ArrayDeque<AccessUnit> ready = new ArrayDeque<>();
+
+    // 正在拼接的分片 NAL 在 frame 中的长度前缀位置，-1 表示没有
+    private int fragmentStart = -1;
+
+    private int lastSequence = -1;
+    private long lastRtpTimestamp = -1;
+    private long timestampBase;
+
+    // 最近收到的参数集，VPS 只用于 H.265
+    private byte[] vps;
+    private byte[] sps;
+    private byte[] pps;
+    private boolean parameterSetsChanged;
+
+    private long lostPackets;
+
+    public RtpDepacketizer(int codec) {
+        this.codec = codec;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public byte[] getVps() {
+        return vps;
+    }
+
+    public byte[] getSps() {
+        return sps;
+    }
+
+    public byte[] getPps() {
+        return pps;
+    }
+
+    public long getLostPackets() {
+        return lostPackets;
+    }
+
+    // 返回自上次调用以来参数集是否变化，并清除标志
+    public boolean takeParameterSetsChanged() {
+        boolean changed = parameterSetsChanged;
+        parameterSetsChanged = false;
+        return changed;
+    }
+
+    // SDP 中带出的参数集
+    public void setParameterSet(byte[] nal) {
+        if (nal == null || nal.length < 2) {
+            return;
+        }
+        int type = NalUnits.type(codec, nal[0]);
+        if (codec == NalUnits.CODEC_H265 && type == NalUnits.H265_VPS) {
+            vps = update(vps, nal);
+        } else if (type == (codec == NalUnits.CODEC_H265 ? NalUnits.H265_SPS : NalUnits.H264_SPS)) {
+            sps = update(sps, nal);
+        } else if (type == (codec == NalUnits.CODEC_H265 ? NalUnits.H265_PPS : NalUnits.H264_PPS)) {
+            pps = update(pps, nal);
+        }
+    }
+
+    private byte[] update(byte[] current, byte[] nal) {
+        if (current != null && Arrays.equals(current, nal)) {
+            return current;
+        }
+        parameterSetsChanged = true;
+        return nal;
+    }
+
+    // 判断一个 RTP 包是否是关键帧（或其前面的参数集）的开头，转发时用来选择新客户端的起始位置
+    public static boolean startsKeyframe(int codec, byte[] packet, int offset, int length) {
+        if (length < 12 || (packet[offset] & 0xC0) != 0x80) {
+            return false;
+        }
+        int b0 = packet[offset] & 0xFF;
+        int header = 12 + 4 * (b0 & 0x0F);
+        if ((b0 & 0x10) != 0) {
+            if (length < header + 4) return false;
+            header += 4 + 4 * (((packet[offset + header + 2] & 0xFF) << 8) | (packet[offset + header + 3] & 0xFF));
+        }
+        boolean h265 = codec == NalUnits.CODEC_H265;
+        if (length < header + (h265 ? 5 : 4)) {
+            return false;
+        }
+        int p = offset + header;
+        int type = NalUnits.type(codec, packet[p]);
+        if (h265 ? type == H265_AP : type == H264_STAP_A) {
+            // 聚合包看第一个 NAL
+            type = NalUnits.type(codec, packet[p + (h265 ? 4 : 3)]);
+        } else if (h265 ? type == H265_FU : type == H264_FU_A) {
+            int fuHeader = packet[p + (h265 ? 2 : 1)] & 0xFF;
+            if ((fuHeader & 0x80) == 0) {
+                return false;
+            }
+            type = fuHeader & (h265 ? 0x3F : 0x1F);
+        }
+        return NalUnits.isKeyframe(codec, type) || type == (h265 ? NalUnits.H265_VPS : NalUnits.H264_SPS);
+    }
+
+    // 取出已组好的帧，没有时返回null；每次 push 之后应循环取到null为止
+    public AccessUnit poll() {
+        return ready.poll();
+    }
+
+    // 输入一个 RTP 包
+    public void push(byte[] packet, int offset, int length) {
+        if (length < 12 || (packet[offset] & 0xC0) != 0x80) {
+            return;
+        }
+        int b0 = packet[offset] & 0xFF;
+        boolean marker = (packet[offset + 1] & 0x80) != 0;
+        int sequence = ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
+        long rtpTimestamp = ((packet[offset + 4] & 0xFFL) << 24) | ((packet[offset + 5] & 0xFF) << 16)
+                | ((packet[offset + 6] & 0xFF) << 8) | (packet[offset + 7] & 0xFF);
+        int header = 12 + 4 * (b0 & 0x0F);
+        if ((b0 & 0x10) != 0) {
+            if (length < header + 4) return;
+            int extensionWords = ((packet[offset + header + 2] & 0xFF) << 8) | (packet[offset + header + 3] & 0xFF);
+            header += 4 + 4 * extensionWords;
+        }
+        int end = length;
+        if ((b0 & 0x20) != 0) {
+            end -= packet[offset + length - 1] & 0xFF;
+        }
+        if (end <= header) {
+            return;
+        }
+
+        if (lastSequence >= 0) {
+            // 按有符号16位计算序号差，回绕后仍然正确
+            int delta = (short) (sequence - lastSequence);
+            if (delta <= 0 && delta >= -MAX_MISORDER) {
+                // 重复或迟到的包：它的位置已经按丢包处理过，直接丢弃
+                return;
+            }
+            if (delta != 1) {
+                // 丢包：当前帧已不完整，正在拼接的分片也作废。
+                // 跳变过大（发送端重启或序号重置）时只重新同步，不计入丢包
+                if (delta > 1 && delta <= MAX_DROPOUT) {
+                    lostPackets += delta - 1;
+                }
+                frameBroken = true;
+                fragmentStart = -1;
+            }
+        }
+        lastSequence = sequence;
+
+        long timestamp = unwrap(rtpTimestamp);
+        if (frameTimestamp != Long.MIN_VALUE && timestamp != frameTimestamp) {
+            // 时间戳变化说明上一帧已结束（发送端可能没有设置 marker 位）
+            finishFrame();
+        }
+        frameTimestamp = timestamp;
+        handlePayload(packet, offset + header, end - header);
+        if (marker) {
+            finishFrame();
+        }
+    }
+
+    private long unwrap(long rtpTimestamp) {
+        if (lastRtpTimestamp >= 0) {
+            timestampBase += (int) (rtpTimestamp - lastRtpTimestamp);
+        }
+        lastRtpTimestamp = rtpTimestamp;
+        return timestampBase;
+    }
+
+    private void handlePayload(byte[] data, int offset, int length) {
+        int type = NalUnits.type(codec, data[offset]);
+        if (codec == NalUnits.CODEC_H264 ? type == H264_STAP_A : type == H265_AP) {
+            int p = offset + (codec == NalUnits.CODEC_H264 ? 1 : 2);
+            int end = offset + length;
+            while (p + 2 <= end) {
+                int size = ((data[p] & 0xFF) << 8) | (data[p + 1] & 0xFF);
+                p += 2;
+                if (size == 0 || p + size > end) {
+                    frameBroken = true;
+                    return;
+                }
+                addNal(data, p, size);
+                p += size;
+            }
+        } else if (codec == NalUnits.CODEC_H264 ? type == H264_FU_A : type == H265_FU) {
+            handleFragment(data, offset, length);
+        } else if (codec == NalUnits.CODEC_H265 ? type < H265_AP : type >= 1 && type <= 23) {
+            addNal(data, offset, length);
+        }
+    }
+
+    private void handleFragment(byte[] data, int offset, int length) {
+        int headerSize = codec == NalUnits.CODEC_H264 ? 2 : 3;
+        if (length <= headerSize) {
+            return;
+        }
+        int fuHeader = data[offset + headerSize - 1] & 0xFF;
+        boolean start = (fuHeader & 0x80) != 0;
+        boolean end = (fuHeader & 0x40) != 0;
+        int nalType = fuHeader & (codec == NalUnits.CODEC_H264 ? 0x1F : 0x3F);
+        if (start) {
+            fragmentStart = frameLength;
+            ensureCapacity(4 + 2);
+            frameLength += 4;
+            if (codec == NalUnits.CODEC_H264) {
+                frame[frameLength++] = (byte) ((data[offset] & 0xE0) | nalType);
+            } else {
+                frame[frameLength++] = (byte) ((data[offset] & 0x81) | (nalType << 1));
+                frame[frameLength++] = data[offset + 1];
+            }
+        } else if (fragmentStart < 0) {
+            // 丢失了起始分片，这一帧不完整
+            frameBroken = true;
+            return;
+        }
+        int payload = length - headerSize;
+        ensureCapacity(payload);
+        System.arraycopy(data, offset + headerSize, frame, frameLength, payload);
+        frameLength += payload;
+        if (end) {
+            int nalStart = fragmentStart + 4;
+            int nalLength = frameLength - nalStart;
+            fragmentStart = -1;
+            if (NalUnits.isParameterSet(codec, nalType) || NalUnits.isAccessUnitDelimiter(codec, nalType)) {
+                // 参数集和分隔符不留在帧数据里
+                frameLength = nalStart - 4;
+                addNal(Arrays.copyOfRange(frame, nalStart, nalStart + nalLength), 0, nalLength);
+            } else {
+                // 分片已直接拼在帧缓冲中，只需回填长度前缀
+                frame[nalStart - 4] = (byte) (nalLength >>> 24);
+                frame[nalStart - 3] = (byte) (nalLength >>> 16);
+                frame[nalStart - 2] = (byte) (nalLength >>> 8);
+                frame[nalStart - 1] = (byte) nalLength;
+                if (NalUnits.isKeyframe(codec, nalType)) {
+                    frameKeyframe = true;
+                }
+            }
+        }
+    }
+
+    private void addNal(byte[] data, int offset, int length) {
+        int type = NalUnits.type(codec, data[offset]);
+        if (NalUnits.isAccessUnitDelimiter(codec, type)) {
+            return;
+        }
+        if (NalUnits.isParameterSet(codec, type)) {
+            setParameterSet(Arrays.copyOfRange(data, offset, offset + length));
+            return;
+        }
+        if (NalUnits.isKeyframe(codec, type)) {
+            frameKeyframe = true;
+        }
+        ensureCapacity(4 + length);
+        frame[frameLength++] = (byte) (length >>> 24);
+        frame[frameLength++] = (byte) (length >>> 16);
+        frame[frameLength++] = (byte) (length >>> 8);
+        frame[frameLength++] = (byte) length;
+        System.arraycopy(data, offset, frame, frameLength, length);
+        frameLength += length;
+    }
+
+    private void finishFrame() {
+        if (fragmentStart >= 0) {
+            // 帧结束时分片仍未拼完，丢弃这个不完整的 NAL
+            frameLength = fragmentStart;
+            fragmentStart = -1;
+            frameBroken = true;
+        }
+        if (frameBroken) {
+            waitingForKeyframe = true;
+        } else if (frameLength > 0 && (frameKeyframe || !waitingForKeyframe)) {
+            waitingForKeyframe = false;
+            ready.add(new AccessUnit(Arrays.copyOf(frame, frameLength), frameLength, frameTimestamp, frameKeyframe));
+        }
+        frameLength = 0;
+        frameKeyframe = false;
+        frameBroken = false;
+        frameTimestamp = Long.MIN_VALUE;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (frameLength + extra > frame.length) {
+            frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength + extra));
+        }
+    }
+}
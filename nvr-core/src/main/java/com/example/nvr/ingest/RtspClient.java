@@ -0,0 +1,495 @@
+package com.example.nvr.ingest;
+
+import com.example.nvr.media.NalUnits;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// 纯 Java 的 RTSP 客户端：只拉第一路视频，RTP 通过 TCP 交织传输（RTP/AVP/TCP），
+// 支持 Basic 和 Digest 认证，播放期间定期发送 GET_PARAMETER 保活
+public class RtspClient implements Closeable {
+
+    private static final int DEFAULT_PORT = 554;
+    private static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 60;
+    private static final String USER_AGENT = "NVR";
+
+    private final URI uri;
+    private final String requestUrl;
+    private final String username;
+    private final String password;
+    private final int timeoutMillis;
+
+    private volatile Socket socket;
+    private DataInputStream input;
+    private OutputStream output;
+    private int cseq;
+    private String session;
+    private long keepAliveIntervalMillis = DEFAULT_SESSION_TIMEOUT_SECONDS * 1000L / 2;
+    private long lastKeepAliveMillis;
+    private boolean supportsGetParameter = true;
+
+    // 认证信息，收到 401 后填充
+    private String authScheme;
+    private String realm;
+    private String nonce;
+    private String opaque;
+    private String qop;
+    private int nonceCount;
+
+    // SDP 解析结果
+    private int codec = -1;
+    private int clockRate = 90000;
+    private final List<byte[]> parameterSets = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    public RtspClient(String url, int timeoutMillis) throws IOException {
+        try {
+            this.uri = new URI(url.trim());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid RTSP URL: " + e.getMessage());
+        }
+        if (uri.getHost() == null || !"rtsp".equalsIgnoreCase(uri.getScheme())) {
+            throw new IOException("Not an RTSP URL");
+        }
+        String userInfo = uri.getRawUserInfo();
+        if (userInfo != null) {
+            int colon = userInfo.indexOf(':');
+            username = decode(colon >= 0 ? userInfo.substring(0, colon) : userInfo);
+            password = colon >= 0 ? decode(userInfo.substring(colon + 1)) : "";
+        } else {
+            username = null;
+            password = null;
+        }
+        // 请求行中的 URL 不能带用户名密码
+        StringBuilder request = new StringBuilder("rtsp://").append(uri.getHost());
+        if (uri.getPort() > 0) {
+            request.append(':').append(uri.getPort());
+        }
+        request.append(uri.getRawPath() != null && !uri.getRawPath().isEmpty() ? uri.getRawPath() : "/");
+        if (uri.getRawQuery() != null) {
+            request.append('?').append(uri.getRawQuery());
+        }
+        this.requestUrl = request.toString();
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (Exception e) {
+            return value;
+        }
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public int getClockRate() {
+        return clockRate;
+    }
+
+    public List<byte[]> getParameterSets() {
+        return parameterSets;
+    }
+
+    // 建立连接并完成 OPTIONS/DESCRIBE/SETUP/PLAY，失败时抛出 IOException
+    public void start() throws IOException {
+        socket = new Socket();
+        if (closed) {
+            // 在连接前已被其他线程关闭
+            socket.close();
+            throw new IOException("Client closed");
+        }
+        socket.setTcpNoDelay(true);
+        socket.setReceiveBufferSize(512 * 1024);
+        socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT), timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        output = socket.getOutputStream();
+
+        Response options = request("OPTIONS", requestUrl, null);
+        String publicMethods = options.headers.get("public");
+        if (publicMethods != null && !publicMethods.toUpperCase(Locale.ROOT).contains("GET_PARAMETER")) {
+            supportsGetParameter = false;
+        }
+
+        Map<String, String> describeHeaders = new HashMap<>();
+        describeHeaders.put("Accept", "application/sdp");
+        Response describe = request("DESCRIBE", requestUrl, describeHeaders);
+        String contentBase = describe.headers.get("content-base");
+        if (contentBase == null) {
+            contentBase = describe.headers.get("content-location");
+        }
+        String control = parseSdp(describe.body, contentBase != null ? contentBase : requestUrl);
+
+        Map<String, String> setupHeaders = new HashMap<>();
+        setupHeaders.put("Transport", "RTP/AVP/TCP;unicast;interleaved=0-1");
+        Response setup = request("SETUP", control, setupHeaders);
+        String sessionHeader = setup.headers.get("session");
+        if (sessionHeader == null) {
+            throw new IOException("SETUP response has no Session header");
+        }
+        String[] sessionParts = sessionHeader.split(";");
+        session = sessionParts[0].trim();
+        for (int i = 1; i < sessionParts.length; i++) {
+            String part = sessionParts[i].trim();
+            if (part.toLowerCase(Locale.ROOT).startsWith("timeout=")) {
+                try {
+                    int timeout = Integer.parseInt(part.substring(8).trim());
+                    keepAliveIntervalMillis = Math.max(5, timeout) * 1000L / 2;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        Map<String, String> playHeaders = new HashMap<>();
+        playHeaders.put("Range", "npt=0.000-");
+        request("PLAY", contentBase != null ? contentBase : requestUrl, playHeaders);
+        lastKeepAliveMillis = System.currentTimeMillis();
+    }
+
+    // 读取下一个视频 RTP 包到 buffer，返回包长度；buffer 至少 64KB。
+    // RTCP 包和保活请求的响应在这里被跳过
+    public int readRtpPacket(byte[] buffer) throws IOException {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            if (now - lastKeepAliveMillis >= keepAliveIntervalMillis) {
+                sendKeepAlive();
+                lastKeepAliveMillis = now;
+            }
+            int first = input.read();
+            if (first < 0) {
+                throw new IOException("Connection closed by camera");
+            }
+            if (first == '$') {
+                int channel = input.readUnsignedByte();
+                int length = input.readUnsignedShort();
+                if (channel == 0) {
+                    input.readFully(buffer, 0, length);
+                    return length;
+                }
+                skipFully(length);
+            } else if (first == 'R') {
+                // 保活请求的响应 "RTSP/1.0 200 OK"，读完丢弃
+                readResponse("R");
+            } else {
+                throw new IOException("Unexpected byte in interleaved stream: " + first);
+            }
+        }
+        throw new IOException("Client closed");
+    }
+
+    private void skipFully(int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = input.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Connection closed by camera");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    // 保活请求不等待响应，响应由 readRtpPacket 在交织流中跳过
+    private void sendKeepAlive() throws IOException {
+        sendRequest(supportsGetParameter ? "GET_PARAMETER" : "OPTIONS", requestUrl, null);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (socket == null) {
+            return;
+        }
+        try {
+            if (session != null && socket.isConnected()) {
+                sendRequest("TEARDOWN", requestUrl, null);
+            }
+        } catch (IOException ignored) {
+            // 连接可能已经断开
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class Response {
+        int status;
+        final Map<String, String> headers = new HashMap<>();
+        String body = "";
+    }
+
+    private Response request(String method, String url, Map<String, String> headers) throws IOException {
+        sendRequest(method, url, headers);
+        Response response = readResponse(null);
+        if (response.status == 401 && authScheme == null) {
+            parseAuthenticate(response.headers.get("www-authenticate"));
+            sendRequest(method, url, headers);
+            response = readResponse(null);
+        }
+        if (response.status != 200) {
+            throw new IOException(method + " failed with status " + response.status);
+        }
+        return response;
+    }
+
+    private void sendRequest(String method, String url, Map<String, String> headers) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(url).append(" RTSP/1.0\r\n");
+        sb.append("CSeq: ").append(++cseq).append("\r\n");
+        sb.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        if (session != null) {
+            sb.append("Session: ").append(session).append("\r\n");
+        }
+        String authorization = authorization(method, url);
+        if (authorization != null) {
+            sb.append("Authorization: ").append(authorization).append("\r\n");
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        sb.append("\r\n");
+        synchronized (this) {
+            output.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        }
+    }
+
+    // prefix 为已经从流中读出的开头字符
+    private Response readResponse(String prefix) throws IOException {
+        String statusLine = (prefix != null ? prefix : "") + readLine();
+        // 跳过交织数据之前可能残留的空行
+        while (statusLine.isEmpty()) {
+            statusLine = readLine();
+        }
+        if (!statusLine.startsWith("RTSP/")) {
+            throw new IOException("Invalid RTSP response: " + statusLine);
+        }
+        Response response = new Response();
+        String[] parts = statusLine.split(" ");
+        try {
+            response.status = Integer.parseInt(parts[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid RTSP status line: " + statusLine);
+        }
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                // 可能有多个 WWW-Authenticate，优先保留 Digest
+                if (!name.equals("www-authenticate") || !response.headers.containsKey(name)
+                        || value.regionMatches(true, 0, "Digest", 0, 6)) {
+                    response.headers.put(name, value);
+                }
+            }
+        }
+        String contentLength = response.headers.get("content-length");
+        if (contentLength != null) {
+            int length = Integer.parseInt(contentLength.trim());
+            byte[] body = new byte[length];
+            input.readFully(body);
+            response.body = new String(body, StandardCharsets.UTF_8);
+        }
+        return response;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = input.read()) >= 0) {
+            if (c == '\n') {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() > 8192) {
+                throw new IOException("RTSP header line too long");
+            }
+            sb.append((char) c);
+        }
+        throw new IOException("Connection closed by camera");
+    }
+
+    // 解析第一路视频的编码、参数集和控制地址
+    private String parseSdp(String sdp, String base) throws IOException {
+        String control = null;
+        boolean inVideo = false;
+        String fmtp = null;
+        for (String rawLine : sdp.split("\n")) {
+            String line = rawLine.trim();
+            if (line.startsWith("m=")) {
+                if (inVideo) {
+                    break;
+                }
+                inVideo = line.startsWith("m=video");
+            } else if (inVideo && line.startsWith("a=rtpmap:")) {
+                String value = line.substring(9);
+                int space = value.indexOf(' ');
+                if (space > 0) {
+                    String[] encoding = value.substring(space + 1).split("/");
+                    String name = encoding[0].toUpperCase(Locale.ROOT);
+                    if (name.equals("H264")) {
+                        codec = NalUnits.CODEC_H264;
+                    } else if (name.equals("H265") || name.equals("HEVC")) {
+                        codec = NalUnits.CODEC_H265;
+                    }
+                    if (encoding.length > 1) {
+                        try {
+                            clockRate = Integer.parseInt(encoding[1].trim());
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            } else if (inVideo && line.startsWith("a=fmtp:")) {
+                fmtp = line.substring(7);
+            } else if (inVideo && line.startsWith("a=control:")) {
+                control = line.substring(10).trim();
+            }
+        }
+        if (codec < 0) {
+            throw new IOException("No H.264/H.265 video track in SDP");
+        }
+        if (fmtp != null) {
+            int space = fmtp.indexOf(' ');
+            for (String parameter : (space >= 0 ? fmtp.substring(space + 1) : fmtp).split(";")) {
+                int eq = parameter.indexOf('=');
+                if (eq < 0) continue;
+                String key = parameter.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+                String value = parameter.substring(eq + 1).trim();
+                if (key.equals("sprop-parameter-sets") || key.equals("sprop-vps")
+                        || key.equals("sprop-sps") || key.equals("sprop-pps")) {
+                    for (String encoded : value.split(",")) {
+                        try {
+                            byte[] nal = Base64.getDecoder().decode(encoded.trim());
+                            if (nal.length > 1) {
+                                parameterSets.add(nal);
+                            }
+                        } catch (IllegalArgumentException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+        return resolveControl(base, control);
+    }
+
+    private String resolveControl(String base, String control) {
+        if (control == null || control.equals("*")) {
+            return base;
+        }
+        if (control.regionMatches(true, 0, "rtsp://", 0, 7)) {
+            return control;
+        }
+        return base.endsWith("/") ? base + control : base + "/" + control;
+    }
+
+    private void parseAuthenticate(String header) throws IOException {
+        if (header == null || username == null) {
+            throw new IOException("Camera requires authentication");
+        }
+        int space = header.indexOf(' ');
+        authScheme = (space > 0 ? header.substring(0, space) : header).trim();
+        Map<String, String> params = new HashMap<>();
+        String rest = space > 0 ? header.substring(space + 1) : "";
+        // 形如 realm="x", nonce="y", qop="auth"
+        int i = 0;
+        while (i < rest.length()) {
+            int eq = rest.indexOf('=', i);
+            if (eq < 0) break;
+            String key = rest.substring(i, eq).trim().replace(",", "").trim().toLowerCase(Locale.ROOT);
+            String value;
+            int next;
+            if (eq + 1 < rest.length() && rest.charAt(eq + 1) == '"') {
+                int close = rest.indexOf('"', eq + 2);
+                if (close < 0) close = rest.length();
+                value = rest.substring(eq + 2, close);
+                next = close + 1;
+            } else {
+                int comma = rest.indexOf(',', eq + 1);
+                if (comma < 0) comma = rest.length();
+                value = rest.substring(eq + 1, comma).trim();
+                next = comma;
+            }
+            params.put(key, value);
+            i = next + 1;
+        }
+        realm = params.get("realm");
+        nonce = params.get("nonce");
+        opaque = params.get("opaque");
+        String qopOptions = params.get("qop");
+        qop = qopOptions != null && qopOptions.contains("auth") ? "auth" : null;
+    }
+
+    private String authorization(String method, String url) {
+        if (authScheme == null || username == null) {
+            return null;
+        }
+        if (authScheme.equalsIgnoreCase("Basic")) {
+            String token = username + ":" + password;
+            return "Basic " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+        }
+        String ha1 = md5(username + ":" + realm + ":" + password);
+        String ha2 = md5(method + ":" + url);
+        StringBuilder sb = new StringBuilder("Digest username=\"").append(username)
+                .append("\", realm=\"").append(realm)
+                .append("\", nonce=\"").append(nonce)
+                .append("\", uri=\"").append(url).append('"');
+        if (qop != null) {
+            String nc = String.format(Locale.ROOT, "%08x", ++nonceCount);
+            String cnonce = Long.toHexString(new SecureRandom().nextLong());
+            String response = md5(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2);
+            sb.append(", qop=").append(qop).append(", nc=").append(nc)
+                    .append(", cnonce=\"").append(cnonce).append("\", response=\"").append(response).append('"');
+        } else {
+            sb.append(", response=\"").append(md5(ha1 + ":" + nonce + ":" + ha2)).append('"');
+        }
+        if (opaque != null) {
+            sb.append(", opaque=\"").append(opaque).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String md5(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
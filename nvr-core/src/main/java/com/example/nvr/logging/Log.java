@@ -0,0 +1,61 @@
+package com.example.nvr.logging;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 核心模块的日志入口，用法与 android.util.Log 相同。
+// 应用启动时把输出接到 Logcat；在普通 JVM 上（测试、基准、独立进程）默认走 java.util.logging
+public final class Log {
+
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        // throwable 可以为null
+        void log(int priority, String tag, String message, Throwable throwable);
+    }
+
+    private static final Sink JUL_SINK = (priority, tag, message, throwable) -> {
+        Level level = priority >= ERROR ? Level.SEVERE
+                : priority == WARN ? Level.WARNING
+                : priority == INFO ? Level.INFO : Level.FINE;
+        // 以 tag 作为来源，否则 java.util.logging 会把这里的 lambda 当作调用者
+        Logger.getLogger(tag).logp(level, tag, null, message, throwable);
+    };
+
+    private static volatile Sink sink = JUL_SINK;
+
+    private Log() {
+    }
+
+    // 传null恢复默认输出
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : JUL_SINK;
+    }
+
+    public static void d(String tag, String message) {
+        sink.log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        sink.log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sink.log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable throwable) {
+        sink.log(WARN, tag, message, throwable);
+    }
+
+    public static void e(String tag, String message) {
+        sink.log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        sink.log(ERROR, tag, message, throwable);
+    }
+}
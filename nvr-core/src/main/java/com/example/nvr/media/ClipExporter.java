@@ -0,0 +1,504 @@
+package com.example.nvr.media;
+
+import com.example.nvr.logging.Log;
+import com.example.nvr.utils.RecordingNames;
+import com.example.nvr.utils.RecordingStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 按时间范围导出录像：在关键帧处切分，拼接相邻的录制段，样本数据通过 transferTo 直接拷贝，不解码不重编码
+public class ClipExporter {
+
+    private static final String TAG = "ClipExporter";
+    private static final long MP4_EPOCH_OFFSET_SECONDS = 2082844800L;
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int LANGUAGE_UND = 0x55C4;
+
+    private final RecordingStore recordingStore;
+    // 导出后目标目录至少保留的剩余空间，避免导出挤占录制所需的空间
+    private long minFreeBytes;
+
+    public ClipExporter(RecordingStore recordingStore) {
+        this.recordingStore = recordingStore;
+    }
+
+    public void setMinFreeBytes(long minFreeBytes) {
+        this.minFreeBytes = Math.max(0, minFreeBytes);
+    }
+
+    // 目标目录的剩余空间不足以容纳导出文件（另加保留空间）
+    public static final class InsufficientSpaceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        InsufficientSpaceException(long needed, long usable) {
+            super("Export needs " + needed + " bytes but only " + usable + " are usable");
+        }
+    }
+
+    public static class Result {
+        public final File file;
+        public final long startMillis;
+        public final long durationMillis;
+        public final int sampleCount;
+        public final long bytes;
+
+        Result(File file, long startMillis, long durationMillis, int sampleCount, long bytes) {
+            this.file = file;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.sampleCount = sampleCount;
+            this.bytes = bytes;
+        }
+    }
+
+    // 源文件中一段连续的样本，导出时作为一个 chunk 整体拷贝
+    private static final class Run {
+        final int source;
+        final long offset;
+        long length;
+        int sampleCount;
+        final int descriptionIndex;
+
+        Run(int source, long offset, int descriptionIndex) {
+            this.source = source;
+            this.offset = offset;
+            this.descriptionIndex = descriptionIndex;
+        }
+    }
+
+    // 导出后的样本表
+    private static final class Samples {
+        int count;
+        int[] sizes = new int[1024];
+        int[] durations = new int[1024];
+        int[] compositionOffsets = new int[1024];
+        boolean[] sync = new boolean[1024];
+
+        void add(int size, int duration, int compositionOffset, boolean isSync) {
+            if (count == sizes.length) {
+                int capacity = count * 2;
+                sizes = Arrays.copyOf(sizes, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                compositionOffsets = Arrays.copyOf(compositionOffsets, capacity);
+                sync = Arrays.copyOf(sync, capacity);
+            }
+            sizes[count] = size;
+            durations[count] = duration;
+            compositionOffsets[count] = compositionOffset;
+            sync[count] = isSync;
+            count++;
+        }
+    }
+
+    // 导出到主卷 exports 目录
+    public Result export(String cameraId, long startMillis, long endMillis) throws IOException {
+        return export(cameraId, startMillis, endMillis,
+                new File(recordingStore.createExportFilePath(cameraId, startMillis)));
+    }
+
+    public Result export(String cameraId, long startMillis, long endMillis, File output) throws IOException {
+        if (endMillis <= startMillis) {
+            throw new IllegalArgumentException("Empty export range");
+        }
+        long begin = System.nanoTime();
+
+        List<Mp4SampleTable> sources = new ArrayList<>();
+        List<Long> sourceStarts = new ArrayList<>();
+        for (File file : recordingStore.getRecordingFilesForCamera(cameraId)) {
+            long segmentStart = RecordingNames.parseStartTimeMillis(file.getName());
+            if (segmentStart >= endMillis) {
+                break;
+            }
+            Mp4SampleTable table;
+            try {
+                table = Mp4SampleTable.load(file);
+            } catch (IOException e) {
+                // 正在录制或损坏的段没有完整的索引，跳过
+                Log.w(TAG, "Skipping unreadable segment " + file.getName() + ": " + e.getMessage());
+                continue;
+            }
+            if (table.getSampleCount() == 0 || segmentStart + table.getDurationMillis() <= startMillis) {
+                continue;
+            }
+            sources.add(table);
+            sourceStarts.add(segmentStart);
+        }
+        if (sources.isEmpty()) {
+            throw new IOException("No recordings for camera " + cameraId + " in range");
+        }
+
+        int timescale = sources.get(0).getTimescale();
+        List<byte[]> descriptions = new ArrayList<>();
+        List<Run> runs = new ArrayList<>();
+        Samples samples = new Samples();
+        int width = 0;
+        int height = 0;
+        long clipStartMillis = -1;
+
+        for (int s = 0; s < sources.size(); s++) {
+            Mp4SampleTable table = sources.get(s);
+            long segmentStart = sourceStarts.get(s);
+            int first;
+            if (clipStartMillis < 0) {
+                // 第一段从 t0 之前最近的关键帧开始，保证导出文件可以直接解码
+                first = table.syncSampleAtOrBefore(Math.max(0, startMillis - segmentStart));
+            } else {
+                first = 0;
+            }
+            while (first < table.getSampleCount() && !table.isSync(first)) {
+                first++;
+            }
+            int last = table.sampleAtOrAfter(endMillis - segmentStart);
+            if (first >= last) {
+                continue;
+            }
+            if (clipStartMillis < 0) {
+                clipStartMillis = segmentStart + table.getSampleTimeMillis(first);
+            }
+            width = Math.max(width, table.getWidth());
+            height = Math.max(height, table.getHeight());
+            int descriptionIndex = descriptionIndex(descriptions, firstEntry(table.getSampleDescriptions()));
+
+            Run run = null;
+            for (int i = first; i < last; i++) {
+                long offset = table.getOffset(i);
+                int size = table.getSize(i);
+                if (run == null || run.offset + run.length != offset) {
+                    run = new Run(s, offset, descriptionIndex);
+                    runs.add(run);
+                }
+                run.length += size;
+                run.sampleCount++;
+                samples.add(size, rescale(table.getDuration(i), table.getTimescale(), timescale),
+                        rescale(table.getCompositionOffset(i), table.getTimescale(), timescale),
+                        table.isSync(i));
+            }
+        }
+        if (samples.count == 0) {
+            throw new IOException("No samples in range");
+        }
+
+        long mdatPayload = 0;
+        for (Run run : runs) {
+            mdatPayload += run.length;
+        }
+        boolean largeMdat = mdatPayload + 8 > 0xFFFFFFFFL;
+        int mdatHeaderSize = largeMdat ? 16 : 8;
+
+        // 先以0为基准构建一次得到 moov 大小，再用真实 mdat 偏移重建（字段宽度固定，大小不变）
+        byte[] ftyp = buildFtyp();
+        long trackDuration = 0;
+        for (int i = 0; i < samples.count; i++) {
+            trackDuration += samples.durations[i];
+        }
+        boolean wideOffsets = false;
+        Mp4BoxWriter moov = new Mp4BoxWriter(64 * 1024);
+        writeMoov(moov, clipStartMillis, timescale, trackDuration, width, height, descriptions, samples, runs, 0, wideOffsets);
+        long dataStart = ftyp.length + moov.size() + mdatHeaderSize;
+        if (dataStart + mdatPayload > 0xFFFFFFFFL) {
+            wideOffsets = true;
+            moov.reset();
+            writeMoov(moov, clipStartMillis, timescale, trackDuration, width, height, descriptions, samples, runs, 0, true);
+            dataStart = ftyp.length + moov.size() + mdatHeaderSize;
+        }
+        moov.reset();
+        writeMoov(moov, clipStartMillis, timescale, trackDuration, width, height, descriptions, samples, runs, dataStart, wideOffsets);
+
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        // 文件大小在拷贝前就已确定：头部加上所有样本段的长度
+        long needed = dataStart + mdatPayload;
+        long usable = parent != null ? parent.getUsableSpace() : 0;
+        if (parent != null && usable > 0 && usable < needed + minFreeBytes) {
+            throw new InsufficientSpaceException(needed + minFreeBytes, usable);
+        }
+        File temp = new File(output.getPath() + ".tmp");
+        RandomAccessFile[] inputs = new RandomAccessFile[sources.size()];
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        boolean success = false;
+        try {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            writeAll(outChannel, ByteBuffer.wrap(ftyp));
+            writeAll(outChannel, moov.toByteBuffer());
+            ByteBuffer mdatHeader = ByteBuffer.allocate(mdatHeaderSize);
+            if (largeMdat) {
+                mdatHeader.putInt(1).putInt(Mp4Boxes.MDAT).putLong(mdatPayload + 16);
+            } else {
+                mdatHeader.putInt((int) (mdatPayload + 8)).putInt(Mp4Boxes.MDAT);
+            }
+            mdatHeader.flip();
+            writeAll(outChannel, mdatHeader);
+
+            long position = dataStart;
+            for (Run run : runs) {
+                if (inputs[run.source] == null) {
+                    inputs[run.source] = new RandomAccessFile(sources.get(run.source).getFile(), "r");
+                }
+                transferFully(inputs[run.source].getChannel(), run.offset, run.length, outChannel, position);
+                position += run.length;
+            }
+            outChannel.force(false);
+            success = true;
+        } finally {
+            for (RandomAccessFile input : inputs) {
+                if (input != null) {
+                    try {
+                        input.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            out.close();
+            if (!success && !temp.delete()) {
+                Log.w(TAG, "Failed to delete " + temp);
+            }
+        }
+        if (output.exists() && !output.delete()) {
+            throw new IOException("Cannot replace " + output);
+        }
+        if (!temp.renameTo(output)) {
+            throw new IOException("Cannot rename " + temp + " to " + output);
+        }
+
+        long durationMillis = trackDuration * 1000 / timescale;
+        Log.d(TAG, String.format("Exported %d samples (%d bytes, %d ms) from %d segments in %d ms",
+                samples.count, output.length(), durationMillis, sources.size(),
+                (System.nanoTime() - begin) / 1000000));
+        return new Result(output, clipStartMillis, durationMillis, samples.count, output.length());
+    }
+
+    private static void writeMoov(Mp4BoxWriter w, long startMillis, int timescale, long trackDuration,
+                                  int width, int height, List<byte[]> descriptions, Samples samples,
+                                  List<Run> runs, long dataStart, boolean wideOffsets) {
+        long creationTime = startMillis / 1000 + MP4_EPOCH_OFFSET_SECONDS;
+        long movieDuration = trackDuration * MOVIE_TIMESCALE / timescale;
+        boolean longTimes = movieDuration > 0xFFFFFFFFL || trackDuration > 0xFFFFFFFFL;
+        int version = longTimes ? 1 : 0;
+
+        w.start(Mp4Boxes.MOOV);
+
+        w.startFull(Mp4Boxes.MVHD, version, 0);
+        putTimes(w, version, creationTime);
+        w.putInt(MOVIE_TIMESCALE);
+        putDuration(w, version, movieDuration);
+        w.putInt(0x00010000).putShort(0x0100).putZeros(10);
+        w.putUnityMatrix().putZeros(24).putInt(2);
+        w.end();
+
+        w.start(Mp4Boxes.TRAK);
+        w.startFull(Mp4Boxes.TKHD, version, 0x3);
+        putTimes(w, version, creationTime);
+        w.putInt(1).putInt(0);
+        putDuration(w, version, movieDuration);
+        w.putZeros(8).putShort(0).putShort(0).putShort(0).putShort(0);
+        w.putUnityMatrix().putInt(width << 16).putInt(height << 16);
+        w.end();
+
+        w.start(Mp4Boxes.MDIA);
+        w.startFull(Mp4Boxes.MDHD, version, 0);
+        putTimes(w, version, creationTime);
+        w.putInt(timescale);
+        putDuration(w, version, trackDuration);
+        w.putShort(LANGUAGE_UND).putShort(0);
+        w.end();
+
+        w.startFull(Mp4Boxes.HDLR, 0, 0);
+        w.putInt(0).putInt(Mp4Boxes.VIDE).putZeros(12).putBytes("VideoHandler".getBytes()).putByte(0);
+        w.end();
+
+        w.start(Mp4Boxes.MINF);
+        w.startFull(Mp4Boxes.VMHD, 0, 1).putZeros(8).end();
+        w.start(Mp4Boxes.DINF);
+        w.startFull(Mp4Boxes.DREF, 0, 0).putInt(1);
+        w.startFull(Mp4Boxes.URL, 0, 1).end();
+        w.end();
+        w.end();
+
+        w.start(Mp4Boxes.STBL);
+        writeSampleTables(w, descriptions, samples, runs, dataStart, wideOffsets);
+        w.end();
+
+        w.end(); // minf
+        w.end(); // mdia
+        w.end(); // trak
+        w.end(); // moov
+    }
+
+    private static void writeSampleTables(Mp4BoxWriter w, List<byte[]> descriptions, Samples samples,
+                                          List<Run> runs, long dataStart, boolean wideOffsets) {
+        w.startFull(Mp4Boxes.STSD, 0, 0).putInt(descriptions.size());
+        for (byte[] entry : descriptions) {
+            w.putBytes(entry);
+        }
+        w.end();
+
+        // stts: 相同时长的样本合并为一项
+        w.startFull(Mp4Boxes.STTS, 0, 0);
+        int countAt = w.size();
+        w.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < samples.count; ) {
+            int j = i + 1;
+            while (j < samples.count && samples.durations[j] == samples.durations[i]) j++;
+            w.putInt(j - i).putInt(samples.durations[i]);
+            entries++;
+            i = j;
+        }
+        w.setInt(countAt, entries);
+        w.end();
+
+        boolean hasComposition = false;
+        boolean negativeComposition = false;
+        boolean allSync = true;
+        for (int i = 0; i < samples.count; i++) {
+            hasComposition |= samples.compositionOffsets[i] != 0;
+            negativeComposition |= samples.compositionOffsets[i] < 0;
+            allSync &= samples.sync[i];
+        }
+        if (hasComposition) {
+            w.startFull(Mp4Boxes.CTTS, negativeComposition ? 1 : 0, 0);
+            countAt = w.size();
+            w.putInt(0);
+            entries = 0;
+            for (int i = 0; i < samples.count; ) {
+                int j = i + 1;
+                while (j < samples.count && samples.compositionOffsets[j] == samples.compositionOffsets[i]) j++;
+                w.putInt(j - i).putInt(samples.compositionOffsets[i]);
+                entries++;
+                i = j;
+            }
+            w.setInt(countAt, entries);
+            w.end();
+        }
+
+        if (!allSync) {
+            w.startFull(Mp4Boxes.STSS, 0, 0);
+            countAt = w.size();
+            w.putInt(0);
+            entries = 0;
+            for (int i = 0; i < samples.count; i++) {
+                if (samples.sync[i]) {
+                    w.putInt(i + 1);
+                    entries++;
+                }
+            }
+            w.setInt(countAt, entries);
+            w.end();
+        }
+
+        w.startFull(Mp4Boxes.STSZ, 0, 0).putInt(0).putInt(samples.count);
+        for (int i = 0; i < samples.count; i++) {
+            w.putInt(samples.sizes[i]);
+        }
+        w.end();
+
+        // stsc: 每个 run 是一个 chunk，相邻且样本数和描述相同的 chunk 合并为一项
+        w.startFull(Mp4Boxes.STSC, 0, 0);
+        countAt = w.size();
+        w.putInt(0);
+        entries = 0;
+        Run previous = null;
+        for (int c = 0; c < runs.size(); c++) {
+            Run run = runs.get(c);
+            if (previous == null || previous.sampleCount != run.sampleCount
+                    || previous.descriptionIndex != run.descriptionIndex) {
+                w.putInt(c + 1).putInt(run.sampleCount).putInt(run.descriptionIndex);
+                entries++;
+            }
+            previous = run;
+        }
+        w.setInt(countAt, entries);
+        w.end();
+
+        w.startFull(wideOffsets ? Mp4Boxes.CO64 : Mp4Boxes.STCO, 0, 0).putInt(runs.size());
+        long offset = dataStart;
+        for (Run run : runs) {
+            if (wideOffsets) {
+                w.putLong(offset);
+            } else {
+                w.putInt((int) offset);
+            }
+            offset += run.length;
+        }
+        w.end();
+    }
+
+    private static byte[] buildFtyp() {
+        Mp4BoxWriter w = new Mp4BoxWriter(64);
+        w.start(Mp4Boxes.FTYP)
+                .putInt(Mp4Boxes.fourcc("isom")).putInt(0x200)
+                .putInt(Mp4Boxes.fourcc("isom")).putInt(Mp4Boxes.fourcc("iso2"))
+                .putInt(Mp4Boxes.fourcc("avc1")).putInt(Mp4Boxes.fourcc("mp41"))
+                .end();
+        return w.toByteArray();
+    }
+
+    private static void putTimes(Mp4BoxWriter w, int version, long time) {
+        if (version == 1) {
+            w.putLong(time).putLong(time);
+        } else {
+            w.putInt((int) time).putInt((int) time);
+        }
+    }
+
+    private static void putDuration(Mp4BoxWriter w, int version, long duration) {
+        if (version == 1) {
+            w.putLong(duration);
+        } else {
+            w.putInt((int) duration);
+        }
+    }
+
+    // 相同的样本描述（SPS/PPS 未变）复用同一个 stsd 项，返回从1开始的下标
+    private static int descriptionIndex(List<byte[]> descriptions, byte[] entry) {
+        for (int i = 0; i < descriptions.size(); i++) {
+            if (Arrays.equals(descriptions.get(i), entry)) {
+                return i + 1;
+            }
+        }
+        descriptions.add(entry);
+        return descriptions.size();
+    }
+
+    private static byte[] firstEntry(byte[] entries) {
+        if (entries.length < 8) {
+            return entries;
+        }
+        int size = ByteBuffer.wrap(entries).getInt(0);
+        return size >= 8 && size <= entries.length ? Arrays.copyOf(entries, size) : entries;
+    }
+
+    private static int rescale(int value, int from, int to) {
+        return from == to || from <= 0 ? value : (int) ((long) value * to / from);
+    }
+
+    private static void writeAll(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // transferTo 单次可能只传输一部分（某些内核上限为 2GB），循环直到传完
+    private static void transferFully(FileChannel in, long offset, long length,
+                                      FileChannel out, long position) throws IOException {
+        out.position(position);
+        long done = 0;
+        while (done < length) {
+            long transferred = in.transferTo(offset + done, length - done, out);
+            if (transferred <= 0) {
+                throw new IOException("Source ended early at " + (offset + done));
+            }
+            done += transferred;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.nvr.media;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+// 分片 MP4 写入器：文件头只含空样本表的 moov，之后每个 GOP 追加一个 moof+mdat，
+// 关闭时写入 mfra 便于定位最后一个分片。写入中途断电时已完成的分片仍然可以播放
+public class FragmentedMp4Writer implements Closeable {
+
+    public static final int TIMESCALE = 90000;
+
+    private static final long MP4_EPOCH_OFFSET_SECONDS = 2082844800L;
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int LANGUAGE_UND = 0x55C4;
+    private static final int TRACK_ID = 1;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    public static final class Sample {
+        // 4字节长度前缀格式的样本数据
+        public final byte[] data;
+        public final int offset;
+        public final int length;
+        // 录制端缓存 GOP 时先存显示时间，写出前换成解码时间
+        public long decodeTime;
+        public int duration;
+        // 显示时间减解码时间；有 B 帧时非0，可能为负
+        public int compositionOffset;
+        public final boolean sync;
+
+        public Sample(byte[] data, int offset, int length, long decodeTime, boolean sync) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.decodeTime = decodeTime;
+            this.sync = sync;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final Mp4BoxWriter boxWriter = new Mp4BoxWriter(4096);
+    private long position;
+    private int sequenceNumber;
+    private long firstDecodeTime = -1;
+    private long endDecodeTime;
+    // tfra 条目：每个分片的起始解码时间和 moof 偏移
+    private long[] fragmentTimes = new long[64];
+    private long[] fragmentOffsets = new long[64];
+    private int fragmentCount;
+    private boolean closed;
+    // 最近一次 writeFragment 中生成分片头所用的时间，供延迟统计区分封装和写入
+    private long lastMuxNanos;
+
+    public FragmentedMp4Writer(File file, byte[] sampleEntry, int width, int height,
+                               long creationTimeMillis) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        this.channel = raf.getChannel();
+        try {
+            writeHeader(sampleEntry, width, height, creationTimeMillis);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return position;
+    }
+
+    // 已写入分片覆盖的时长，单位为 TIMESCALE
+    public long getDuration() {
+        return firstDecodeTime < 0 ? 0 : endDecodeTime - firstDecodeTime;
+    }
+
+    private void writeHeader(byte[] sampleEntry, int width, int height, long creationTimeMillis) throws IOException {
+        boxWriter.reset();
+        buildHeader(boxWriter, sampleEntry, width, height, creationTimeMillis);
+        write(boxWriter.toByteBuffer());
+    }
+
+    // 单独的初始化段（ftyp+moov），直播分片打包时作为 EXT-X-MAP
+    public static byte[] buildInitSegment(byte[] sampleEntry, int width, int height, long creationTimeMillis) {
+        Mp4BoxWriter w = new Mp4BoxWriter(1024);
+        buildHeader(w, sampleEntry, width, height, creationTimeMillis);
+        return w.toByteArray();
+    }
+
+    // 把样本打包成内存中的一个完整分片（moof+mdat）
+    public static byte[] buildFragment(int sequenceNumber, List<Sample> samples) {
+        long dataSize = 0;
+        for (Sample sample : samples) {
+            dataSize += sample.length;
+        }
+        Mp4BoxWriter w = new Mp4BoxWriter(256 + 16 * samples.size());
+        buildFragmentHeader(w, sequenceNumber, samples, dataSize);
+        byte[] fragment = new byte[(int) (w.size() + dataSize)];
+        int position = w.size();
+        w.toByteBuffer().get(fragment, 0, position);
+        for (Sample sample : samples) {
+            System.arraycopy(sample.data, sample.offset, fragment, position, sample.length);
+            position += sample.length;
+        }
+        return fragment;
+    }
+
+    private static void buildHeader(Mp4BoxWriter w, byte[] sampleEntry, int width, int height, long creationTimeMillis) {
+        long creationTime = creationTimeMillis / 1000 + MP4_EPOCH_OFFSET_SECONDS;
+        w.start(Mp4Boxes.FTYP)
+                .putInt(Mp4Boxes.fourcc("iso6")).putInt(0)
+                .putInt(Mp4Boxes.fourcc("iso6")).putInt(Mp4Boxes.fourcc("isom"))
+                .putInt(Mp4Boxes.fourcc("mp41"))
+                .end();
+
+        w.start(Mp4Boxes.MOOV);
+        w.startFull(Mp4Boxes.MVHD, 0, 0);
+        w.putInt((int) creationTime).putInt((int) creationTime);
+        w.putInt(MOVIE_TIMESCALE).putInt(0);
+        w.putInt(0x00010000).putShort(0x0100).putZeros(10);
+        w.putUnityMatrix().putZeros(24).putInt(TRACK_ID + 1);
+        w.end();
+
+        w.start(Mp4Boxes.TRAK);
+        w.startFull(Mp4Boxes.TKHD, 0, 0x3);
+        w.putInt((int) creationTime).putInt((int) creationTime);
+        w.putInt(TRACK_ID).putInt(0).putInt(0);
+        w.putZeros(8).putShort(0).putShort(0).putShort(0).putShort(0);
+        w.putUnityMatrix().putInt(width << 16).putInt(height << 16);
+        w.end();
+
+        w.start(Mp4Boxes.MDIA);
+        w.startFull(Mp4Boxes.MDHD, 0, 0);
+        w.putInt((int) creationTime).putInt((int) creationTime);
+        w.putInt(TIMESCALE).putInt(0);
+        w.putShort(LANGUAGE_UND).putShort(0);
+        w.end();
+        w.startFull(Mp4Boxes.HDLR, 0, 0);
+        w.putInt(0).putInt(Mp4Boxes.VIDE).putZeros(12).putBytes("VideoHandler".getBytes()).putByte(0);
+        w.end();
+
+        w.start(Mp4Boxes.MINF);
+        w.startFull(Mp4Boxes.VMHD, 0, 1).putZeros(8).end();
+        w.start(Mp4Boxes.DINF);
+        w.startFull(Mp4Boxes.DREF, 0, 0).putInt(1);
+        w.startFull(Mp4Boxes.URL, 0, 1).end();
+        w.end();
+        w.end();
+        w.start(Mp4Boxes.STBL);
+        w.startFull(Mp4Boxes.STSD, 0, 0).putInt(1).putBytes(sampleEntry).end();
+        w.startFull(Mp4Boxes.STTS, 0, 0).putInt(0).end();
+        w.startFull(Mp4Boxes.STSC, 0, 0).putInt(0).end();
+        w.startFull(Mp4Boxes.STSZ, 0, 0).putInt(0).putInt(0).end();
+        w.startFull(Mp4Boxes.STCO, 0, 0).putInt(0).end();
+        w.end(); // stbl
+        w.end(); // minf
+        w.end(); // mdia
+        w.end(); // trak
+
+        w.start(Mp4Boxes.MVEX);
+        w.startFull(Mp4Boxes.TREX, 0, 0);
+        w.putInt(TRACK_ID).putInt(1).putInt(0).putInt(0).putInt(SAMPLE_FLAGS_NON_SYNC);
+        w.end();
+        w.end(); // mvex
+        w.end(); // moov
+    }
+
+    // 写出 moof 和 mdat 头，样本数据紧随其后
+    private static void buildFragmentHeader(Mp4BoxWriter w, int sequenceNumber, List<Sample> samples, long dataSize) {
+        long baseDecodeTime = samples.get(0).decodeTime;
+        w.start(Mp4Boxes.MOOF);
+        w.startFull(Mp4Boxes.MFHD, 0, 0).putInt(sequenceNumber).end();
+        w.start(Mp4Boxes.TRAF);
+        // default-base-is-moof：trun 的数据偏移相对 moof 起点
+        w.startFull(Mp4Boxes.TFHD, 0, 0x020000).putInt(TRACK_ID).end();
+        w.startFull(Mp4Boxes.TFDT, 1, 0).putLong(baseDecodeTime).end();
+        boolean hasComposition = false;
+        for (Sample sample : samples) {
+            hasComposition |= sample.compositionOffset != 0;
+        }
+        // 没有 B 帧时省略 composition offset 字段；有时用 version 1，偏移按有符号数解释
+        int trunFlags = 0x000001 | 0x000100 | 0x000200 | 0x000400 | (hasComposition ? 0x000800 : 0);
+        w.startFull(Mp4Boxes.TRUN, hasComposition ? 1 : 0, trunFlags);
+        w.putInt(samples.size());
+        int dataOffsetAt = w.size();
+        w.putInt(0);
+        for (Sample sample : samples) {
+            w.putInt(sample.duration).putInt(sample.length)
+                    .putInt(sample.sync ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            if (hasComposition) {
+                w.putInt(sample.compositionOffset);
+            }
+        }
+        w.end(); // trun
+        w.end(); // traf
+        w.end(); // moof
+        boolean largeMdat = dataSize + 8 > 0xFFFFFFFFL;
+        int mdatHeaderSize = largeMdat ? 16 : 8;
+        w.setInt(dataOffsetAt, w.size() + mdatHeaderSize);
+        if (largeMdat) {
+            w.putInt(1).putInt(Mp4Boxes.MDAT).putLong(dataSize + 16);
+        } else {
+            w.putInt((int) (dataSize + 8)).putInt(Mp4Boxes.MDAT);
+        }
+    }
+
+    public long getLastMuxNanos() {
+        return lastMuxNanos;
+    }
+
+    // 写入一个分片，返回第一个样本数据在文件中的绝对偏移
+    public long writeFragment(List<Sample> samples) throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+        if (samples.isEmpty()) {
+            return -1;
+        }
+        long baseDecodeTime = samples.get(0).decodeTime;
+        long dataSize = 0;
+        for (Sample sample : samples) {
+            dataSize += sample.length;
+        }
+
+        long muxStart = System.nanoTime();
+        Mp4BoxWriter w = boxWriter;
+        w.reset();
+        buildFragmentHeader(w, ++sequenceNumber, samples, dataSize);
+        lastMuxNanos = System.nanoTime() - muxStart;
+
+        long moofOffset = position;
+        long dataStart = moofOffset + w.size();
+        ByteBuffer[] buffers = new ByteBuffer[samples.size() + 1];
+        buffers[0] = w.toByteBuffer();
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            buffers[i + 1] = ByteBuffer.wrap(sample.data, sample.offset, sample.length);
+        }
+        // 一个分片的头和所有样本用一次聚集写完成
+        long total = buffers[0].remaining() + dataSize;
+        long written = 0;
+        channel.position(position);
+        while (written < total) {
+            written += channel.write(buffers);
+        }
+        position += total;
+
+        if (firstDecodeTime < 0) {
+            firstDecodeTime = baseDecodeTime;
+        }
+        Sample last = samples.get(samples.size() - 1);
+        endDecodeTime = last.decodeTime + last.duration;
+        addFragmentEntry(baseDecodeTime, moofOffset);
+        return dataStart;
+    }
+
+    private void addFragmentEntry(long time, long offset) {
+        if (fragmentCount == fragmentTimes.length) {
+            fragmentTimes = Arrays.copyOf(fragmentTimes, fragmentCount * 2);
+            fragmentOffsets = Arrays.copyOf(fragmentOffsets, fragmentCount * 2);
+        }
+        fragmentTimes[fragmentCount] = time;
+        fragmentOffsets[fragmentCount] = offset;
+        fragmentCount++;
+    }
+
+    // 写入 mfra（tfra + mfro）并关闭文件
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (fragmentCount > 0) {
+                Mp4BoxWriter w = boxWriter;
+                w.reset();
+                w.start(Mp4Boxes.MFRA);
+                w.startFull(Mp4Boxes.TFRA, 1, 0).putInt(TRACK_ID).putInt(0).putInt(fragmentCount);
+                for (int i = 0; i < fragmentCount; i++) {
+                    // traf/trun/sample 序号都是1字节长度，均为第一个
+                    w.putLong(fragmentTimes[i]).putLong(fragmentOffsets[i]).putByte(1).putByte(1).putByte(1);
+                }
+                w.end();
+                w.startFull(Mp4Boxes.MFRO, 0, 0).putInt(0).end();
+                w.end(); // mfra
+                // mfra 的大小在 end 时才回填，mfro 中记录的是整个 mfra 的大小
+                w.setInt(w.size() - 4, w.size());
+                write(w.toByteBuffer());
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.nvr.media;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// 录制段旁路关键帧索引的只读视图，通过内存映射按时间戳二分查找，无需解析MP4
+//
+// 文件格式（大端）:
+//   头部32字节: magic(4) version(2) recordSize(2) flags(4) baseOffset(8) startTimeMillis(8) reserved(4)
+//   记录24字节: ptsUs(8) offset(8) size(4) reserved(4)
+public class KeyframeIndex implements Closeable {
+
+    public static final String EXTENSION = ".kfi";
+
+    static final int MAGIC = 0x4E564B49; // "NVKI"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    static final int FLAGS_OFFSET = 8;
+    static final int FLAG_BASE_PENDING = 1;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final long baseOffset;
+    private final long startTimeMillis;
+    private final boolean basePending;
+
+    private KeyframeIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a keyframe index");
+        }
+        int version = buffer.getShort(4);
+        int recordSize = buffer.getShort(6);
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException("Unsupported keyframe index version " + version);
+        }
+        this.basePending = (buffer.getInt(FLAGS_OFFSET) & FLAG_BASE_PENDING) != 0;
+        this.baseOffset = buffer.getLong(12);
+        this.startTimeMillis = buffer.getLong(20);
+        // 崩溃时最后一条记录可能只写了一半，直接忽略
+        this.count = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    public static KeyframeIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new KeyframeIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // 映射在通道关闭后仍然有效
+            raf.close();
+        }
+    }
+
+    // 录制文件对应的索引文件: xxx.mp4 -> xxx.kfi
+    public static File sidecarFor(File mediaFile) {
+        String name = mediaFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(mediaFile.getParentFile(), base + EXTENSION);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    // 偏移量是否已经是文件绝对偏移（录制中断的段可能尚未按成品文件重写）
+    public boolean hasAbsoluteOffsets() {
+        return !basePending;
+    }
+
+    public long getPtsUs(int index) {
+        return buffer.getLong(recordPosition(index));
+    }
+
+    public long getOffset(int index) {
+        return baseOffset + buffer.getLong(recordPosition(index) + 8);
+    }
+
+    public int getSize(int index) {
+        return buffer.getInt(recordPosition(index) + 16);
+    }
+
+    // 返回 pts <= ptsUs 的最后一个关键帧下标；ptsUs 早于第一个关键帧时返回0，索引为空时返回-1
+    public int floorIndex(long ptsUs) {
+        if (count == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getPtsUs(mid) <= ptsUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // 返回 pts >= ptsUs 的第一个关键帧下标，不存在时返回-1
+    public int ceilingIndex(long ptsUs) {
+        int floor = floorIndex(ptsUs);
+        if (floor < 0) {
+            return -1;
+        }
+        if (getPtsUs(floor) >= ptsUs) {
+            return floor;
+        }
+        return floor + 1 < count ? floor + 1 : -1;
+    }
+
+    @Override
+    public void close() {
+        // MappedByteBuffer 由GC回收，这里无需额外操作
+    }
+
+    private int recordPosition(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + count);
+        }
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+}
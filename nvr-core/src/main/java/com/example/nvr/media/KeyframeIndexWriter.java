@@ -0,0 +1,114 @@
+package com.example.nvr.media;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// 关键帧索引写入器：录制时每遇到一个IDR帧就追加一条 (pts, 字节偏移, 大小) 记录
+public class KeyframeIndexWriter implements Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(KeyframeIndex.RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+    private long position = KeyframeIndex.HEADER_SIZE;
+    private int count;
+    private long lastPtsUs = Long.MIN_VALUE;
+    private boolean closed;
+
+    // baseOffset < 0 表示记录中的偏移只是占位，需要在段关闭时通过 resolveFromMp4 重写
+    public KeyframeIndexWriter(File file, long startTimeMillis, long baseOffset) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        this.channel = raf.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(KeyframeIndex.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(KeyframeIndex.MAGIC);
+        header.putShort((short) KeyframeIndex.VERSION);
+        header.putShort((short) KeyframeIndex.RECORD_SIZE);
+        header.putInt(baseOffset < 0 ? KeyframeIndex.FLAG_BASE_PENDING : 0);
+        header.putLong(Math.max(baseOffset, 0));
+        header.putLong(startTimeMillis);
+        header.putInt(0);
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // 追加一条关键帧记录；pts 必须单调递增，乱序的记录会被忽略
+    public void append(long ptsUs, long offset, int size) throws IOException {
+        if (closed || ptsUs <= lastPtsUs) {
+            return;
+        }
+        record.clear();
+        record.putLong(ptsUs);
+        record.putLong(offset);
+        record.putInt(size);
+        record.putInt(0);
+        record.flip();
+        writeFully(record, position);
+        position += KeyframeIndex.RECORD_SIZE;
+        lastPtsUs = ptsUs;
+        count++;
+    }
+
+    // 段关闭后按成品文件的样本表（stco/stsz/stss）重写全部记录，偏移变为文件绝对偏移。
+    // MediaMuxer 会把起始码转换为长度前缀，还可能在 mdat 前预留 moov/free 空间，
+    // 录制时按输入累计的偏移只能作为占位，不能直接补一个 mdat 起点了事
+    public void resolveFromMp4(File mp4File) throws IOException {
+        if (closed) {
+            return;
+        }
+        Mp4SampleTable table = Mp4SampleTable.load(mp4File);
+        int timescale = table.getTimescale();
+        if (timescale <= 0) {
+            throw new IOException("Invalid timescale in " + mp4File.getName());
+        }
+        position = KeyframeIndex.HEADER_SIZE;
+        count = 0;
+        lastPtsUs = Long.MIN_VALUE;
+        for (int i = 0; i < table.getSampleCount(); i++) {
+            if (table.isSync(i)) {
+                long ptsUs = (table.getDecodeTime(i) + table.getCompositionOffset(i)) * 1000000L / timescale;
+                append(ptsUs, table.getOffset(i), table.getSize(i));
+            }
+        }
+        channel.truncate(position);
+        ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.BIG_ENDIAN);
+        patch.putInt(0);
+        patch.putLong(0);
+        patch.flip();
+        writeFully(patch, KeyframeIndex.FLAGS_OFFSET);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long at) throws IOException {
+        long pos = at;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+}
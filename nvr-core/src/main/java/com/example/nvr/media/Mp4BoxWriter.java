@@ -0,0 +1,140 @@
+package com.example.nvr.media;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// 在内存中构建 MP4 盒子，start/end 成对调用，end 时回填盒子大小
+public class Mp4BoxWriter {
+
+    private byte[] data;
+    private int position;
+    private int[] openBoxes = new int[16];
+    private int depth;
+
+    public Mp4BoxWriter() {
+        this(1024);
+    }
+
+    public Mp4BoxWriter(int initialCapacity) {
+        data = new byte[Math.max(64, initialCapacity)];
+    }
+
+    public Mp4BoxWriter start(int type) {
+        if (depth == openBoxes.length) {
+            openBoxes = Arrays.copyOf(openBoxes, depth * 2);
+        }
+        openBoxes[depth++] = position;
+        putInt(0);
+        putInt(type);
+        return this;
+    }
+
+    public Mp4BoxWriter startFull(int type, int version, int flags) {
+        start(type);
+        putInt((version << 24) | (flags & 0xFFFFFF));
+        return this;
+    }
+
+    public Mp4BoxWriter end() {
+        int start = openBoxes[--depth];
+        int size = position - start;
+        data[start] = (byte) (size >>> 24);
+        data[start + 1] = (byte) (size >>> 16);
+        data[start + 2] = (byte) (size >>> 8);
+        data[start + 3] = (byte) size;
+        return this;
+    }
+
+    public Mp4BoxWriter putByte(int value) {
+        ensure(1);
+        data[position++] = (byte) value;
+        return this;
+    }
+
+    public Mp4BoxWriter putShort(int value) {
+        ensure(2);
+        data[position++] = (byte) (value >>> 8);
+        data[position++] = (byte) value;
+        return this;
+    }
+
+    public Mp4BoxWriter putInt(int value) {
+        ensure(4);
+        data[position++] = (byte) (value >>> 24);
+        data[position++] = (byte) (value >>> 16);
+        data[position++] = (byte) (value >>> 8);
+        data[position++] = (byte) value;
+        return this;
+    }
+
+    public Mp4BoxWriter putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+        return this;
+    }
+
+    public Mp4BoxWriter putBytes(byte[] bytes) {
+        return putBytes(bytes, 0, bytes.length);
+    }
+
+    public Mp4BoxWriter putBytes(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, data, position, length);
+        position += length;
+        return this;
+    }
+
+    public Mp4BoxWriter putBytes(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        ensure(length);
+        buffer.duplicate().get(data, position, length);
+        position += length;
+        return this;
+    }
+
+    public Mp4BoxWriter putZeros(int count) {
+        ensure(count);
+        Arrays.fill(data, position, position + count, (byte) 0);
+        position += count;
+        return this;
+    }
+
+    // 3x3 单位变换矩阵（mvhd/tkhd 使用）
+    public Mp4BoxWriter putUnityMatrix() {
+        putInt(0x00010000).putInt(0).putInt(0);
+        putInt(0).putInt(0x00010000).putInt(0);
+        putInt(0).putInt(0).putInt(0x40000000);
+        return this;
+    }
+
+    // 在已写入的位置回填一个int（例如 trun 中的 data_offset）
+    public void setInt(int at, int value) {
+        data[at] = (byte) (value >>> 24);
+        data[at + 1] = (byte) (value >>> 16);
+        data[at + 2] = (byte) (value >>> 8);
+        data[at + 3] = (byte) value;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public void reset() {
+        position = 0;
+        depth = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, position);
+    }
+
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(data, 0, position);
+    }
+
+    private void ensure(int extra) {
+        if (position + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, position + extra));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.nvr.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// ISO-BMFF (MP4) 盒子的基础读取工具
+public final class Mp4Boxes {
+
+    public static final int FTYP = fourcc("ftyp");
+    public static final int MOOV = fourcc("moov");
+    public static final int MDAT = fourcc("mdat");
+    public static final int MOOF = fourcc("moof");
+    public static final int FREE = fourcc("free");
+    public static final int MVHD = fourcc("mvhd");
+    public static final int MVEX = fourcc("mvex");
+    public static final int MEHD = fourcc("mehd");
+    public static final int TREX = fourcc("trex");
+    public static final int TRAK = fourcc("trak");
+    public static final int TKHD = fourcc("tkhd");
+    public static final int MDIA = fourcc("mdia");
+    public static final int MDHD = fourcc("mdhd");
+    public static final int HDLR = fourcc("hdlr");
+    public static final int MINF = fourcc("minf");
+    public static final int VMHD = fourcc("vmhd");
+    public static final int DINF = fourcc("dinf");
+    public static final int DREF = fourcc("dref");
+    public static final int URL = fourcc("url ");
+    public static final int STBL = fourcc("stbl");
+    public static final int STSD = fourcc("stsd");
+    public static final int STTS = fourcc("stts");
+    public static final int CTTS = fourcc("ctts");
+    public static final int STSS = fourcc("stss");
+    public static final int STSZ = fourcc("stsz");
+    public static final int STZ2 = fourcc("stz2");
+    public static final int STSC = fourcc("stsc");
+    public static final int STCO = fourcc("stco");
+    public static final int CO64 = fourcc("co64");
+    public static final int MFHD = fourcc("mfhd");
+    public static final int TRAF = fourcc("traf");
+    public static final int TFHD = fourcc("tfhd");
+    public static final int TFDT = fourcc("tfdt");
+    public static final int TRUN = fourcc("trun");
+    public static final int MFRA = fourcc("mfra");
+    public static final int TFRA = fourcc("tfra");
+    public static final int MFRO = fourcc("mfro");
+    public static final int VIDE = fourcc("vide");
+    public static final int AVC1 = fourcc("avc1");
+    public static final int AVCC = fourcc("avcC");
+    public static final int HVC1 = fourcc("hvc1");
+    public static final int HEV1 = fourcc("hev1");
+    public static final int HVCC = fourcc("hvcC");
+
+    private Mp4Boxes() {
+    }
+
+    // 文件中一个顶层盒子的位置信息
+    public static final class Box {
+        public final int type;
+        public final long offset;
+        public final int headerSize;
+        public final long size;
+
+        Box(int type, long offset, int headerSize, long size) {
+            this.type = type;
+            this.offset = offset;
+            this.headerSize = headerSize;
+            this.size = size;
+        }
+
+        public long payloadOffset() {
+            return offset + headerSize;
+        }
+
+        public long payloadSize() {
+            return size - headerSize;
+        }
+
+        public long end() {
+            return offset + size;
+        }
+    }
+
+    public static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    public static String typeName(int type) {
+        return new String(new char[]{
+                (char) ((type >>> 24) & 0xFF), (char) ((type >>> 16) & 0xFF),
+                (char) ((type >>> 8) & 0xFF), (char) (type & 0xFF)});
+    }
+
+    // 读取 position 处的盒子头；文件末尾或盒子头损坏时返回null
+    public static Box readBoxHeader(FileChannel channel, long position, ByteBuffer scratch) throws IOException {
+        long fileSize = channel.size();
+        if (position + 8 > fileSize) {
+            return null;
+        }
+        scratch.clear();
+        readFully(channel, scratch, position, 8);
+        long size = scratch.getInt(0) & 0xFFFFFFFFL;
+        int type = scratch.getInt(4);
+        int headerSize = 8;
+        if (size == 1) {
+            if (position + 16 > fileSize) {
+                return null;
+            }
+            readFully(channel, scratch, position + 8, 8);
+            size = scratch.getLong(8);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = fileSize - position;
+        }
+        if (size < headerSize) {
+            return null;
+        }
+        return new Box(type, position, headerSize, size);
+    }
+
+    // 只读取盒子头遍历全部顶层盒子，不读取负载
+    public static List<Box> listTopLevelBoxes(FileChannel channel) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long position = 0;
+        Box box;
+        while ((box = readBoxHeader(channel, position, scratch)) != null) {
+            boxes.add(box);
+            position = box.end();
+        }
+        return boxes;
+    }
+
+    // 按顺序遍历顶层盒子，返回第一个指定类型盒子的负载起始偏移，找不到返回-1
+    public static long findTopLevelPayload(FileChannel channel, int type) throws IOException {
+        Box box = findTopLevelBox(channel, type);
+        return box != null ? box.payloadOffset() : -1;
+    }
+
+    public static Box findTopLevelBox(FileChannel channel, int type) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long position = 0;
+        Box box;
+        while ((box = readBoxHeader(channel, position, scratch)) != null) {
+            if (box.type == type) {
+                return box;
+            }
+            position = box.end();
+        }
+        return null;
+    }
+
+    // 把盒子负载读入堆内存，返回的缓冲区 position=0
+    public static ByteBuffer readPayload(FileChannel channel, Box box) throws IOException {
+        if (box.payloadSize() > Integer.MAX_VALUE) {
+            throw new IOException("Box too large: " + typeName(box.type));
+        }
+        ByteBuffer payload = ByteBuffer.allocate((int) box.payloadSize());
+        readFully(channel, payload, box.payloadOffset(), payload.capacity());
+        payload.flip();
+        return payload;
+    }
+
+    // 在容器负载（从 position 开始的子盒子序列）中查找第一个指定类型的子盒子，返回其负载切片
+    public static ByteBuffer findChild(ByteBuffer container, int type) {
+        int position = container.position();
+        int limit = container.limit();
+        while (position + 8 <= limit) {
+            long size = container.getInt(position) & 0xFFFFFFFFL;
+            int childType = container.getInt(position + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                size = container.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = limit - position;
+            }
+            if (size < headerSize || position + size > limit) {
+                return null;
+            }
+            if (childType == type) {
+                return slice(container, position + headerSize, (int) size - headerSize);
+            }
+            position += (int) size;
+        }
+        return null;
+    }
+
+    public static List<ByteBuffer> findChildren(ByteBuffer container, int type) {
+        List<ByteBuffer> children = new ArrayList<>();
+        int position = container.position();
+        int limit = container.limit();
+        while (position + 8 <= limit) {
+            long size = container.getInt(position) & 0xFFFFFFFFL;
+            int childType = container.getInt(position + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                size = container.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = limit - position;
+            }
+            if (size < headerSize || position + size > limit) {
+                break;
+            }
+            if (childType == type) {
+                children.add(slice(container, position + headerSize, (int) size - headerSize));
+            }
+            position += (int) size;
+        }
+        return children;
+    }
+
+    // 按路径逐级查找，例如 findPath(moov, TRAK, MDIA, MINF, STBL)
+    public static ByteBuffer findPath(ByteBuffer container, int... types) {
+        ByteBuffer current = container;
+        for (int type : types) {
+            if (current == null) {
+                return null;
+            }
+            current = findChild(current, type);
+        }
+        return current;
+    }
+
+    public static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(offset + length);
+        duplicate.position(offset);
+        return duplicate.slice();
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        int start = buffer.position();
+        buffer.limit(start + length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position() - start);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position() - start));
+            }
+        }
+    }
+}
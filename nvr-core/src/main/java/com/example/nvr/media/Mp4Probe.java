@@ -0,0 +1,244 @@
+package com.example.nvr.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// 只读取头部信息的 MP4 探测器：普通文件读 moov/mvhd/tkhd/stsd，分片文件读 mfra 或首尾 moof
+// moov 通过内存映射访问，只有实际读取的盒子头所在的页会被加载，大样本表不会被读入
+public final class Mp4Probe {
+
+    private static final long MP4_EPOCH_OFFSET_SECONDS = 2082844800L;
+    // 没有 mfra 时为了找到最后一个 moof 最多遍历的顶层盒子数
+    private static final int MAX_SCANNED_BOXES = 1 << 16;
+
+    private Mp4Probe() {
+    }
+
+    public static final class Info {
+        // mvhd 中的创建时间（Unix 毫秒），未设置时为0
+        public long creationTimeMillis;
+        public long durationMillis;
+        public int width;
+        public int height;
+        // 样本描述类型，例如 avc1、hvc1、hev1
+        public String codec = "";
+        public boolean fragmented;
+    }
+
+    public static Info probe(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return probe(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static Info probe(FileChannel channel) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        Mp4Boxes.Box moovBox = null;
+        Mp4Boxes.Box firstMoof = null;
+        long position = 0;
+        Mp4Boxes.Box box;
+        // 只遍历到 moov 和第一个 moof（普通文件的 moov 可能在 mdat 之后，需要跳过 mdat）
+        while ((box = Mp4Boxes.readBoxHeader(channel, position, scratch)) != null) {
+            if (box.type == Mp4Boxes.MOOV) {
+                moovBox = box;
+            } else if (box.type == Mp4Boxes.MOOF) {
+                firstMoof = box;
+                break;
+            }
+            position = box.end();
+        }
+        if (moovBox == null) {
+            throw new IOException("No moov box");
+        }
+        if (moovBox.end() > channel.size()) {
+            throw new IOException("Truncated moov box");
+        }
+
+        Info info = new Info();
+        MappedByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, moovBox.payloadOffset(), moovBox.payloadSize());
+        int movieTimescale = readMovieHeader(Mp4Boxes.findChild(moov, Mp4Boxes.MVHD), info);
+        int trackId = -1;
+        int trackTimescale = 0;
+        for (ByteBuffer trak : Mp4Boxes.findChildren(moov, Mp4Boxes.TRAK)) {
+            ByteBuffer hdlr = Mp4Boxes.findPath(trak, Mp4Boxes.MDIA, Mp4Boxes.HDLR);
+            if (hdlr == null || hdlr.remaining() < 12 || hdlr.getInt(8) != Mp4Boxes.VIDE) {
+                continue;
+            }
+            trackId = readTrackHeader(Mp4Boxes.findChild(trak, Mp4Boxes.TKHD), info);
+            ByteBuffer mdhd = Mp4Boxes.findPath(trak, Mp4Boxes.MDIA, Mp4Boxes.MDHD);
+            if (mdhd != null) {
+                trackTimescale = mdhd.getInt((mdhd.get(0) & 0xFF) == 1 ? 20 : 12);
+            }
+            ByteBuffer stsd = Mp4Boxes.findPath(trak, Mp4Boxes.MDIA, Mp4Boxes.MINF, Mp4Boxes.STBL, Mp4Boxes.STSD);
+            if (stsd != null && stsd.remaining() >= 16) {
+                info.codec = Mp4Boxes.typeName(stsd.getInt(12));
+            }
+            break;
+        }
+
+        ByteBuffer mvex = Mp4Boxes.findChild(moov, Mp4Boxes.MVEX);
+        info.fragmented = mvex != null;
+        if (info.fragmented && info.durationMillis == 0) {
+            ByteBuffer mehd = Mp4Boxes.findChild(mvex, Mp4Boxes.MEHD);
+            if (mehd != null && movieTimescale > 0) {
+                long duration = (mehd.get(0) & 0xFF) == 1 ? mehd.getLong(4) : mehd.getInt(4) & 0xFFFFFFFFL;
+                info.durationMillis = duration * 1000 / movieTimescale;
+            }
+            if (info.durationMillis == 0 && firstMoof != null && trackTimescale > 0) {
+                info.durationMillis = fragmentedDuration(channel, firstMoof, trackId, mvex) * 1000 / trackTimescale;
+            }
+        }
+        return info;
+    }
+
+    private static int readMovieHeader(ByteBuffer mvhd, Info info) throws IOException {
+        if (mvhd == null) {
+            throw new IOException("Missing mvhd");
+        }
+        boolean v1 = (mvhd.get(0) & 0xFF) == 1;
+        long creation = v1 ? mvhd.getLong(4) : mvhd.getInt(4) & 0xFFFFFFFFL;
+        int timescale = mvhd.getInt(v1 ? 20 : 12);
+        long duration = v1 ? mvhd.getLong(24) : mvhd.getInt(16) & 0xFFFFFFFFL;
+        if (creation > MP4_EPOCH_OFFSET_SECONDS) {
+            info.creationTimeMillis = (creation - MP4_EPOCH_OFFSET_SECONDS) * 1000;
+        }
+        // 分片文件 mvhd 的时长通常为0或全1
+        if (timescale > 0 && duration != 0xFFFFFFFFL && duration != -1L) {
+            info.durationMillis = duration * 1000 / timescale;
+        }
+        return timescale;
+    }
+
+    private static int readTrackHeader(ByteBuffer tkhd, Info info) {
+        if (tkhd == null) {
+            return -1;
+        }
+        boolean v1 = (tkhd.get(0) & 0xFF) == 1;
+        int sizeOffset = v1 ? 88 : 76;
+        if (tkhd.remaining() >= sizeOffset + 8) {
+            info.width = tkhd.getInt(sizeOffset) >>> 16;
+            info.height = tkhd.getInt(sizeOffset + 4) >>> 16;
+        }
+        return tkhd.getInt(v1 ? 20 : 12);
+    }
+
+    // 分片文件时长 = 最后一个 moof 的 tfdt + 该分片样本时长 - 第一个 moof 的 tfdt
+    private static long fragmentedDuration(FileChannel channel, Mp4Boxes.Box firstMoof, int trackId,
+                                           ByteBuffer mvex) throws IOException {
+        int defaultDuration = 0;
+        for (ByteBuffer trex : Mp4Boxes.findChildren(mvex, Mp4Boxes.TREX)) {
+            if (trex.getInt(4) == trackId) {
+                defaultDuration = trex.getInt(12);
+            }
+        }
+        Mp4Boxes.Box lastMoof = findLastMoof(channel, firstMoof);
+        long[] first = fragmentTimes(channel, firstMoof, trackId, defaultDuration);
+        long[] last = lastMoof.offset == firstMoof.offset ? first
+                : fragmentTimes(channel, lastMoof, trackId, defaultDuration);
+        if (first == null || last == null) {
+            return 0;
+        }
+        return Math.max(0, last[0] + last[1] - first[0]);
+    }
+
+    // 优先通过文件末尾的 mfro -> mfra -> tfra 直接定位最后一个 moof，否则逐个读取顶层盒子头
+    private static Mp4Boxes.Box findLastMoof(FileChannel channel, Mp4Boxes.Box firstMoof) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long size = channel.size();
+        if (size >= 16) {
+            scratch.clear();
+            Mp4Boxes.readFully(channel, scratch, size - 16, 16);
+            if (scratch.getInt(4) == Mp4Boxes.MFRO) {
+                long mfraOffset = size - (scratch.getInt(12) & 0xFFFFFFFFL);
+                Mp4Boxes.Box mfra = Mp4Boxes.readBoxHeader(channel, mfraOffset, scratch);
+                if (mfra != null && mfra.type == Mp4Boxes.MFRA) {
+                    long moofOffset = lastTfraMoofOffset(Mp4Boxes.readPayload(channel, mfra));
+                    Mp4Boxes.Box moof = moofOffset > 0 ? Mp4Boxes.readBoxHeader(channel, moofOffset, scratch) : null;
+                    if (moof != null && moof.type == Mp4Boxes.MOOF) {
+                        return moof;
+                    }
+                }
+            }
+        }
+
+        Mp4Boxes.Box last = firstMoof;
+        long position = firstMoof.end();
+        Mp4Boxes.Box box;
+        for (int i = 0; i < MAX_SCANNED_BOXES && (box = Mp4Boxes.readBoxHeader(channel, position, scratch)) != null; i++) {
+            if (box.type == Mp4Boxes.MOOF && box.end() <= size) {
+                last = box;
+            }
+            position = box.end();
+        }
+        return last;
+    }
+
+    private static long lastTfraMoofOffset(ByteBuffer mfra) {
+        long result = -1;
+        for (ByteBuffer tfra : Mp4Boxes.findChildren(mfra, Mp4Boxes.TFRA)) {
+            boolean v1 = (tfra.get(0) & 0xFF) == 1;
+            int lengths = tfra.getInt(8);
+            int entryCount = tfra.getInt(12);
+            if (entryCount == 0) {
+                continue;
+            }
+            int entrySize = (v1 ? 16 : 8) + ((lengths >> 4) & 3) + 1 + ((lengths >> 2) & 3) + 1 + (lengths & 3) + 1;
+            int entry = 16 + (entryCount - 1) * entrySize;
+            if (entry + entrySize > tfra.limit()) {
+                continue;
+            }
+            long moofOffset = v1 ? tfra.getLong(entry + 8) : tfra.getInt(entry + 4) & 0xFFFFFFFFL;
+            result = Math.max(result, moofOffset);
+        }
+        return result;
+    }
+
+    // 返回 {baseMediaDecodeTime, 该分片内样本总时长}，没有目标轨道时返回null
+    private static long[] fragmentTimes(FileChannel channel, Mp4Boxes.Box moofBox, int trackId,
+                                        int defaultDuration) throws IOException {
+        ByteBuffer moof = Mp4Boxes.readPayload(channel, moofBox);
+        for (ByteBuffer traf : Mp4Boxes.findChildren(moof, Mp4Boxes.TRAF)) {
+            ByteBuffer tfhd = Mp4Boxes.findChild(traf, Mp4Boxes.TFHD);
+            if (tfhd == null || (trackId >= 0 && tfhd.getInt(4) != trackId)) {
+                continue;
+            }
+            int tfhdFlags = tfhd.getInt(0) & 0xFFFFFF;
+            int p = 8;
+            if ((tfhdFlags & 0x1) != 0) p += 8;
+            if ((tfhdFlags & 0x2) != 0) p += 4;
+            int sampleDuration = (tfhdFlags & 0x8) != 0 ? tfhd.getInt(p) : defaultDuration;
+
+            ByteBuffer tfdt = Mp4Boxes.findChild(traf, Mp4Boxes.TFDT);
+            long decodeTime = 0;
+            if (tfdt != null) {
+                decodeTime = (tfdt.get(0) & 0xFF) == 1 ? tfdt.getLong(4) : tfdt.getInt(4) & 0xFFFFFFFFL;
+            }
+            long total = 0;
+            for (ByteBuffer trun : Mp4Boxes.findChildren(traf, Mp4Boxes.TRUN)) {
+                int flags = trun.getInt(0) & 0xFFFFFF;
+                int count = trun.getInt(4);
+                if ((flags & 0x100) == 0) {
+                    total += (long) count * sampleDuration;
+                    continue;
+                }
+                int q = 8;
+                if ((flags & 0x1) != 0) q += 4;
+                if ((flags & 0x4) != 0) q += 4;
+                int stride = 4 + ((flags & 0x200) != 0 ? 4 : 0) + ((flags & 0x400) != 0 ? 4 : 0)
+                        + ((flags & 0x800) != 0 ? 4 : 0);
+                for (int i = 0; i < count; i++) {
+                    total += trun.getInt(q + i * stride) & 0xFFFFFFFFL;
+                }
+            }
+            return new long[]{decodeTime, total};
+        }
+        return null;
+    }
+}
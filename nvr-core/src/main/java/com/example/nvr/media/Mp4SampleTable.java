@@ -0,0 +1,424 @@
+package com.example.nvr.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// MP4 文件中第一条视频轨道的完整样本表，支持普通 MP4（moov/stbl）和分片 MP4（moof/trun）
+public class Mp4SampleTable {
+
+    private static final int SAMPLE_NON_SYNC = 0x10000;
+
+    private final File file;
+    private int timescale;
+    private int width;
+    private int height;
+    // stsd 负载中 entry_count 之后的全部样本描述（原样复制到导出文件）
+    private byte[] sampleDescriptions;
+    private int sampleDescriptionCount;
+    private int sampleCount;
+    private long[] offsets = new long[0];
+    private int[] sizes = new int[0];
+    private long[] decodeTimes = new long[0];
+    private int[] durations = new int[0];
+    private int[] compositionOffsets = new int[0];
+    private boolean[] sync = new boolean[0];
+
+    private Mp4SampleTable(File file) {
+        this.file = file;
+    }
+
+    public static Mp4SampleTable load(File file) throws IOException {
+        Mp4SampleTable table = new Mp4SampleTable(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            table.read(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+        return table;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getTimescale() {
+        return timescale;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getSampleDescriptions() {
+        return sampleDescriptions;
+    }
+
+    public int getSampleDescriptionCount() {
+        return sampleDescriptionCount;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getOffset(int sample) {
+        return offsets[sample];
+    }
+
+    public int getSize(int sample) {
+        return sizes[sample];
+    }
+
+    public long getDecodeTime(int sample) {
+        return decodeTimes[sample];
+    }
+
+    public int getDuration(int sample) {
+        return durations[sample];
+    }
+
+    public int getCompositionOffset(int sample) {
+        return compositionOffsets[sample];
+    }
+
+    public boolean isSync(int sample) {
+        return sync[sample];
+    }
+
+    // 轨道总时长（轨道时间单位）
+    public long getDuration() {
+        if (sampleCount == 0) {
+            return 0;
+        }
+        return decodeTimes[sampleCount - 1] + durations[sampleCount - 1] - decodeTimes[0];
+    }
+
+    public long getDurationMillis() {
+        return timescale > 0 ? getDuration() * 1000 / timescale : 0;
+    }
+
+    // 相对第一个样本的时间（毫秒）
+    public long getSampleTimeMillis(int sample) {
+        return timescale > 0 ? (decodeTimes[sample] - decodeTimes[0]) * 1000 / timescale : 0;
+    }
+
+    // 返回时间 <= timeMillis 的最后一个同步样本，没有时返回0
+    public int syncSampleAtOrBefore(long timeMillis) {
+        int result = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            if (getSampleTimeMillis(i) > timeMillis) {
+                break;
+            }
+            if (sync[i]) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    // 返回第一个时间 >= timeMillis 的样本下标，超出末尾时返回 sampleCount
+    public int sampleAtOrAfter(long timeMillis) {
+        int low = 0;
+        int high = sampleCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getSampleTimeMillis(mid) < timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void read(FileChannel channel) throws IOException {
+        Mp4Boxes.Box moovBox = Mp4Boxes.findTopLevelBox(channel, Mp4Boxes.MOOV);
+        if (moovBox == null) {
+            throw new IOException("No moov box in " + file.getName());
+        }
+        ByteBuffer moov = Mp4Boxes.readPayload(channel, moovBox);
+        ByteBuffer trak = findVideoTrack(moov);
+        if (trak == null) {
+            throw new IOException("No video track in " + file.getName());
+        }
+        int trackId = readTrackHeader(Mp4Boxes.findChild(trak, Mp4Boxes.TKHD));
+        ByteBuffer mdhd = Mp4Boxes.findPath(trak, Mp4Boxes.MDIA, Mp4Boxes.MDHD);
+        if (mdhd == null) {
+            throw new IOException("Missing mdhd");
+        }
+        int version = mdhd.get(0) & 0xFF;
+        timescale = mdhd.getInt(version == 1 ? 20 : 12);
+
+        ByteBuffer stbl = Mp4Boxes.findPath(trak, Mp4Boxes.MDIA, Mp4Boxes.MINF, Mp4Boxes.STBL);
+        if (stbl == null) {
+            throw new IOException("Missing stbl");
+        }
+        readSampleDescriptions(Mp4Boxes.findChild(stbl, Mp4Boxes.STSD));
+        readStbl(stbl);
+
+        ByteBuffer mvex = Mp4Boxes.findChild(moov, Mp4Boxes.MVEX);
+        if (mvex != null) {
+            readFragments(channel, mvex, trackId);
+        }
+    }
+
+    private static ByteBuffer findVideoTrack(ByteBuffer moov) {
+        for (ByteBuffer trak : Mp4Boxes.findChildren(moov, Mp4Boxes.TRAK)) {
+            ByteBuffer hdlr = Mp4Boxes.findPath(trak, Mp4Boxes.MDIA, Mp4Boxes.HDLR);
+            if (hdlr != null && hdlr.remaining() >= 12 && hdlr.getInt(8) == Mp4Boxes.VIDE) {
+                return trak;
+            }
+        }
+        return null;
+    }
+
+    private int readTrackHeader(ByteBuffer tkhd) throws IOException {
+        if (tkhd == null) {
+            throw new IOException("Missing tkhd");
+        }
+        int version = tkhd.get(0) & 0xFF;
+        int trackId = tkhd.getInt(version == 1 ? 20 : 12);
+        int sizeOffset = version == 1 ? 88 : 76;
+        if (tkhd.remaining() >= sizeOffset + 8) {
+            width = tkhd.getInt(sizeOffset) >>> 16;
+            height = tkhd.getInt(sizeOffset + 4) >>> 16;
+        }
+        return trackId;
+    }
+
+    private void readSampleDescriptions(ByteBuffer stsd) throws IOException {
+        if (stsd == null || stsd.remaining() < 8) {
+            throw new IOException("Missing stsd");
+        }
+        sampleDescriptionCount = stsd.getInt(4);
+        sampleDescriptions = new byte[stsd.remaining() - 8];
+        ByteBuffer entries = stsd.duplicate();
+        entries.position(8);
+        entries.get(sampleDescriptions);
+    }
+
+    private void readStbl(ByteBuffer stbl) throws IOException {
+        ByteBuffer stsz = Mp4Boxes.findChild(stbl, Mp4Boxes.STSZ);
+        if (stsz == null) {
+            // 分片文件的 moov 中没有 stsz 或者样本数为0
+            return;
+        }
+        int defaultSize = stsz.getInt(4);
+        int count = stsz.getInt(8);
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            sizes[i] = defaultSize != 0 ? defaultSize : stsz.getInt(12 + i * 4);
+        }
+
+        // stts: 解码时间
+        ByteBuffer stts = Mp4Boxes.findChild(stbl, Mp4Boxes.STTS);
+        if (stts == null) throw new IOException("Missing stts");
+        int entryCount = stts.getInt(4);
+        int sample = 0;
+        long time = 0;
+        for (int e = 0; e < entryCount && sample < count; e++) {
+            int runLength = stts.getInt(8 + e * 8);
+            int delta = stts.getInt(12 + e * 8);
+            for (int i = 0; i < runLength && sample < count; i++) {
+                decodeTimes[sample] = time;
+                durations[sample] = delta;
+                time += delta;
+                sample++;
+            }
+        }
+
+        // ctts: 显示时间偏移（可选）
+        ByteBuffer ctts = Mp4Boxes.findChild(stbl, Mp4Boxes.CTTS);
+        if (ctts != null) {
+            entryCount = ctts.getInt(4);
+            sample = 0;
+            for (int e = 0; e < entryCount && sample < count; e++) {
+                int runLength = ctts.getInt(8 + e * 8);
+                int offset = ctts.getInt(12 + e * 8);
+                for (int i = 0; i < runLength && sample < count; i++) {
+                    compositionOffsets[sample++] = offset;
+                }
+            }
+        }
+
+        // stss: 同步样本，缺失时表示全部为同步样本
+        ByteBuffer stss = Mp4Boxes.findChild(stbl, Mp4Boxes.STSS);
+        if (stss == null) {
+            Arrays.fill(sync, 0, count, true);
+        } else {
+            entryCount = stss.getInt(4);
+            for (int e = 0; e < entryCount; e++) {
+                int index = stss.getInt(8 + e * 4) - 1;
+                if (index >= 0 && index < count) {
+                    sync[index] = true;
+                }
+            }
+        }
+
+        // stsc + stco/co64: 样本在文件中的偏移
+        ByteBuffer stsc = Mp4Boxes.findChild(stbl, Mp4Boxes.STSC);
+        ByteBuffer stco = Mp4Boxes.findChild(stbl, Mp4Boxes.STCO);
+        ByteBuffer co64 = Mp4Boxes.findChild(stbl, Mp4Boxes.CO64);
+        if (stsc == null || (stco == null && co64 == null)) throw new IOException("Missing chunk tables");
+        boolean wide = stco == null;
+        ByteBuffer chunkTable = wide ? co64 : stco;
+        int chunkCount = chunkTable.getInt(4);
+        int stscCount = stsc.getInt(4);
+        sample = 0;
+        for (int e = 0; e < stscCount; e++) {
+            int firstChunk = stsc.getInt(8 + e * 12) - 1;
+            int samplesPerChunk = stsc.getInt(12 + e * 12);
+            int lastChunk = e + 1 < stscCount ? stsc.getInt(8 + (e + 1) * 12) - 1 : chunkCount;
+            for (int chunk = firstChunk; chunk < lastChunk && sample < count; chunk++) {
+                long offset = wide ? chunkTable.getLong(8 + chunk * 8) : chunkTable.getInt(8 + chunk * 4) & 0xFFFFFFFFL;
+                for (int i = 0; i < samplesPerChunk && sample < count; i++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        sampleCount = count;
+    }
+
+    private void readFragments(FileChannel channel, ByteBuffer mvex, int trackId) throws IOException {
+        int defaultDuration = 0;
+        int defaultSize = 0;
+        int defaultFlags = 0;
+        for (ByteBuffer trex : Mp4Boxes.findChildren(mvex, Mp4Boxes.TREX)) {
+            if (trex.getInt(4) == trackId) {
+                defaultDuration = trex.getInt(12);
+                defaultSize = trex.getInt(16);
+                defaultFlags = trex.getInt(20);
+            }
+        }
+
+        long nextDecodeTime = sampleCount > 0 ? decodeTimes[sampleCount - 1] + durations[sampleCount - 1] : 0;
+        ByteBuffer scratch = ByteBuffer.allocate(16);
+        long position = 0;
+        Mp4Boxes.Box box;
+        while ((box = Mp4Boxes.readBoxHeader(channel, position, scratch)) != null) {
+            if (box.type == Mp4Boxes.MOOF) {
+                ByteBuffer moof = Mp4Boxes.readPayload(channel, box);
+                for (ByteBuffer traf : Mp4Boxes.findChildren(moof, Mp4Boxes.TRAF)) {
+                    nextDecodeTime = readTrackFragment(traf, box.offset, trackId, nextDecodeTime,
+                            defaultDuration, defaultSize, defaultFlags);
+                }
+            }
+            position = box.end();
+        }
+    }
+
+    private long readTrackFragment(ByteBuffer traf, long moofOffset, int trackId, long decodeTime,
+                                   int defaultDuration, int defaultSize, int defaultFlags) {
+        ByteBuffer tfhd = Mp4Boxes.findChild(traf, Mp4Boxes.TFHD);
+        if (tfhd == null || tfhd.getInt(4) != trackId) {
+            return decodeTime;
+        }
+        int tfhdFlags = tfhd.getInt(0) & 0xFFFFFF;
+        int p = 8;
+        long baseOffset = moofOffset;
+        if ((tfhdFlags & 0x1) != 0) {
+            baseOffset = tfhd.getLong(p);
+            p += 8;
+        }
+        if ((tfhdFlags & 0x2) != 0) p += 4;
+        if ((tfhdFlags & 0x8) != 0) {
+            defaultDuration = tfhd.getInt(p);
+            p += 4;
+        }
+        if ((tfhdFlags & 0x10) != 0) {
+            defaultSize = tfhd.getInt(p);
+            p += 4;
+        }
+        if ((tfhdFlags & 0x20) != 0) {
+            defaultFlags = tfhd.getInt(p);
+        }
+
+        ByteBuffer tfdt = Mp4Boxes.findChild(traf, Mp4Boxes.TFDT);
+        if (tfdt != null) {
+            decodeTime = (tfdt.get(0) & 0xFF) == 1 ? tfdt.getLong(4) : tfdt.getInt(4) & 0xFFFFFFFFL;
+        }
+
+        long dataEnd = baseOffset;
+        for (ByteBuffer trun : Mp4Boxes.findChildren(traf, Mp4Boxes.TRUN)) {
+            int flags = trun.getInt(0) & 0xFFFFFF;
+            int count = trun.getInt(4);
+            int q = 8;
+            long offset = dataEnd;
+            if ((flags & 0x1) != 0) {
+                offset = baseOffset + trun.getInt(q);
+                q += 4;
+            }
+            int firstFlags = defaultFlags;
+            boolean hasFirstFlags = (flags & 0x4) != 0;
+            if (hasFirstFlags) {
+                firstFlags = trun.getInt(q);
+                q += 4;
+            }
+            ensureCapacity(sampleCount + count);
+            for (int i = 0; i < count; i++) {
+                int duration = defaultDuration;
+                int size = defaultSize;
+                int sampleFlags = i == 0 && hasFirstFlags ? firstFlags : defaultFlags;
+                int cts = 0;
+                if ((flags & 0x100) != 0) {
+                    duration = trun.getInt(q);
+                    q += 4;
+                }
+                if ((flags & 0x200) != 0) {
+                    size = trun.getInt(q);
+                    q += 4;
+                }
+                if ((flags & 0x400) != 0) {
+                    int explicit = trun.getInt(q);
+                    q += 4;
+                    if (!(i == 0 && hasFirstFlags)) {
+                        sampleFlags = explicit;
+                    }
+                }
+                if ((flags & 0x800) != 0) {
+                    // version 0 为无符号，version 1 为有符号；实际取值都在 int 范围内
+                    cts = trun.getInt(q);
+                    q += 4;
+                }
+                int index = sampleCount++;
+                offsets[index] = offset;
+                sizes[index] = size;
+                decodeTimes[index] = decodeTime;
+                durations[index] = duration;
+                compositionOffsets[index] = cts;
+                sync[index] = (sampleFlags & SAMPLE_NON_SYNC) == 0;
+                offset += size;
+                decodeTime += duration;
+            }
+            dataEnd = offset;
+        }
+        return decodeTime;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (offsets.length >= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+        decodeTimes = Arrays.copyOf(decodeTimes, newCapacity);
+        durations = Arrays.copyOf(durations, newCapacity);
+        compositionOffsets = Arrays.copyOf(compositionOffsets, newCapacity);
+        sync = Arrays.copyOf(sync, newCapacity);
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.nvr.media;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// H.264/H.265 NAL 单元工具：判断类型、解析 SPS 中的分辨率和位深、构造 avc1/hvc1 样本描述
+public final class NalUnits {
+
+    public static final int CODEC_H264 = 0;
+    public static final int CODEC_H265 = 1;
+
+    public static final int H264_IDR = 5;
+    public static final int H264_SEI = 6;
+    public static final int H264_SPS = 7;
+    public static final int H264_PPS = 8;
+    public static final int H264_AUD = 9;
+
+    public static final int H265_IRAP_FIRST = 16;
+    public static final int H265_IRAP_LAST = 23;
+    public static final int H265_VPS = 32;
+    public static final int H265_SPS = 33;
+    public static final int H265_PPS = 34;
+    public static final int H265_AUD = 35;
+
+    private NalUnits() {
+    }
+
+    public static final class SpsInfo {
+        public int width;
+        public int height;
+        public int chromaFormat = 1;
+        public int bitDepthLumaMinus8;
+        public int bitDepthChromaMinus8;
+        // H.265：general_profile_tier_level 的12个字节和时间子层数
+        public byte[] profileTierLevel;
+        public int maxSubLayers = 1;
+        public boolean temporalIdNested;
+    }
+
+    public static int type(int codec, byte header) {
+        return codec == CODEC_H265 ? (header >> 1) & 0x3F : header & 0x1F;
+    }
+
+    public static boolean isKeyframe(int codec, int type) {
+        return codec == CODEC_H265 ? type >= H265_IRAP_FIRST && type <= H265_IRAP_LAST : type == H264_IDR;
+    }
+
+    public static boolean isParameterSet(int codec, int type) {
+        return codec == CODEC_H265 ? type >= H265_VPS && type <= H265_PPS : type == H264_SPS || type == H264_PPS;
+    }
+
+    public static boolean isAccessUnitDelimiter(int codec, int type) {
+        return codec == CODEC_H265 ? type == H265_AUD : type == H264_AUD;
+    }
+
+    // 去除防竞争字节 00 00 03
+    public static byte[] unescape(byte[] nal, int offset, int length) {
+        byte[] out = new byte[length];
+        int n = 0;
+        int zeros = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int b = nal[i] & 0xFF;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            out[n++] = (byte) b;
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return n == length ? out : Arrays.copyOf(out, n);
+    }
+
+    public static SpsInfo parseH264Sps(byte[] sps) throws IOException {
+        BitReader r = new BitReader(unescape(sps, 1, sps.length - 1));
+        SpsInfo info = new SpsInfo();
+        int profile = r.readBits(8);
+        r.skip(16); // constraint_set 标志与 level_idc
+        r.readUe(); // seq_parameter_set_id
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 244 || profile == 44
+                || profile == 83 || profile == 86 || profile == 118 || profile == 128 || profile == 138
+                || profile == 139 || profile == 134 || profile == 135) {
+            info.chromaFormat = r.readUe();
+            if (info.chromaFormat == 3) {
+                r.skip(1); // separate_colour_plane_flag
+            }
+            info.bitDepthLumaMinus8 = r.readUe();
+            info.bitDepthChromaMinus8 = r.readUe();
+            r.skip(1); // qpprime_y_zero_transform_bypass_flag
+            if (r.readBit()) {
+                int lists = info.chromaFormat != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (r.readBit()) {
+                        skipScalingList(r, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+        r.readUe(); // log2_max_frame_num_minus4
+        int pocType = r.readUe();
+        if (pocType == 0) {
+            r.readUe();
+        } else if (pocType == 1) {
+            r.skip(1);
+            r.readSe();
+            r.readSe();
+            int cycle = r.readUe();
+            for (int i = 0; i < cycle; i++) {
+                r.readSe();
+            }
+        }
+        r.readUe(); // max_num_ref_frames
+        r.skip(1); // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = r.readUe() + 1;
+        int heightInMapUnits = r.readUe() + 1;
+        boolean frameMbsOnly = r.readBit();
+        if (!frameMbsOnly) {
+            r.skip(1); // mb_adaptive_frame_field_flag
+        }
+        r.skip(1); // direct_8x8_inference_flag
+        int cropLeft = 0, cropRight = 0, cropTop = 0, cropBottom = 0;
+        if (r.readBit()) {
+            cropLeft = r.readUe();
+            cropRight = r.readUe();
+            cropTop = r.readUe();
+            cropBottom = r.readUe();
+        }
+        int frameHeightFactor = frameMbsOnly ? 1 : 2;
+        int cropUnitX = info.chromaFormat == 0 ? 1 : (info.chromaFormat == 3 ? 1 : 2);
+        int cropUnitY = (info.chromaFormat == 0 ? 1 : (info.chromaFormat == 1 ? 2 : 1)) * frameHeightFactor;
+        info.width = widthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+        info.height = frameHeightFactor * heightInMapUnits * 16 - cropUnitY * (cropTop + cropBottom);
+        return info;
+    }
+
+    private static void skipScalingList(BitReader r, int size) throws IOException {
+        int last = 8;
+        int next = 8;
+        for (int j = 0; j < size; j++) {
+            if (next != 0) {
+                next = (last + r.readSe() + 256) % 256;
+            }
+            last = next == 0 ? last : next;
+        }
+    }
+
+    public static SpsInfo parseH265Sps(byte[] sps) throws IOException {
+        byte[] rbsp = unescape(sps, 2, sps.length - 2);
+        BitReader r = new BitReader(rbsp);
+        SpsInfo info = new SpsInfo();
+        r.skip(4); // sps_video_parameter_set_id
+        int maxSubLayersMinus1 = r.readBits(3);
+        info.maxSubLayers = maxSubLayersMinus1 + 1;
+        info.temporalIdNested = r.readBit();
+        if (rbsp.length < 13) {
+            throw new IOException("SPS too short");
+        }
+        info.profileTierLevel = Arrays.copyOfRange(rbsp, 1, 13);
+        r.skip(96);
+        boolean[] profilePresent = new boolean[maxSubLayersMinus1];
+        boolean[] levelPresent = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            profilePresent[i] = r.readBit();
+            levelPresent[i] = r.readBit();
+        }
+        if (maxSubLayersMinus1 > 0) {
+            r.skip(2 * (8 - maxSubLayersMinus1));
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (profilePresent[i]) r.skip(88);
+            if (levelPresent[i]) r.skip(8);
+        }
+        r.readUe(); // sps_seq_parameter_set_id
+        info.chromaFormat = r.readUe();
+        if (info.chromaFormat == 3) {
+            r.skip(1);
+        }
+        int width = r.readUe();
+        int height = r.readUe();
+        if (r.readBit()) {
+            int subWidth = info.chromaFormat == 1 || info.chromaFormat == 2 ? 2 : 1;
+            int subHeight = info.chromaFormat == 1 ? 2 : 1;
+            width -= subWidth * (r.readUe() + r.readUe());
+            height -= subHeight * (r.readUe() + r.readUe());
+        }
+        info.width = width;
+        info.height = height;
+        info.bitDepthLumaMinus8 = r.readUe();
+        info.bitDepthChromaMinus8 = r.readUe();
+        return info;
+    }
+
+    // avc1 样本描述（含 avcC），样本数据使用4字节长度前缀
+    public static byte[] buildAvc1Entry(byte[] sps, byte[] pps, SpsInfo info) {
+        Mp4BoxWriter w = new Mp4BoxWriter(128 + sps.length + pps.length);
+        w.start(Mp4Boxes.AVC1);
+        putVisualSampleEntry(w, info);
+        w.start(Mp4Boxes.AVCC);
+        w.putByte(1).putByte(sps[1]).putByte(sps[2]).putByte(sps[3]);
+        w.putByte(0xFC | 3).putByte(0xE0 | 1);
+        w.putShort(sps.length).putBytes(sps);
+        w.putByte(1).putShort(pps.length).putBytes(pps);
+        int profile = sps[1] & 0xFF;
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 144) {
+            w.putByte(0xFC | info.chromaFormat).putByte(0xF8 | info.bitDepthLumaMinus8)
+                    .putByte(0xF8 | info.bitDepthChromaMinus8).putByte(0);
+        }
+        w.end();
+        w.end();
+        return w.toByteArray();
+    }
+
+    // hvc1 样本描述（含 hvcC），参数集全部放在 hvcC 中
+    public static byte[] buildHvc1Entry(byte[] vps, byte[] sps, byte[] pps, SpsInfo info) {
+        Mp4BoxWriter w = new Mp4BoxWriter(160 + vps.length + sps.length + pps.length);
+        w.start(Mp4Boxes.HVC1);
+        putVisualSampleEntry(w, info);
+        w.start(Mp4Boxes.HVCC);
+        w.putByte(1).putBytes(info.profileTierLevel);
+        w.putShort(0xF000).putByte(0xFC).putByte(0xFC | info.chromaFormat);
+        w.putByte(0xF8 | info.bitDepthLumaMinus8).putByte(0xF8 | info.bitDepthChromaMinus8);
+        w.putShort(0);
+        w.putByte((info.maxSubLayers << 3) | (info.temporalIdNested ? 0x04 : 0) | 3);
+        w.putByte(3);
+        putHvccArray(w, H265_VPS, vps);
+        putHvccArray(w, H265_SPS, sps);
+        putHvccArray(w, H265_PPS, pps);
+        w.end();
+        w.end();
+        return w.toByteArray();
+    }
+
+    private static void putHvccArray(Mp4BoxWriter w, int type, byte[] nal) {
+        w.putByte(0x80 | type).putShort(1).putShort(nal.length).putBytes(nal);
+    }
+
+    private static void putVisualSampleEntry(Mp4BoxWriter w, SpsInfo info) {
+        w.putZeros(6).putShort(1); // reserved, data_reference_index
+        w.putZeros(16);
+        w.putShort(info.width).putShort(info.height);
+        w.putInt(0x00480000).putInt(0x00480000).putInt(0);
+        w.putShort(1).putZeros(32);
+        w.putShort(0x0018).putShort(0xFFFF);
+    }
+
+    // 按位读取 RBSP，支持 Exp-Golomb 编码
+    static final class BitReader {
+        private final byte[] data;
+        private int bitPosition;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean readBit() throws IOException {
+            if (bitPosition >= data.length * 8) {
+                throw new IOException("Unexpected end of NAL unit");
+            }
+            int bit = (data[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 1;
+            bitPosition++;
+            return bit != 0;
+        }
+
+        int readBits(int count) throws IOException {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | (readBit() ? 1 : 0);
+            }
+            return value;
+        }
+
+        void skip(int count) throws IOException {
+            if (bitPosition + count > data.length * 8) {
+                throw new IOException("Unexpected end of NAL unit");
+            }
+            bitPosition += count;
+        }
+
+        int readUe() throws IOException {
+            int zeros = 0;
+            while (!readBit()) {
+                if (++zeros > 31) {
+                    throw new IOException("Invalid Exp-Golomb code");
+                }
+            }
+            return (int) ((1L << zeros) - 1 + readBits(zeros));
+        }
+
+        int readSe() throws IOException {
+            int value = readUe();
+            return (value & 1) != 0 ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+}
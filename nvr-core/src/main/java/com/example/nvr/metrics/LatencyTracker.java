@@ -0,0 +1,157 @@
+package com.example.nvr.metrics;
+
+import com.example.nvr.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 录制管线各阶段的延迟分布，按摄像头分别统计，录制线程重建后继续累积。
+// 用来区分丢帧时的瓶颈：组帧慢是网络，解包/封装慢是CPU，写入慢是存储
+public class LatencyTracker {
+
+    private static final String TAG = "LatencyTracker";
+    private static final long DUMP_INTERVAL_MINUTES = 10;
+
+    // 首包到达到整帧拼完，反映网络抖动和发送端突发
+    public static final int STAGE_ASSEMBLE = 0;
+    // 单个 RTP 包的解包耗时
+    public static final int STAGE_DEPACKETIZE = 1;
+    // 帧拼完到所在分片开始写出，即 GOP 缓存的排队时间
+    public static final int STAGE_QUEUE = 2;
+    // 生成分片头（moof）的耗时
+    public static final int STAGE_MUX = 3;
+    // 分片写入文件的耗时
+    public static final int STAGE_WRITE = 4;
+    // 首包到达到该帧写入文件的总时间
+    public static final int STAGE_TOTAL = 5;
+    private static final String[] STAGE_NAMES = {"assemble", "depacketize", "queue", "mux", "write", "total"};
+
+    public static final class Pipeline {
+        private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+
+        Pipeline() {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+
+        public void recordNanos(int stage, long nanos) {
+            stages[stage].recordNanos(nanos);
+        }
+
+        public LatencyHistogram get(int stage) {
+            return stages[stage];
+        }
+
+        public void reset() {
+            for (LatencyHistogram stage : stages) {
+                stage.reset();
+            }
+        }
+    }
+
+    private static volatile LatencyTracker instance;
+
+    private final Map<String, Pipeline> pipelines = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "latency-dump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private LatencyTracker() {
+        scheduler.scheduleWithFixedDelay(this::dumpQuietly, DUMP_INTERVAL_MINUTES, DUMP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        MetricsRegistry.getInstance().addCollector(this::collectMetrics);
+    }
+
+    public static LatencyTracker getInstance() {
+        if (instance == null) {
+            synchronized (LatencyTracker.class) {
+                if (instance == null) {
+                    instance = new LatencyTracker();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Pipeline forCamera(String cameraId) {
+        Pipeline pipeline = pipelines.get(cameraId);
+        if (pipeline == null) {
+            pipeline = pipelines.computeIfAbsent(cameraId, key -> new Pipeline());
+        }
+        return pipeline;
+    }
+
+    public void reset(String cameraId) {
+        Pipeline pipeline = pipelines.get(cameraId);
+        if (pipeline != null) {
+            pipeline.reset();
+        }
+    }
+
+    // 摄像头删除或测试结束后调用，之后不再导出它的分布
+    public void remove(String cameraId) {
+        pipelines.remove(cameraId);
+    }
+
+    // 每个阶段一行：次数、p50、p99、最大值，单位毫秒
+    public String format(String cameraId) {
+        Pipeline pipeline = pipelines.get(cameraId);
+        if (pipeline == null) {
+            return "No samples\n";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-12s %8s %9s %9s %9s%n", "stage", "count", "p50 ms", "p99 ms", "max ms"));
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            LatencyHistogram.Snapshot s = pipeline.get(i).snapshot();
+            sb.append(String.format(Locale.ROOT, "%-12s %8d %9.3f %9.3f %9.3f%n", STAGE_NAMES[i], s.count,
+                    s.p50 / 1000.0, s.p99 / 1000.0, s.max / 1000.0));
+        }
+        return sb.toString();
+    }
+
+    public void dumpToLog() {
+        List<String> ids = new ArrayList<>(pipelines.keySet());
+        Collections.sort(ids);
+        for (String id : ids) {
+            for (String line : format(id).split("\n")) {
+                Log.i(TAG, "camera " + id + " " + line);
+            }
+        }
+    }
+
+    private void dumpQuietly() {
+        try {
+            dumpToLog();
+        } catch (RuntimeException e) {
+            // 异常会让定时任务停止调度
+            Log.e(TAG, "Latency dump failed", e);
+        }
+    }
+
+    private void collectMetrics(MetricsRegistry.Sink sink) {
+        for (Map.Entry<String, Pipeline> entry : pipelines.entrySet()) {
+            for (int i = 0; i < STAGE_NAMES.length; i++) {
+                LatencyHistogram.Snapshot s = entry.getValue().get(i).snapshot();
+                if (s.count == 0) {
+                    continue;
+                }
+                String help = "Pipeline stage latency since start or last reset";
+                sink.gauge("nvr_stage_latency_seconds", help, s.p50 / 1e6,
+                        "camera", entry.getKey(), "stage", STAGE_NAMES[i], "quantile", "0.5");
+                sink.gauge("nvr_stage_latency_seconds", help, s.p99 / 1e6,
+                        "camera", entry.getKey(), "stage", STAGE_NAMES[i], "quantile", "0.99");
+                sink.gauge("nvr_stage_latency_seconds", help, s.max / 1e6,
+                        "camera", entry.getKey(), "stage", STAGE_NAMES[i], "quantile", "1");
+            }
+        }
+    }
+}
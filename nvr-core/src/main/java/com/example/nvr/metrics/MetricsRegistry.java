@@ -0,0 +1,286 @@
+package com.example.nvr.metrics;
+
+import com.example.nvr.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// 进程内指标注册表，按 Prometheus 文本格式导出。
+// 计数器和直方图在热路径上只做 LongAdder 累加，不加锁；调用方应在初始化时取得带标签的实例并保存。
+// 瞬时值（状态、队列深度、剩余空间等）不在热路径维护，由 Collector 在抓取时现算
+public class MetricsRegistry {
+
+    private static final String TAG = "MetricsRegistry";
+
+    // 常用的耗时分桶，单位秒
+    public static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5};
+
+    private static final String TYPE_COUNTER = "counter";
+    private static final String TYPE_GAUGE = "gauge";
+    private static final String TYPE_HISTOGRAM = "histogram";
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final double[] bounds;
+        // 每个桶单独计数（非累积），导出时再累加
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sum.add(value);
+            count.increment();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    // 抓取时调用，把当前瞬时值写入 sink
+    public interface Collector {
+        void collect(Sink sink);
+    }
+
+    public interface Sink {
+        // labels 为交替的名称和取值
+        void gauge(String name, String help, double value, String... labels);
+
+        void counter(String name, String help, double value, String... labels);
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final double[] buckets;
+        // 渲染好的标签串 -> Counter 或 Histogram
+        final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type, double[] buckets) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.buckets = buckets;
+        }
+    }
+
+    private static volatile MetricsRegistry instance;
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static MetricsRegistry getInstance() {
+        if (instance == null) {
+            synchronized (MetricsRegistry.class) {
+                if (instance == null) {
+                    instance = new MetricsRegistry();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        Family family = family(name, help, TYPE_COUNTER, null);
+        return (Counter) family.children.computeIfAbsent(renderLabels(labels, null), key -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        Family family = family(name, help, TYPE_HISTOGRAM, buckets);
+        return (Histogram) family.children.computeIfAbsent(renderLabels(labels, null),
+                key -> new Histogram(family.buckets));
+    }
+
+    public void addCollector(Collector collector) {
+        collectors.add(collector);
+    }
+
+    public void removeCollector(Collector collector) {
+        collectors.remove(collector);
+    }
+
+    // 删除带有指定标签值的全部计数器和直方图，例如摄像头被删除或测试用摄像头清理后，
+    // 不再导出它们的序列。仍持有实例的调用方继续累加也不会再出现在输出中
+    public void removeSeries(String labelName, String labelValue) {
+        String label = renderLabels(new String[]{labelName, labelValue}, null);
+        for (Family family : families.values()) {
+            family.children.keySet().removeIf(key -> key.equals(label) || key.startsWith(label + ",")
+                    || key.endsWith("," + label) || key.contains("," + label + ","));
+        }
+    }
+
+    private Family family(String name, String help, String type, double[] buckets) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, key -> new Family(name, help, type, buckets));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+        }
+        return family;
+    }
+
+    // 生成完整的 Prometheus 文本；只在抓取时执行，格式化开销不进入热路径
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        List<String> names = new ArrayList<>(families.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            Family family = families.get(name);
+            if (family.children.isEmpty()) {
+                continue;
+            }
+            appendHeader(out, family.name, family.help, family.type);
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                if (child.getValue() instanceof Counter) {
+                    appendSample(out, family.name, child.getKey(), ((Counter) child.getValue()).get());
+                } else {
+                    appendHistogram(out, family.name, child.getKey(), (Histogram) child.getValue());
+                }
+            }
+        }
+
+        // 采集器输出按名称归组，同名指标只写一次 HELP/TYPE
+        final Map<String, StringBuilder> collected = new LinkedHashMap<>();
+        Sink sink = new Sink() {
+            @Override
+            public void gauge(String name, String help, double value, String... labels) {
+                add(name, help, TYPE_GAUGE, value, labels);
+            }
+
+            @Override
+            public void counter(String name, String help, double value, String... labels) {
+                add(name, help, TYPE_COUNTER, value, labels);
+            }
+
+            private void add(String name, String help, String type, double value, String... labels) {
+                StringBuilder lines = collected.get(name);
+                if (lines == null) {
+                    lines = new StringBuilder();
+                    appendHeader(lines, name, help, type);
+                    collected.put(name, lines);
+                }
+                appendSample(lines, name, renderLabels(labels, null), value);
+            }
+        };
+        for (Collector collector : collectors) {
+            try {
+                collector.collect(sink);
+            } catch (RuntimeException e) {
+                // 单个采集器出错不影响其他指标
+                Log.e(TAG, "Collector failed", e);
+            }
+        }
+        for (StringBuilder lines : collected.values()) {
+            out.append(lines);
+        }
+        return out.toString();
+    }
+
+    private static void appendHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ')
+                .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < histogram.buckets.length; i++) {
+            cumulative += histogram.buckets[i].sum();
+            String le = i < histogram.bounds.length ? formatValue(histogram.bounds[i]) : "+Inf";
+            appendSample(out, name + "_bucket", mergeLabels(labels, "le=\"" + le + "\""), cumulative);
+        }
+        appendSample(out, name + "_sum", labels, histogram.sum.sum());
+        // 与桶的总数一致，避免并发写入时 _count 与 +Inf 桶不等
+        appendSample(out, name + "_count", labels, cumulative);
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static String mergeLabels(String labels, String extra) {
+        return labels.isEmpty() ? extra : labels + "," + extra;
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+
+    // name1, value1, name2, value2 ... -> name1="value1",name2="value2"
+    private static String renderLabels(String[] labels, String extra) {
+        if (labels == null || labels.length == 0) {
+            return extra != null ? extra : "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            String value = labels[i + 1] != null ? labels[i + 1] : "";
+            sb.append(labels[i]).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        if (extra != null) {
+            sb.append(',').append(extra);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,720 @@
+package com.example.nvr.recording;
+
+import com.example.nvr.ingest.AccessUnit;
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.ingest.RtspClient;
+import com.example.nvr.logging.Log;
+import com.example.nvr.media.FragmentedMp4Writer;
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.media.KeyframeIndexWriter;
+import com.example.nvr.media.NalUnits;
+import com.example.nvr.metrics.LatencyTracker;
+import com.example.nvr.metrics.MetricsRegistry;
+import com.example.nvr.utils.RecordingStore;
+import com.example.nvr.utils.StorageVolume;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// 单个摄像头的录制循环：在自己的线程上阻塞地拉 RTSP 流并组帧，每个 GOP 写成一个 MP4 分片，
+// 分段时长到达后在下一个关键帧处切换新文件；断线后按指数退避重连。
+// 应用（CameraRecorder）和守护进程共用；转发、快照、数据库索引等平台功能通过 Listener 挂接
+public class StreamRecorder implements Runnable {
+
+    private static final String TAG = "StreamRecorder";
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+    // GOP 过长时提前写出分片，限制内存占用
+    private static final long MAX_FRAGMENT_BYTES = 8 * 1024 * 1024;
+    private static final long MAX_FRAGMENT_TICKS = 10L * FragmentedMp4Writer.TIMESCALE;
+    private static final int DEFAULT_FRAME_TICKS = FragmentedMp4Writer.TIMESCALE / 25;
+    // B 帧重排造成的显示时间回退不超过几帧；回退超过该值才当作时间戳不连续
+    private static final long MAX_REORDER_TICKS = FragmentedMp4Writer.TIMESCALE;
+    // 停滞期限不低于该值；低帧率摄像头按帧间隔放宽
+    private static final long MIN_STALL_TIMEOUT_MS = 10000;
+    private static final int STALL_FRAME_INTERVALS = 5;
+    // 停止后留给录制线程收尾（写出最后一个 GOP 和 mfra）的时间，超时仍未退出才中断
+    private static final long STOP_TIMEOUT_MS = 5000;
+    private static final ScheduledExecutorService STOP_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recorder-stop");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum State {
+        CONNECTING, RECORDING, RETRYING, STOPPED
+    }
+
+    // 平台时钟：墙钟用于段的开始时间和码率统计，单调时钟（毫秒）用于停滞判断。
+    // Android 上单调时钟取 SystemClock.elapsedRealtime，休眠期间也计时
+    public interface Clock {
+        long currentTimeMillis();
+
+        long elapsedRealtime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    // 录制线程上的回调，平台在这里挂接转发、快照、索引和时间轴；默认什么都不做
+    public interface Listener {
+        // 连接建立、开始收流
+        default void onSessionStarted(RtspClient session) {
+        }
+
+        // 每个收到的 RTP 包，解包器已复制需要的数据，可以原地改写
+        default void onPacket(RtspClient session, byte[] packet, int offset, int length) {
+        }
+
+        // 连接结束（包括连接失败和停止）
+        default void onSessionEnded(RtspClient session) {
+        }
+
+        // 连接断开，即将退避重连；停止时不调用
+        default void onDisconnected() {
+        }
+
+        default void onKeyframe(RtpDepacketizer depacketizer, AccessUnit unit) {
+        }
+
+        default void onSegmentOpened(File file) {
+        }
+
+        // 非空段写完并关闭；空段直接删除，不回调
+        default void onSegmentClosed(File file, long startMillis, long durationMillis) {
+        }
+
+        // 约每秒一次的写入码率
+        default void onBitrate(long timeMillis, double kbps) {
+        }
+
+        // 录制线程退出前
+        default void onStopped() {
+        }
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {
+    };
+
+    private final String cameraId;
+    private final String cameraName;
+    // 实际拉流的地址：主码流，或降载时的子码流
+    private final String streamUrl;
+    private final long segmentMillis;
+    private final RecordingStore store;
+    private final Clock clock;
+    private final Listener listener;
+    // 导出指标，构造时取好带标签的实例，热路径上只做累加；指标名在应用和守护进程中相同
+    private final MetricsRegistry.Counter framesInCounter;
+    private final MetricsRegistry.Counter framesOutCounter;
+    private final MetricsRegistry.Counter packetsLostCounter;
+    private final MetricsRegistry.Counter reconnectCounter;
+    private final MetricsRegistry.Counter bytesWrittenCounter;
+    private final MetricsRegistry.Counter segmentCounter;
+    private final MetricsRegistry.Histogram fragmentWriteSeconds;
+    private final LatencyTracker.Pipeline latency;
+
+    private volatile boolean running = true;
+    // 唤醒重连前的等待；不能用中断，FileChannel 被中断时会关闭，当前段的收尾写入随之失败。
+    // 也不用 Object.wait：在 JDK 21 上会把虚拟线程钉在载体线程上
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+    private volatile RtspClient client;
+    private Thread thread;
+    // 录制线程开始的会话序号，restart 据此判断上次重启后线程是否仍卡在同一个会话里
+    private volatile int sessionCount;
+    private int restartSession = -1;
+
+    private volatile State state = State.CONNECTING;
+    private volatile long lastFrameMillis;
+    private volatile long bytesWritten;
+    private volatile String currentFilePath;
+    // 停滞判断使用的进展时间（单调时钟）：最近一帧，以及 GOP 缓冲中最早一帧到达的时间
+    private volatile long lastProgressElapsed;
+    private volatile long pendingSinceElapsed;
+    private volatile long frameIntervalMillis;
+    // 供负载调节器采样：分片写入耗时占分片时长的比例（滑动平均），以及收包/丢包计数
+    private volatile double writeLoad;
+    private volatile long packetsReceived;
+    private volatile long packetsLost;
+    // 供状态快照计算帧率、码率和队列深度
+    private volatile long framesRecorded;
+    private volatile long bytesReceived;
+    private volatile int queueDepth;
+
+    // 以下字段只在录制线程中访问
+    private int clockRate = FragmentedMp4Writer.TIMESCALE;
+    private FragmentedMp4Writer writer;
+    private KeyframeIndexWriter keyframeIndex;
+    private StorageVolume volume;
+    private long segmentStartMillis;
+    private long segmentFirstTicks;
+    // 段内最近一帧的显示时间，以及下一个样本允许的最小解码时间（均相对 segmentFirstTicks）
+    private long lastPresentationTicks;
+    private long nextDecodeTicks;
+    private final List<FragmentedMp4Writer.Sample> gop = new ArrayList<>();
+    private long[] gopPresentationTicks = new long[64];
+    private long gopBytes;
+    private int lastDuration = DEFAULT_FRAME_TICKS;
+    private long bitrateWindowStart;
+    private long bitrateWindowBytes;
+    // 当前正在拼的帧的首包到达时间（System.nanoTime），0 表示还没有包
+    private long frameStartNanos;
+    // 与 gop 一一对应：每帧首包到达和拼完的时间
+    private long[] gopArrivalNanos = new long[64];
+    private long[] gopAssembledNanos = new long[64];
+
+    public StreamRecorder(String cameraId, String cameraName, String streamUrl, long segmentMillis,
+                          RecordingStore store) {
+        this(cameraId, cameraName, streamUrl, segmentMillis, store, SYSTEM_CLOCK, NO_LISTENER);
+    }
+
+    public StreamRecorder(String cameraId, String cameraName, String streamUrl, long segmentMillis,
+                          RecordingStore store, Clock clock, Listener listener) {
+        this.cameraId = cameraId;
+        this.cameraName = cameraName;
+        this.streamUrl = streamUrl;
+        this.segmentMillis = segmentMillis;
+        this.store = store;
+        this.clock = clock;
+        this.listener = listener != null ? listener : NO_LISTENER;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        this.framesInCounter = metrics.counter("nvr_frames_received_total",
+                "Video frames assembled from the camera stream", "camera", cameraId);
+        this.framesOutCounter = metrics.counter("nvr_frames_written_total",
+                "Video frames written to recording segments", "camera", cameraId);
+        this.packetsLostCounter = metrics.counter("nvr_rtp_packets_lost_total",
+                "RTP packets missing from the camera stream", "camera", cameraId);
+        this.reconnectCounter = metrics.counter("nvr_reconnects_total",
+                "Camera sessions that ended and were retried", "camera", cameraId);
+        this.bytesWrittenCounter = metrics.counter("nvr_bytes_written_total",
+                "Media bytes written to recording segments", "camera", cameraId);
+        this.segmentCounter = metrics.counter("nvr_segments_closed_total",
+                "Recording segments finalized", "camera", cameraId);
+        this.fragmentWriteSeconds = metrics.histogram("nvr_fragment_write_seconds",
+                "Time to write one fragment to storage", MetricsRegistry.LATENCY_BUCKETS, "camera", cameraId);
+        this.latency = LatencyTracker.getInstance().forCamera(cameraId);
+    }
+
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    public String getCameraName() {
+        return cameraName;
+    }
+
+    public String getStreamUrl() {
+        return streamUrl;
+    }
+
+    public long getSegmentMillis() {
+        return segmentMillis;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getLastFrameMillis() {
+        return lastFrameMillis;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public String getCurrentFilePath() {
+        return currentFilePath;
+    }
+
+    public double getWriteLoad() {
+        return writeLoad;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public long getFramesRecorded() {
+        return framesRecorded;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    // 最近一次进展的单调时钟时间，等待重连时返回 0（不算停滞）
+    public long getLastProgressMillis() {
+        State current = state;
+        if (current == State.STOPPED || current == State.RETRYING) {
+            return 0;
+        }
+        long progress = lastProgressElapsed;
+        long pending = pendingSinceElapsed;
+        if (pending > 0) {
+            // 帧一直在到但分片迟迟写不出去，同样算停滞
+            long writeDeadline = pending + MAX_FRAGMENT_TICKS * 1000 / FragmentedMp4Writer.TIMESCALE;
+            progress = Math.min(progress, writeDeadline);
+        }
+        return progress;
+    }
+
+    public long getStallTimeoutMillis() {
+        if (state == State.CONNECTING) {
+            return 2L * CONNECT_TIMEOUT_MS;
+        }
+        return Math.max(MIN_STALL_TIMEOUT_MS, STALL_FRAME_INTERVALS * frameIntervalMillis);
+    }
+
+    public void start(ThreadFactory threads) {
+        lastProgressElapsed = clock.elapsedRealtime();
+        thread = threads.newThread(this);
+        thread.start();
+    }
+
+    // 关闭当前连接让录制线程重连，阻塞的读取立即返回，当前段由录制线程正常收尾。
+    // 上次重启之后线程仍停在同一个会话里，说明关闭连接无效（卡在磁盘写入），这时才中断线程
+    public synchronized void restart() {
+        RtspClient current = client;
+        if (current != null) {
+            current.close();
+        }
+        int currentSession = sessionCount;
+        if (currentSession == restartSession && thread != null) {
+            Log.w(TAG, "Camera " + cameraName + " did not respond to restart, interrupting");
+            thread.interrupt();
+        }
+        restartSession = currentSession;
+    }
+
+    // 关闭连接让阻塞的读取立即返回，当前段由录制线程自己收尾；
+    // 超过 STOP_TIMEOUT_MS 仍未退出时再中断，放弃卡住的写入
+    public void stop() {
+        running = false;
+        stopSignal.countDown();
+        RtspClient current = client;
+        if (current != null) {
+            current.close();
+        }
+        Thread recorderThread = thread;
+        if (recorderThread != null) {
+            STOP_TIMER.schedule(() -> interruptIfAlive(recorderThread), STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 在 stop 之后等待录制线程收尾，超时后中断；停止多路时先全部 stop 再逐个等待，收尾并行进行
+    public void awaitStop(long timeoutMillis) throws InterruptedException {
+        Thread recorderThread = thread;
+        if (recorderThread == null) {
+            return;
+        }
+        recorderThread.join(timeoutMillis);
+        interruptIfAlive(recorderThread);
+    }
+
+    private void interruptIfAlive(Thread recorderThread) {
+        if (recorderThread.isAlive()) {
+            Log.w(TAG, "Camera " + cameraName + " did not stop in time, interrupting");
+            recorderThread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long retryDelay = MIN_RETRY_DELAY_MS;
+        while (running) {
+            state = State.CONNECTING;
+            lastProgressElapsed = clock.elapsedRealtime();
+            sessionCount++;
+            // 清除 restart 时可能留下的中断标志，否则新段的文件写入会立即失败
+            Thread.interrupted();
+            boolean received = false;
+            try {
+                received = runSession();
+            } catch (IOException e) {
+                if (running) {
+                    Log.w(TAG, "Camera " + cameraName + " session ended: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Camera " + cameraName + " recorder failed", e);
+            } finally {
+                closeSegment();
+                RtspClient current = client;
+                client = null;
+                if (current != null) {
+                    current.close();
+                    listener.onSessionEnded(current);
+                }
+            }
+            if (!running) {
+                break;
+            }
+            listener.onDisconnected();
+            reconnectCounter.inc();
+            if (received) {
+                retryDelay = MIN_RETRY_DELAY_MS;
+            }
+            state = State.RETRYING;
+            try {
+                if (stopSignal.await(retryDelay, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+        }
+        state = State.STOPPED;
+        listener.onStopped();
+    }
+
+    // 一次连接的完整生命周期，返回期间是否收到过视频帧
+    private boolean runSession() throws IOException {
+        RtspClient session = new RtspClient(streamUrl, CONNECT_TIMEOUT_MS);
+        client = session;
+        if (!running) {
+            return false;
+        }
+        session.start();
+        clockRate = session.getClockRate() > 0 ? session.getClockRate() : FragmentedMp4Writer.TIMESCALE;
+        RtpDepacketizer depacketizer = new RtpDepacketizer(session.getCodec());
+        for (byte[] parameterSet : session.getParameterSets()) {
+            depacketizer.setParameterSet(parameterSet);
+        }
+        listener.onSessionStarted(session);
+        Log.i(TAG, "Camera " + cameraName + " connected");
+
+        byte[] packet = new byte[65536];
+        boolean received = false;
+        long lostBase = packetsLost;
+        frameStartNanos = 0;
+        while (running) {
+            int length = session.readRtpPacket(packet);
+            long arrival = System.nanoTime();
+            if (frameStartNanos == 0) {
+                frameStartNanos = arrival;
+            }
+            depacketizer.push(packet, 0, length);
+            long assembled = System.nanoTime();
+            latency.recordNanos(LatencyTracker.STAGE_DEPACKETIZE, assembled - arrival);
+            packetsReceived++;
+            long lost = lostBase + depacketizer.getLostPackets();
+            if (lost != packetsLost) {
+                packetsLostCounter.add(lost - packetsLost);
+                packetsLost = lost;
+            }
+            listener.onPacket(session, packet, 0, length);
+            AccessUnit unit;
+            boolean completed = false;
+            while ((unit = depacketizer.poll()) != null) {
+                received = true;
+                completed = true;
+                latency.recordNanos(LatencyTracker.STAGE_ASSEMBLE, assembled - frameStartNanos);
+                onAccessUnit(depacketizer, unit, frameStartNanos, assembled);
+            }
+            if (completed) {
+                // 带 marker 的包结束了当前帧；否则是时间戳变化触发的结束，这个包已属于下一帧
+                boolean marker = length > 1 && (packet[1] & 0x80) != 0;
+                frameStartNanos = marker ? 0 : arrival;
+            }
+        }
+        return received;
+    }
+
+    private void onAccessUnit(RtpDepacketizer depacketizer, AccessUnit unit, long arrivalNanos, long assembledNanos)
+            throws IOException {
+        long now = clock.currentTimeMillis();
+        lastFrameMillis = now;
+        framesInCounter.inc();
+        long ticks = clockRate == FragmentedMp4Writer.TIMESCALE ? unit.timestamp
+                : unit.timestamp * FragmentedMp4Writer.TIMESCALE / clockRate;
+        boolean parameterSetsChanged = depacketizer.takeParameterSetsChanged();
+        if (unit.keyframe) {
+            listener.onKeyframe(depacketizer, unit);
+        }
+
+        if (writer != null && ticks - segmentFirstTicks < lastPresentationTicks - MAX_REORDER_TICKS) {
+            // 时间戳大幅回退（摄像头重启编码器等），当前段到此结束。
+            // RTP 时间戳是显示时间，带 B 帧的流每个 GOP 内都会小幅回退，不能据此切段
+            Log.w(TAG, "Timestamp discontinuity on camera " + cameraName);
+            closeSegment();
+        }
+        if (unit.keyframe) {
+            if (writer != null) {
+                flushGop(ticks);
+                if (parameterSetsChanged || now - segmentStartMillis >= segmentMillis) {
+                    closeSegment();
+                }
+            }
+            if (writer == null) {
+                openSegment(depacketizer, ticks);
+            }
+        } else if (writer != null && !gop.isEmpty()
+                && (gopBytes >= MAX_FRAGMENT_BYTES || ticks - segmentFirstTicks - gop.get(0).decodeTime >= MAX_FRAGMENT_TICKS)) {
+            flushGop(ticks);
+        }
+        if (writer == null) {
+            // 段只能从关键帧开始
+            return;
+        }
+        // 只有真正进入录制的帧才算进展，连上了却一直拿不到参数集同样会被看门狗发现
+        long elapsed = clock.elapsedRealtime();
+        if (state == State.RECORDING) {
+            // 帧间隔的滑动平均，用来放宽低帧率摄像头的停滞期限
+            long interval = Math.max(0, elapsed - lastProgressElapsed);
+            frameIntervalMillis = (frameIntervalMillis * 7 + interval) / 8;
+        }
+        lastProgressElapsed = elapsed;
+        if (gop.isEmpty()) {
+            pendingSinceElapsed = elapsed;
+        }
+        if (gop.size() == gopArrivalNanos.length) {
+            gopArrivalNanos = Arrays.copyOf(gopArrivalNanos, gop.size() * 2);
+            gopAssembledNanos = Arrays.copyOf(gopAssembledNanos, gop.size() * 2);
+            gopPresentationTicks = Arrays.copyOf(gopPresentationTicks, gop.size() * 2);
+        }
+        gopArrivalNanos[gop.size()] = arrivalNanos;
+        gopAssembledNanos[gop.size()] = assembledNanos;
+        lastPresentationTicks = ticks - segmentFirstTicks;
+        gop.add(new FragmentedMp4Writer.Sample(unit.data, 0, unit.length, lastPresentationTicks, unit.keyframe));
+        queueDepth = gop.size();
+        framesRecorded++;
+        bytesReceived += unit.length;
+        gopBytes += unit.length;
+        state = State.RECORDING;
+    }
+
+    private void openSegment(RtpDepacketizer depacketizer, long firstTicks) {
+        byte[] sps = depacketizer.getSps();
+        byte[] pps = depacketizer.getPps();
+        byte[] vps = depacketizer.getVps();
+        boolean h265 = depacketizer.getCodec() == NalUnits.CODEC_H265;
+        if (sps == null || pps == null || (h265 && vps == null)) {
+            // 参数集还没到，等下一个关键帧
+            return;
+        }
+        NalUnits.SpsInfo info;
+        byte[] sampleEntry;
+        try {
+            if (h265) {
+                info = NalUnits.parseH265Sps(sps);
+                sampleEntry = NalUnits.buildHvc1Entry(vps, sps, pps, info);
+            } else {
+                info = NalUnits.parseH264Sps(sps);
+                sampleEntry = NalUnits.buildAvc1Entry(sps, pps, info);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Invalid SPS from camera " + cameraName + ": " + e.getMessage());
+            return;
+        }
+
+        File file = new File(store.createNewRecordingFilePath(cameraId, cameraName));
+        volume = store.getVolumeForPath(file.getAbsolutePath());
+        segmentStartMillis = clock.currentTimeMillis();
+        try {
+            writer = new FragmentedMp4Writer(file, sampleEntry, info.width, info.height, segmentStartMillis);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create segment " + file + ": " + e.getMessage());
+            store.reportFailure(volume);
+            volume = null;
+            writer = null;
+            return;
+        }
+        try {
+            // 分片写入时就知道样本的文件偏移，索引直接记录绝对偏移
+            keyframeIndex = new KeyframeIndexWriter(KeyframeIndex.sidecarFor(file), segmentStartMillis, 0);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create keyframe index: " + e.getMessage());
+            keyframeIndex = null;
+        }
+        segmentFirstTicks = firstTicks;
+        lastPresentationTicks = 0;
+        nextDecodeTicks = 0;
+        bitrateWindowStart = segmentStartMillis;
+        bitrateWindowBytes = 0;
+        currentFilePath = file.getAbsolutePath();
+        if (volume != null) {
+            // 供按吞吐量均衡的选卷策略统计每个卷上的写入数
+            volume.beginWrite();
+        }
+        listener.onSegmentOpened(file);
+        Log.d(TAG, "Recording " + cameraName + " to " + file.getName());
+    }
+
+    // 把缓存的 GOP 写成一个分片；最后一个样本的时长由下一帧的时间戳决定
+    private void flushGop(long nextTicks) throws IOException {
+        if (gop.isEmpty() || writer == null) {
+            return;
+        }
+        assignDecodeTimes();
+        for (int i = 0; i < gop.size(); i++) {
+            FragmentedMp4Writer.Sample sample = gop.get(i);
+            long next = i + 1 < gop.size() ? gop.get(i + 1).decodeTime : nextTicks - segmentFirstTicks;
+            long duration = next - sample.decodeTime;
+            if (duration > 0 && duration < Integer.MAX_VALUE) {
+                lastDuration = (int) duration;
+            }
+            sample.duration = lastDuration;
+        }
+        long dataStart;
+        long writeStartNanos = System.nanoTime();
+        try {
+            dataStart = writer.writeFragment(gop);
+        } catch (IOException e) {
+            store.reportFailure(volume);
+            throw e;
+        }
+        long writeEndNanos = System.nanoTime();
+        fragmentWriteSeconds.observe((writeEndNanos - writeStartNanos) / 1e9);
+        long muxNanos = writer.getLastMuxNanos();
+        latency.recordNanos(LatencyTracker.STAGE_MUX, muxNanos);
+        latency.recordNanos(LatencyTracker.STAGE_WRITE, writeEndNanos - writeStartNanos - muxNanos);
+        for (int i = 0; i < gop.size(); i++) {
+            latency.recordNanos(LatencyTracker.STAGE_QUEUE, writeStartNanos - gopAssembledNanos[i]);
+            latency.recordNanos(LatencyTracker.STAGE_TOTAL, writeEndNanos - gopArrivalNanos[i]);
+        }
+        if (volume != null) {
+            volume.recordWrite(gopBytes, writeEndNanos - writeStartNanos);
+        }
+        FragmentedMp4Writer.Sample lastSample = gop.get(gop.size() - 1);
+        long fragmentMillis = (lastSample.decodeTime + lastSample.duration - gop.get(0).decodeTime)
+                * 1000 / FragmentedMp4Writer.TIMESCALE;
+        double load = (writeEndNanos - writeStartNanos) / 1e6 / Math.max(1, fragmentMillis);
+        writeLoad = writeLoad * 0.75 + load * 0.25;
+        nextDecodeTicks = lastSample.decodeTime + lastSample.duration;
+        FragmentedMp4Writer.Sample first = gop.get(0);
+        if (first.sync && keyframeIndex != null) {
+            try {
+                long presentationTicks = first.decodeTime + first.compositionOffset;
+                keyframeIndex.append(presentationTicks * 1000000L / FragmentedMp4Writer.TIMESCALE, dataStart, first.length);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to append keyframe index: " + e.getMessage());
+            }
+        }
+        bytesWritten += gopBytes;
+        bytesWrittenCounter.add(gopBytes);
+        framesOutCounter.add(gop.size());
+        recordBitrate(gopBytes);
+        gop.clear();
+        queueDepth = 0;
+        gopBytes = 0;
+        pendingSinceElapsed = 0;
+    }
+
+    // 帧按解码顺序到达，时间戳却是显示时间。第 i 个到达的帧取这组帧显示时间中第 i 小的值作为解码时间，
+    // 差值写成 composition offset；没有 B 帧时两者相同。解码时间必须严格递增且不早于上一个分片的结束
+    private void assignDecodeTimes() {
+        int count = gop.size();
+        for (int i = 0; i < count; i++) {
+            gopPresentationTicks[i] = gop.get(i).decodeTime;
+        }
+        long[] sorted = Arrays.copyOf(gopPresentationTicks, count);
+        Arrays.sort(sorted);
+        long minimum = nextDecodeTicks;
+        for (int i = 0; i < count; i++) {
+            FragmentedMp4Writer.Sample sample = gop.get(i);
+            long decodeTicks = Math.max(sorted[i], minimum);
+            sample.decodeTime = decodeTicks;
+            sample.compositionOffset = (int) (gopPresentationTicks[i] - decodeTicks);
+            minimum = decodeTicks + 1;
+        }
+    }
+
+    private void recordBitrate(long bytes) {
+        bitrateWindowBytes += bytes;
+        long now = clock.currentTimeMillis();
+        long elapsed = now - bitrateWindowStart;
+        if (elapsed >= 1000) {
+            // 字节数 * 8 / 毫秒 = kbit/s
+            listener.onBitrate(now, bitrateWindowBytes * 8.0 / elapsed);
+            bitrateWindowStart = now;
+            bitrateWindowBytes = 0;
+        }
+    }
+
+    // 结束当前段：写出剩余帧和 mfra；非空段交给 Listener 建索引，空段直接删除
+    private void closeSegment() {
+        if (writer == null) {
+            return;
+        }
+        FragmentedMp4Writer closing = writer;
+        try {
+            if (!gop.isEmpty()) {
+                // 排序后最后一个解码时间就是最大的显示时间
+                long maxPresentation = Long.MIN_VALUE;
+                for (FragmentedMp4Writer.Sample sample : gop) {
+                    maxPresentation = Math.max(maxPresentation, sample.decodeTime);
+                }
+                flushGop(segmentFirstTicks + maxPresentation + lastDuration);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to flush final fragment: " + e.getMessage());
+        }
+        gop.clear();
+        queueDepth = 0;
+        gopBytes = 0;
+        pendingSinceElapsed = 0;
+        writer = null;
+        currentFilePath = null;
+        if (volume != null) {
+            volume.endWrite();
+            volume = null;
+        }
+        try {
+            closing.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close segment: " + e.getMessage());
+        }
+        KeyframeIndexWriter index = keyframeIndex;
+        keyframeIndex = null;
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close keyframe index: " + e.getMessage());
+            }
+        }
+
+        File file = closing.getFile();
+        long durationMillis = closing.getDuration() * 1000 / FragmentedMp4Writer.TIMESCALE;
+        if (durationMillis <= 0) {
+            if (!file.delete()) {
+                Log.w(TAG, "Failed to delete empty segment " + file.getName());
+            }
+            if (index != null && !index.getFile().delete()) {
+                Log.w(TAG, "Failed to delete empty keyframe index");
+            }
+            return;
+        }
+        segmentCounter.inc();
+        listener.onSegmentClosed(file, segmentStartMillis, durationMillis);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.nvr.relay;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 单写多读的 RTP 包环形缓冲：上游线程写入，每个下游客户端持有自己的读游标。
+// 写入方从不等待读取方，读得太慢被覆盖的游标会在读取时发现并由调用方断开该客户端
+public class RtpRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final byte[][] slots;
+    private final int[] lengths;
+    // 每个槽位当前保存的包序号，写入过程中为-1；读取前后各比对一次，不一致说明读的过程中被覆盖
+    private final AtomicLongArray sequences;
+    private final Object signal = new Object();
+
+    // 下一个要写入的包序号
+    private volatile long head;
+    // 最近一个关键帧起始包的序号，-1表示还没有
+    private volatile long lastKeyframe = -1;
+
+    public static final class OverrunException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        OverrunException(long behind) {
+            super("Reader fell " + behind + " packets behind");
+        }
+    }
+
+    // capacity 必须是2的幂
+    public RtpRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new byte[capacity][];
+        this.lengths = new int[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, -1);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHead() {
+        return head;
+    }
+
+    // 只由上游线程调用
+    public void write(byte[] packet, int offset, int length, boolean keyframe) {
+        long sequence = head;
+        int index = (int) (sequence & mask);
+        sequences.set(index, -1);
+        byte[] slot = slots[index];
+        if (slot == null || slot.length < length) {
+            // 槽位按需分配，普通包不超过 MTU，偶尔出现的大包才扩容
+            slot = new byte[Math.max(length, 1500)];
+            slots[index] = slot;
+        }
+        System.arraycopy(packet, offset, slot, 0, length);
+        lengths[index] = length;
+        sequences.set(index, sequence);
+        if (keyframe) {
+            lastKeyframe = sequence;
+        }
+        head = sequence + 1;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    // 新读者的起始位置：缓冲中仍保留的最近一个关键帧，没有时从最新位置开始
+    public long startPosition() {
+        long current = head;
+        long keyframe = lastKeyframe;
+        return keyframe >= 0 && current - keyframe < capacity - capacity / 8 ? keyframe : current;
+    }
+
+    // 落后的包数，超过容量说明已被覆盖
+    public long lag(long cursor) {
+        return head - cursor;
+    }
+
+    // 读取 cursor 位置的包到 buffer 的 offset 处，返回长度；
+    // 还没有新包时最多等待 timeoutMillis，超时返回-1
+    public int read(long cursor, byte[] buffer, int offset, long timeoutMillis)
+            throws OverrunException, InterruptedException {
+        if (head <= cursor) {
+            synchronized (signal) {
+                if (head <= cursor) {
+                    signal.wait(timeoutMillis);
+                }
+            }
+            if (head <= cursor) {
+                return -1;
+            }
+        }
+        return tryRead(cursor, buffer, offset);
+    }
+
+    // 不等待的读取，没有新包时返回-1
+    public int tryRead(long cursor, byte[] buffer, int offset) throws OverrunException {
+        long current = head;
+        if (current <= cursor) {
+            return -1;
+        }
+        if (current - cursor > capacity) {
+            throw new OverrunException(current - cursor);
+        }
+        int index = (int) (cursor & mask);
+        if (sequences.get(index) != cursor) {
+            throw new OverrunException(head - cursor);
+        }
+        int length = lengths[index];
+        if (buffer.length - offset < length) {
+            throw new IllegalArgumentException("Buffer too small for packet of " + length + " bytes");
+        }
+        System.arraycopy(slots[index], 0, buffer, offset, length);
+        if (sequences.get(index) != cursor) {
+            throw new OverrunException(head - cursor);
+        }
+        return length;
+    }
+
+    // 上游重连后旧会话的关键帧不再可用作新读者的起点；已有读者继续读，不受影响
+    public void clearKeyframe() {
+        lastKeyframe = -1;
+    }
+}
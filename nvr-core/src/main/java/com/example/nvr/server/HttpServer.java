@@ -0,0 +1,575 @@
+package com.example.nvr.server;
+
+import com.example.nvr.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 精简的 HTTP/1.1 服务器：阻塞式 ServerSocketChannel + 固定大小的连接线程池，
+// 文件响应支持单段 Range 请求，文件内容用 FileChannel.transferTo 直接送入套接字，不经过 Java 堆
+public class HttpServer {
+
+    private static final String TAG = "HttpServer";
+    // 直播播放器会一直占着一个长连接并阻塞等待播放列表更新，连接线程数按同时观看的浏览器数估算
+    static final int MAX_CONNECTIONS = 32;
+    // 线程池满时允许排队的连接数，再多就直接返回 503
+    static final int MAX_PENDING = 16;
+    private static final int IDLE_TIMEOUT_MS = 15000;
+    // 响应写入长时间没有进展的连接（客户端不再读取）由清理任务关闭
+    private static final long WRITE_STALL_MS = 60000;
+    private static final int MAX_REQUESTS_PER_CONNECTION = 100;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final long TRANSFER_CHUNK = 4 * 1024 * 1024;
+
+    public interface Handler {
+        // 在连接线程上调用，可以阻塞；返回 null 表示 404
+        Response handle(Request request) throws IOException;
+    }
+
+    public static final class Request {
+        public final String method;
+        public final String path;
+        public final Map<String, String> query;
+        // 头部名称统一为小写
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> query, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+        }
+
+        public String getQuery(String name, String defaultValue) {
+            String value = query.get(name);
+            return value != null ? value : defaultValue;
+        }
+
+        public long getQueryLong(String name, long defaultValue) {
+            try {
+                return Long.parseLong(query.get(name));
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    public static final class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final File file;
+        final Map<String, String> headers = new HashMap<>();
+        boolean deleteAfterSend;
+
+        private Response(int status, String contentType, byte[] body, File file) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.file = file;
+        }
+
+        public static Response bytes(int status, String contentType, byte[] body) {
+            return new Response(status, contentType, body, null);
+        }
+
+        public static Response text(int status, String contentType, String body) {
+            return bytes(status, contentType, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 文件响应，自动处理 Range；文件可能仍在写入，以请求时的大小为准
+        public static Response file(File file, String contentType) {
+            return new Response(200, contentType, null, file);
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        // 一次性的临时文件（如导出的剪辑）：响应发送完或发送失败后删除
+        public Response deleteAfterSend() {
+            deleteAfterSend = true;
+            return this;
+        }
+    }
+
+    private final int port;
+    private final Map<String, Handler> routes = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor pool;
+    private ScheduledExecutorService reaper;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    public HttpServer(int port) {
+        this.port = port;
+    }
+
+    // 按路径前缀注册处理器，匹配时取最长前缀
+    public void addRoute(String prefix, Handler handler) {
+        routes.put(prefix, handler);
+    }
+
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        pool = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING), runnable -> {
+                    Thread thread = new Thread(runnable, "http-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::closeStalledConnections, WRITE_STALL_MS / 4, WRITE_STALL_MS / 4,
+                TimeUnit.MILLISECONDS);
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "http-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        Log.d(TAG, "HTTP server listening on port " + getPort());
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        // 仍在排队的连接也要关闭
+        for (Runnable queued : pool.shutdownNow()) {
+            if (queued instanceof Connection) {
+                ((Connection) queued).close();
+            }
+        }
+        reaper.shutdownNow();
+        Log.d(TAG, "HTTP server stopped");
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (running) {
+                    Log.e(TAG, "Accept failed: " + e.getMessage());
+                }
+                break;
+            }
+            Connection connection = new Connection(channel);
+            try {
+                pool.execute(connection);
+            } catch (RejectedExecutionException e) {
+                connection.rejectBusy();
+            }
+        }
+    }
+
+    private void closeStalledConnections() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connections) {
+            if (connection.writing && now - connection.lastProgress > WRITE_STALL_MS) {
+                Log.w(TAG, "Closing stalled connection");
+                connection.close();
+            }
+        }
+    }
+
+    private Handler findHandler(String path) {
+        Handler best = null;
+        int bestLength = -1;
+        for (Map.Entry<String, Handler> entry : routes.entrySet()) {
+            String prefix = entry.getKey();
+            if (path.startsWith(prefix) && prefix.length() > bestLength) {
+                best = entry.getValue();
+                bestLength = prefix.length();
+            }
+        }
+        return best;
+    }
+
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private volatile boolean writing;
+        private volatile long lastProgress = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void rejectBusy() {
+            try {
+                sendSimple(503, "Server busy", false);
+            } catch (IOException ignored) {
+            }
+            close();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void run() {
+            connections.add(this);
+            try {
+                channel.socket().setSoTimeout(IDLE_TIMEOUT_MS);
+                channel.socket().setTcpNoDelay(true);
+                // 头部通过带超时的流读取，响应直接写通道
+                InputStream input = new BufferedInputStream(channel.socket().getInputStream(), 8192);
+                for (int i = 0; i < MAX_REQUESTS_PER_CONNECTION && running; i++) {
+                    if (!serveOne(input, i + 1 < MAX_REQUESTS_PER_CONNECTION)) {
+                        break;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // 空闲超时，正常关闭
+            } catch (IOException e) {
+                if (running) {
+                    Log.d(TAG, "Connection closed: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Request failed", e);
+            } finally {
+                connections.remove(this);
+                close();
+            }
+        }
+
+        // 处理一个请求，返回连接是否可以继续复用
+        private boolean serveOne(InputStream input, boolean allowKeepAlive) throws IOException {
+            String requestLine = readLine(input);
+            if (requestLine == null) {
+                return false;
+            }
+            if (requestLine.isEmpty()) {
+                // 容忍请求之间多余的空行
+                return true;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+                sendSimple(400, "Bad request", false);
+                return false;
+            }
+            Map<String, String> headers = new HashMap<>();
+            int headerBytes = 0;
+            String line;
+            while ((line = readLine(input)) != null && !line.isEmpty()) {
+                headerBytes += line.length();
+                if (headerBytes > MAX_HEADER_BYTES) {
+                    sendSimple(431, "Headers too large", false);
+                    return false;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+            }
+            if (line == null) {
+                return false;
+            }
+            String connectionHeader = headers.get("connection");
+            boolean keepAlive = allowKeepAlive && (parts[2].equals("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader));
+
+            String method = parts[0];
+            String target = parts[1];
+            int question = target.indexOf('?');
+            String path = decode(question >= 0 ? target.substring(0, question) : target);
+            Map<String, String> query = parseQuery(question >= 0 ? target.substring(question + 1) : "");
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                sendSimple(405, "Method not allowed", keepAlive);
+                return keepAlive;
+            }
+            Handler handler = findHandler(path);
+            Response response;
+            try {
+                response = handler != null ? handler.handle(new Request(method, path, query, headers)) : null;
+            } catch (IOException e) {
+                Log.e(TAG, "Handler failed for " + path + ": " + e.getMessage());
+                sendSimple(500, "Internal error", false);
+                return false;
+            }
+            if (response == null) {
+                sendSimple(404, "Not found", keepAlive);
+            } else if (response.file != null) {
+                try {
+                    sendFile(response, headers.get("range"), method.equals("HEAD"), keepAlive);
+                } finally {
+                    if (response.deleteAfterSend && !response.file.delete() && response.file.exists()) {
+                        Log.w(TAG, "Failed to delete " + response.file);
+                    }
+                }
+            } else {
+                sendBytes(response, method.equals("HEAD"), keepAlive);
+            }
+            return keepAlive;
+        }
+
+        private void sendSimple(int status, String message, boolean keepAlive) throws IOException {
+            sendBytes(Response.text(status, "text/plain; charset=utf-8", message + "\n"), false, keepAlive);
+        }
+
+        private void sendBytes(Response response, boolean headOnly, boolean keepAlive) throws IOException {
+            StringBuilder head = statusLine(response.status, response.contentType, response.body.length, keepAlive);
+            appendHeaders(head, response.headers);
+            head.append("\r\n");
+            ByteBuffer headBuffer = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (headOnly) {
+                writeFully(new ByteBuffer[]{headBuffer});
+            } else {
+                writeFully(new ByteBuffer[]{headBuffer, ByteBuffer.wrap(response.body)});
+            }
+        }
+
+        private void sendFile(Response response, String rangeHeader, boolean headOnly, boolean keepAlive) throws IOException {
+            File file = response.file;
+            FileChannel fileChannel;
+            try {
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                sendSimple(404, "Not found", keepAlive);
+                return;
+            }
+            try {
+                long size = fileChannel.size();
+                long start = 0;
+                long end = size - 1;
+                int status = 200;
+                if (rangeHeader != null) {
+                    long[] range = parseRange(rangeHeader, size);
+                    if (range == null) {
+                        StringBuilder head = statusLine(416, "text/plain", 0, keepAlive);
+                        head.append("Content-Range: bytes */").append(size).append("\r\n\r\n");
+                        writeFully(new ByteBuffer[]{ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1))});
+                        return;
+                    }
+                    if (range.length == 2) {
+                        start = range[0];
+                        end = range[1];
+                        status = 206;
+                    }
+                }
+                long length = size == 0 ? 0 : end - start + 1;
+                StringBuilder head = statusLine(status, response.contentType, length, keepAlive);
+                head.append("Accept-Ranges: bytes\r\n");
+                head.append("Last-Modified: ").append(httpDate(file.lastModified())).append("\r\n");
+                if (status == 206) {
+                    head.append("Content-Range: bytes ").append(start).append('-').append(end)
+                            .append('/').append(size).append("\r\n");
+                }
+                appendHeaders(head, response.headers);
+                head.append("\r\n");
+                writeFully(new ByteBuffer[]{ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1))});
+                if (headOnly) {
+                    return;
+                }
+                writing = true;
+                long position = start;
+                long remaining = length;
+                while (remaining > 0) {
+                    long sent = fileChannel.transferTo(position, Math.min(remaining, TRANSFER_CHUNK), channel);
+                    if (sent <= 0) {
+                        // 文件在传输过程中被截断
+                        throw new IOException("Transfer stalled at " + position);
+                    }
+                    position += sent;
+                    remaining -= sent;
+                    lastProgress = System.currentTimeMillis();
+                }
+            } finally {
+                writing = false;
+                fileChannel.close();
+            }
+        }
+
+        private void writeFully(ByteBuffer[] buffers) throws IOException {
+            writing = true;
+            try {
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                    lastProgress = System.currentTimeMillis();
+                }
+            } finally {
+                writing = false;
+            }
+        }
+    }
+
+    private static StringBuilder statusLine(int status, String contentType, long length, boolean keepAlive) {
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        head.append("Server: NVR\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Content-Length: ").append(length).append("\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        return head;
+    }
+
+    private static void appendHeaders(StringBuilder head, Map<String, String> headers) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            head.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+    }
+
+    // 解析单段 Range：返回 {start, end}；多段或无法识别的格式返回空数组表示按整个文件响应；无法满足时返回 null
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // bytes=-N：最后 N 个字节
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0 || size == 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (start >= size || end < start) {
+                    return null;
+                }
+                end = Math.min(end, size - 1);
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_BYTES) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query.isEmpty()) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                result.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            } else if (!pair.isEmpty()) {
+                result.put(decode(pair), "");
+            }
+        }
+        return result;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (Exception e) {
+            return value;
+        }
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 206: return "Partial Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 416: return "Range Not Satisfiable";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            case 507: return "Insufficient Storage";
+            default: return "Status";
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.nvr.server;
+
+import com.example.nvr.metrics.MetricsRegistry;
+
+import java.io.IOException;
+
+// Prometheus 抓取接口：GET /metrics，文本在请求时才生成
+public class MetricsHandler implements HttpServer.Handler {
+
+    private static final String METRICS_PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    public MetricsHandler(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void register(HttpServer server) {
+        server.addRoute(METRICS_PATH, this);
+    }
+
+    @Override
+    public HttpServer.Response handle(HttpServer.Request request) throws IOException {
+        if (!METRICS_PATH.equals(request.path)) {
+            return null;
+        }
+        return HttpServer.Response.text(200, CONTENT_TYPE, registry.scrape())
+                .header("Cache-Control", "no-cache");
+    }
+}
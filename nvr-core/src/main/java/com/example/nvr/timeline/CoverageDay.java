@@ -0,0 +1,201 @@
+package com.example.nvr.timeline;
+
+import java.nio.ByteBuffer;
+
+// 单个摄像头一天的覆盖情况：每秒1位的位图（录像/移动侦测各一份）加上分钟、10分钟、小时三级汇总
+// 汇总随位图增量更新，绘制时间轴时只需要读汇总数组
+public class CoverageDay {
+
+    public static final int SECONDS_PER_DAY = 86400;
+
+    public static final int KIND_RECORDED = 0;
+    public static final int KIND_MOTION = 1;
+    static final int KIND_COUNT = 2;
+
+    // 各级汇总的桶大小（秒）
+    static final int[] LEVEL_SECONDS = {60, 600, 3600};
+
+    private static final int WORDS = (SECONDS_PER_DAY + 63) / 64;
+
+    private final int dayKey;
+    private final long[][] bits = new long[KIND_COUNT][WORDS];
+    // rollups[kind][level][bucket] = 该桶内被覆盖的秒数
+    private final short[][][] rollups = new short[KIND_COUNT][LEVEL_SECONDS.length][];
+
+    public CoverageDay(int dayKey) {
+        this.dayKey = dayKey;
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            for (int level = 0; level < LEVEL_SECONDS.length; level++) {
+                rollups[kind][level] = new short[SECONDS_PER_DAY / LEVEL_SECONDS[level]];
+            }
+        }
+    }
+
+    public int getDayKey() {
+        return dayKey;
+    }
+
+    // 标记 [fromSecond, toSecond) 区间，返回新增覆盖的秒数
+    public synchronized int mark(int kind, int fromSecond, int toSecond) {
+        int from = clamp(fromSecond);
+        int to = clamp(toSecond);
+        int added = 0;
+        // 按分钟边界切分，保证每段最多跨两个long，并直接累加到对应汇总桶
+        int second = from;
+        while (second < to) {
+            int minuteEnd = Math.min(to, (second / 60 + 1) * 60);
+            int newlySet = setRange(bits[kind], second, minuteEnd);
+            if (newlySet > 0) {
+                int minute = second / 60;
+                rollups[kind][0][minute] += newlySet;
+                rollups[kind][1][minute / 10] += newlySet;
+                rollups[kind][2][minute / 60] += newlySet;
+                added += newlySet;
+            }
+            second = minuteEnd;
+        }
+        return added;
+    }
+
+    public synchronized boolean isCovered(int kind, int second) {
+        if (second < 0 || second >= SECONDS_PER_DAY) {
+            return false;
+        }
+        return (bits[kind][second >>> 6] & (1L << second)) != 0;
+    }
+
+    public synchronized int getCoveredSeconds(int kind) {
+        int total = 0;
+        for (short hour : rollups[kind][2]) {
+            total += hour;
+        }
+        return total;
+    }
+
+    // 把 [fromSecond, toSecond) 时间段均分到 out.length 个像素，填入每个像素被覆盖的比例(0~1)
+    // 选取不大于单像素时长的最粗汇总级别，缩放到整天时只需遍历1440个分钟桶
+    public synchronized void fill(int kind, int fromSecond, int toSecond, float[] out) {
+        int pixels = out.length;
+        java.util.Arrays.fill(out, 0f);
+        int from = clamp(fromSecond);
+        int to = clamp(toSecond);
+        if (pixels == 0 || to <= from) {
+            return;
+        }
+        double secondsPerPixel = (double) (to - from) / pixels;
+
+        int level = -1;
+        for (int i = LEVEL_SECONDS.length - 1; i >= 0; i--) {
+            if (LEVEL_SECONDS[i] <= secondsPerPixel) {
+                level = i;
+                break;
+            }
+        }
+
+        if (level < 0) {
+            // 放大到秒级时直接读位图
+            long[] words = bits[kind];
+            for (int second = from; second < to; second++) {
+                if ((words[second >>> 6] & (1L << second)) != 0) {
+                    int pixel = (int) ((second - from) / secondsPerPixel);
+                    out[Math.min(pixel, pixels - 1)] += 1f;
+                }
+            }
+        } else {
+            int bucketSeconds = LEVEL_SECONDS[level];
+            short[] buckets = rollups[kind][level];
+            int firstBucket = from / bucketSeconds;
+            int lastBucket = Math.min(buckets.length, (to + bucketSeconds - 1) / bucketSeconds);
+            for (int bucket = firstBucket; bucket < lastBucket; bucket++) {
+                int covered = buckets[bucket];
+                if (covered == 0) {
+                    continue;
+                }
+                int start = Math.max(bucket * bucketSeconds, from);
+                int pixel = (int) ((start - from) / secondsPerPixel);
+                out[Math.min(pixel, pixels - 1)] += covered;
+            }
+        }
+
+        float pixelSeconds = (float) secondsPerPixel;
+        for (int i = 0; i < pixels; i++) {
+            out[i] = Math.min(1f, out[i] / pixelSeconds);
+        }
+    }
+
+    // 序列化位图；汇总可以由位图重建，不需要持久化
+    synchronized void writeTo(ByteBuffer buffer) {
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            for (long word : bits[kind]) {
+                buffer.putLong(word);
+            }
+        }
+    }
+
+    synchronized void readFrom(ByteBuffer buffer) {
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            long[] words = bits[kind];
+            for (int i = 0; i < WORDS; i++) {
+                words[i] = buffer.getLong();
+            }
+            rebuildRollups(kind);
+        }
+    }
+
+    static int serializedSize() {
+        return KIND_COUNT * WORDS * 8;
+    }
+
+    private void rebuildRollups(int kind) {
+        for (short[] level : rollups[kind]) {
+            java.util.Arrays.fill(level, (short) 0);
+        }
+        long[] words = bits[kind];
+        for (int minute = 0; minute < SECONDS_PER_DAY / 60; minute++) {
+            int covered = countRange(words, minute * 60, minute * 60 + 60);
+            if (covered > 0) {
+                rollups[kind][0][minute] = (short) covered;
+                rollups[kind][1][minute / 10] += covered;
+                rollups[kind][2][minute / 60] += covered;
+            }
+        }
+    }
+
+    // 设置 [from, to) 位，返回原来为0的位数
+    private static int setRange(long[] words, int from, int to) {
+        int added = 0;
+        int position = from;
+        while (position < to) {
+            int word = position >>> 6;
+            int bitStart = position & 63;
+            int bitEnd = Math.min(64, bitStart + (to - position));
+            long mask = rangeMask(bitStart, bitEnd);
+            added += Long.bitCount(mask & ~words[word]);
+            words[word] |= mask;
+            position += bitEnd - bitStart;
+        }
+        return added;
+    }
+
+    private static int countRange(long[] words, int from, int to) {
+        int count = 0;
+        int position = from;
+        while (position < to) {
+            int word = position >>> 6;
+            int bitStart = position & 63;
+            int bitEnd = Math.min(64, bitStart + (to - position));
+            count += Long.bitCount(words[word] & rangeMask(bitStart, bitEnd));
+            position += bitEnd - bitStart;
+        }
+        return count;
+    }
+
+    private static long rangeMask(int bitStart, int bitEnd) {
+        long high = bitEnd == 64 ? -1L : (1L << bitEnd) - 1;
+        return high & (-1L << bitStart);
+    }
+
+    private static int clamp(int second) {
+        return Math.max(0, Math.min(SECONDS_PER_DAY, second));
+    }
+}
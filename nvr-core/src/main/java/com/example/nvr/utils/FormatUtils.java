@@ -0,0 +1,63 @@
+package com.example.nvr.utils;
+
+import java.util.Locale;
+
+// 列表、网页和统计里共用的格式化。不依赖 Android，可以在 JVM 上做基准测试
+public final class FormatUtils {
+
+    private static final String[] SIZE_UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    private FormatUtils() {
+    }
+
+    // 例如 "1.50 GB"；按二进制位数取单位，避免 log10 在 1024 整数幂附近的舍入误差
+    public static String readableSize(long bytes) {
+        if (bytes <= 0) {
+            return "0 B";
+        }
+        int digitGroups = Math.min((63 - Long.numberOfLeadingZeros(bytes)) / 10, SIZE_UNITS.length - 1);
+        return String.format(Locale.getDefault(), "%.2f %s", bytes / (double) (1L << (10 * digitGroups)),
+                SIZE_UNITS[digitGroups]);
+    }
+
+    // 不足一小时为 "m:ss"，否则为 "h:mm:ss"；列表滚动时逐行调用，直接拼接不走 Formatter
+    public static String readableDuration(long totalSeconds) {
+        long seconds = Math.max(0, totalSeconds);
+        long hours = seconds / 3600;
+        long minutes = (seconds % 3600) / 60;
+        seconds %= 60;
+        StringBuilder sb = new StringBuilder(10);
+        if (hours > 0) {
+            sb.append(hours).append(':');
+            appendTwoDigits(sb, minutes);
+        } else {
+            sb.append(minutes);
+        }
+        sb.append(':');
+        appendTwoDigits(sb, seconds);
+        return sb.toString();
+    }
+
+    // 例如 "1920x1080 H.264"；codec 为 MP4 样本描述的四字符码
+    public static String videoDescription(String codec, int width, int height) {
+        String codecName;
+        if ("avc1".equals(codec) || "avc3".equals(codec)) {
+            codecName = "H.264";
+        } else if ("hvc1".equals(codec) || "hev1".equals(codec)) {
+            codecName = "H.265";
+        } else {
+            codecName = codec != null ? codec : "";
+        }
+        if (width <= 0 || height <= 0) {
+            return codecName;
+        }
+        return codecName.isEmpty() ? width + "x" + height : width + "x" + height + " " + codecName;
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, long value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        sb.append(value);
+    }
+}
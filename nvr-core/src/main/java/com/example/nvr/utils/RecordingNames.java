@@ -0,0 +1,83 @@
+package com.example.nvr.utils;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// 录像在卷上的目录结构和文件命名：<卷>/recordings/<cameraId>/<yyyyMMdd>/recording_<cameraId>_<yyyyMMdd_HHmmss>.mp4
+// （同一秒内的后续段加 -1、-2 后缀），
+// 导出文件为 <卷>/exports/export_<cameraId>_<时间>.mp4。开始时间只记在文件名里，索引丢失后可据此重建
+public final class RecordingNames {
+
+    public static final String RECORDINGS_DIR = "recordings";
+    public static final String EXPORTS_DIR = "exports";
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+    private static final SimpleDateFormat DAY_FORMAT = new SimpleDateFormat("yyyyMMdd", Locale.getDefault());
+
+    private RecordingNames() {
+    }
+
+    // 新录制段的完整路径，不创建目录
+    public static File recordingFile(File volumeRoot, String cameraId, Date start) {
+        String timestamp;
+        synchronized (DATE_FORMAT) {
+            timestamp = DATE_FORMAT.format(start);
+        }
+        File dayDir = recordingDir(volumeRoot, cameraId, start.getTime());
+        File file = new File(dayDir, String.format("recording_%s_%s.mp4", cameraId, timestamp));
+        // 文件名只精确到秒，一秒内重启录制（刷新、切换子码流、看门狗重启）会撞上刚关闭的段，
+        // 加序号避免打开时把它截断
+        for (int suffix = 1; file.exists(); suffix++) {
+            file = new File(dayDir, String.format("recording_%s_%s-%d.mp4", cameraId, timestamp, suffix));
+        }
+        return file;
+    }
+
+    // 某一时刻开始的段所在的日期目录；配合 parseStartTimeMillis 可以由文件名直接定位文件
+    public static File recordingDir(File volumeRoot, String cameraId, long startMillis) {
+        String day;
+        synchronized (DATE_FORMAT) {
+            day = DAY_FORMAT.format(new Date(startMillis));
+        }
+        return new File(volumeRoot, RECORDINGS_DIR + File.separator + cameraId + File.separator + day);
+    }
+
+    public static File exportFile(File volumeRoot, String cameraId, long startMillis) {
+        return new File(new File(volumeRoot, EXPORTS_DIR), exportFileName(cameraId, startMillis));
+    }
+
+    // 导出文件名 export_<cameraId>_<yyyyMMdd_HHmmss>.mp4，也用作下载时的文件名
+    public static String exportFileName(String cameraId, long startMillis) {
+        String timestamp;
+        synchronized (DATE_FORMAT) {
+            timestamp = DATE_FORMAT.format(new Date(startMillis));
+        }
+        return String.format("export_%s_%s.mp4", cameraId, timestamp);
+    }
+
+    // 从文件名 recording_<cameraId>_<yyyyMMdd_HHmmss>[-序号].mp4 解析录制开始时间，无法解析时返回-1
+    public static long parseStartTimeMillis(String fileName) {
+        if (fileName == null || !fileName.endsWith(".mp4")) {
+            return -1;
+        }
+        String base = fileName.substring(0, fileName.length() - 4);
+        int suffix = base.lastIndexOf('-');
+        if (suffix > base.lastIndexOf('_')) {
+            base = base.substring(0, suffix);
+        }
+        // 时间戳固定为最后两个以下划线分隔的部分，cameraId 本身可能包含下划线
+        int timeSeparator = base.lastIndexOf('_');
+        int daySeparator = timeSeparator > 0 ? base.lastIndexOf('_', timeSeparator - 1) : -1;
+        if (daySeparator < 0) {
+            return -1;
+        }
+        try {
+            synchronized (DATE_FORMAT) {
+                return DATE_FORMAT.parse(base.substring(daySeparator + 1)).getTime();
+            }
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
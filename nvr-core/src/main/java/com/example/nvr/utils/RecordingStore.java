@@ -0,0 +1,23 @@
+package com.example.nvr.utils;
+
+import java.io.File;
+import java.util.List;
+
+// 录像存储对核心模块暴露的最小接口：按摄像头列出段、为新段和导出分配路径、报告卷故障。
+// 应用中由 StorageManager 实现（多卷、设置项），在普通 JVM 上可以用单个目录实现
+public interface RecordingStore {
+
+    // 摄像头在所有在线卷上的录制文件，按开始时间升序
+    List<File> getRecordingFilesForCamera(String cameraId);
+
+    // 为摄像头的新录制段选择卷并返回完整路径，所在目录已创建
+    String createNewRecordingFilePath(String cameraId, String cameraName);
+
+    String createExportFilePath(String cameraId, long startMillis);
+
+    // 路径所在的卷，不在任何卷上时返回null
+    StorageVolume getVolumeForPath(String path);
+
+    // 卷上的写入失败：标记离线，之后的新段换到其他卷；volume 可以为null
+    void reportFailure(StorageVolume volume);
+}
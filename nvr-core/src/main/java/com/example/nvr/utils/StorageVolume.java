@@ -0,0 +1,125 @@
+package com.example.nvr.utils;
+
+import java.io.File;
+
+// 存储池中的单个卷（内部存储、SD卡或USB盘上的一个NVR根目录）
+public class StorageVolume {
+
+    private static final long FREE_SPACE_CACHE_MS = 5000;
+    // 吞吐量指数滑动平均的权重
+    private static final double THROUGHPUT_ALPHA = 0.2;
+
+    // 平台相关的挂载状态查询，Android 上由存储池传入基于 Environment 的实现
+    public interface MountProbe {
+        boolean isMounted(File root);
+    }
+
+    private final File root;
+    private final boolean removable;
+    private final MountProbe mountProbe;
+    private volatile boolean online = true;
+    private volatile long freeSpace;
+    private volatile long totalSpace;
+    private volatile long lastRefreshMillis;
+    private volatile double bytesPerSecond;
+    private int activeWriters;
+
+    // 不查询挂载状态，只看目录是否可写
+    public StorageVolume(File root, boolean removable) {
+        this(root, removable, null);
+    }
+
+    public StorageVolume(File root, boolean removable, MountProbe mountProbe) {
+        this.root = root;
+        this.removable = removable;
+        this.mountProbe = mountProbe;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public String getPath() {
+        return root.getAbsolutePath();
+    }
+
+    public boolean isRemovable() {
+        return removable;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+
+    public long getTotalSpace() {
+        return totalSpace;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized int getActiveWriters() {
+        return activeWriters;
+    }
+
+    // 刷新挂载状态和剩余空间，statfs 结果缓存几秒避免频繁系统调用
+    public void refresh(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastRefreshMillis < FREE_SPACE_CACHE_MS) {
+            return;
+        }
+        lastRefreshMillis = now;
+
+        boolean mounted = mountProbe == null || mountProbe.isMounted(root);
+        if (mounted && !root.exists()) {
+            mounted = root.mkdirs();
+        }
+        online = mounted && root.isDirectory() && root.canWrite();
+        if (online) {
+            freeSpace = root.getUsableSpace();
+            totalSpace = root.getTotalSpace();
+        } else {
+            freeSpace = 0;
+        }
+    }
+
+    public void markOffline() {
+        online = false;
+        freeSpace = 0;
+        lastRefreshMillis = System.currentTimeMillis();
+    }
+
+    public synchronized void beginWrite() {
+        activeWriters++;
+    }
+
+    public synchronized void endWrite() {
+        if (activeWriters > 0) {
+            activeWriters--;
+        }
+    }
+
+    // 写入者上报一次写操作的字节数和耗时，用于估算设备吞吐量
+    public void recordWrite(long bytes, long elapsedNanos) {
+        if (bytes <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1e9 / elapsedNanos;
+        synchronized (this) {
+            bytesPerSecond = bytesPerSecond == 0 ? sample
+                    : bytesPerSecond + THROUGHPUT_ALPHA * (sample - bytesPerSecond);
+        }
+        // 写入会消耗空间，先扣减缓存值，下次刷新时再校正
+        freeSpace = Math.max(0, freeSpace - bytes);
+    }
+
+    @Override
+    public String toString() {
+        return getPath() + (online ? "" : " (offline)");
+    }
+}
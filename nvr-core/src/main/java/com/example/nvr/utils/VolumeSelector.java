@@ -0,0 +1,134 @@
+package com.example.nvr.utils;
+
+import com.example.nvr.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 按策略和剩余空间水位线为新录制段选择卷。卷的发现和设置项由平台侧负责，这里只处理选择逻辑。
+// 非线程安全，由调用方加锁
+public class VolumeSelector {
+
+    private static final String TAG = "VolumeSelector";
+
+    public enum Policy {
+        // 每个摄像头固定写到一个卷，新摄像头分配给摄像头最少的卷，写入带宽随卷数线性增加
+        ROUND_ROBIN_BY_CAMERA,
+        // 总是写到剩余空间最大的卷
+        MOST_FREE_SPACE,
+        // 按实测吞吐量除以当前写入数选择最快的卷
+        FASTEST
+    }
+
+    // cameraId -> 当前分配的卷
+    private final Map<String, StorageVolume> cameraAssignments = new HashMap<>();
+    private Policy policy = Policy.ROUND_ROBIN_BY_CAMERA;
+    private long minFreeBytes;
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+        cameraAssignments.clear();
+    }
+
+    public void setMinFreeBytes(long minFreeBytes) {
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    // 从卷列表中选择；所有卷都不可用时返回null。调用前应先刷新卷状态
+    public StorageVolume select(String cameraId, List<StorageVolume> volumes) {
+        List<StorageVolume> candidates = new ArrayList<>();
+        for (StorageVolume volume : volumes) {
+            if (volume.isOnline() && volume.getFreeSpace() > minFreeBytes) {
+                candidates.add(volume);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // 所有卷都低于水位线时退而求其次，选择仍在线且剩余空间最大的卷
+            StorageVolume best = null;
+            for (StorageVolume volume : volumes) {
+                if (volume.isOnline() && (best == null || volume.getFreeSpace() > best.getFreeSpace())) {
+                    best = volume;
+                }
+            }
+            if (best == null) {
+                Log.e(TAG, "No storage volume is available");
+            }
+            return best;
+        }
+
+        switch (policy) {
+            case MOST_FREE_SPACE:
+                return mostFree(candidates);
+            case FASTEST:
+                return fastest(candidates);
+            case ROUND_ROBIN_BY_CAMERA:
+            default:
+                return assignedVolume(cameraId, candidates);
+        }
+    }
+
+    // 卷离线或写入失败后，分配到该卷的摄像头重新选择
+    public void release(StorageVolume volume) {
+        cameraAssignments.values().removeAll(Collections.singleton(volume));
+    }
+
+    // 卷列表变化后丢弃指向已移除卷的分配
+    public void retainVolumes(List<StorageVolume> volumes) {
+        cameraAssignments.values().retainAll(volumes);
+    }
+
+    private StorageVolume assignedVolume(String cameraId, List<StorageVolume> candidates) {
+        String key = cameraId != null ? cameraId : "";
+        StorageVolume assigned = cameraAssignments.get(key);
+        if (assigned != null && candidates.contains(assigned)) {
+            return assigned;
+        }
+        // 新摄像头（或原卷已满/离线）分配给当前摄像头最少的卷
+        StorageVolume best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (StorageVolume volume : candidates) {
+            int count = 0;
+            for (StorageVolume other : cameraAssignments.values()) {
+                if (other == volume) count++;
+            }
+            if (count < bestCount || (count == bestCount && volume.getFreeSpace() > best.getFreeSpace())) {
+                best = volume;
+                bestCount = count;
+            }
+        }
+        cameraAssignments.put(key, best);
+        return best;
+    }
+
+    private static StorageVolume mostFree(List<StorageVolume> candidates) {
+        StorageVolume best = candidates.get(0);
+        for (StorageVolume volume : candidates) {
+            if (volume.getFreeSpace() > best.getFreeSpace()) {
+                best = volume;
+            }
+        }
+        return best;
+    }
+
+    private static StorageVolume fastest(List<StorageVolume> candidates) {
+        StorageVolume best = null;
+        double bestScore = -1;
+        for (StorageVolume volume : candidates) {
+            // 尚未测得吞吐量的卷优先被选中，以便尽快获得样本
+            double throughput = volume.getBytesPerSecond() > 0 ? volume.getBytesPerSecond() : Double.MAX_VALUE;
+            double score = throughput / (volume.getActiveWriters() + 1);
+            if (score > bestScore) {
+                best = volume;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
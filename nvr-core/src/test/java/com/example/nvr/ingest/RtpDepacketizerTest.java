@@ -0,0 +1,264 @@
+package com.example.nvr.ingest;
+
+import com.example.nvr.media.NalUnits;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RtpDepacketizerTest {
+
+    private static final byte[] SPS = {0x67, 0x42, 0x00, 0x1F, (byte) 0x96};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] IDR = nal(0x65, 300);
+    private static final byte[] SLICE = nal(0x41, 40);
+
+    @Test
+    public void singleNalUnitsBecomeLengthPrefixedFrames() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(1, 0, true, IDR));
+        AccessUnit unit = depacketizer.poll();
+        assertTrue(unit.keyframe);
+        assertEquals(0, unit.timestamp);
+        assertArrayEquals(prefixed(IDR), Arrays.copyOf(unit.data, unit.length));
+        assertNull(depacketizer.poll());
+    }
+
+    @Test
+    public void stapAKeepsParameterSetsOutOfTheFrame() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(1, 0, true, aggregate(new byte[]{0x18}, SPS, PPS, IDR)));
+        AccessUnit unit = depacketizer.poll();
+        assertTrue(unit.keyframe);
+        assertArrayEquals(prefixed(IDR), Arrays.copyOf(unit.data, unit.length));
+        assertArrayEquals(SPS, depacketizer.getSps());
+        assertArrayEquals(PPS, depacketizer.getPps());
+        assertTrue(depacketizer.takeParameterSetsChanged());
+        assertFalse(depacketizer.takeParameterSetsChanged());
+    }
+
+    @Test
+    public void fuAFragmentsAreReassembled() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        List<byte[]> fragments = fuA(IDR, 80);
+        assertEquals(4, fragments.size());
+        for (int i = 0; i < fragments.size(); i++) {
+            push(depacketizer, packet(10 + i, 0, i == fragments.size() - 1, fragments.get(i)));
+        }
+        AccessUnit unit = depacketizer.poll();
+        assertTrue(unit.keyframe);
+        assertArrayEquals(prefixed(IDR), Arrays.copyOf(unit.data, unit.length));
+        assertEquals(0, depacketizer.getLostPackets());
+    }
+
+    @Test
+    public void lostFragmentDropsFramesUntilNextKeyframe() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        List<byte[]> fragments = fuA(IDR, 80);
+        int sequence = 0;
+        for (int i = 0; i < fragments.size(); i++) {
+            if (i == 1) {
+                sequence++;
+                continue;
+            }
+            push(depacketizer, packet(sequence++, 0, i == fragments.size() - 1, fragments.get(i)));
+        }
+        // 不完整的关键帧和依赖它的 P 帧都不输出
+        push(depacketizer, packet(sequence++, 3600, true, SLICE));
+        assertNull(depacketizer.poll());
+        assertEquals(1, depacketizer.getLostPackets());
+
+        push(depacketizer, packet(sequence, 7200, true, IDR));
+        AccessUnit unit = depacketizer.poll();
+        assertTrue(unit.keyframe);
+        assertEquals(7200, unit.timestamp);
+    }
+
+    @Test
+    public void h265AggregationAndFragmentsAreReassembled() {
+        byte[] vps = {0x40, 0x01, 0x0C, 0x01};
+        byte[] sps = {0x42, 0x01, 0x01, 0x01, 0x60};
+        byte[] pps = {0x44, 0x01, (byte) 0xC1, 0x72};
+        byte[] idr = new byte[250];
+        idr[0] = 19 << 1; // IDR_W_RADL
+        idr[1] = 0x01;
+        for (int i = 2; i < idr.length; i++) {
+            idr[i] = (byte) (i * 3);
+        }
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H265);
+        push(depacketizer, packet(1, 0, false, aggregate(new byte[]{(byte) (48 << 1), 0x01}, vps, sps, pps)));
+
+        // FU 头：PayloadHdr(2，类型 49) + FU header(1)
+        int[] cuts = {2, 100, 200, idr.length};
+        for (int i = 0; i + 1 < cuts.length; i++) {
+            ByteArrayOutputStream fu = new ByteArrayOutputStream();
+            fu.write((idr[0] & 0x81) | (49 << 1));
+            fu.write(idr[1]);
+            fu.write((i == 0 ? 0x80 : 0) | (i == cuts.length - 2 ? 0x40 : 0) | 19);
+            fu.write(idr, cuts[i], cuts[i + 1] - cuts[i]);
+            push(depacketizer, packet(2 + i, 0, i == cuts.length - 2, fu.toByteArray()));
+        }
+        AccessUnit unit = depacketizer.poll();
+        assertTrue(unit.keyframe);
+        assertArrayEquals(prefixed(idr), Arrays.copyOf(unit.data, unit.length));
+        assertArrayEquals(vps, depacketizer.getVps());
+        assertArrayEquals(sps, depacketizer.getSps());
+        assertArrayEquals(pps, depacketizer.getPps());
+    }
+
+    @Test
+    public void sequenceWrapIsNotLoss() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(65534, 0, true, IDR));
+        push(depacketizer, packet(65535, 3600, true, SLICE));
+        push(depacketizer, packet(0, 7200, true, SLICE));
+        push(depacketizer, packet(1, 10800, true, SLICE));
+        assertEquals(4, drain(depacketizer).size());
+        assertEquals(0, depacketizer.getLostPackets());
+    }
+
+    @Test
+    public void gapAcrossWrapIsCountedAsLoss() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(65534, 0, true, IDR));
+        push(depacketizer, packet(2, 3600, true, IDR));
+        assertEquals(3, depacketizer.getLostPackets());
+        // 缺包之后的那一帧按不完整丢弃
+        assertEquals(1, drain(depacketizer).size());
+    }
+
+    @Test
+    public void duplicateAndLatePacketsAreDropped() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(100, 0, true, IDR));
+        push(depacketizer, packet(101, 3600, true, SLICE));
+        push(depacketizer, packet(101, 3600, true, SLICE));
+        push(depacketizer, packet(99, 0, true, IDR));
+        push(depacketizer, packet(102, 7200, true, SLICE));
+        List<AccessUnit> units = drain(depacketizer);
+        assertEquals(3, units.size());
+        assertEquals(7200, units.get(2).timestamp);
+        assertEquals(0, depacketizer.getLostPackets());
+    }
+
+    @Test
+    public void sequenceResetResynchronizesWithoutCountingLoss() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(100, 0, true, IDR));
+        push(depacketizer, packet(40000, 3600, true, SLICE));
+        push(depacketizer, packet(40001, 7200, true, IDR));
+        push(depacketizer, packet(40002, 10800, true, SLICE));
+        List<AccessUnit> units = drain(depacketizer);
+        // 跳变后的第一帧按不完整处理，从下一个关键帧恢复
+        assertEquals(3, units.size());
+        assertEquals(7200, units.get(1).timestamp);
+        assertEquals(0, depacketizer.getLostPackets());
+    }
+
+    @Test
+    public void timestampsAreUnwrappedAcrossThe32BitBoundary() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        long start = 0xFFFFFFFFL - 3600 + 1;
+        push(depacketizer, packet(1, start, true, IDR));
+        push(depacketizer, packet(2, 0, true, SLICE));
+        push(depacketizer, packet(3, 3600, true, SLICE));
+        List<AccessUnit> units = drain(depacketizer);
+        assertEquals(3, units.size());
+        assertEquals(0, units.get(0).timestamp);
+        assertEquals(3600, units.get(1).timestamp);
+        assertEquals(7200, units.get(2).timestamp);
+    }
+
+    @Test
+    public void frameEndsOnTimestampChangeWithoutMarker() {
+        RtpDepacketizer depacketizer = new RtpDepacketizer(NalUnits.CODEC_H264);
+        push(depacketizer, packet(1, 0, false, IDR));
+        assertNull(depacketizer.poll());
+        push(depacketizer, packet(2, 3600, false, SLICE));
+        AccessUnit unit = depacketizer.poll();
+        assertTrue(unit.keyframe);
+        assertEquals(0, unit.timestamp);
+    }
+
+    private static void push(RtpDepacketizer depacketizer, byte[] packet) {
+        depacketizer.push(packet, 0, packet.length);
+    }
+
+    private static List<AccessUnit> drain(RtpDepacketizer depacketizer) {
+        List<AccessUnit> units = new ArrayList<>();
+        AccessUnit unit;
+        while ((unit = depacketizer.poll()) != null) {
+            units.add(unit);
+        }
+        return units;
+    }
+
+    private static byte[] packet(int sequence, long timestamp, boolean marker, byte[] payload) {
+        byte[] packet = new byte[12 + payload.length];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) ((marker ? 0x80 : 0) | 96);
+        packet[2] = (byte) (sequence >>> 8);
+        packet[3] = (byte) sequence;
+        packet[4] = (byte) (timestamp >>> 24);
+        packet[5] = (byte) (timestamp >>> 16);
+        packet[6] = (byte) (timestamp >>> 8);
+        packet[7] = (byte) timestamp;
+        System.arraycopy(payload, 0, packet, 12, payload.length);
+        return packet;
+    }
+
+    private static byte[] nal(int header, int length) {
+        byte[] nal = new byte[length];
+        nal[0] = (byte) header;
+        for (int i = 1; i < length; i++) {
+            nal[i] = (byte) (i * 7 + 1);
+        }
+        return nal;
+    }
+
+    private static byte[] prefixed(byte[] nal) {
+        byte[] out = new byte[4 + nal.length];
+        out[0] = (byte) (nal.length >>> 24);
+        out[1] = (byte) (nal.length >>> 16);
+        out[2] = (byte) (nal.length >>> 8);
+        out[3] = (byte) nal.length;
+        System.arraycopy(nal, 0, out, 4, nal.length);
+        return out;
+    }
+
+    // STAP-A / AP：聚合头之后每个 NAL 前加2字节长度
+    private static byte[] aggregate(byte[] header, byte[]... nals) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header, 0, header.length);
+        for (byte[] nal : nals) {
+            out.write(nal.length >>> 8);
+            out.write(nal.length);
+            out.write(nal, 0, nal.length);
+        }
+        return out.toByteArray();
+    }
+
+    // 按 maxPayload 把一个 H.264 NAL 切成 FU-A 分片
+    private static List<byte[]> fuA(byte[] nal, int maxPayload) {
+        List<byte[]> fragments = new ArrayList<>();
+        int type = nal[0] & 0x1F;
+        for (int p = 1; p < nal.length; p += maxPayload) {
+            int length = Math.min(maxPayload, nal.length - p);
+            byte[] fragment = new byte[2 + length];
+            fragment[0] = (byte) ((nal[0] & 0xE0) | 28);
+            fragment[1] = (byte) ((p == 1 ? 0x80 : 0) | (p + length == nal.length ? 0x40 : 0) | type);
+            System.arraycopy(nal, p, fragment, 2, length);
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+}
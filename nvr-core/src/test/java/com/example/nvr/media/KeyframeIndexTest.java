@@ -0,0 +1,97 @@
+package com.example.nvr.media;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyframeIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // 关键帧在 0、2、4 秒
+    private KeyframeIndex write(long baseOffset, long... ptsUs) throws IOException {
+        File file = folder.newFile();
+        try (KeyframeIndexWriter writer = new KeyframeIndexWriter(file, 1000L, baseOffset)) {
+            for (int i = 0; i < ptsUs.length; i++) {
+                writer.append(ptsUs[i], 100L * (i + 1), 10 + i);
+            }
+        }
+        return KeyframeIndex.open(file);
+    }
+
+    @Test
+    public void floorFindsLastKeyframeAtOrBefore() throws IOException {
+        KeyframeIndex index = write(0, 0, 2000000, 4000000);
+        assertEquals(3, index.size());
+        assertEquals(0, index.floorIndex(0));
+        assertEquals(0, index.floorIndex(1999999));
+        assertEquals(1, index.floorIndex(2000000));
+        assertEquals(1, index.floorIndex(3000000));
+        assertEquals(2, index.floorIndex(4000000));
+        assertEquals(2, index.floorIndex(Long.MAX_VALUE));
+        // 早于第一个关键帧时退到第一个
+        assertEquals(0, index.floorIndex(-1));
+    }
+
+    @Test
+    public void ceilingFindsFirstKeyframeAtOrAfter() throws IOException {
+        KeyframeIndex index = write(0, 0, 2000000, 4000000);
+        assertEquals(0, index.ceilingIndex(-1));
+        assertEquals(0, index.ceilingIndex(0));
+        assertEquals(1, index.ceilingIndex(1));
+        assertEquals(1, index.ceilingIndex(2000000));
+        assertEquals(2, index.ceilingIndex(2000001));
+        assertEquals(-1, index.ceilingIndex(4000001));
+    }
+
+    @Test
+    public void singleEntryAndEmptyIndex() throws IOException {
+        KeyframeIndex single = write(0, 500000);
+        assertEquals(0, single.floorIndex(0));
+        assertEquals(0, single.floorIndex(600000));
+        assertEquals(0, single.ceilingIndex(500000));
+        assertEquals(-1, single.ceilingIndex(500001));
+
+        KeyframeIndex empty = write(0);
+        assertTrue(empty.isEmpty());
+        assertEquals(-1, empty.floorIndex(0));
+        assertEquals(-1, empty.ceilingIndex(0));
+    }
+
+    @Test
+    public void outOfOrderEntriesAreIgnored() throws IOException {
+        KeyframeIndex index = write(0, 0, 2000000, 1000000, 2000000, 4000000);
+        assertEquals(3, index.size());
+        assertEquals(4000000, index.getPtsUs(2));
+        assertEquals(500, index.getOffset(2));
+        assertEquals(14, index.getSize(2));
+    }
+
+    @Test
+    public void recordsCarryBaseOffsetAndHeader() throws IOException {
+        KeyframeIndex index = write(48, 0, 2000000);
+        assertTrue(index.hasAbsoluteOffsets());
+        assertEquals(1000L, index.getStartTimeMillis());
+        assertEquals(148, index.getOffset(0));
+        assertEquals(248, index.getOffset(1));
+
+        KeyframeIndex pending = write(-1, 0);
+        assertFalse(pending.hasAbsoluteOffsets());
+        assertEquals(100, pending.getOffset(0));
+    }
+
+    @Test
+    public void sidecarReplacesExtension() {
+        File media = new File("/data/recordings/cam/20240101/recording_cam_20240101_120000-1.mp4");
+        assertEquals(new File(media.getParentFile(), "recording_cam_20240101_120000-1.kfi"),
+                KeyframeIndex.sidecarFor(media));
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.nvr.media;
+
+import com.example.nvr.ingest.AccessUnit;
+import com.example.nvr.ingest.RtpDepacketizer;
+import com.example.nvr.ingest.RtspClient;
+import com.example.nvr.simulator.CameraProfile;
+import com.example.nvr.simulator.SimulatorServer;
+import com.example.nvr.utils.RecordingNames;
+import com.example.nvr.utils.RecordingStore;
+import com.example.nvr.utils.StorageVolume;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// 回环上跑完整的录制管线：模拟摄像头 -> RtspClient -> RtpDepacketizer -> FragmentedMp4Writer，
+// 再用 Mp4Probe 和 Mp4SampleTable 读回成品文件
+public class SimulatorRecordingTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAME_RATE = 50;
+    private static final int GOP_FRAMES = 25;
+    private static final int GOPS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SimulatorServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new SimulatorServer(0);
+        server.addCamera(new CameraProfile().setName("test").setResolution(WIDTH, HEIGHT)
+                .setFrameRate(FRAME_RATE).setBitrateKbps(500).setGopFrames(GOP_FRAMES));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void recordsWholeGopsAsFragments() throws IOException {
+        File file = folder.newFile("recording_test.mp4");
+        int frames = record(file);
+        assertEquals(GOPS * GOP_FRAMES, frames);
+
+        Mp4Probe.Info info = Mp4Probe.probe(file);
+        assertTrue(info.fragmented);
+        assertEquals("avc1", info.codec);
+        assertEquals(WIDTH, info.width);
+        assertEquals(HEIGHT, info.height);
+        assertEquals(GOPS * GOP_FRAMES * 1000L / FRAME_RATE, info.durationMillis);
+
+        Mp4SampleTable table = Mp4SampleTable.load(file);
+        assertEquals(GOPS * GOP_FRAMES, table.getSampleCount());
+        int sync = 0;
+        for (int i = 0; i < table.getSampleCount(); i++) {
+            if (table.isSync(i)) {
+                assertEquals("keyframe at " + i, 0, i % GOP_FRAMES);
+                sync++;
+            }
+        }
+        assertEquals(GOPS, sync);
+        assertEquals(GOPS, countTfraEntries(file));
+    }
+
+    @Test
+    public void exportChecksFreeSpaceBeforeCopying() throws IOException {
+        long start = System.currentTimeMillis() / 1000 * 1000;
+        File segment = RecordingNames.recordingFile(folder.getRoot(), "test", new Date(start));
+        assertTrue(segment.getParentFile().mkdirs());
+        record(segment);
+        ClipExporter exporter = new ClipExporter(new RecordingStore() {
+            @Override
+            public List<File> getRecordingFilesForCamera(String cameraId) {
+                return Collections.singletonList(segment);
+            }
+
+            @Override
+            public String createNewRecordingFilePath(String cameraId, String cameraName) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String createExportFilePath(String cameraId, long startMillis) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public StorageVolume getVolumeForPath(String path) {
+                return null;
+            }
+
+            @Override
+            public void reportFailure(StorageVolume volume) {
+            }
+        });
+        File output = new File(folder.getRoot(), "exports/clip.mp4");
+
+        // 保留空间超过磁盘剩余空间时在拷贝前拒绝，不留下任何文件
+        exporter.setMinFreeBytes(Long.MAX_VALUE / 4);
+        try {
+            exporter.export("test", start, start + 1000, output);
+            fail("Export should have been refused");
+        } catch (ClipExporter.InsufficientSpaceException expected) {
+        }
+        assertFalse(output.exists());
+        assertFalse(new File(output.getPath() + ".tmp").exists());
+
+        exporter.setMinFreeBytes(0);
+        ClipExporter.Result result = exporter.export("test", start, start + 1000, output);
+        assertTrue(result.sampleCount > 0);
+        assertEquals(output.length(), result.bytes);
+    }
+
+    // 从第一个关键帧开始录 GOPS 个完整的 GOP，每个 GOP 写成一个分片，返回写入的帧数
+    private int record(File file) throws IOException {
+        List<FragmentedMp4Writer.Sample> gop = new ArrayList<>();
+        FragmentedMp4Writer writer = null;
+        long firstTimestamp = 0;
+        int gops = 0;
+        int frames = 0;
+        try (RtspClient client = new RtspClient(server.getUrl(0), 5000)) {
+            client.start();
+            RtpDepacketizer depacketizer = new RtpDepacketizer(client.getCodec());
+            for (byte[] parameterSet : client.getParameterSets()) {
+                depacketizer.setParameterSet(parameterSet);
+            }
+            byte[] packet = new byte[65536];
+            while (gops < GOPS) {
+                int length = client.readRtpPacket(packet);
+                depacketizer.push(packet, 0, length);
+                AccessUnit unit;
+                while (gops < GOPS && (unit = depacketizer.poll()) != null) {
+                    if (writer == null) {
+                        if (!unit.keyframe) {
+                            continue;
+                        }
+                        NalUnits.SpsInfo sps = NalUnits.parseH264Sps(depacketizer.getSps());
+                        byte[] entry = NalUnits.buildAvc1Entry(depacketizer.getSps(), depacketizer.getPps(), sps);
+                        writer = new FragmentedMp4Writer(file, entry, sps.width, sps.height, System.currentTimeMillis());
+                        firstTimestamp = unit.timestamp;
+                    } else if (unit.keyframe) {
+                        flush(writer, gop, unit.timestamp - firstTimestamp);
+                        frames += gop.size();
+                        gop.clear();
+                        gops++;
+                        if (gops == GOPS) {
+                            break;
+                        }
+                    }
+                    gop.add(new FragmentedMp4Writer.Sample(unit.data, 0, unit.length,
+                            unit.timestamp - firstTimestamp, unit.keyframe));
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return frames;
+    }
+
+    private static void flush(FragmentedMp4Writer writer, List<FragmentedMp4Writer.Sample> gop, long nextTime)
+            throws IOException {
+        for (int i = 0; i < gop.size(); i++) {
+            long next = i + 1 < gop.size() ? gop.get(i + 1).decodeTime : nextTime;
+            gop.get(i).duration = (int) (next - gop.get(i).decodeTime);
+        }
+        writer.writeFragment(gop);
+    }
+
+    // 文件末尾的 mfro 指回 mfra，tfra 中每个分片一条记录，偏移指向对应的 moof
+    private static int countTfraEntries(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer scratch = ByteBuffer.allocate(16);
+            channel.read(scratch, channel.size() - 16);
+            assertEquals(Mp4Boxes.MFRO, scratch.getInt(4));
+            long mfraOffset = channel.size() - (scratch.getInt(12) & 0xFFFFFFFFL);
+            Mp4Boxes.Box mfra = Mp4Boxes.readBoxHeader(channel, mfraOffset, scratch);
+            assertNotNull(mfra);
+            assertEquals(Mp4Boxes.MFRA, mfra.type);
+            ByteBuffer tfra = Mp4Boxes.findChild(Mp4Boxes.readPayload(channel, mfra), Mp4Boxes.TFRA);
+            assertNotNull(tfra);
+            // version 1：版本和标志、track_ID、长度字段之后是条目数，每条 8+8+3 字节
+            int entries = tfra.getInt(12);
+            for (int i = 0; i < entries; i++) {
+                long moofOffset = tfra.getLong(16 + i * 19 + 8);
+                Mp4Boxes.Box moof = Mp4Boxes.readBoxHeader(channel, moofOffset, scratch);
+                assertNotNull(moof);
+                assertEquals(Mp4Boxes.MOOF, moof.type);
+            }
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.nvr.recording;
+
+import com.example.nvr.ingest.RtspClient;
+import com.example.nvr.media.KeyframeIndex;
+import com.example.nvr.media.Mp4Probe;
+import com.example.nvr.media.Mp4SampleTable;
+import com.example.nvr.simulator.CameraProfile;
+import com.example.nvr.simulator.SimulatorServer;
+import com.example.nvr.utils.RecordingNames;
+import com.example.nvr.utils.RecordingStore;
+import com.example.nvr.utils.StorageVolume;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// 回环上跑完整的录制循环：模拟摄像头按 0.5 秒一个 GOP 推流，段长 1 秒，在关键帧处切段
+public class StreamRecorderTest {
+
+    private static final int FRAME_RATE = 50;
+    private static final int GOP_FRAMES = 25;
+    private static final long SEGMENT_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SimulatorServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new SimulatorServer(0);
+        server.addCamera(new CameraProfile().setName("test").setResolution(320, 240)
+                .setFrameRate(FRAME_RATE).setBitrateKbps(500).setGopFrames(GOP_FRAMES));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void recordsSegmentsAndFinishesThemOnStop() throws Exception {
+        StorageVolume volume = new StorageVolume(folder.getRoot(), false);
+        DirectoryStore store = new DirectoryStore(volume);
+        RecordingListener listener = new RecordingListener();
+        StreamRecorder recorder = new StreamRecorder("cam1", "Test", server.getUrl(0), SEGMENT_MILLIS,
+                store, StreamRecorder.SYSTEM_CLOCK, listener);
+        recorder.start(runnable -> new Thread(runnable, "recorder-test"));
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (listener.closed.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            recorder.stop();
+            recorder.awaitStop(5000);
+        }
+
+        assertEquals(StreamRecorder.State.STOPPED, recorder.getState());
+        assertEquals(1, listener.stopped.get());
+        assertEquals(1, listener.sessions.get());
+        assertNull(recorder.getCurrentFilePath());
+        // 停止时正在写的段也已收尾
+        assertEquals(listener.opened.size(), listener.closed.size());
+        assertTrue(listener.closed.size() >= 2);
+        assertEquals(0, volume.getActiveWriters());
+        assertTrue(recorder.getBytesWritten() > 0);
+
+        for (int i = 0; i < listener.closed.size(); i++) {
+            File file = listener.closed.get(i);
+            assertTrue(RecordingNames.parseStartTimeMillis(file.getName()) >= 0);
+            Mp4Probe.Info info = Mp4Probe.probe(file);
+            assertTrue(info.fragmented);
+            assertEquals(listener.durations.get(i).longValue(), info.durationMillis);
+            // 每段从关键帧开始；切段发生在关键帧处，只有停止时的最后一段可能以半个 GOP 结束
+            Mp4SampleTable table = Mp4SampleTable.load(file);
+            int samples = table.getSampleCount();
+            assertTrue(table.isSync(0));
+            if (i < listener.closed.size() - 1) {
+                assertEquals(0, samples % GOP_FRAMES);
+            }
+            KeyframeIndex index = KeyframeIndex.open(KeyframeIndex.sidecarFor(file));
+            assertEquals((samples + GOP_FRAMES - 1) / GOP_FRAMES, index.size());
+        }
+        // 没有关闭完成的段（如开头的空段）不留文件
+        assertEquals(listener.closed.size(), store.getRecordingFilesForCamera("cam1").size());
+    }
+
+    // 单卷的最小实现，目录结构与应用相同
+    private static final class DirectoryStore implements RecordingStore {
+
+        private final StorageVolume volume;
+        private final List<File> files = new ArrayList<>();
+
+        DirectoryStore(StorageVolume volume) {
+            this.volume = volume;
+        }
+
+        @Override
+        public synchronized List<File> getRecordingFilesForCamera(String cameraId) {
+            List<File> existing = new ArrayList<>();
+            for (File file : files) {
+                if (file.exists()) {
+                    existing.add(file);
+                }
+            }
+            return existing;
+        }
+
+        @Override
+        public synchronized String createNewRecordingFilePath(String cameraId, String cameraName) {
+            File file = RecordingNames.recordingFile(volume.getRoot(), cameraId, new Date());
+            assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            files.add(file);
+            return file.getAbsolutePath();
+        }
+
+        @Override
+        public String createExportFilePath(String cameraId, long startMillis) {
+            return RecordingNames.exportFile(volume.getRoot(), cameraId, startMillis).getAbsolutePath();
+        }
+
+        @Override
+        public StorageVolume getVolumeForPath(String path) {
+            return path.startsWith(volume.getPath() + File.separator) ? volume : null;
+        }
+
+        @Override
+        public void reportFailure(StorageVolume failed) {
+            throw new AssertionError("Unexpected write failure on " + failed);
+        }
+    }
+
+    private static final class RecordingListener implements StreamRecorder.Listener {
+
+        final List<File> opened = Collections.synchronizedList(new ArrayList<File>());
+        final List<File> closed = Collections.synchronizedList(new ArrayList<File>());
+        final List<Long> durations = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger sessions = new AtomicInteger();
+        final AtomicInteger stopped = new AtomicInteger();
+
+        @Override
+        public void onSessionStarted(RtspClient session) {
+            sessions.incrementAndGet();
+        }
+
+        @Override
+        public void onSegmentOpened(File file) {
+            opened.add(file);
+        }
+
+        @Override
+        public void onSegmentClosed(File file, long startMillis, long durationMillis) {
+            durations.add(durationMillis);
+            closed.add(file);
+        }
+
+        @Override
+        public void onStopped() {
+            stopped.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.nvr.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpServerTest {
+
+    private static final int FILE_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        File file = folder.newFile("segment.mp4");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        server = new HttpServer(0);
+        server.addRoute("/file", request -> HttpServer.Response.file(file, "video/mp4"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void parseRangeHandlesSingleAndSuffixRanges() {
+        assertArrayEquals(new long[]{0, 99}, HttpServer.parseRange("bytes=0-99", FILE_SIZE));
+        assertArrayEquals(new long[]{900, 999}, HttpServer.parseRange("bytes=900-", FILE_SIZE));
+        assertArrayEquals(new long[]{990, 999}, HttpServer.parseRange("bytes=990-5000", FILE_SIZE));
+        assertArrayEquals(new long[]{900, 999}, HttpServer.parseRange("bytes=-100", FILE_SIZE));
+        assertArrayEquals(new long[]{0, 999}, HttpServer.parseRange("bytes=-5000", FILE_SIZE));
+    }
+
+    @Test
+    public void parseRangeRejectsUnsatisfiableRanges() {
+        assertNull(HttpServer.parseRange("bytes=1000-", FILE_SIZE));
+        assertNull(HttpServer.parseRange("bytes=20-10", FILE_SIZE));
+        assertNull(HttpServer.parseRange("bytes=-0", FILE_SIZE));
+        assertNull(HttpServer.parseRange("bytes=-10", 0));
+    }
+
+    @Test
+    public void parseRangeIgnoresUnsupportedForms() {
+        // 多段和无法识别的格式按整个文件响应
+        assertEquals(0, HttpServer.parseRange("bytes=0-1,5-6", FILE_SIZE).length);
+        assertEquals(0, HttpServer.parseRange("items=0-1", FILE_SIZE).length);
+        assertEquals(0, HttpServer.parseRange("bytes=a-b", FILE_SIZE).length);
+    }
+
+    @Test
+    public void servesWholeFile() throws IOException {
+        server.start();
+        Reply reply = request("GET", "/file", null);
+        assertEquals(200, reply.status);
+        assertEquals("bytes", reply.headers.get("accept-ranges"));
+        assertEquals(String.valueOf(FILE_SIZE), reply.headers.get("content-length"));
+        assertArrayEquals(content, reply.body);
+    }
+
+    @Test
+    public void servesSingleRange() throws IOException {
+        server.start();
+        Reply reply = request("GET", "/file", "bytes=10-19");
+        assertEquals(206, reply.status);
+        assertEquals("bytes 10-19/" + FILE_SIZE, reply.headers.get("content-range"));
+        assertArrayEquals(Arrays.copyOfRange(content, 10, 20), reply.body);
+    }
+
+    @Test
+    public void servesSuffixRange() throws IOException {
+        server.start();
+        Reply reply = request("GET", "/file", "bytes=-10");
+        assertEquals(206, reply.status);
+        assertEquals("bytes 990-999/" + FILE_SIZE, reply.headers.get("content-range"));
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 10, FILE_SIZE), reply.body);
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRange() throws IOException {
+        server.start();
+        Reply reply = request("GET", "/file", "bytes=5000-");
+        assertEquals(416, reply.status);
+        assertEquals("bytes */" + FILE_SIZE, reply.headers.get("content-range"));
+        assertEquals(0, reply.body.length);
+    }
+
+    @Test
+    public void headSendsHeadersWithoutBody() throws IOException {
+        server.start();
+        Reply reply = request("HEAD", "/file", null);
+        assertEquals(200, reply.status);
+        assertEquals(String.valueOf(FILE_SIZE), reply.headers.get("content-length"));
+        assertEquals(0, reply.body.length);
+
+        reply = request("HEAD", "/file", "bytes=0-9");
+        assertEquals(206, reply.status);
+        assertEquals("10", reply.headers.get("content-length"));
+        assertEquals(0, reply.body.length);
+    }
+
+    @Test
+    public void deletesTemporaryFileAfterSending() throws Exception {
+        File clip = folder.newFile("clip.mp4");
+        try (OutputStream out = new FileOutputStream(clip)) {
+            out.write(content);
+        }
+        server.addRoute("/clip", request -> HttpServer.Response.file(clip, "video/mp4").deleteAfterSend());
+        server.start();
+        Reply reply = request("GET", "/clip", null);
+        assertEquals(200, reply.status);
+        assertArrayEquals(content, reply.body);
+        // 删除在写完响应之后进行，客户端可能先读完
+        for (int i = 0; i < 100 && clip.exists(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(clip.exists());
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        server.start();
+        assertEquals(404, request("GET", "/missing", null).status);
+    }
+
+    @Test
+    public void rejectsConnectionsBeyondPoolAndQueue() throws Exception {
+        CountDownLatch entered = new CountDownLatch(HttpServer.MAX_CONNECTIONS);
+        CountDownLatch release = new CountDownLatch(1);
+        server.addRoute("/block", request -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return HttpServer.Response.text(200, "text/plain", "done");
+        });
+        server.start();
+
+        List<Socket> busy = new ArrayList<>();
+        try {
+            // 占满所有连接线程
+            for (int i = 0; i < HttpServer.MAX_CONNECTIONS; i++) {
+                Socket socket = open();
+                send(socket, "GET", "/block", null);
+                busy.add(socket);
+            }
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            // 再占满等待队列；接受按顺序进行，下一个连接一定在这些之后
+            for (int i = 0; i < HttpServer.MAX_PENDING; i++) {
+                busy.add(open());
+            }
+            try (Socket rejected = open()) {
+                Reply reply = read(rejected);
+                assertEquals(503, reply.status);
+            }
+
+            release.countDown();
+            Reply first = read(busy.get(0));
+            assertEquals(200, first.status);
+            assertEquals("done", new String(first.body, StandardCharsets.UTF_8));
+        } finally {
+            release.countDown();
+            for (Socket socket : busy) {
+                socket.close();
+            }
+        }
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private Reply request(String method, String path, String range) throws IOException {
+        try (Socket socket = open()) {
+            send(socket, method, path, range);
+            return read(socket);
+        }
+    }
+
+    private static void send(Socket socket, String method, String path, String range) throws IOException {
+        StringBuilder request = new StringBuilder();
+        request.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        request.append("Host: localhost\r\nConnection: close\r\n");
+        if (range != null) {
+            request.append("Range: ").append(range).append("\r\n");
+        }
+        request.append("\r\n");
+        socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        socket.getOutputStream().flush();
+    }
+
+    // 读到连接关闭为止，拆出状态码、头部和正文
+    private static Reply read(Socket socket) throws IOException {
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, n);
+        }
+        byte[] raw = buffer.toByteArray();
+        int headerEnd = -1;
+        for (int i = 0; i + 3 < raw.length; i++) {
+            if (raw[i] == '\r' && raw[i + 1] == '\n' && raw[i + 2] == '\r' && raw[i + 3] == '\n') {
+                headerEnd = i;
+                break;
+            }
+        }
+        if (headerEnd < 0) {
+            throw new IOException("Incomplete response");
+        }
+        String[] lines = new String(raw, 0, headerEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+        Reply reply = new Reply();
+        reply.status = Integer.parseInt(lines[0].split(" ")[1]);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            reply.headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                    lines[i].substring(colon + 1).trim());
+        }
+        reply.body = Arrays.copyOfRange(raw, headerEnd + 4, raw.length);
+        return reply;
+    }
+
+    private static final class Reply {
+        int status;
+        final Map<String, String> headers = new HashMap<>();
+        byte[] body;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.nvr.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingNamesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static long millis(int year, int month, int day, int hour, int minute, int second) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void parsesStartTime() {
+        long expected = millis(2024, 3, 15, 8, 30, 5);
+        assertEquals(expected, RecordingNames.parseStartTimeMillis("recording_cam1_20240315_083005.mp4"));
+        // cameraId 本身带下划线
+        assertEquals(expected, RecordingNames.parseStartTimeMillis("recording_front_door_2_20240315_083005.mp4"));
+    }
+
+    @Test
+    public void parsesStartTimeWithCollisionSuffix() {
+        long expected = millis(2024, 3, 15, 8, 30, 5);
+        assertEquals(expected, RecordingNames.parseStartTimeMillis("recording_cam1_20240315_083005-1.mp4"));
+        assertEquals(expected, RecordingNames.parseStartTimeMillis("recording_cam1_20240315_083005-12.mp4"));
+        // cameraId 中的连字符不是后缀
+        assertEquals(expected, RecordingNames.parseStartTimeMillis("recording_bench-3_20240315_083005.mp4"));
+    }
+
+    @Test
+    public void rejectsUnparseableNames() {
+        assertEquals(-1, RecordingNames.parseStartTimeMillis(null));
+        assertEquals(-1, RecordingNames.parseStartTimeMillis("recording_cam1_20240315_083005.kfi"));
+        assertEquals(-1, RecordingNames.parseStartTimeMillis("recording.mp4"));
+        assertEquals(-1, RecordingNames.parseStartTimeMillis("recording_cam1_notadate.mp4"));
+        assertEquals(-1, RecordingNames.parseStartTimeMillis("export_cam1.mp4"));
+    }
+
+    @Test
+    public void recordingFileUsesCameraAndDayDirectories() {
+        File root = folder.getRoot();
+        Date start = new Date(millis(2024, 3, 15, 8, 30, 5));
+        File file = RecordingNames.recordingFile(root, "cam1", start);
+        assertEquals(new File(root, "recordings/cam1/20240315/recording_cam1_20240315_083005.mp4"), file);
+        assertEquals(start.getTime(), RecordingNames.parseStartTimeMillis(file.getName()));
+    }
+
+    @Test
+    public void recordingFileAvoidsExistingSegments() throws IOException {
+        File root = folder.getRoot();
+        Date start = new Date(millis(2024, 3, 15, 8, 30, 5));
+        File first = RecordingNames.recordingFile(root, "cam1", start);
+        assertTrue(first.getParentFile().mkdirs());
+        assertTrue(first.createNewFile());
+        File second = RecordingNames.recordingFile(root, "cam1", start);
+        assertEquals("recording_cam1_20240315_083005-1.mp4", second.getName());
+        assertTrue(second.createNewFile());
+        File third = RecordingNames.recordingFile(root, "cam1", start);
+        assertEquals("recording_cam1_20240315_083005-2.mp4", third.getName());
+        assertEquals(start.getTime(), RecordingNames.parseStartTimeMillis(third.getName()));
+    }
+
+    @Test
+    public void recordingDirLocatesSegmentFromItsName() {
+        File root = folder.getRoot();
+        File file = RecordingNames.recordingFile(root, "cam1", new Date(millis(2024, 3, 15, 23, 59, 59)));
+        long start = RecordingNames.parseStartTimeMillis("recording_cam1_20240315_235959-3.mp4");
+        assertEquals(file.getParentFile(), RecordingNames.recordingDir(root, "cam1", start));
+    }
+
+    @Test
+    public void exportFileGoesToExportsDirectory() {
+        File root = folder.getRoot();
+        File file = RecordingNames.exportFile(root, "cam1", millis(2024, 3, 15, 8, 30, 5));
+        assertEquals(new File(root, "exports/export_cam1_20240315_083005.mp4"), file);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.nvr.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 回放 H.264/H.265 裸流文件（起始码格式）。裸流没有时间信息，按配置的帧率发送；
+// 整个文件在打开时读入内存并切成帧，适合几十秒到几分钟的测试素材
+final class AnnexBSource implements FrameSource {
+
+    private final int codec;
+    private final List<Frame> frames = new ArrayList<>();
+    private final List<byte[]> parameterSets = new ArrayList<>();
+    private int width;
+    private int height;
+
+    AnnexBSource(File file, double frameRate) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<byte[]> nals = split(data);
+        if (nals.isEmpty()) {
+            throw new IOException("No NAL units in " + file);
+        }
+        codec = detectCodec(nals);
+        long frameMicros = Math.round(1000000 / Math.max(1, frameRate));
+
+        List<byte[]> current = new ArrayList<>();
+        boolean currentHasSlice = false;
+        boolean currentKeyframe = false;
+        for (byte[] nal : nals) {
+            int type = NalTypes.type(codec, nal);
+            boolean slice = NalTypes.isSlice(codec, type);
+            // 新帧的开始：已有切片后又遇到参数集/SEI/AUD，或遇到一帧的第一个切片
+            boolean startsFrame = currentHasSlice
+                    && (slice ? NalTypes.isFirstSliceInPicture(codec, nal) : NalTypes.startsAccessUnit(codec, type));
+            if (startsFrame) {
+                frames.add(new Frame(Collections.unmodifiableList(current), currentKeyframe, frameMicros));
+                current = new ArrayList<>();
+                currentHasSlice = false;
+                currentKeyframe = false;
+            }
+            if (NalTypes.isParameterSet(codec, type)) {
+                rememberParameterSet(type, nal);
+            }
+            current.add(nal);
+            if (slice) {
+                currentHasSlice = true;
+                currentKeyframe |= NalTypes.isKeyframe(codec, type);
+            }
+        }
+        if (currentHasSlice) {
+            frames.add(new Frame(Collections.unmodifiableList(current), currentKeyframe, frameMicros));
+        }
+        if (frames.isEmpty() || parameterSets.isEmpty()) {
+            throw new IOException("No decodable frames in " + file);
+        }
+    }
+
+    // 每种参数集只保留第一次出现的，用于 SDP
+    private void rememberParameterSet(int type, byte[] nal) {
+        for (byte[] known : parameterSets) {
+            if (NalTypes.type(codec, known) == type) {
+                return;
+            }
+        }
+        parameterSets.add(nal);
+        if (NalTypes.isSps(codec, type)) {
+            int[] size = NalTypes.parseSpsSize(codec, nal);
+            if (size != null) {
+                width = size[0];
+                height = size[1];
+            }
+        }
+    }
+
+    // 按 3 或 4 字节起始码切分
+    private static List<byte[]> split(byte[] data) {
+        List<byte[]> nals = new ArrayList<>();
+        int start = -1;
+        int i = 0;
+        while (i + 3 <= data.length) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                if (start >= 0) {
+                    int end = i;
+                    // 4字节起始码的前导0不属于上一个 NAL
+                    while (end > start && data[end - 1] == 0) {
+                        end--;
+                    }
+                    addNal(nals, data, start, end);
+                }
+                i += 3;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start >= 0) {
+            addNal(nals, data, start, data.length);
+        }
+        return nals;
+    }
+
+    private static void addNal(List<byte[]> nals, byte[] data, int start, int end) {
+        if (end - start >= 2) {
+            byte[] nal = new byte[end - start];
+            System.arraycopy(data, start, nal, 0, nal.length);
+            nals.add(nal);
+        }
+    }
+
+    // H.265 的 NAL 头为两字节，VPS 类型为32，第一个字节是 0x40
+    private static int detectCodec(List<byte[]> nals) {
+        for (byte[] nal : nals) {
+            int h265Type = (nal[0] >> 1) & 0x3F;
+            int h264Type = nal[0] & 0x1F;
+            if (h265Type == NalTypes.H265_VPS && nal[1] == 1) {
+                return CODEC_H265;
+            }
+            if (h264Type == NalTypes.H264_SPS) {
+                return CODEC_H264;
+            }
+        }
+        return CODEC_H264;
+    }
+
+    @Override
+    public int getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public List<byte[]> getParameterSets() {
+        return parameterSets;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    @Override
+    public Frame frame(int index) {
+        return frames.get(index);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.nvr.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+// 一路模拟摄像头的配置。指定 sourceFile 时回放文件（.h264/.h265 裸流或 MP4），
+// 否则生成合成 H.264 流（H.265 只支持文件回放），分辨率、码率和 GOP 按配置；网络损伤对两种来源都生效
+public class CameraProfile {
+
+    private String name = "cam";
+    private int width = 1920;
+    private int height = 1080;
+    private double frameRate = 25;
+    private int bitrateKbps = 4000;
+    private int gopFrames = 50;
+    private File sourceFile;
+    // 逐包丢弃的概率
+    private double lossRate;
+    // 每帧发送时间随机推迟 0~jitterMillis 毫秒
+    private int jitterMillis;
+    // 平均多久主动断开一次连接，0 表示不断开；实际间隔在 0.5~1.5 倍之间随机
+    private int disconnectSeconds;
+    // 断开后多久内拒绝新连接，模拟摄像头重启
+    private int outageSeconds;
+    private long seed = 1;
+
+    public CameraProfile copy() {
+        CameraProfile copy = new CameraProfile();
+        copy.name = name;
+        copy.width = width;
+        copy.height = height;
+        copy.frameRate = frameRate;
+        copy.bitrateKbps = bitrateKbps;
+        copy.gopFrames = gopFrames;
+        copy.sourceFile = sourceFile;
+        copy.lossRate = lossRate;
+        copy.jitterMillis = jitterMillis;
+        copy.disconnectSeconds = disconnectSeconds;
+        copy.outageSeconds = outageSeconds;
+        copy.seed = seed;
+        return copy;
+    }
+
+    // 打开帧来源；文件只解析一次，由该摄像头的所有会话共享
+    FrameSource openSource() throws IOException {
+        if (sourceFile == null) {
+            return new SyntheticSource(width, height, frameRate, bitrateKbps, gopFrames, seed);
+        }
+        String lower = sourceFile.getName().toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".mp4") || lower.endsWith(".m4v") || lower.endsWith(".mov")) {
+            return new Mp4Source(sourceFile);
+        }
+        return new AnnexBSource(sourceFile, frameRate);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CameraProfile setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public CameraProfile setResolution(int width, int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public CameraProfile setFrameRate(double frameRate) {
+        this.frameRate = frameRate;
+        return this;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public CameraProfile setBitrateKbps(int bitrateKbps) {
+        this.bitrateKbps = bitrateKbps;
+        return this;
+    }
+
+    public int getGopFrames() {
+        return gopFrames;
+    }
+
+    public CameraProfile setGopFrames(int gopFrames) {
+        this.gopFrames = gopFrames;
+        return this;
+    }
+
+    public File getSourceFile() {
+        return sourceFile;
+    }
+
+    public CameraProfile setSourceFile(File sourceFile) {
+        this.sourceFile = sourceFile;
+        return this;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public CameraProfile setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+        return this;
+    }
+
+    public int getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public CameraProfile setJitterMillis(int jitterMillis) {
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    public int getDisconnectSeconds() {
+        return disconnectSeconds;
+    }
+
+    public CameraProfile setDisconnectSeconds(int disconnectSeconds) {
+        this.disconnectSeconds = disconnectSeconds;
+        return this;
+    }
+
+    public int getOutageSeconds() {
+        return outageSeconds;
+    }
+
+    public CameraProfile setOutageSeconds(int outageSeconds) {
+        this.outageSeconds = outageSeconds;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public CameraProfile setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+}
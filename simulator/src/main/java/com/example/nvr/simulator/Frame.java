@@ -0,0 +1,18 @@
+package com.example.nvr.simulator;
+
+import java.util.List;
+
+// 一帧待发送的视频：若干 NAL 单元（不含起始码和长度前缀）
+public final class Frame {
+
+    public final List<byte[]> nals;
+    public final boolean keyframe;
+    // 到下一帧的时长，用于按实时速度发送
+    public final long durationMicros;
+
+    public Frame(List<byte[]> nals, boolean keyframe, long durationMicros) {
+        this.nals = nals;
+        this.keyframe = keyframe;
+        this.durationMicros = durationMicros;
+    }
+}
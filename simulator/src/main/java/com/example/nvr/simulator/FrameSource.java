@@ -0,0 +1,25 @@
+package com.example.nvr.simulator;
+
+import java.io.IOException;
+import java.util.List;
+
+// 帧来源，在同一摄像头的所有会话间共享；frame() 必须线程安全，
+// 每个会话自己维护读取位置，到末尾后从头循环
+public interface FrameSource {
+
+    int CODEC_H264 = 0;
+    int CODEC_H265 = 1;
+
+    int getCodec();
+
+    int getWidth();
+
+    int getHeight();
+
+    // 带外发送的参数集（SDP 中的 sprop-*）
+    List<byte[]> getParameterSets();
+
+    int getFrameCount();
+
+    Frame frame(int index) throws IOException;
+}
@@ -0,0 +1,473 @@
+package com.example.nvr.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// 回放 MP4 的第一路视频，支持普通 MP4（stbl 样本表）和分片 MP4（moof/trun，包括本应用录下的文件）。
+// 打开时只读入样本表，样本数据在发送时按偏移读取；按样本时长定速
+final class Mp4Source implements FrameSource {
+
+    private static final int TRACK_FLAG_BASE_DATA_OFFSET = 0x1;
+    private static final int TRACK_FLAG_SAMPLE_DESCRIPTION = 0x2;
+    private static final int TRACK_FLAG_DEFAULT_DURATION = 0x8;
+    private static final int TRACK_FLAG_DEFAULT_SIZE = 0x10;
+    private static final int TRACK_FLAG_DEFAULT_FLAGS = 0x20;
+    private static final int RUN_FLAG_DATA_OFFSET = 0x1;
+    private static final int RUN_FLAG_FIRST_SAMPLE_FLAGS = 0x4;
+    private static final int RUN_FLAG_DURATION = 0x100;
+    private static final int RUN_FLAG_SIZE = 0x200;
+    private static final int RUN_FLAG_FLAGS = 0x400;
+    private static final int RUN_FLAG_COMPOSITION_OFFSET = 0x800;
+    private static final int SAMPLE_IS_NON_SYNC = 0x10000;
+    private static final long DEFAULT_FRAME_MICROS = 40000;
+
+    private final FileChannel channel;
+    private final List<byte[]> parameterSets = new ArrayList<>();
+    private int codec = -1;
+    private int width;
+    private int height;
+    private int lengthSize = 4;
+    private int trackId;
+    private long timescale = 90000;
+    // 分片文件的默认值（trex）
+    private long trexDuration;
+    private long trexSize;
+    private int trexFlags;
+
+    private long[] offsets = new long[1024];
+    private int[] sizes = new int[1024];
+    private long[] durations = new long[1024];
+    private boolean[] sync = new boolean[1024];
+    private int count;
+
+    Mp4Source(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            long position = 0;
+            long length = channel.size();
+            while (position + 8 <= length) {
+                ByteBuffer header = read(position, 16 <= length - position ? 16 : 8);
+                long size = header.getInt() & 0xFFFFFFFFL;
+                int type = header.getInt();
+                int headerSize = 8;
+                if (size == 1) {
+                    size = header.getLong();
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = length - position;
+                }
+                if (size < headerSize) {
+                    break;
+                }
+                if (type == fourcc("moov")) {
+                    parseMoov(bytes(position + headerSize, size - headerSize));
+                } else if (type == fourcc("moof")) {
+                    parseMoof(bytes(position + headerSize, size - headerSize), position);
+                }
+                position += size;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Invalid MP4 " + file + ": " + e);
+        }
+        if (codec < 0 || count == 0) {
+            channel.close();
+            throw new IOException("No H.264/H.265 video samples in " + file);
+        }
+    }
+
+    @Override
+    public int getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public List<byte[]> getParameterSets() {
+        return parameterSets;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return count;
+    }
+
+    @Override
+    public Frame frame(int index) throws IOException {
+        ByteBuffer sample = read(offsets[index], sizes[index]);
+        List<byte[]> nals = new ArrayList<>();
+        boolean hasParameterSets = false;
+        while (sample.remaining() >= lengthSize) {
+            int nalLength = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                nalLength = (nalLength << 8) | (sample.get() & 0xFF);
+            }
+            if (nalLength <= 0 || nalLength > sample.remaining()) {
+                break;
+            }
+            byte[] nal = new byte[nalLength];
+            sample.get(nal);
+            hasParameterSets |= NalTypes.isParameterSet(codec, NalTypes.type(codec, nal));
+            nals.add(nal);
+        }
+        if (sync[index] && !hasParameterSets) {
+            // MP4 把参数集放在样本描述里，摄像头则在关键帧前带内发送，这里补上
+            nals.addAll(0, parameterSets);
+        }
+        long micros = durations[index] * 1000000 / timescale;
+        return new Frame(Collections.unmodifiableList(nals), sync[index], micros > 0 ? micros : DEFAULT_FRAME_MICROS);
+    }
+
+    // FileChannel 的定位读不改变通道位置，多个会话可以并发调用
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer bytes(long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Box too large");
+        }
+        return read(position, (int) length);
+    }
+
+    private void parseMoov(ByteBuffer moov) throws IOException {
+        ByteBuffer mvex = child(moov, "mvex");
+        for (ByteBuffer trak : children(moov, "trak")) {
+            ByteBuffer mdia = child(trak, "mdia");
+            ByteBuffer hdlr = mdia != null ? child(mdia, "hdlr") : null;
+            if (hdlr == null || hdlr.getInt(hdlr.position() + 8) != fourcc("vide")) {
+                continue;
+            }
+            ByteBuffer tkhd = child(trak, "tkhd");
+            if (tkhd != null) {
+                int version = tkhd.get(tkhd.position()) & 0xFF;
+                trackId = tkhd.getInt(tkhd.position() + (version == 1 ? 20 : 12));
+            }
+            ByteBuffer mdhd = child(mdia, "mdhd");
+            if (mdhd != null) {
+                int version = mdhd.get(mdhd.position()) & 0xFF;
+                timescale = mdhd.getInt(mdhd.position() + (version == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+            }
+            ByteBuffer minf = child(mdia, "minf");
+            ByteBuffer stbl = minf != null ? child(minf, "stbl") : null;
+            if (stbl == null) {
+                continue;
+            }
+            parseSampleDescription(child(stbl, "stsd"));
+            if (codec < 0) {
+                continue;
+            }
+            parseSampleTable(stbl);
+            if (mvex != null) {
+                for (ByteBuffer trex : children(mvex, "trex")) {
+                    if (trex.getInt(trex.position() + 4) == trackId) {
+                        trexDuration = trex.getInt(trex.position() + 12) & 0xFFFFFFFFL;
+                        trexSize = trex.getInt(trex.position() + 16) & 0xFFFFFFFFL;
+                        trexFlags = trex.getInt(trex.position() + 20);
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    private void parseSampleDescription(ByteBuffer stsd) throws IOException {
+        if (stsd == null || stsd.remaining() < 16) {
+            return;
+        }
+        int entryStart = stsd.position() + 8;
+        int entrySize = stsd.getInt(entryStart);
+        int entryType = stsd.getInt(entryStart + 4);
+        boolean h264 = entryType == fourcc("avc1") || entryType == fourcc("avc3");
+        boolean h265 = entryType == fourcc("hvc1") || entryType == fourcc("hev1");
+        if (!h264 && !h265) {
+            return;
+        }
+        width = stsd.getShort(entryStart + 32) & 0xFFFF;
+        height = stsd.getShort(entryStart + 34) & 0xFFFF;
+        // VisualSampleEntry 固定部分之后是 avcC/hvcC 等子 box
+        ByteBuffer entry = slice(stsd, entryStart + 86, entryStart + entrySize);
+        ByteBuffer config = child(entry, h264 ? "avcC" : "hvcC");
+        if (config == null) {
+            throw new IOException("Missing decoder configuration");
+        }
+        codec = h264 ? CODEC_H264 : CODEC_H265;
+        int p = config.position();
+        if (h264) {
+            lengthSize = (config.get(p + 4) & 0x3) + 1;
+            int spsCount = config.get(p + 5) & 0x1F;
+            p += 6;
+            for (int i = 0; i < spsCount; i++) {
+                p = readParameterSet(config, p);
+            }
+            int ppsCount = config.get(p++) & 0xFF;
+            for (int i = 0; i < ppsCount; i++) {
+                p = readParameterSet(config, p);
+            }
+        } else {
+            lengthSize = (config.get(p + 21) & 0x3) + 1;
+            int arrays = config.get(p + 22) & 0xFF;
+            p += 23;
+            for (int i = 0; i < arrays; i++) {
+                int nalCount = config.getShort(p + 1) & 0xFFFF;
+                p += 3;
+                for (int j = 0; j < nalCount; j++) {
+                    p = readParameterSet(config, p);
+                }
+            }
+        }
+    }
+
+    private int readParameterSet(ByteBuffer buffer, int p) {
+        int length = buffer.getShort(p) & 0xFFFF;
+        byte[] nal = new byte[length];
+        for (int i = 0; i < length; i++) {
+            nal[i] = buffer.get(p + 2 + i);
+        }
+        parameterSets.add(nal);
+        return p + 2 + length;
+    }
+
+    // 普通 MP4：由 stts/stss/stsz/stsc/stco 还原每个样本的偏移、大小、时长和关键帧标记
+    private void parseSampleTable(ByteBuffer stbl) {
+        ByteBuffer stsz = child(stbl, "stsz");
+        ByteBuffer stsc = child(stbl, "stsc");
+        ByteBuffer stco = child(stbl, "stco");
+        ByteBuffer co64 = child(stbl, "co64");
+        ByteBuffer stts = child(stbl, "stts");
+        ByteBuffer stss = child(stbl, "stss");
+        if (stsz == null || stsc == null || (stco == null && co64 == null)) {
+            return;
+        }
+        int base = stsz.position();
+        int fixedSize = stsz.getInt(base + 4);
+        int sampleCount = stsz.getInt(base + 8);
+        if (sampleCount == 0) {
+            // 分片文件的 moov 里样本表为空
+            return;
+        }
+        int[] sampleSizes = new int[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            sampleSizes[i] = fixedSize != 0 ? fixedSize : stsz.getInt(base + 12 + 4 * i);
+        }
+        long[] chunkOffsets;
+        if (co64 != null) {
+            chunkOffsets = new long[co64.getInt(co64.position() + 4)];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = co64.getLong(co64.position() + 8 + 8 * i);
+            }
+        } else {
+            chunkOffsets = new long[stco.getInt(stco.position() + 4)];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = stco.getInt(stco.position() + 8 + 4 * i) & 0xFFFFFFFFL;
+            }
+        }
+        boolean[] syncSamples = new boolean[sampleCount];
+        if (stss == null) {
+            Arrays.fill(syncSamples, true);
+        } else {
+            int entries = stss.getInt(stss.position() + 4);
+            for (int i = 0; i < entries; i++) {
+                int sample = stss.getInt(stss.position() + 8 + 4 * i) - 1;
+                if (sample >= 0 && sample < sampleCount) {
+                    syncSamples[sample] = true;
+                }
+            }
+        }
+        long[] sampleDurations = new long[sampleCount];
+        if (stts != null) {
+            int entries = stts.getInt(stts.position() + 4);
+            int sample = 0;
+            for (int i = 0; i < entries && sample < sampleCount; i++) {
+                int runCount = stts.getInt(stts.position() + 8 + 8 * i);
+                long delta = stts.getInt(stts.position() + 12 + 8 * i) & 0xFFFFFFFFL;
+                for (int j = 0; j < runCount && sample < sampleCount; j++) {
+                    sampleDurations[sample++] = delta;
+                }
+            }
+        }
+
+        int stscEntries = stsc.getInt(stsc.position() + 4);
+        int sample = 0;
+        for (int i = 0; i < stscEntries; i++) {
+            int firstChunk = stsc.getInt(stsc.position() + 8 + 12 * i) - 1;
+            int samplesPerChunk = stsc.getInt(stsc.position() + 12 + 12 * i);
+            int lastChunk = i + 1 < stscEntries ? stsc.getInt(stsc.position() + 8 + 12 * (i + 1)) - 1 : chunkOffsets.length;
+            for (int chunk = firstChunk; chunk < lastChunk && chunk < chunkOffsets.length; chunk++) {
+                long offset = chunkOffsets[chunk];
+                for (int j = 0; j < samplesPerChunk && sample < sampleCount; j++) {
+                    addSample(offset, sampleSizes[sample], sampleDurations[sample], syncSamples[sample]);
+                    offset += sampleSizes[sample];
+                    sample++;
+                }
+            }
+        }
+    }
+
+    // 分片：只取视频轨的 traf。没有 base_data_offset 时以 moof 开头为基准（default-base-is-moof）
+    private void parseMoof(ByteBuffer moof, long moofStart) {
+        if (codec < 0) {
+            return;
+        }
+        for (ByteBuffer traf : children(moof, "traf")) {
+            ByteBuffer tfhd = child(traf, "tfhd");
+            if (tfhd == null) {
+                continue;
+            }
+            int p = tfhd.position();
+            int flags = tfhd.getInt(p) & 0xFFFFFF;
+            if (tfhd.getInt(p + 4) != trackId && trackId != 0) {
+                continue;
+            }
+            p += 8;
+            long baseOffset = moofStart;
+            if ((flags & TRACK_FLAG_BASE_DATA_OFFSET) != 0) {
+                baseOffset = tfhd.getLong(p);
+                p += 8;
+            }
+            if ((flags & TRACK_FLAG_SAMPLE_DESCRIPTION) != 0) {
+                p += 4;
+            }
+            long defaultDuration = trexDuration;
+            long defaultSize = trexSize;
+            int defaultFlags = trexFlags;
+            if ((flags & TRACK_FLAG_DEFAULT_DURATION) != 0) {
+                defaultDuration = tfhd.getInt(p) & 0xFFFFFFFFL;
+                p += 4;
+            }
+            if ((flags & TRACK_FLAG_DEFAULT_SIZE) != 0) {
+                defaultSize = tfhd.getInt(p) & 0xFFFFFFFFL;
+                p += 4;
+            }
+            if ((flags & TRACK_FLAG_DEFAULT_FLAGS) != 0) {
+                defaultFlags = tfhd.getInt(p);
+            }
+
+            long dataOffset = baseOffset;
+            for (ByteBuffer trun : children(traf, "trun")) {
+                int q = trun.position();
+                int runFlags = trun.getInt(q) & 0xFFFFFF;
+                int sampleCount = trun.getInt(q + 4);
+                q += 8;
+                if ((runFlags & RUN_FLAG_DATA_OFFSET) != 0) {
+                    dataOffset = baseOffset + trun.getInt(q);
+                    q += 4;
+                }
+                int firstFlags = defaultFlags;
+                boolean hasFirstFlags = (runFlags & RUN_FLAG_FIRST_SAMPLE_FLAGS) != 0;
+                if (hasFirstFlags) {
+                    firstFlags = trun.getInt(q);
+                    q += 4;
+                }
+                for (int i = 0; i < sampleCount; i++) {
+                    long duration = defaultDuration;
+                    long size = defaultSize;
+                    int sampleFlags = i == 0 && hasFirstFlags ? firstFlags : defaultFlags;
+                    if ((runFlags & RUN_FLAG_DURATION) != 0) {
+                        duration = trun.getInt(q) & 0xFFFFFFFFL;
+                        q += 4;
+                    }
+                    if ((runFlags & RUN_FLAG_SIZE) != 0) {
+                        size = trun.getInt(q) & 0xFFFFFFFFL;
+                        q += 4;
+                    }
+                    if ((runFlags & RUN_FLAG_FLAGS) != 0) {
+                        sampleFlags = trun.getInt(q);
+                        q += 4;
+                    }
+                    if ((runFlags & RUN_FLAG_COMPOSITION_OFFSET) != 0) {
+                        q += 4;
+                    }
+                    addSample(dataOffset, (int) size, duration, (sampleFlags & SAMPLE_IS_NON_SYNC) == 0);
+                    dataOffset += size;
+                }
+            }
+        }
+    }
+
+    private void addSample(long offset, int size, long duration, boolean keyframe) {
+        if (count == offsets.length) {
+            int capacity = count * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            sync = Arrays.copyOf(sync, capacity);
+        }
+        if (duration == 0 && count > 0) {
+            // 最后一个样本常没有时长，沿用上一帧
+            duration = durations[count - 1];
+        }
+        offsets[count] = offset;
+        sizes[count] = size;
+        durations[count] = duration;
+        sync[count] = keyframe;
+        count++;
+    }
+
+    private static ByteBuffer child(ByteBuffer parent, String type) {
+        List<ByteBuffer> found = children(parent, type);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    // 返回 parent 内所有指定类型的子 box 内容（不含头）
+    private static List<ByteBuffer> children(ByteBuffer parent, String type) {
+        List<ByteBuffer> result = new ArrayList<>();
+        int wanted = fourcc(type);
+        int p = parent.position();
+        int end = parent.limit();
+        while (p + 8 <= end) {
+            long size = parent.getInt(p) & 0xFFFFFFFFL;
+            int boxType = parent.getInt(p + 4);
+            int header = 8;
+            if (size == 1) {
+                size = parent.getLong(p + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - p;
+            }
+            if (size < header || p + size > end) {
+                break;
+            }
+            if (boxType == wanted) {
+                result.add(slice(parent, p + header, (int) (p + size)));
+            }
+            p += size;
+        }
+        return result;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(Math.max(start, Math.min(end, buffer.limit())));
+        view.position(start);
+        return view;
+    }
+
+    private static int fourcc(String type) {
+        return ByteBuffer.wrap(type.getBytes(StandardCharsets.US_ASCII)).getInt();
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.nvr.simulator;
+
+// 回放文件时需要的 NAL 类型判断和 SPS 尺寸解析
+final class NalTypes {
+
+    static final int H264_IDR = 5;
+    static final int H264_SEI = 6;
+    static final int H264_SPS = 7;
+    static final int H264_PPS = 8;
+    static final int H264_AUD = 9;
+    static final int H265_IRAP_FIRST = 16;
+    static final int H265_IRAP_LAST = 21;
+    static final int H265_VPS = 32;
+    static final int H265_SPS = 33;
+    static final int H265_PPS = 34;
+    static final int H265_AUD = 35;
+    static final int H265_PREFIX_SEI = 39;
+
+    private NalTypes() {
+    }
+
+    static int type(int codec, byte[] nal) {
+        return codec == FrameSource.CODEC_H265 ? (nal[0] >> 1) & 0x3F : nal[0] & 0x1F;
+    }
+
+    static boolean isSlice(int codec, int type) {
+        return codec == FrameSource.CODEC_H265 ? type < 32 : type >= 1 && type <= 5;
+    }
+
+    static boolean isKeyframe(int codec, int type) {
+        return codec == FrameSource.CODEC_H265 ? type >= H265_IRAP_FIRST && type <= H265_IRAP_LAST : type == H264_IDR;
+    }
+
+    static boolean isSps(int codec, int type) {
+        return type == (codec == FrameSource.CODEC_H265 ? H265_SPS : H264_SPS);
+    }
+
+    static boolean isParameterSet(int codec, int type) {
+        if (codec == FrameSource.CODEC_H265) {
+            return type == H265_VPS || type == H265_SPS || type == H265_PPS;
+        }
+        return type == H264_SPS || type == H264_PPS;
+    }
+
+    // 只能出现在一帧开头的非切片 NAL
+    static boolean startsAccessUnit(int codec, int type) {
+        if (codec == FrameSource.CODEC_H265) {
+            return type == H265_VPS || type == H265_SPS || type == H265_PPS || type == H265_AUD || type == H265_PREFIX_SEI;
+        }
+        return type == H264_SEI || type == H264_SPS || type == H264_PPS || type == H264_AUD;
+    }
+
+    // H.264 的 first_mb_in_slice 为0时 ue(v) 编码为单个1位；H.265 直接是 first_slice_segment_in_pic_flag
+    static boolean isFirstSliceInPicture(int codec, byte[] nal) {
+        int headerLength = codec == FrameSource.CODEC_H265 ? 2 : 1;
+        return nal.length > headerLength && (nal[headerLength] & 0x80) != 0;
+    }
+
+    // 返回 {宽, 高}，解析失败返回null
+    static int[] parseSpsSize(int codec, byte[] nal) {
+        try {
+            return codec == FrameSource.CODEC_H265 ? parseH265Size(nal) : parseH264Size(nal);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static int[] parseH264Size(byte[] nal) {
+        BitReader r = new BitReader(nal, 1);
+        int profile = r.bits(8);
+        r.bits(16);                                     // constraint flags, level_idc
+        r.ue();                                         // seq_parameter_set_id
+        int chromaFormat = 1;
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 244 || profile == 44
+                || profile == 83 || profile == 86 || profile == 118 || profile == 128 || profile == 138
+                || profile == 139 || profile == 134 || profile == 135) {
+            chromaFormat = r.ue();
+            if (chromaFormat == 3) {
+                r.bits(1);
+            }
+            r.ue();                                     // bit_depth_luma_minus8
+            r.ue();                                     // bit_depth_chroma_minus8
+            r.bits(1);
+            if (r.bits(1) == 1) {                       // seq_scaling_matrix_present_flag
+                for (int i = 0; i < (chromaFormat == 3 ? 12 : 8); i++) {
+                    if (r.bits(1) == 1) {
+                        skipScalingList(r, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+        r.ue();                                         // log2_max_frame_num_minus4
+        int pocType = r.ue();
+        if (pocType == 0) {
+            r.ue();
+        } else if (pocType == 1) {
+            r.bits(1);
+            r.se();
+            r.se();
+            int cycle = r.ue();
+            for (int i = 0; i < cycle; i++) {
+                r.se();
+            }
+        }
+        r.ue();                                         // max_num_ref_frames
+        r.bits(1);
+        int widthMbs = r.ue() + 1;
+        int heightUnits = r.ue() + 1;
+        int frameMbsOnly = r.bits(1);
+        if (frameMbsOnly == 0) {
+            r.bits(1);
+        }
+        r.bits(1);
+        int width = widthMbs * 16;
+        int height = (2 - frameMbsOnly) * heightUnits * 16;
+        if (r.bits(1) == 1) {                           // frame_cropping_flag
+            int cropUnitX = chromaFormat == 0 || chromaFormat == 3 ? 1 : 2;
+            int cropUnitY = (chromaFormat == 1 ? 2 : 1) * (2 - frameMbsOnly);
+            width -= (r.ue() + r.ue()) * cropUnitX;
+            height -= (r.ue() + r.ue()) * cropUnitY;
+        }
+        return new int[]{width, height};
+    }
+
+    private static void skipScalingList(BitReader r, int size) {
+        int last = 8;
+        int next = 8;
+        for (int j = 0; j < size; j++) {
+            if (next != 0) {
+                next = (last + r.se() + 256) % 256;
+            }
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private static int[] parseH265Size(byte[] nal) {
+        BitReader r = new BitReader(nal, 2);
+        r.bits(4);                                      // sps_video_parameter_set_id
+        int maxSubLayersMinus1 = r.bits(3);
+        r.bits(1);
+        r.skip(96);                                     // general profile_tier_level + level_idc
+        boolean[] profilePresent = new boolean[maxSubLayersMinus1];
+        boolean[] levelPresent = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            profilePresent[i] = r.bits(1) == 1;
+            levelPresent[i] = r.bits(1) == 1;
+        }
+        if (maxSubLayersMinus1 > 0) {
+            r.skip(2 * (8 - maxSubLayersMinus1));
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (profilePresent[i]) {
+                r.skip(88);
+            }
+            if (levelPresent[i]) {
+                r.skip(8);
+            }
+        }
+        r.ue();                                         // sps_seq_parameter_set_id
+        int chromaFormat = r.ue();
+        if (chromaFormat == 3) {
+            r.bits(1);
+        }
+        int width = r.ue();
+        int height = r.ue();
+        if (r.bits(1) == 1) {                           // conformance_window_flag
+            int unitX = chromaFormat == 1 || chromaFormat == 2 ? 2 : 1;
+            int unitY = chromaFormat == 1 ? 2 : 1;
+            width -= (r.ue() + r.ue()) * unitX;
+            height -= (r.ue() + r.ue()) * unitY;
+        }
+        return new int[]{width, height};
+    }
+
+    // 读取时跳过防竞争字节
+    private static final class BitReader {
+        private final byte[] data;
+        private int byteOffset;
+        private int bitOffset;
+        private int zeros;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.byteOffset = offset;
+        }
+
+        int bits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | bit();
+            }
+            return value;
+        }
+
+        void skip(int count) {
+            for (int i = 0; i < count; i++) {
+                bit();
+            }
+        }
+
+        private int bit() {
+            if (bitOffset == 0) {
+                if (zeros >= 2 && data[byteOffset] == 3) {
+                    byteOffset++;
+                    zeros = 0;
+                }
+                zeros = data[byteOffset] == 0 ? zeros + 1 : 0;
+            }
+            int value = (data[byteOffset] >> (7 - bitOffset)) & 1;
+            if (++bitOffset == 8) {
+                bitOffset = 0;
+                byteOffset++;
+            }
+            return value;
+        }
+
+        int ue() {
+            int leadingZeros = 0;
+            while (bit() == 0) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("Invalid exp-Golomb code");
+                }
+            }
+            return (1 << leadingZeros) - 1 + bits(leadingZeros);
+        }
+
+        int se() {
+            int value = ue();
+            return (value & 1) != 0 ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+}
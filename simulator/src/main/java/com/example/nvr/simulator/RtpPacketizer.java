@@ -0,0 +1,79 @@
+package com.example.nvr.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 把一帧拆成 RTP 包：小 NAL 单包发送，大 NAL 用 FU-A（H.264）或 FU（H.265）分片，帧最后一个包带 marker
+final class RtpPacketizer {
+
+    static final int PAYLOAD_TYPE = 96;
+    private static final int MAX_PAYLOAD = 1400;
+    private static final int H264_FU_A = 28;
+    private static final int H265_FU = 49;
+
+    private final int codec;
+    private final int ssrc;
+    private int sequence;
+
+    RtpPacketizer(int codec, int ssrc, int initialSequence) {
+        this.codec = codec;
+        this.ssrc = ssrc;
+        this.sequence = initialSequence & 0xFFFF;
+    }
+
+    List<byte[]> packetize(Frame frame, long timestamp) {
+        List<byte[]> packets = new ArrayList<>();
+        for (int n = 0; n < frame.nals.size(); n++) {
+            byte[] nal = frame.nals.get(n);
+            boolean lastNal = n == frame.nals.size() - 1;
+            if (nal.length <= MAX_PAYLOAD) {
+                byte[] packet = header(timestamp, lastNal, nal.length);
+                System.arraycopy(nal, 0, packet, 12, nal.length);
+                packets.add(packet);
+                continue;
+            }
+            boolean h265 = codec == FrameSource.CODEC_H265;
+            int nalHeaderLength = h265 ? 2 : 1;
+            int fuHeaderLength = h265 ? 3 : 2;
+            int type = NalTypes.type(codec, nal);
+            int offset = nalHeaderLength;
+            while (offset < nal.length) {
+                int chunk = Math.min(MAX_PAYLOAD - fuHeaderLength, nal.length - offset);
+                boolean start = offset == nalHeaderLength;
+                boolean end = offset + chunk == nal.length;
+                byte[] packet = header(timestamp, lastNal && end, fuHeaderLength + chunk);
+                if (h265) {
+                    packet[12] = (byte) ((nal[0] & 0x81) | (H265_FU << 1));
+                    packet[13] = nal[1];
+                    packet[14] = (byte) ((start ? 0x80 : 0) | (end ? 0x40 : 0) | type);
+                } else {
+                    packet[12] = (byte) ((nal[0] & 0xE0) | H264_FU_A);
+                    packet[13] = (byte) ((start ? 0x80 : 0) | (end ? 0x40 : 0) | type);
+                }
+                System.arraycopy(nal, offset, packet, 12 + fuHeaderLength, chunk);
+                packets.add(packet);
+                offset += chunk;
+            }
+        }
+        return packets;
+    }
+
+    private byte[] header(long timestamp, boolean marker, int payloadLength) {
+        byte[] packet = new byte[12 + payloadLength];
+        int seq = sequence;
+        sequence = (sequence + 1) & 0xFFFF;
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) ((marker ? 0x80 : 0) | PAYLOAD_TYPE);
+        packet[2] = (byte) (seq >>> 8);
+        packet[3] = (byte) seq;
+        packet[4] = (byte) (timestamp >>> 24);
+        packet[5] = (byte) (timestamp >>> 16);
+        packet[6] = (byte) (timestamp >>> 8);
+        packet[7] = (byte) timestamp;
+        packet[8] = (byte) (ssrc >>> 24);
+        packet[9] = (byte) (ssrc >>> 16);
+        packet[10] = (byte) (ssrc >>> 8);
+        packet[11] = (byte) ssrc;
+        return packet;
+    }
+}
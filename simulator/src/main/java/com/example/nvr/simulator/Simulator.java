@@ -0,0 +1,103 @@
+package com.example.nvr.simulator;
+
+import java.io.File;
+import java.io.IOException;
+
+// 命令行入口：在本机启动 N 路模拟摄像头，打印可填入 CameraDevice 的 RTSP 地址，Ctrl+C 退出。
+// 例：--cameras 16 --port 8554 --bitrate 4000 --gop 50 --loss 0.01 --jitter 20 --disconnect 120 --outage 10
+public final class Simulator {
+
+    private Simulator() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int cameras = 1;
+        int port = 8554;
+        CameraProfile profile = new CameraProfile();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    usage();
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--cameras":
+                        cameras = Integer.parseInt(value);
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--file":
+                        profile.setSourceFile(new File(value));
+                        break;
+                    case "--size": {
+                        String[] size = value.toLowerCase().split("x");
+                        profile.setResolution(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                        break;
+                    }
+                    case "--fps":
+                        profile.setFrameRate(Double.parseDouble(value));
+                        break;
+                    case "--bitrate":
+                        profile.setBitrateKbps(Integer.parseInt(value));
+                        break;
+                    case "--gop":
+                        profile.setGopFrames(Integer.parseInt(value));
+                        break;
+                    case "--loss":
+                        profile.setLossRate(Double.parseDouble(value));
+                        break;
+                    case "--jitter":
+                        profile.setJitterMillis(Integer.parseInt(value));
+                        break;
+                    case "--disconnect":
+                        profile.setDisconnectSeconds(Integer.parseInt(value));
+                        break;
+                    case "--outage":
+                        profile.setOutageSeconds(Integer.parseInt(value));
+                        break;
+                    case "--seed":
+                        profile.setSeed(Long.parseLong(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+            return;
+        }
+
+        SimulatorServer server = new SimulatorServer(port);
+        for (int i = 0; i < cameras; i++) {
+            // 每路用不同的随机种子，避免所有摄像头同时丢包、同时断线
+            server.addCamera(profile.copy().setName("Simulated camera " + (i + 1)).setSeed(profile.getSeed() + i));
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        for (int i = 0; i < cameras; i++) {
+            System.out.println(server.getUrl(i));
+        }
+        while (true) {
+            Thread.sleep(60000);
+            System.out.println(server.getSessionCount() + " active sessions");
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: simulator [--cameras N] [--port 8554] [--file stream.h264|stream.h265|clip.mp4]\n"
+                + "                 [--size 1920x1080] [--fps 25] [--bitrate 4000] [--gop 50]\n"
+                + "                 [--loss 0.0] [--jitter 0] [--disconnect 0] [--outage 0] [--seed 1]\n"
+                + "  --size/--bitrate/--gop only apply to the synthetic H.264 stream (no --file).\n"
+                + "  --loss is a per-packet drop probability, --jitter is in ms,\n"
+                + "  --disconnect is the mean seconds between forced disconnects,\n"
+                + "  --outage is how long the camera refuses sessions after a disconnect.");
+    }
+}
@@ -0,0 +1,560 @@
+package com.example.nvr.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 进程内 RTSP 服务器，每路模拟摄像头的地址为 rtsp://host:port/cam{序号}，序号从1开始。
+// 每个会话独立从头按实时速度发送，支持 TCP 交织和 UDP 单播；丢包、抖动和断线按摄像头配置注入
+public class SimulatorServer {
+
+    private static final Logger LOG = Logger.getLogger("SimulatorServer");
+    private static final String PATH_PREFIX = "/cam";
+    private static final String TRACK_CONTROL = "trackID=0";
+    private static final int SESSION_TIMEOUT_SECONDS = 60;
+    private static final int CLOCK_RATE = 90000;
+
+    private static final class Camera {
+        final CameraProfile profile;
+        final FrameSource source;
+        final String path;
+        // 模拟摄像头重启：到这个时间之前拒绝新会话
+        volatile long outageUntil;
+
+        Camera(CameraProfile profile, FrameSource source, String path) {
+            this.profile = profile;
+            this.source = source;
+            this.path = path;
+        }
+    }
+
+    private final int requestedPort;
+    private final List<Camera> cameras = new CopyOnWriteArrayList<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Random random = new Random();
+
+    private volatile ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    // port 为0时由系统分配，启动后用 getPort() 取得
+    public SimulatorServer(int port) {
+        this.requestedPort = port;
+    }
+
+    // 返回该摄像头的路径，如 /cam1
+    public String addCamera(CameraProfile profile) throws IOException {
+        FrameSource source = profile.openSource();
+        synchronized (cameras) {
+            String path = PATH_PREFIX + (cameras.size() + 1);
+            cameras.add(new Camera(profile.copy(), source, path));
+            return path;
+        }
+    }
+
+    public int getCameraCount() {
+        return cameras.size();
+    }
+
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : requestedPort;
+    }
+
+    // index 从0开始；可直接作为 CameraDevice 的 RTSP 地址
+    public String getUrl(int index) {
+        return "rtsp://127.0.0.1:" + getPort() + cameras.get(index).path;
+    }
+
+    public int getSessionCount() {
+        return connections.size();
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(requestedPort));
+        serverSocket = socket;
+        acceptThread = new Thread(this::acceptLoop, "sim-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        LOG.info("Simulator listening on port " + socket.getLocalPort() + " with " + cameras.size() + " cameras");
+    }
+
+    public synchronized void stop() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        acceptThread = null;
+    }
+
+    private void acceptLoop() {
+        ServerSocket socket;
+        while ((socket = serverSocket) != null) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                if (serverSocket != null) {
+                    LOG.warning("Accept failed: " + e.getMessage());
+                }
+                continue;
+            }
+            Connection connection = new Connection(client);
+            connections.add(connection);
+            Thread thread = new Thread(connection, "sim-client-" + client.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private Camera cameraForUrl(String url) {
+        String path;
+        try {
+            path = new URI(url).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (path == null) {
+            return null;
+        }
+        for (Camera camera : cameras) {
+            if (path.equals(camera.path) || path.startsWith(camera.path + "/")) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    private static final class Request {
+        String method;
+        String url;
+        final Map<String, String> headers = new HashMap<>();
+    }
+
+    // 一个客户端连接：本线程处理 RTSP 请求，PLAY 之后另起发送线程
+    private final class Connection implements Runnable, Closeable {
+
+        private final Socket socket;
+        private final String sessionId;
+        private final int ssrc;
+        private DataInputStream input;
+        private OutputStream output;
+        private Camera camera;
+        // TCP 交织的 RTP 通道号；使用 UDP 时为 -1
+        private int channel = -1;
+        private DatagramSocket udpSocket;
+        private InetSocketAddress udpTarget;
+        private Thread sender;
+        private volatile boolean closed;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+            synchronized (random) {
+                this.sessionId = Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+                this.ssrc = random.nextInt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(SESSION_TIMEOUT_SECONDS * 1000);
+                input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+                output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                while (!closed) {
+                    Request request = readRequest();
+                    if (request == null || !handle(request)) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.fine("Client " + socket.getRemoteSocketAddress() + " closed: " + e.getMessage());
+                }
+            } finally {
+                close();
+                if (sender != null) {
+                    sender.interrupt();
+                }
+                connections.remove(this);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if (udpSocket != null) {
+                udpSocket.close();
+            }
+        }
+
+        // 客户端发来的交织数据（RTCP 接收报告）直接跳过；连接关闭时返回null
+        private Request readRequest() throws IOException {
+            String line;
+            while (true) {
+                int first = input.read();
+                if (first < 0) {
+                    return null;
+                }
+                if (first == '$') {
+                    input.readUnsignedByte();
+                    int length = input.readUnsignedShort();
+                    input.skipBytes(length);
+                    continue;
+                }
+                line = (char) first + readLine();
+                if (!line.trim().isEmpty()) {
+                    break;
+                }
+            }
+            String[] parts = line.split(" ");
+            if (parts.length < 3) {
+                throw new IOException("Invalid RTSP request line: " + line);
+            }
+            Request request = new Request();
+            request.method = parts[0].toUpperCase(Locale.ROOT);
+            request.url = parts[1];
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    request.headers.put(header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            header.substring(colon + 1).trim());
+                }
+            }
+            String contentLength = request.headers.get("content-length");
+            if (contentLength != null) {
+                try {
+                    input.skipBytes(Integer.parseInt(contentLength.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length");
+                }
+            }
+            return request;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = input.read()) >= 0) {
+                if (c == '\n') {
+                    int length = sb.length();
+                    if (length > 0 && sb.charAt(length - 1) == '\r') {
+                        sb.setLength(length - 1);
+                    }
+                    return sb.toString();
+                }
+                if (sb.length() > 8192) {
+                    throw new IOException("RTSP header line too long");
+                }
+                sb.append((char) c);
+            }
+            throw new IOException("Connection closed by client");
+        }
+
+        // 返回false表示处理完后关闭连接
+        private boolean handle(Request request) throws IOException {
+            switch (request.method) {
+                case "OPTIONS":
+                    respond(request, 200, "OK",
+                            "Public: OPTIONS, DESCRIBE, SETUP, PLAY, GET_PARAMETER, SET_PARAMETER, TEARDOWN\r\n", null);
+                    return true;
+                case "DESCRIBE":
+                    return describe(request);
+                case "SETUP":
+                    setup(request);
+                    return true;
+                case "PLAY":
+                    play(request);
+                    return true;
+                case "GET_PARAMETER":
+                case "SET_PARAMETER":
+                    respond(request, 200, "OK", sessionHeader(), null);
+                    return true;
+                case "TEARDOWN":
+                    respond(request, 200, "OK", sessionHeader(), null);
+                    return false;
+                default:
+                    respond(request, 501, "Not Implemented", null, null);
+                    return true;
+            }
+        }
+
+        private boolean describe(Request request) throws IOException {
+            Camera target = cameraForUrl(request.url);
+            if (target == null) {
+                respond(request, 404, "Not Found", null, null);
+                return true;
+            }
+            if (System.currentTimeMillis() < target.outageUntil) {
+                // 重启中的摄像头不应答，直接断开
+                return false;
+            }
+            camera = target;
+            String base = request.url.endsWith("/") ? request.url : request.url + "/";
+            respond(request, 200, "OK", "Content-Base: " + base + "\r\nContent-Type: application/sdp\r\n", buildSdp());
+            return true;
+        }
+
+        private void setup(Request request) throws IOException {
+            if (camera == null) {
+                respond(request, 455, "Method Not Valid in This State", null, null);
+                return;
+            }
+            String transport = request.headers.get("transport");
+            if (transport == null) {
+                respond(request, 461, "Unsupported Transport", null, null);
+                return;
+            }
+            if (transport.toUpperCase(Locale.ROOT).contains("RTP/AVP/TCP")) {
+                int rtpChannel = 0;
+                String interleaved = transportParameter(transport, "interleaved");
+                if (interleaved != null) {
+                    try {
+                        rtpChannel = Integer.parseInt(interleaved.split("-")[0].trim());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                channel = rtpChannel & 0xFF;
+                respond(request, 200, "OK", "Transport: RTP/AVP/TCP;unicast;interleaved=" + channel + "-" + (channel + 1)
+                        + "\r\n" + sessionHeader(), null);
+                return;
+            }
+            String clientPorts = transportParameter(transport, "client_port");
+            int clientPort;
+            try {
+                clientPort = Integer.parseInt(clientPorts.split("-")[0].trim());
+            } catch (RuntimeException e) {
+                respond(request, 461, "Unsupported Transport", null, null);
+                return;
+            }
+            if (udpSocket == null) {
+                udpSocket = new DatagramSocket();
+            }
+            udpTarget = new InetSocketAddress(socket.getInetAddress(), clientPort);
+            int serverPort = udpSocket.getLocalPort();
+            respond(request, 200, "OK", "Transport: RTP/AVP;unicast;client_port=" + clientPort + "-" + (clientPort + 1)
+                    + ";server_port=" + serverPort + "-" + (serverPort + 1) + "\r\n" + sessionHeader(), null);
+        }
+
+        private void play(Request request) throws IOException {
+            if (camera == null || (channel < 0 && udpTarget == null)) {
+                respond(request, 455, "Method Not Valid in This State", null, null);
+                return;
+            }
+            if (sender != null) {
+                respond(request, 200, "OK", sessionHeader() + "Range: npt=0.000-\r\n", null);
+                return;
+            }
+            int initialSequence;
+            long initialTimestamp;
+            synchronized (random) {
+                initialSequence = random.nextInt(0x10000);
+                initialTimestamp = random.nextInt() & 0xFFFFFFFFL;
+            }
+            respond(request, 200, "OK", sessionHeader() + "Range: npt=0.000-\r\n"
+                    + "RTP-Info: url=" + request.url + (request.url.endsWith("/") ? "" : "/") + TRACK_CONTROL
+                    + ";seq=" + initialSequence + ";rtptime=" + initialTimestamp + "\r\n", null);
+            if (channel >= 0) {
+                // 播放期间客户端可能不再发请求
+                socket.setSoTimeout(0);
+            }
+            final Camera target = camera;
+            sender = new Thread(() -> send(target, initialSequence, initialTimestamp), "sim-send-" + socket.getPort());
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        // 按帧时长定速发送；抖动只推迟单帧的发送时间，不累积到后续帧
+        private void send(Camera target, int initialSequence, long initialTimestamp) {
+            CameraProfile profile = target.profile;
+            FrameSource source = target.source;
+            RtpPacketizer packetizer = new RtpPacketizer(source.getCodec(), ssrc, initialSequence);
+            Random impairments = new Random(profile.getSeed() ^ ssrc);
+            long timestamp = initialTimestamp;
+            long nextNanos = System.nanoTime();
+            long disconnectAt = nextDisconnect(profile, impairments);
+            byte[] interleaved = new byte[4 + 65536];
+            int index = 0;
+            try {
+                while (!closed) {
+                    Frame frame = source.frame(index);
+                    index = (index + 1) % source.getFrameCount();
+                    long sendAt = nextNanos;
+                    if (profile.getJitterMillis() > 0) {
+                        sendAt += (long) (impairments.nextDouble() * profile.getJitterMillis() * 1000000L);
+                    }
+                    long wait = sendAt - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                    for (byte[] packet : packetizer.packetize(frame, timestamp & 0xFFFFFFFFL)) {
+                        if (profile.getLossRate() > 0 && impairments.nextDouble() < profile.getLossRate()) {
+                            continue;
+                        }
+                        if (channel >= 0) {
+                            interleaved[0] = '$';
+                            interleaved[1] = (byte) channel;
+                            interleaved[2] = (byte) (packet.length >>> 8);
+                            interleaved[3] = (byte) packet.length;
+                            System.arraycopy(packet, 0, interleaved, 4, packet.length);
+                            synchronized (this) {
+                                output.write(interleaved, 0, 4 + packet.length);
+                            }
+                        } else {
+                            udpSocket.send(new DatagramPacket(packet, packet.length, udpTarget));
+                        }
+                    }
+                    if (channel >= 0) {
+                        synchronized (this) {
+                            output.flush();
+                        }
+                    }
+                    timestamp += frame.durationMicros * CLOCK_RATE / 1000000;
+                    nextNanos += frame.durationMicros * 1000;
+                    if (disconnectAt > 0 && System.currentTimeMillis() >= disconnectAt) {
+                        target.outageUntil = System.currentTimeMillis() + profile.getOutageSeconds() * 1000L;
+                        LOG.info("Simulating disconnect on " + target.path);
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.fine("Send to " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // 连接关闭
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Sender for " + target.path + " failed", e);
+            } finally {
+                close();
+            }
+        }
+
+        private long nextDisconnect(CameraProfile profile, Random impairments) {
+            if (profile.getDisconnectSeconds() <= 0) {
+                return 0;
+            }
+            double factor = 0.5 + impairments.nextDouble();
+            return System.currentTimeMillis() + (long) (profile.getDisconnectSeconds() * 1000L * factor);
+        }
+
+        private String sessionHeader() {
+            return "Session: " + sessionId + ";timeout=" + SESSION_TIMEOUT_SECONDS + "\r\n";
+        }
+
+        private void respond(Request request, int status, String reason, String headers, String body) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("RTSP/1.0 ").append(status).append(' ').append(reason).append("\r\n");
+            String cseq = request.headers.get("cseq");
+            if (cseq != null) {
+                sb.append("CSeq: ").append(cseq).append("\r\n");
+            }
+            sb.append("Server: NVR Simulator\r\n");
+            if (headers != null) {
+                sb.append(headers);
+            }
+            byte[] content = body != null ? body.getBytes(StandardCharsets.UTF_8) : null;
+            if (content != null) {
+                sb.append("Content-Length: ").append(content.length).append("\r\n");
+            }
+            sb.append("\r\n");
+            synchronized (this) {
+                output.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                if (content != null) {
+                    output.write(content);
+                }
+                output.flush();
+            }
+        }
+
+        private String buildSdp() {
+            FrameSource source = camera.source;
+            boolean h265 = source.getCodec() == FrameSource.CODEC_H265;
+            InetAddress local = socket.getLocalAddress();
+            int pt = RtpPacketizer.PAYLOAD_TYPE;
+            StringBuilder sdp = new StringBuilder();
+            sdp.append("v=0\r\n");
+            sdp.append("o=- ").append(sessionId.hashCode() & Integer.MAX_VALUE).append(" 1 IN IP4 ")
+                    .append(local.getHostAddress()).append("\r\n");
+            sdp.append("s=").append(camera.profile.getName()).append("\r\n");
+            sdp.append("c=IN IP4 0.0.0.0\r\n");
+            sdp.append("t=0 0\r\n");
+            sdp.append("a=control:*\r\n");
+            sdp.append("m=video 0 RTP/AVP ").append(pt).append("\r\n");
+            sdp.append("a=rtpmap:").append(pt).append(h265 ? " H265/" : " H264/").append(CLOCK_RATE).append("\r\n");
+            StringBuilder fmtp = new StringBuilder();
+            if (h265) {
+                for (byte[] nal : source.getParameterSets()) {
+                    int type = NalTypes.type(FrameSource.CODEC_H265, nal);
+                    String key = type == NalTypes.H265_VPS ? "sprop-vps" : type == NalTypes.H265_SPS ? "sprop-sps" : "sprop-pps";
+                    fmtp.append(fmtp.length() > 0 ? ";" : "").append(key).append('=')
+                            .append(Base64.getEncoder().encodeToString(nal));
+                }
+            } else {
+                fmtp.append("packetization-mode=1;sprop-parameter-sets=");
+                boolean first = true;
+                for (byte[] nal : source.getParameterSets()) {
+                    fmtp.append(first ? "" : ",").append(Base64.getEncoder().encodeToString(nal));
+                    first = false;
+                }
+            }
+            sdp.append("a=fmtp:").append(pt).append(' ').append(fmtp).append("\r\n");
+            if (source.getWidth() > 0 && source.getHeight() > 0) {
+                sdp.append("a=framesize:").append(pt).append(' ').append(source.getWidth()).append('-')
+                        .append(source.getHeight()).append("\r\n");
+            }
+            sdp.append("a=control:").append(TRACK_CONTROL).append("\r\n");
+            return sdp.toString();
+        }
+    }
+
+    private static String transportParameter(String transport, String name) {
+        for (String part : transport.split(";")) {
+            String value = part.trim();
+            if (value.startsWith(name + "=")) {
+                return value.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+}
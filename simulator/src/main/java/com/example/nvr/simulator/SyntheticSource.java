@@ -0,0 +1,229 @@
+package com.example.nvr.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// 合成 H.264 流：SPS/PPS 合法，分辨率可被接收端解析；切片只有合法的片头，后面是随机填充，
+// 不能解码出画面，但帧大小、GOP 结构和码率与真实摄像头一致，用于压测接入、封装和写入
+final class SyntheticSource implements FrameSource {
+
+    private static final int NAL_SLICE = 1;
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    // 关键帧相对 P 帧的大小
+    private static final int KEYFRAME_WEIGHT = 4;
+    private static final int MIN_FRAME_BYTES = 64;
+    // 切片填充从这块随机数据中按随机偏移拷贝，生成一帧只需几次数组拷贝，不会占用被测进程太多CPU
+    private static final int NOISE_BYTES = 64 * 1024;
+
+    private final int width;
+    private final int height;
+    private final int gopFrames;
+    private final long frameMicros;
+    private final int keyframeBytes;
+    private final int frameBytes;
+    private final long seed;
+    private final byte[] sps;
+    private final byte[] pps;
+    private final byte[] noise = new byte[NOISE_BYTES];
+
+    SyntheticSource(int width, int height, double frameRate, int bitrateKbps, int gopFrames, long seed) {
+        this.width = width & ~1;
+        this.height = height & ~1;
+        this.gopFrames = Math.max(1, gopFrames);
+        this.frameMicros = Math.round(1000000 / Math.max(1, frameRate));
+        // 平均帧大小按码率算，关键帧按权重多分一些，保证整个 GOP 的平均码率不变
+        long averageBytes = bitrateKbps * 1000L / 8 * frameMicros / 1000000;
+        long gopBytes = averageBytes * this.gopFrames;
+        int weight = KEYFRAME_WEIGHT + this.gopFrames - 1;
+        this.frameBytes = (int) Math.max(MIN_FRAME_BYTES, gopBytes / weight);
+        this.keyframeBytes = (int) Math.max(MIN_FRAME_BYTES, gopBytes * KEYFRAME_WEIGHT / weight);
+        this.seed = seed;
+        this.sps = buildSps(this.width, this.height);
+        this.pps = buildPps();
+        Random random = new Random(seed);
+        for (int i = 0; i < noise.length; i++) {
+            // 不出现 0 字节，接收端按起始码重新分帧时不会误切
+            noise[i] = (byte) (1 + random.nextInt(255));
+        }
+    }
+
+    @Override
+    public int getCodec() {
+        return CODEC_H264;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public List<byte[]> getParameterSets() {
+        return Arrays.asList(sps, pps);
+    }
+
+    @Override
+    public int getFrameCount() {
+        // 无限长，会话按 GOP 循环即可
+        return gopFrames * 1000;
+    }
+
+    // 同一个序号总是生成同样的帧，不同会话之间不需要共享状态
+    @Override
+    public Frame frame(int index) {
+        int position = index % gopFrames;
+        boolean keyframe = position == 0;
+        Random random = new Random(seed * 31 + index);
+        int target = keyframe ? keyframeBytes : frameBytes;
+        // ±10% 的大小波动
+        int size = Math.max(MIN_FRAME_BYTES, target + (int) ((random.nextDouble() - 0.5) * 0.2 * target));
+
+        BitWriter header = new BitWriter();
+        header.writeUe(0);                          // first_mb_in_slice
+        header.writeUe(keyframe ? 7 : 5);           // slice_type: I / P
+        header.writeUe(0);                          // pic_parameter_set_id
+        header.writeBits(position & 0xF, 4);        // frame_num
+        if (keyframe) {
+            header.writeUe((index / gopFrames) & 0xFFFF); // idr_pic_id
+        }
+        byte[] sliceHeader = header.toByteArray();
+
+        byte[] nal = new byte[1 + size];
+        nal[0] = (byte) (keyframe ? 0x60 | NAL_IDR : 0x40 | NAL_SLICE);
+        System.arraycopy(sliceHeader, 0, nal, 1, Math.min(sliceHeader.length, size));
+        int fill = 1 + sliceHeader.length;
+        while (fill < nal.length) {
+            int offset = random.nextInt(NOISE_BYTES);
+            int chunk = Math.min(NOISE_BYTES - offset, nal.length - fill);
+            System.arraycopy(noise, offset, nal, fill, chunk);
+            fill += chunk;
+        }
+        List<byte[]> nals = new ArrayList<>(3);
+        if (keyframe) {
+            // 与多数摄像头一样，关键帧前带内重发参数集
+            nals.add(sps);
+            nals.add(pps);
+        }
+        nals.add(nal);
+        return new Frame(Collections.unmodifiableList(nals), keyframe, frameMicros);
+    }
+
+    // Baseline profile，POC type 2，不带 VUI；非16倍数的尺寸用裁剪表示
+    private static byte[] buildSps(int width, int height) {
+        int widthMbs = (width + 15) / 16;
+        int heightMbs = (height + 15) / 16;
+        BitWriter w = new BitWriter();
+        w.writeBits(66, 8);                         // profile_idc
+        w.writeBits(0xC0, 8);                       // constraint_set0/1
+        w.writeBits(40, 8);                         // level_idc 4.0
+        w.writeUe(0);                               // seq_parameter_set_id
+        w.writeUe(0);                               // log2_max_frame_num_minus4
+        w.writeUe(2);                               // pic_order_cnt_type
+        w.writeUe(1);                               // max_num_ref_frames
+        w.writeBits(0, 1);                          // gaps_in_frame_num_value_allowed_flag
+        w.writeUe(widthMbs - 1);
+        w.writeUe(heightMbs - 1);
+        w.writeBits(1, 1);                          // frame_mbs_only_flag
+        w.writeBits(1, 1);                          // direct_8x8_inference_flag
+        int cropRight = (widthMbs * 16 - width) / 2;
+        int cropBottom = (heightMbs * 16 - height) / 2;
+        if (cropRight > 0 || cropBottom > 0) {
+            w.writeBits(1, 1);
+            w.writeUe(0);
+            w.writeUe(cropRight);
+            w.writeUe(0);
+            w.writeUe(cropBottom);
+        } else {
+            w.writeBits(0, 1);
+        }
+        w.writeBits(0, 1);                          // vui_parameters_present_flag
+        w.writeBits(1, 1);                          // rbsp_stop_one_bit
+        return nal(0x60 | NAL_SPS, w.toByteArray());
+    }
+
+    private static byte[] buildPps() {
+        BitWriter w = new BitWriter();
+        w.writeUe(0);                               // pic_parameter_set_id
+        w.writeUe(0);                               // seq_parameter_set_id
+        w.writeBits(0, 1);                          // entropy_coding_mode_flag
+        w.writeBits(0, 1);                          // bottom_field_pic_order_in_frame_present_flag
+        w.writeUe(0);                               // num_slice_groups_minus1
+        w.writeUe(0);                               // num_ref_idx_l0_default_active_minus1
+        w.writeUe(0);                               // num_ref_idx_l1_default_active_minus1
+        w.writeBits(0, 1);                          // weighted_pred_flag
+        w.writeBits(0, 2);                          // weighted_bipred_idc
+        w.writeSe(0);                               // pic_init_qp_minus26
+        w.writeSe(0);                               // pic_init_qs_minus26
+        w.writeSe(0);                               // chroma_qp_index_offset
+        w.writeBits(1, 1);                          // deblocking_filter_control_present_flag
+        w.writeBits(0, 1);                          // constrained_intra_pred_flag
+        w.writeBits(0, 1);                          // redundant_pic_cnt_present_flag
+        w.writeBits(1, 1);                          // rbsp_stop_one_bit
+        return nal(0x60 | NAL_PPS, w.toByteArray());
+    }
+
+    // 加 NAL 头并插入防竞争字节
+    private static byte[] nal(int header, byte[] rbsp) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rbsp.length + 8);
+        out.write(header);
+        int zeros = 0;
+        for (byte b : rbsp) {
+            if (zeros >= 2 && (b & 0xFF) <= 3) {
+                out.write(3);
+                zeros = 0;
+            }
+            out.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return out.toByteArray();
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int bits;
+
+        void writeBits(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >>> i) & 1);
+                if (++bits == 8) {
+                    out.write(current);
+                    current = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        void writeUe(int value) {
+            int coded = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(coded);
+            writeBits(0, length - 1);
+            writeBits(coded, length);
+        }
+
+        void writeSe(int value) {
+            writeUe(value <= 0 ? -2 * value : 2 * value - 1);
+        }
+
+        // 未满的最后一个字节补0
+        byte[] toByteArray() {
+            if (bits > 0) {
+                out.write(current << (8 - bits));
+                current = 0;
+                bits = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+}